@@ -0,0 +1,86 @@
+/*
+ * BenchmarkData.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr;
+
+import dr.evolution.alignment.Alignment;
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.io.Importer;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.TaxonList;
+import dr.evolution.util.Units;
+import dr.math.MathUtils;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * The data sets used by the benchmarks. These are read from the examples so the
+ * benchmarks should be run from the root of the project (as the Ant target does).
+ */
+public class BenchmarkData {
+
+    public static final String DATA_DIRECTORY = "examples/release/Data/";
+
+    /**
+     * The seed used for everything random in the benchmarks so that each run
+     * measures the same calculations.
+     */
+    public static final long SEED = 666;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @param fileName the name of a NEXUS file in the examples' data directory
+     * @return the alignment
+     */
+    public static Alignment readAlignment(String fileName) throws IOException, Importer.ImportException {
+        Reader reader = new FileReader(DATA_DIRECTORY + fileName);
+        try {
+            return new NexusImporter(reader).importAlignment();
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Simulates a tree for some taxa under a constant size coalescent (with the seed reset
+     * so the same tree is returned each time).
+     *
+     * @param taxa           the taxa
+     * @param populationSize the population size (which scales the tree's height)
+     * @return the tree
+     */
+    public static Tree simulateTree(TaxonList taxa, double populationSize) {
+        MathUtils.setSeed(SEED);
+        ConstantPopulation demographic = new ConstantPopulation(Units.Type.SUBSTITUTIONS);
+        demographic.setN0(populationSize);
+        return new CoalescentSimulator().simulateTree(taxa, demographic);
+    }
+}
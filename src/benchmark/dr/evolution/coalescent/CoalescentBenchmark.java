@@ -0,0 +1,91 @@
+/*
+ * CoalescentBenchmark.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evolution.coalescent;
+
+import benchmark.dr.BenchmarkData;
+import dr.evolution.alignment.Alignment;
+import dr.evolution.coalescent.Coalescent;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.coalescent.DemographicFunction;
+import dr.evolution.coalescent.ExponentialGrowth;
+import dr.evolution.coalescent.TreeIntervals;
+import dr.evolution.util.Units;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times Coalescent.calculateLogLikelihood on a tree simulated for the taxa of one of
+ * the example data sets, both with the intervals known and with them recalculated
+ * from the tree first (as after a tree move).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoalescentBenchmark {
+
+    @Param({"Dengue4.env.nex", "Shankarappa.Patient9.nex"})
+    public String dataSet;
+
+    @Param({"constant", "exponential"})
+    public String demographic;
+
+    @Setup
+    public void setUp() throws Exception {
+        Alignment alignment = BenchmarkData.readAlignment(dataSet);
+        intervals = new TreeIntervals(BenchmarkData.simulateTree(alignment, 0.02));
+
+        DemographicFunction demographicFunction;
+        if (demographic.equals("constant")) {
+            ConstantPopulation constant = new ConstantPopulation(Units.Type.SUBSTITUTIONS);
+            constant.setN0(0.02);
+            demographicFunction = constant;
+        } else {
+            ExponentialGrowth exponential = new ExponentialGrowth(Units.Type.SUBSTITUTIONS);
+            exponential.setN0(0.02);
+            exponential.setGrowthRate(10.0);
+            demographicFunction = exponential;
+        }
+        coalescent = new Coalescent(intervals, demographicFunction);
+    }
+
+    @Benchmark
+    public double calculateLogLikelihood() {
+        return coalescent.calculateLogLikelihood();
+    }
+
+    @Benchmark
+    public double calculateLogLikelihoodAndIntervals() {
+        intervals.setIntervalsUnknown();
+        return coalescent.calculateLogLikelihood();
+    }
+
+    private TreeIntervals intervals;
+    private Coalescent coalescent;
+}
@@ -0,0 +1,132 @@
+/*
+ * TreeIOBenchmark.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evolution.io;
+
+import benchmark.dr.BenchmarkData;
+import dr.evolution.alignment.Alignment;
+import dr.evolution.coalescent.CoalescentSimulator;
+import dr.evolution.coalescent.ConstantPopulation;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times reading trees with NexusImporter.importNextTree (from a trees block with a
+ * translate table, as written by BEAST's tree logger) and writing them with
+ * Tree.Utils.newick. The trees are simulated for the taxa of one of the example
+ * data sets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TreeIOBenchmark {
+
+    private static final int TREE_COUNT = 100;
+
+    @Param({"Dengue4.env.nex", "Shankarappa.Patient9.nex"})
+    public String dataSet;
+
+    @Setup
+    public void setUp() throws Exception {
+        Alignment alignment = BenchmarkData.readAlignment(dataSet);
+
+        MathUtils.setSeed(BenchmarkData.SEED);
+        ConstantPopulation demographic = new ConstantPopulation(Units.Type.SUBSTITUTIONS);
+        demographic.setN0(0.02);
+        CoalescentSimulator simulator = new CoalescentSimulator();
+        trees = new Tree[TREE_COUNT];
+        for (int i = 0; i < TREE_COUNT; i++) {
+            trees[i] = simulator.simulateTree(alignment, demographic);
+        }
+
+        StringBuilder builder = new StringBuilder("#NEXUS\n\nBegin trees;\n\tTranslate\n");
+        for (int i = 0; i < alignment.getTaxonCount(); i++) {
+            builder.append("\t\t").append(i + 1).append(" '").append(alignment.getTaxonId(i)).append("'");
+            builder.append(i < alignment.getTaxonCount() - 1 ? ",\n" : "\n");
+        }
+        builder.append(";\n");
+        for (int i = 0; i < TREE_COUNT; i++) {
+            builder.append("tree STATE_").append(i * 1000).append(" = [&R] ");
+            writeTree(trees[i], trees[i].getRoot(), alignment, builder);
+            builder.append(";\n");
+        }
+        builder.append("End;\n");
+        nexus = builder.toString();
+        next = 0;
+    }
+
+    private static void writeTree(Tree tree, NodeRef node, Alignment alignment, StringBuilder builder) {
+        if (tree.isExternal(node)) {
+            builder.append(alignment.getTaxonIndex(tree.getNodeTaxon(node)) + 1);
+        } else {
+            builder.append("(");
+            for (int i = 0; i < tree.getChildCount(node); i++) {
+                if (i > 0) {
+                    builder.append(",");
+                }
+                writeTree(tree, tree.getChild(node, i), alignment, builder);
+            }
+            builder.append(")");
+        }
+        if (!tree.isRoot(node)) {
+            builder.append(":").append(tree.getBranchLength(node));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TREE_COUNT)
+    public int importNextTree() throws Exception {
+        NexusImporter importer = new NexusImporter(new StringReader(nexus));
+        int count = 0;
+        while (importer.importNextTree() != null) {
+            count++;
+        }
+        if (count != TREE_COUNT) {
+            throw new IllegalStateException("Expected " + TREE_COUNT + " trees but read " + count);
+        }
+        return count;
+    }
+
+    @Benchmark
+    public String newick() {
+        String newick = Tree.Utils.newick(trees[next]);
+        next = (next + 1) % TREE_COUNT;
+        return newick;
+    }
+
+    private Tree[] trees;
+    private String nexus;
+    private int next;
+}
@@ -0,0 +1,103 @@
+/*
+ * TransitionProbabilityBenchmark.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evomodel.substmodel;
+
+import benchmark.dr.BenchmarkData;
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.substmodel.AbstractSubstitutionModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.substmodel.YangCodonModel;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times AbstractSubstitutionModel.getTransitionProbabilities for a nucleotide and a codon
+ * model, with and without the cache of transition probability matrices. The distances
+ * are a fixed set (as on a tree) so the cached case measures the lookups.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransitionProbabilityBenchmark {
+
+    // about the number of branches in a tree of 32 taxa (and fewer than the codon model caches)
+    private static final int DISTANCE_COUNT = 64;
+
+    @Param({"HKY", "GY94"})
+    public String model;
+
+    @Param({"false", "true"})
+    public boolean cached;
+
+    @Setup
+    public void setUp() {
+        if (model.equals("HKY")) {
+            substitutionModel = new HKY(2.0,
+                    new FrequencyModel(Nucleotides.INSTANCE, new double[]{0.1, 0.2, 0.3, 0.4}));
+        } else {
+            final int stateCount = Codons.UNIVERSAL.getStateCount();
+            double[] frequencies = new double[stateCount];
+            for (int i = 0; i < stateCount; i++) {
+                frequencies[i] = (i + 1.0) / (stateCount * (stateCount + 1) / 2.0);
+            }
+            substitutionModel = new YangCodonModel(Codons.UNIVERSAL, new Parameter.Default(0.2),
+                    new Parameter.Default(2.0), new FrequencyModel(Codons.UNIVERSAL, frequencies));
+        }
+        if (!cached) {
+            substitutionModel.setTransitionMatrixCacheSize(0);
+        }
+
+        final int stateCount = substitutionModel.getStateCount();
+        matrix = new double[stateCount * stateCount];
+
+        MathUtils.setSeed(BenchmarkData.SEED);
+        distances = new double[DISTANCE_COUNT];
+        for (int i = 0; i < DISTANCE_COUNT; i++) {
+            distances[i] = MathUtils.nextExponential(10.0);
+        }
+        next = 0;
+    }
+
+    @Benchmark
+    public double[] getTransitionProbabilities() {
+        substitutionModel.getTransitionProbabilities(distances[next], matrix);
+        next = (next + 1) % DISTANCE_COUNT;
+        return matrix;
+    }
+
+    private AbstractSubstitutionModel substitutionModel;
+    private double[] distances;
+    private double[] matrix;
+    private int next;
+}
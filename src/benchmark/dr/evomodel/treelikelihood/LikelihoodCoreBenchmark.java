@@ -0,0 +1,155 @@
+/*
+ * LikelihoodCoreBenchmark.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.evomodel.treelikelihood;
+
+import benchmark.dr.BenchmarkData;
+import dr.evolution.alignment.Alignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.sitemodel.GammaSiteModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.treelikelihood.GeneralLikelihoodCore;
+import dr.evomodel.treelikelihood.LikelihoodCore;
+import dr.evomodel.treelikelihood.NucleotideLikelihoodCore;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the partials kernels of the Java likelihood cores: a full post-order traversal
+ * of a fixed tree (with the transition matrices already set) followed by the
+ * integration across rate categories and the site log likelihoods at the root.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LikelihoodCoreBenchmark {
+
+    private static final int CATEGORY_COUNT = 4;
+
+    @Param({"Dengue4.env.nex", "Shankarappa.Patient9.nex"})
+    public String dataSet;
+
+    @Param({"nucleotide", "general"})
+    public String core;
+
+    @Setup
+    public void setUp() throws Exception {
+        Alignment alignment = BenchmarkData.readAlignment(dataSet);
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+        Tree tree = BenchmarkData.simulateTree(alignment, 0.02);
+
+        final int stateCount = Nucleotides.INSTANCE.getStateCount();
+        final int patternCount = patterns.getPatternCount();
+
+        likelihoodCore = (core.equals("nucleotide") ?
+                new NucleotideLikelihoodCore() : new GeneralLikelihoodCore(stateCount));
+        likelihoodCore.initialize(tree.getNodeCount(), patternCount, CATEGORY_COUNT, true);
+
+        for (int i = 0; i < tree.getExternalNodeCount(); i++) {
+            NodeRef node = tree.getExternalNode(i);
+            int sequence = patterns.getTaxonIndex(tree.getNodeTaxon(node));
+            int[] states = new int[patternCount];
+            for (int j = 0; j < patternCount; j++) {
+                states[j] = patterns.getPatternState(sequence, j);
+            }
+            likelihoodCore.setNodeStates(node.getNumber(), states);
+        }
+        for (int i = 0; i < tree.getInternalNodeCount(); i++) {
+            likelihoodCore.createNodePartials(tree.getInternalNode(i).getNumber());
+        }
+
+        FrequencyModel frequencyModel = new FrequencyModel(Nucleotides.INSTANCE, patterns.getStateFrequencies());
+        HKY hky = new HKY(2.0, frequencyModel);
+        GammaSiteModel siteModel = new GammaSiteModel(hky, 0.5, CATEGORY_COUNT);
+        double[] matrix = new double[stateCount * stateCount];
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            NodeRef node = tree.getNode(i);
+            if (!tree.isRoot(node)) {
+                likelihoodCore.setNodeMatrixForUpdate(node.getNumber());
+                double branchLength = tree.getBranchLength(node);
+                for (int j = 0; j < CATEGORY_COUNT; j++) {
+                    hky.getTransitionProbabilities(siteModel.getRateForCategory(j) * branchLength, matrix);
+                    likelihoodCore.setNodeMatrix(node.getNumber(), j, matrix);
+                }
+            }
+        }
+
+        List<int[]> order = new ArrayList<int[]>();
+        postOrder(tree, tree.getRoot(), order);
+        traversal = order.toArray(new int[order.size()][]);
+        rootIndex = tree.getRoot().getNumber();
+
+        proportions = siteModel.getCategoryProportions();
+        frequencies = frequencyModel.getFrequencies();
+        rootPartials = new double[patternCount * stateCount];
+        patternLogLikelihoods = new double[patternCount];
+        patternWeights = patterns.getPatternWeights();
+    }
+
+    private static void postOrder(Tree tree, NodeRef node, List<int[]> order) {
+        if (!tree.isExternal(node)) {
+            NodeRef child1 = tree.getChild(node, 0);
+            NodeRef child2 = tree.getChild(node, 1);
+            postOrder(tree, child1, order);
+            postOrder(tree, child2, order);
+            order.add(new int[]{child1.getNumber(), child2.getNumber(), node.getNumber()});
+        }
+    }
+
+    @Benchmark
+    public double calculateLogLikelihood() {
+        for (int[] nodes : traversal) {
+            likelihoodCore.setNodePartialsForUpdate(nodes[2]);
+            likelihoodCore.calculatePartials(nodes[0], nodes[1], nodes[2]);
+        }
+        likelihoodCore.integratePartials(rootIndex, proportions, rootPartials);
+        likelihoodCore.calculateLogLikelihoods(rootPartials, frequencies, patternLogLikelihoods);
+
+        double logL = 0.0;
+        for (int i = 0; i < patternLogLikelihoods.length; i++) {
+            logL += patternLogLikelihoods[i] * patternWeights[i];
+        }
+        return logL;
+    }
+
+    private LikelihoodCore likelihoodCore;
+    private int[][] traversal;
+    private int rootIndex;
+    private double[] proportions;
+    private double[] frequencies;
+    private double[] rootPartials;
+    private double[] patternLogLikelihoods;
+    private double[] patternWeights;
+}
@@ -0,0 +1,85 @@
+/*
+ * MarkovChainBenchmark.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package benchmark.dr.inference.markovchain;
+
+import benchmark.dr.BenchmarkData;
+import dr.app.beast.BeastParser;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.mcmc.MCMC;
+import dr.math.MathUtils;
+import dr.xml.XMLParser;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.FileReader;
+import java.io.Reader;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Times the states of the Markov chain of an example BEAST XML file (the operators,
+ * store/restore and the evaluation of the posterior). The chain is tuned before it
+ * is timed and the tuning is then switched off so that the operator sizes (and so
+ * the acceptance rates) stay the same between runs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MarkovChainBenchmark {
+
+    // each call of runChain starts with a full evaluation so the states are timed in blocks
+    private static final int STATE_COUNT = 1000;
+
+    private static final int TUNING_STATE_COUNT = 20000;
+
+    @Param({"examples/release/Benchmarks/allocation_benchmark.xml"})
+    public String fileName;
+
+    @Setup
+    public void setUp() throws Exception {
+        MathUtils.setSeed(BenchmarkData.SEED);
+
+        XMLParser parser = new BeastParser(new String[]{fileName}, null, false, false, false);
+        Reader reader = new FileReader(fileName);
+        try {
+            markovChain = ((MCMC) parser.parse(reader, MCMC.class)).getMarkovChain();
+        } finally {
+            reader.close();
+        }
+
+        markovChain.runChain(TUNING_STATE_COUNT, false);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(STATE_COUNT)
+    public double step() {
+        markovChain.runChain(STATE_COUNT, true);
+        return markovChain.getCurrentScore();
+    }
+
+    private MarkovChain markovChain;
+}
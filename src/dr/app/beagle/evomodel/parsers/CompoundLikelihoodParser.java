@@ -36,7 +36,8 @@ public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
         }
 
         Logger.getLogger("dr.evomodel").info("Multithreaded Likelihood, using "
-                + compoundLikelihood.getLikelihoodCount() + " threads.");
+                + LikelihoodEvaluationPool.getDefaultPool().getThreadCount() + " threads for "
+                + compoundLikelihood.getLikelihoodCount() + " likelihoods.");
 
         return compoundLikelihood;
     }
@@ -194,7 +194,6 @@ public abstract class BaseSubstitutionModel extends AbstractModel
      * @param matrix   an array to store the matrix
      */
     public void getTransitionProbabilities(double distance, double[] matrix) {
-        double temp;
 
         EigenDecomposition eigen = getEigenDecomposition();
 
@@ -203,13 +202,60 @@ public abstract class BaseSubstitutionModel extends AbstractModel
             return;
         }
 
+        // implemented a pool of iexp matrices to support multiple threads
+        // without creating a new matrix each call. - AJD
+        double[][] iexp = new double[stateCount][stateCount];
+        calculateTransitionProbabilities(eigen, distance, iexp, matrix, 0);
+    }
+
+    /**
+     * get the transition probability matrices for a set of distances from a single
+     * eigen decomposition
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+
+        EigenDecomposition eigen = getEigenDecomposition();
+
+        if (eigen == null) {
+            Arrays.fill(matrices, 0, count * stateCount * stateCount, 0.0);
+            return;
+        }
+
+        double[][] iexp = new double[stateCount][stateCount];
+        for (int n = 0; n < count; n++) {
+            calculateTransitionProbabilities(eigen, distances[n], iexp, matrices, n * stateCount * stateCount);
+        }
+    }
+
+    /**
+     * get the transition probability matrices for a set of distances by calling
+     * getTransitionProbabilities for each in turn
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    protected final void getTransitionProbabilitiesForEach(double[] distances, int count, double[] matrices) {
+        final int matrixSize = stateCount * stateCount;
+        double[] matrix = new double[matrixSize];
+        for (int n = 0; n < count; n++) {
+            getTransitionProbabilities(distances[n], matrix);
+            System.arraycopy(matrix, 0, matrices, n * matrixSize, matrixSize);
+        }
+    }
+
+    private void calculateTransitionProbabilities(EigenDecomposition eigen, double distance,
+                                                  double[][] iexp, double[] matrix, int offset) {
+        double temp;
+
         double[] Evec = eigen.getEigenVectors();
         double[] Ievc = eigen.getInverseEigenVectors();
         double[] Eval = eigen.getEigenValues();
 
-        // implemented a pool of iexp matrices to support multiple threads
-        // without creating a new matrix each call. - AJD
-        double[][] iexp = new double[stateCount][stateCount];
         for (int i = 0; i < stateCount; i++) {
             temp = Math.exp(distance * Eval[i]);
             for (int j = 0; j < stateCount; j++) {
@@ -217,7 +263,7 @@ public abstract class BaseSubstitutionModel extends AbstractModel
             }
         }
 
-        int u = 0;
+        int u = offset;
         for (int i = 0; i < stateCount; i++) {
             for (int j = 0; j < stateCount; j++) {
                 temp = 0.0;
@@ -46,6 +46,15 @@ public interface SubstitutionModel extends Model {
      */
     void getTransitionProbabilities(double distance, double[] matrix);
 
+    /**
+     * Get the complete transition probability matrices for a number of distances.
+     *
+     * @param distances the times (branch lengths)
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    void getTransitionProbabilities(double[] distances, int count, double[] matrices);
+
     /**
      * This function returns the Eigen vectors.
      *
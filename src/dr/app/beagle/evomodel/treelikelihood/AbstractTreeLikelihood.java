@@ -29,6 +29,7 @@ import dr.evolution.alignment.PatternList;
 import dr.evolution.datatype.DataType;
 import dr.evolution.tree.NodeRef;
 import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treelikelihood.TreeTraversalCounts;
 import dr.inference.model.AbstractModelLikelihood;
 import dr.inference.model.Model;
 import dr.inference.model.Parameter;
@@ -43,7 +44,7 @@ import dr.xml.Reportable;
  * @version $Id: AbstractTreeLikelihood.java,v 1.16 2005/06/07 16:27:39 alexei Exp $
  */
 
-public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood implements Reportable {
+public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood implements Reportable, TreeTraversalCounts {
 
     protected static final boolean COUNT_TOTAL_OPERATIONS = false;
 
@@ -205,6 +206,10 @@ public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood imp
         return logLikelihood;
     }
 
+    public boolean isLikelihoodKnown() {
+        return likelihoodKnown;
+    }
+
     /**
      * Forces a complete recalculation of the likelihood next time getLikelihood is called
      */
@@ -218,6 +223,28 @@ public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood imp
 
     protected abstract double calculateLogLikelihood();
 
+    /**
+     * Counts a calculation of the likelihood as a full traversal of the tree (every node
+     * needs updating) or a partial one. Subclasses call this before traversing the tree.
+     */
+    protected final void countTraversal() {
+        for (int i = 0; i < nodeCount; i++) {
+            if (!updateNode[i]) {
+                partialTraversalCount++;
+                return;
+            }
+        }
+        fullTraversalCount++;
+    }
+
+    public int getFullTraversalCount() {
+        return fullTraversalCount;
+    }
+
+    public int getPartialTraversalCount() {
+        return partialTraversalCount;
+    }
+
     public String getReport() {
         if (hasInitialized) {
             String rtnValue =  getClass().getName() + "(" + getLogLikelihood() + ")";
@@ -297,4 +324,7 @@ public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood imp
     protected int totalRateUpdateAllCount = 0;
     protected int totalRateUpdateSingleCount = 0;
 
+    private int fullTraversalCount = 0;
+    private int partialTraversalCount = 0;
+
 }
\ No newline at end of file
@@ -579,6 +579,8 @@ public class BeagleTreeLikelihood extends AbstractTreeLikelihood {
             operationCount[0] = 0;
         }
 
+        countTraversal();
+
         final NodeRef root = treeModel.getRoot();
         traverse(treeModel, root, null, true);
 
@@ -29,16 +29,20 @@ import dr.app.util.Arguments;
 import dr.app.util.Utils;
 import dr.inference.mcmc.MCMC;
 import dr.inference.mcmcmc.MCMCMC;
+import dr.inference.mcmcmc.MCMCMCCoordinator;
 import dr.inference.mcmcmc.MCMCMCOptions;
+import dr.inference.mcmcmc.MCMCMCWorker;
+import dr.math.MathUtils;
 import dr.util.MessageLogHandler;
 import dr.util.Version;
 import dr.xml.XMLParser;
 import jam.console.ConsoleApplication;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.IOException;
+import java.io.*;
+import java.net.ServerSocket;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.logging.*;
 
 public class BeastMC3 {
@@ -81,6 +85,193 @@ public class BeastMC3 {
         options.setChainTemperatures(chainTemperatures);
         options.setSwapChainsEvery(swapChainsEvery);
 
+        Handler messageHandler = setupLogging();
+
+        try {
+            Logger.getLogger("dr.apps.beast").info("Starting cold chain plus hot chains with temperatures: ");
+            for (int i = 1; i < chainTemperatures.length; i++) {
+                Logger.getLogger("dr.apps.beast").info("Hot Chain " + i + ": " + chainTemperatures[i]);
+            }
+
+            chains[0] = parseMCMC(inputFile, consoleApp, verbose, parserWarning, strictXML);
+
+            chainTemperatures[0] = 1.0;
+
+            for (int i = 1; i < chainCount; i++) {
+                messageHandler.setLevel(Level.OFF);
+                chains[i] = parseMCMC(inputFile, consoleApp, verbose, parserWarning, strictXML);
+            }
+            messageHandler.setLevel(Level.ALL);
+
+        } catch (Exception ex) {
+            reportException(ex);
+        }
+
+        MCMCMC mc3 = new MCMCMC(chains, options);
+        Thread thread = new Thread(mc3);
+        thread.start();
+
+    }
+
+    /**
+     * Runs the chains in separate processes. The chains are either started here as
+     * local processes or are expected to connect from other nodes, where they are
+     * started with the -worker option.
+     *
+     * @param port    the port the chains connect to (0 to pick a free port)
+     * @param spawn   start a local process for each chain
+     * @param seed    the seed of the coordinator. Local chain i is given seed + i + 1.
+     */
+    public static void runCoordinator(double[] chainTemperatures, int swapChainsEvery, File inputFile, int port,
+                                      boolean spawn, long seed, boolean verbose, boolean parserWarning,
+                                      boolean strictXML) {
+
+        if (inputFile == null) {
+            System.err.println();
+            System.err.println("Error: no input file specified");
+            return;
+        }
+
+        MCMCMCOptions options = new MCMCMCOptions();
+        options.setChainTemperatures(chainTemperatures);
+        options.setSwapChainsEvery(swapChainsEvery);
+
+        setupLogging();
+
+        List<Process> processes = new ArrayList<Process>();
+        try {
+            Logger.getLogger("dr.apps.beast").info("Starting cold chain plus hot chains with temperatures: ");
+            for (int i = 1; i < chainTemperatures.length; i++) {
+                Logger.getLogger("dr.apps.beast").info("Hot Chain " + i + ": " + chainTemperatures[i]);
+            }
+
+            // the coordinator's copy of the model provides the loggers
+            MCMC mcmc = parseMCMC(inputFile, null, verbose, parserWarning, strictXML);
+
+            ServerSocket serverSocket = new ServerSocket(port);
+            Logger.getLogger("dr.apps.beast").info("Waiting for " + chainTemperatures.length +
+                    " chains to connect on port " + serverSocket.getLocalPort());
+
+            if (spawn) {
+                for (int i = 0; i < chainTemperatures.length; i++) {
+                    processes.add(startWorkerProcess(i, inputFile, serverSocket, seed + i + 1, strictXML));
+                }
+            }
+
+            MCMCMCCoordinator coordinator = new MCMCMCCoordinator(mcmc, options, serverSocket);
+            coordinator.run();
+            serverSocket.close();
+
+            for (Process process : processes) {
+                process.waitFor();
+            }
+
+        } catch (Exception ex) {
+            for (Process process : processes) {
+                process.destroy();
+            }
+            reportException(ex);
+        }
+    }
+
+    /**
+     * Runs a single chain for the coordinator at the given address.
+     */
+    public static boolean runWorker(String address, File inputFile, boolean parserWarning, boolean strictXML) {
+
+        if (inputFile == null) {
+            System.err.println();
+            System.err.println("Error: no input file specified");
+            return false;
+        }
+
+        int colon = address.lastIndexOf(':');
+        if (colon < 0) {
+            System.err.println();
+            System.err.println("Error: the coordinator's address should be given as host:port");
+            return false;
+        }
+        String host = address.substring(0, colon);
+        int port = Integer.parseInt(address.substring(colon + 1));
+
+        Handler messageHandler = setupLogging();
+        messageHandler.setLevel(Level.OFF);
+
+        // the coordinator writes the log files, this chain's copies are never written to
+        System.setProperty("log.allow.overwrite", "true");
+
+        try {
+            MCMC mcmc = parseMCMC(inputFile, null, false, parserWarning, strictXML);
+
+            new MCMCMCWorker(mcmc, host, port).run();
+
+        } catch (Exception ex) {
+            reportException(ex);
+            return false;
+        }
+        return true;
+    }
+
+    private static Process startWorkerProcess(int chainIndex, File inputFile, final ServerSocket serverSocket,
+                                             long seed, boolean strictXML) throws IOException {
+
+        List<String> command = new ArrayList<String>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-Xmx" + (Runtime.getRuntime().maxMemory() / (1024 * 1024)) + "m");
+        if (System.getProperty("java.library.path") != null) {
+            command.add("-Djava.library.path=" + System.getProperty("java.library.path"));
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BeastMC3.class.getName());
+        command.add("-worker");
+        command.add("localhost:" + serverSocket.getLocalPort());
+        command.add("-seed");
+        command.add(Long.toString(seed));
+        if (strictXML) {
+            command.add("-strict");
+        }
+        command.add(inputFile.getAbsolutePath());
+
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.directory(new File(System.getProperty("user.dir")));
+        builder.redirectErrorStream(true);
+
+        final Process process = builder.start();
+        final String prefix = "[chain " + chainIndex + "] ";
+
+        // pass on anything the chain prints, marked with its index
+        Thread output = new Thread() {
+            public void run() {
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        System.err.println(prefix + line);
+                    }
+                } catch (IOException ioe) {
+                    // the process has gone
+                }
+
+                try {
+                    if (process.waitFor() != 0) {
+                        // stop waiting for the chain to connect
+                        serverSocket.close();
+                    }
+                } catch (InterruptedException e) {
+                    // nothing to do
+                } catch (IOException ioe) {
+                    // nothing to do
+                }
+            }
+        };
+        output.setDaemon(true);
+        output.start();
+
+        return process;
+    }
+
+    private static Handler setupLogging() {
         // Add a handler to handle warnings and errors. This is a ConsoleHandler
         // so the messages will go to StdOut..
         Logger logger = Logger.getLogger("dr");
@@ -100,64 +291,51 @@ public class BeastMC3 {
 
         logger.setUseParentHandlers(false);
 
-        try {
-            String fileName = inputFile.getName();
-
-            FileReader fileReader = new FileReader(inputFile);
-
-	        XMLParser parser = new BeastParser(new String[] {fileName}, null, verbose, parserWarning, strictXML);
+        return messageHandler;
+    }
 
-            if (consoleApp != null) {
-                consoleApp.parser = parser;
-            }
+    private static MCMC parseMCMC(File inputFile, BeastConsoleApp consoleApp, boolean verbose, boolean parserWarning,
+                                  boolean strictXML) throws Exception {
+        String fileName = inputFile.getName();
 
-            Logger.getLogger("dr.apps.beast").info("Starting cold chain plus hot chains with temperatures: ");
-            for (int i = 1; i < chainTemperatures.length; i++) {
-                Logger.getLogger("dr.apps.beast").info("Hot Chain " + i + ": " + chainTemperatures[i]);
-            }
+        FileReader fileReader = new FileReader(inputFile);
 
-            Logger.getLogger("dr.apps.beast").info("Parsing XML file: " + fileName);
+        XMLParser parser = new BeastParser(new String[] {fileName}, null, verbose, parserWarning, strictXML);
 
-            chains[0] = (MCMC)parser.parse(fileReader, MCMC.class);
-            if (chains[0] == null) {
-                throw new dr.xml.XMLParseException("BEAST XML file is missing an MCMC element");
-            }
-            fileReader.close();
-
-            chainTemperatures[0] = 1.0;
+        if (consoleApp != null) {
+            consoleApp.parser = parser;
+        }
 
-            for (int i = 1; i < chainCount; i++) {
-                fileReader = new FileReader(inputFile);
+        Logger.getLogger("dr.apps.beast").info("Parsing XML file: " + fileName);
 
-                messageHandler.setLevel(Level.OFF);
-                parser = new BeastParser(new String[] {fileName}, null, verbose, parserWarning, strictXML);
+        MCMC mcmc = (MCMC)parser.parse(fileReader, MCMC.class);
+        if (mcmc == null) {
+            throw new dr.xml.XMLParseException("BEAST XML file is missing an MCMC element");
+        }
+        fileReader.close();
 
-                chains[i] = (MCMC)parser.parse(fileReader, MCMC.class);
-                if (chains[i] == null) {
-                    throw new dr.xml.XMLParseException("BEAST XML file is missing an MCMC element");
-                }
-                fileReader.close();
-            }
-            messageHandler.setLevel(Level.ALL);
+        return mcmc;
+    }
 
-        } catch (IOException ioe) {
+    private static void reportException(Exception ex) {
+        if (ex instanceof IOException) {
             System.err.println();
             System.err.println("File error:");
-            System.err.println(ioe.getMessage());
-        } catch (org.xml.sax.SAXParseException spe) {
+            System.err.println(ex.getMessage());
+        } else if (ex instanceof org.xml.sax.SAXParseException) {
             System.err.println();
-            if (spe.getMessage() != null && spe.getMessage().equals("Content is not allowed in prolog")) {
+            if (ex.getMessage() != null && ex.getMessage().equals("Content is not allowed in prolog")) {
                 System.err.println("Parsing error - the input file is not a valid XML file.");
             } else {
                 System.err.println("Parsing error - poorly formed XML (possibly not an XML file):");
-                System.err.println(spe.getMessage());
+                System.err.println(ex.getMessage());
             }
-        } catch (org.w3c.dom.DOMException dome) {
+        } else if (ex instanceof org.w3c.dom.DOMException) {
             System.err.println();
             System.err.println("Parsing error - poorly formed XML:");
-            System.err.println(dome.getMessage());
-        } catch (dr.xml.XMLParseException pxe) {
-            if (pxe.getMessage() != null && pxe.getMessage().equals("Unknown root document element, beauti")) {
+            System.err.println(ex.getMessage());
+        } else if (ex instanceof dr.xml.XMLParseException) {
+            if (ex.getMessage() != null && ex.getMessage().equals("Unknown root document element, beauti")) {
                 System.err.println();
                 System.err.println("The file you just tried to run in BEAST is actually a BEAUti document.");
                 System.err.println("Although this uses XML, it is not a format that BEAST understands. ");
@@ -170,10 +348,10 @@ public class BeastMC3 {
 
                 System.err.println();
                 System.err.println("Parsing error - poorly formed BEAST file:");
-                System.err.println(pxe.getMessage());
+                System.err.println(ex.getMessage());
             }
-        } catch (RuntimeException rex) {
-            if (rex.getMessage() != null && rex.getMessage().startsWith("The initial model is invalid")) {
+        } else if (ex instanceof RuntimeException) {
+            if (ex.getMessage() != null && ex.getMessage().startsWith("The initial model is invalid")) {
                 System.err.println();
                 System.err.println("The initial model is invalid because state has a zero likelihood.");
                 System.err.println("This may be because the initial, random tree is so large that it");
@@ -188,18 +366,13 @@ public class BeastMC3 {
 
                 System.err.println();
                 System.err.println("Fatal exception (email the authors)");
-                rex.printStackTrace(System.out);
+                ex.printStackTrace(System.out);
             }
-        } catch (Exception ex) {
+        } else {
             System.err.println();
             System.err.println("Fatal exception (email the authors)");
             ex.printStackTrace(System.err);
         }
-
-        MCMCMC mc3 = new MCMCMC(chains, options);
-        Thread thread = new Thread(mc3);
-        thread.start();
-
     }
 
     public static void printTitle() {
@@ -261,10 +434,12 @@ public class BeastMC3 {
 
     public static void printUsage(Arguments arguments) {
 
-        arguments.printUsage("beastmc3", " [-chains <chain-count>] [-delta <temperature-delta>|-temperatures <temperature-list>] [-swap <swap-every>] [-verbose] [-window] [-working] [-help] [<input-file-name>]");
+        arguments.printUsage("beastmc3", " [-chains <chain-count>] [-delta <temperature-delta>|-temperatures <temperature-list>] [-swap <swap-every>] [-processes] [-port <port>] [-worker <host:port>] [-seed <seed>] [-overwrite] [-verbose] [-window] [-working] [-help] [<input-file-name>]");
         System.out.println();
         System.out.println("  Example: beastmc3 -chains 3 -delta 1.0 -swap 100 test.xml");
         System.out.println("  Example: beastmc3 -temperatures 0.2,0.4 -swap 200 -window test.xml");
+        System.out.println("  Example: beastmc3 -chains 4 -processes test.xml");
+        System.out.println("  Example: beastmc3 -chains 4 -port 5000 test.xml (then on each node: beastmc3 -worker host:5000 test.xml)");
         System.out.println();
     }
 
@@ -278,8 +453,13 @@ public class BeastMC3 {
                         new Arguments.RealOption("delta", 0.0, Double.MAX_VALUE, "temperature increment parameter"),
                         new Arguments.RealArrayOption("temperatures", HOT_CHAIN_COUNT, "a comma-separated list of the hot chain temperatures"),
                         new Arguments.IntegerOption("swap", 1, Integer.MAX_VALUE, "frequency at which chains temperatures will be swapped"),
+                        new Arguments.Option("processes", "run each chain in a separate process on this host"),
+                        new Arguments.IntegerOption("port", 0, 65535, "run each chain in a separate process which connects to this port"),
+                        new Arguments.StringOption("worker", "host:port", "run a single chain for the coordinator at host:port"),
+                        new Arguments.LongOption("seed", "Specify a random number generator seed"),
                         new Arguments.Option("verbose", "verbose XML parsing messages"),
                         new Arguments.Option("strict", "Fail on non conforming BEAST XML file"),
+                        new Arguments.Option("overwrite", "Allow overwriting of log files"),
                         new Arguments.Option("window", "provide a console window"),
                         new Arguments.Option("working", "change working directory to input file's directory"),
                         new Arguments.Option("help", "option to print this message")
@@ -302,6 +482,16 @@ public class BeastMC3 {
             System.exit(0);
         }
 
+        long seed = MathUtils.getSeed();
+        if (arguments.hasOption("seed")) {
+            seed = arguments.getLongOption("seed");
+            if (seed <= 0) {
+                System.err.println("The random number seed should be > 0");
+                System.exit(1);
+            }
+            MathUtils.setSeed(seed);
+        }
+
         int chainCount = HOT_CHAIN_COUNT + 1;
         if (arguments.hasOption("chains")) {
             chainCount = arguments.getIntegerOption("chains");
@@ -393,8 +583,25 @@ public class BeastMC3 {
             System.setProperty("user.dir", inputFile.getParent());
         }
 
+        if (arguments.hasOption("overwrite")) {
+            System.setProperty("log.allow.overwrite", "true");
+        }
+
+        if (arguments.hasOption("worker")) {
+            boolean success = runWorker(arguments.getStringOption("worker"), inputFile, parserWarning, strictXML);
+            System.exit(success ? 0 : 1);
+        }
+
         printTitle();
         printHeader();
+
+        if (arguments.hasOption("processes") || arguments.hasOption("port")) {
+            int port = arguments.hasOption("port") ? arguments.getIntegerOption("port") : 0;
+            runCoordinator(chainTemperatures, swapChainsEvery, inputFile, port, arguments.hasOption("processes"),
+                    seed, verbose, parserWarning, strictXML);
+            System.exit(0);
+        }
+
         new BeastMC3(chainTemperatures, swapChainsEvery, inputFile, consoleApp, verbose, parserWarning, strictXML);
     }
 }
@@ -31,8 +31,10 @@ import dr.app.plugin.Plugin;
 import dr.app.plugin.PluginLoader;
 import dr.app.util.Arguments;
 import dr.app.util.Utils;
+import dr.inference.mcmc.MCMCCheckpoint;
 import dr.math.MathUtils;
 import dr.util.ErrorLogHandler;
+import dr.util.FileHelpers;
 import dr.util.MessageLogHandler;
 import dr.util.Version;
 import dr.xml.XMLObjectParser;
@@ -235,6 +237,8 @@ public class BeastMain {
         System.out.println();
         System.out.println("  Example: beast test.xml");
         System.out.println("  Example: beast -window test.xml");
+        System.out.println("  Example: beast -checkpoint 100000 test.xml");
+        System.out.println("  Example: beast -resume test.xml");
         System.out.println("  Example: beast -help");
         System.out.println();
     }
@@ -255,6 +259,8 @@ public class BeastMain {
                         new Arguments.StringOption("prefix", "PREFIX", "Specify a prefix for all output log filenames"),
                         new Arguments.Option("overwrite", "Allow overwriting of log files"),
                         new Arguments.IntegerOption("errors", "Specify maximum number of numerical errors before stopping"),
+                        new Arguments.IntegerOption("checkpoint", "Write a checkpoint of the chain every N states (and when terminated)"),
+                        new Arguments.Option("resume", "Resume the chain from its checkpoint file, appending to the existing logs"),
                         // new Arguments.Option("logops", "hack: log ops to stderr"),
 //                        new Arguments.IntegerOption("otfops", "experimental: on the fly op weigths. recompute frequency" +
 //                                "in number of states."),
@@ -385,6 +391,18 @@ public class BeastMain {
             }
         }
 
+        int checkpointEvery = 0;
+        if (arguments.hasOption("checkpoint")) {
+            checkpointEvery = arguments.getIntegerOption("checkpoint");
+            if (checkpointEvery <= 0) {
+                printTitle();
+                System.err.println("The checkpoint frequency should be > 0");
+                System.exit(1);
+            }
+        }
+
+        final boolean resume = arguments.hasOption("resume");
+
         BeastConsoleApp consoleApp = null;
 
         String nameString = "BEAST " + version.getVersionString();
@@ -510,6 +528,36 @@ public class BeastMain {
             System.setProperty("log.allow.overwrite", "true");
         }
 
+        if (inputFile != null && (checkpointEvery > 0 || resume)) {
+            // the checkpoint is named after the input file
+            String checkpointName = inputFile.getName();
+            if (checkpointName.toLowerCase().endsWith(".xml")) {
+                checkpointName = checkpointName.substring(0, checkpointName.length() - 4);
+            }
+            final File checkpointFile = FileHelpers.getFile(checkpointName + ".checkpoint", System.getProperty("file.name.prefix"));
+            System.setProperty("checkpoint.file", checkpointFile.getAbsolutePath());
+
+            if (checkpointEvery > 0) {
+                System.setProperty("checkpoint.every", Integer.toString(checkpointEvery));
+            }
+
+            if (resume) {
+                if (!checkpointFile.exists()) {
+                    System.err.println("Unable to resume: the checkpoint file, " + checkpointFile.getName() + ", does not exist");
+                    System.exit(1);
+                }
+
+                // the starting state must be constructed with the same seed as the checkpointed run
+                final long checkpointSeed = MCMCCheckpoint.readSeed(checkpointFile);
+                if (arguments.hasOption("seed") && seed != checkpointSeed) {
+                    System.err.println("Ignoring the specified seed: resuming with the seed of the checkpointed run");
+                }
+                seed = checkpointSeed;
+
+                System.setProperty("checkpoint.resume", "true");
+            }
+        }
+
         if (useBeagle) {
             additionalParsers.add("beagle");
         }
@@ -0,0 +1,100 @@
+/*
+ * BinaryLogConverter.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.app.tools;
+
+import dr.app.util.Arguments;
+import dr.inference.loggers.BinaryLogReader;
+import dr.inference.loggers.TabDelimitedFormatter;
+
+import java.io.*;
+
+/**
+ * Converts a log written by BinaryLogFormatter to a tab delimited log that Tracer,
+ * LogAnalyser and LogCombiner can read.
+ */
+public class BinaryLogConverter {
+
+    /**
+     * @param inputFileName  the binary log
+     * @param outputFileName the tab delimited log to write
+     * @throws IOException if the binary log can't be read or the output can't be written
+     */
+    public static void convert(String inputFileName, String outputFileName) throws IOException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(inputFileName), 1 << 16);
+        final PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(outputFileName), 1 << 16));
+        try {
+            new BinaryLogReader(in).copyTo(new TabDelimitedFormatter(out));
+        } finally {
+            in.close();
+            out.close();
+        }
+    }
+
+    public static void printUsage(Arguments arguments) {
+
+        arguments.printUsage("binarylogconverter", "<input-file-name> <output-file-name>");
+        System.out.println();
+        System.out.println("  Example: binarylogconverter test.blog test.log");
+        System.out.println();
+    }
+
+    public static void main(String[] args) {
+
+        Arguments arguments = new Arguments(
+                new Arguments.Option[]{
+                        new Arguments.Option("help", "option to print this message")
+                });
+
+        try {
+            arguments.parseArguments(args);
+        } catch (Arguments.ArgumentException ae) {
+            System.out.println(ae);
+            printUsage(arguments);
+            System.exit(1);
+        }
+
+        if (arguments.hasOption("help")) {
+            printUsage(arguments);
+            System.exit(0);
+        }
+
+        String[] args2 = arguments.getLeftoverArguments();
+
+        if (args2.length != 2) {
+            printUsage(arguments);
+            System.exit(1);
+        }
+
+        try {
+            convert(args2[0], args2[1]);
+        } catch (IOException ioe) {
+            System.err.println("Unable to convert the log: " + ioe.getMessage());
+            System.exit(1);
+        }
+
+        System.exit(0);
+    }
+}
@@ -1,5 +1,6 @@
 package dr.app.tools;
 
+import dr.evolution.tree.CompactTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
 import dr.evomodel.continuous.MultivariateDiffusionModel;
@@ -236,6 +237,11 @@ class DensityMap {
 
 		checkCalibration();
 
+		if (tree instanceof CompactTree) {
+			addTree((CompactTree) tree, attributeName);
+			return;
+		}
+
 		for (int i = 0; i < tree.getNodeCount(); i++) {
 			NodeRef node = tree.getNode(i);
 			if (node != tree.getRoot()) {
@@ -248,6 +254,21 @@ class DensityMap {
 		}
 	}
 
+	/**
+	 * Reads the attribute straight from the tree's column without boxing the values.
+	 */
+	private void addTree(CompactTree tree, String attributeName) {
+		final int root = tree.getRootNumber();
+		for (int i = 0; i < tree.getNodeCount(); i++) {
+			if (i != root) {
+				double value = tree.getNodeAttributeValue(i, attributeName);
+				if (!Double.isNaN(value)) {
+					addBranch(tree.getNodeHeight(i), tree.getNodeHeight(tree.getParentNumber(i)), transform(value));
+				}
+			}
+		}
+	}
+
 	private void checkCalibration() {
 		if (!isCalibrated) {
 			startX = minX;
@@ -28,12 +28,11 @@ package dr.app.tools;
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
-import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
+import dr.evolution.io.MappedTreeImporter;
 import dr.evolution.tree.Tree;
 import dr.util.Version;
 
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.PrintWriter;
 
@@ -85,8 +84,7 @@ public class DensityPlotter {
 
 		boolean firstTree = true;
 		double maxTreeHeight = 0.0;
-		FileReader fileReader = new FileReader(inputFileName);
-		TreeImporter importer = new NexusImporter(fileReader);
+		MappedTreeImporter importer = new MappedTreeImporter(new File(inputFileName));
 		try {
 			while (importer.hasTree()) {
 				Tree tree = importer.importNextTree();
@@ -116,7 +114,7 @@ public class DensityPlotter {
 			System.err.println("Error Parsing Input Tree: " + e.getMessage());
 			return;
 		}
-		fileReader.close();
+		importer.close();
 
 		double startTime = 0.0;
 		double endTime = maxTreeHeight;
@@ -131,8 +129,7 @@ public class DensityPlotter {
 		// If we want a density plot then we have to read the trees
 		// again - the first time was to get the range of values,
 		// this read actually creates the map.
-		fileReader = new FileReader(inputFileName);
-		importer = new NexusImporter(fileReader);
+		importer = new MappedTreeImporter(new File(inputFileName));
 		try {
 			totalTrees = 0;
 			while (importer.hasTree()) {
@@ -156,6 +153,7 @@ public class DensityPlotter {
 			System.err.println("Error Parsing Input Tree: " + e.getMessage());
 			return;
 		}
+		importer.close();
 
 //		PrintWriter printWriter = null;
 		if (trait2AttributeName != null) {
@@ -28,12 +28,15 @@ package dr.app.tools;
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
+import dr.evolution.io.MappedTreeImporter;
 import dr.evolution.io.NexusImporter;
 import dr.evolution.io.TreeImporter;
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
 import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
 import dr.util.Version;
 import jam.console.ConsoleApplication;
 
@@ -43,6 +46,8 @@ import java.text.DecimalFormat;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,15 +68,41 @@ public class LogCombiner {
 
         System.out.println();
 
-        PrintWriter writer = new PrintWriter(new FileOutputStream(outputFileName));
+        // If the numbers don't have to be rescaled or reformatted then the lines of the logs and
+        // the trees can be copied as they are. Each file is then read by its own thread, ahead of
+        // the one being written, and the records are written in order by this one.
+        RecordReader[] readers = new RecordReader[inputFileNames.length];
+        if (!useScale && !convertToDecimal) {
+            for (int i = 0; i < inputFileNames.length; i++) {
+                File inputFile = new File(inputFileNames[i]);
+                if (inputFile.exists() && !inputFile.isDirectory()) {
+                    readers[i] = (treeFiles ? new TreeRecordReader(inputFile) : new LogRecordReader(inputFile));
+                    readers[i].start();
+                }
+            }
+        }
 
-        boolean firstFile = true;
-        boolean firstTree = true;
-        long stateCount = (renumberOutput ? -1 : 0);        
-        int stateStep = -1;
-        int columnCount = 0;
+        try {
+            combineLogs(readers, burnins, resample, inputFileNames, outputFileName, treeFiles, convertToDecimal,
+                    renumberOutput, useScale, scale);
+        } finally {
+            for (RecordReader reader : readers) {
+                if (reader != null) {
+                    reader.cancel();
+                }
+            }
+        }
+    }
+
+    private void combineLogs(RecordReader[] readers, int[] burnins, int resample, String[] inputFileNames,
+                             String outputFileName, boolean treeFiles, boolean convertToDecimal,
+                             boolean renumberOutput, boolean useScale, double scale) throws IOException {
 
-        String[] titles = null;
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFileName), OUTPUT_BUFFER_SIZE);
+        PrintWriter writer = new PrintWriter(out);
+
+        boolean firstFile = true;
+        stateCount = (renumberOutput ? -1 : 0);
 
         System.out.println();
         for (int i = 0; i < inputFileNames.length; i++) {
@@ -108,6 +139,17 @@ public class LogCombiner {
 
             if (treeFiles) {
 
+                try {
+                    if (readers[i] != null &&
+                            copyTrees((TreeRecordReader) readers[i], burnin, resample, renumberOutput, writer, out)) {
+                        firstFile = false;
+                        continue;
+                    }
+                } catch (Importer.ImportException e) {
+                    System.err.println("Error Parsing Input Tree: " + e.getMessage());
+                    return;
+                }
+
                 TreeImporter importer = new NexusImporter(new FileReader(inputFile));
                 try {
                     while (importer.hasTree()) {
@@ -149,6 +191,13 @@ public class LogCombiner {
                     return;
                 }
 
+            } else if (readers[i] != null) {
+
+                if (!copyLog((LogRecordReader) readers[i], inputFileNames[i], firstFile, burnin, resample,
+                        renumberOutput, writer, out)) {
+                    return;
+                }
+
             } else {
                 BufferedReader reader = new BufferedReader(new FileReader(inputFile));
                 //int lineCount = 1;
@@ -162,20 +211,8 @@ public class LogCombiner {
                 }
 
 
-                if (firstFile) {
-                    titles = line.split("\t");
-                    writer.println(line);
-                } else {
-                    String[] newTitles = line.split("\t");
-                    if (newTitles.length != titles.length) {
-                        System.err.println("ERROR: The number of columns in file, " + inputFileNames[i] + ", does not match that of the first file");
-                        return;
-                    }
-                    for (int k = 0; k < newTitles.length; k++) {
-                        if (!newTitles[k].equals(titles[k])) {
-                            System.err.println("WARNING: The column heading, " + newTitles[k] + " in file, " + inputFileNames[i] + ", does not match the first file's heading, " + titles[k]);
-                        }
-                    }
+                if (!checkTitles(line, inputFileNames[i], firstFile, writer)) {
+                    return;
                 }
                 line = reader.readLine();
                 //lineCount++;
@@ -253,6 +290,195 @@ public class LogCombiner {
         writer.close();
     }
 
+    /**
+     * Checks the column headings of a log against those of the first one (or writes them if it is
+     * the first).
+     *
+     * @return false if the number of columns doesn't match
+     */
+    private boolean checkTitles(String line, String fileName, boolean firstFile, PrintWriter writer) {
+        if (firstFile) {
+            titles = line.split("\t");
+            writer.println(line);
+        } else {
+            String[] newTitles = line.split("\t");
+            if (newTitles.length != titles.length) {
+                System.err.println("ERROR: The number of columns in file, " + fileName + ", does not match that of the first file");
+                return false;
+            }
+            for (int k = 0; k < newTitles.length; k++) {
+                if (!newTitles[k].equals(titles[k])) {
+                    System.err.println("WARNING: The column heading, " + newTitles[k] + " in file, " + fileName + ", does not match the first file's heading, " + titles[k]);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the lines of a log, which have been split and checked by its reader, with only their
+     * states changed. The lines are chosen in the same way as when the numbers are reformatted.
+     *
+     * @return false if the log doesn't match the first one
+     */
+    private boolean copyLog(LogRecordReader reader, String fileName, boolean firstFile, int burnin, int resample,
+                            boolean renumberOutput, PrintWriter writer, OutputStream out) throws IOException {
+
+        LogChunk chunk = reader.takeChunk();
+
+        String line = reader.getTitleLine();
+        if (line == null) {
+            System.err.println("ERROR: The file, " + fileName + ", has no column headings");
+            return false;
+        }
+        if (!checkTitles(line, fileName, firstFile, writer)) {
+            return false;
+        }
+        writer.flush();
+
+        while (chunk != null) {
+            for (int k = 0; k < chunk.lineCount; k++) {
+                if (!chunk.hasState[k]) {
+                    continue;
+                }
+
+                final int state = chunk.states[k];
+                if (stateStep < 0 && state > 0) {
+                    stateStep = state;
+                    columnCount = chunk.columnCounts[k];
+                }
+
+                // if the columnCount is not the same then perhaps the line is corrupt so skip it.
+                if (state >= burnin && chunk.columnCounts[k] == columnCount && chunk.isNumeric[k]) {
+                    if (stateStep > 0) {
+                        if (!renumberOutput) {
+                            stateCount += stateStep;
+                        } else {
+                            stateCount += 1;
+                        }
+                    }
+                    if (resample < 0 || stateCount % resample == 0) {
+                        writeNumber(out, stateCount);
+                        out.write(chunk.data, chunk.valuesStarts[k], chunk.valuesEnds[k] - chunk.valuesStarts[k]);
+                        out.write(LINE_SEPARATOR);
+                    }
+                }
+            }
+            chunk = reader.takeChunk();
+        }
+        return true;
+    }
+
+    /**
+     * Copies the trees of a file as they are, with only their states changed. This can only be
+     * done if their tips are labelled with the same numbers as are used for the output.
+     *
+     * @return false if the trees can't be copied
+     */
+    private boolean copyTrees(TreeRecordReader reader, int burnin, int resample, boolean renumberOutput,
+                              PrintWriter writer, OutputStream out) throws IOException, Importer.ImportException {
+
+        TreeChunk chunk = (TreeChunk) reader.take();
+        if (chunk == null) {
+            // no trees
+            return true;
+        }
+
+        Map<String, String> translation = reader.getTranslation();
+        if (!canCopyTrees(translation)) {
+            reader.cancel();
+            return false;
+        }
+
+        if (firstTree) {
+            Taxa taxa = new Taxa();
+            for (int k = 1; k <= translation.size(); k++) {
+                taxa.addTaxon(new Taxon(translation.get(Integer.toString(k))));
+            }
+            startLog(taxa, writer);
+            firstTree = false;
+        }
+        writer.flush();
+
+        while (chunk != null) {
+            for (int k = 0; k < chunk.treeCount; k++) {
+                final int state = chunk.states[k];
+
+                if (stateStep < 0 && state > 0) {
+                    stateStep = state;
+                }
+
+                if (state >= burnin * (stateStep>0?stateStep : 1)) {
+                    if (stateStep > 0) {
+                        if (!renumberOutput) {
+                            stateCount += stateStep;
+                        } else {
+                            stateCount += 1;
+                        }
+                    }
+
+                    if (resample < 0 || stateCount % resample == 0) {
+                        final byte[] statement = chunk.statements[k];
+                        final int nameEnd = chunk.nameEnds[k];
+
+                        out.write(TREE_STATE);
+                        writeNumber(out, stateCount);
+                        out.write(statement, nameEnd, statement.length - nameEnd);
+                        out.write(';');
+                        out.write(LINE_SEPARATOR);
+                    }
+                }
+            }
+            chunk = (TreeChunk) reader.take();
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the translation labels the tips with the numbers used in the output
+     */
+    private boolean canCopyTrees(Map<String, String> translation) {
+        if (translation == null || translation.size() == 0) {
+            return false;
+        }
+
+        if (firstTree) {
+            // the output will use the same numbers if they are 1 to the number of taxa
+            for (int k = 1; k <= translation.size(); k++) {
+                if (!translation.containsKey(Integer.toString(k))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if (translation.size() != taxonMap.size()) {
+            return false;
+        }
+        for (Map.Entry<String, String> entry : translation.entrySet()) {
+            Integer number = taxonMap.get(entry.getValue());
+            if (number == null || !entry.getKey().equals(number.toString())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private final byte[] numberBuffer = new byte[20];
+
+    private void writeNumber(OutputStream out, long number) throws IOException {
+        if (number < 0) {
+            out.write('-');
+            number = -number;
+        }
+        int i = numberBuffer.length;
+        do {
+            numberBuffer[--i] = (byte) ('0' + (number % 10));
+            number /= 10;
+        } while (number > 0);
+        out.write(numberBuffer, i, numberBuffer.length - i);
+    }
+
     private void rescaleTree(Tree tree, double scale) {
         if (tree instanceof MutableTree) {
             MutableTree mutableTree = (MutableTree) tree;
@@ -271,16 +497,16 @@ public class LogCombiner {
 
     private final Map<String, Integer> taxonMap = new HashMap<String, Integer>();
 
-    private void startLog(Tree tree, PrintWriter writer) {
+    private void startLog(TaxonList taxa, PrintWriter writer) {
 
-        int taxonCount = tree.getTaxonCount();
+        int taxonCount = taxa.getTaxonCount();
         writer.println("#NEXUS");
         writer.println("");
         writer.println("Begin taxa;");
         writer.println("\tDimensions ntax=" + taxonCount + ";");
         writer.println("\tTaxlabels");
         for (int i = 0; i < taxonCount; i++) {
-            String id = tree.getTaxon(i).getId();
+            String id = taxa.getTaxon(i).getId();
             if (id.matches(NexusExporter.SPECIAL_CHARACTERS_REGEX)) {
                 id = "'" + id + "'";
             }
@@ -295,7 +521,7 @@ public class LogCombiner {
         writer.println("\tTranslate");
         for (int i = 0; i < taxonCount; i++) {
             int k = i + 1;
-            Taxon taxon = tree.getTaxon(i);
+            Taxon taxon = taxa.getTaxon(i);
             taxonMap.put(taxon.getId(), k);
             String id = taxon.getId();
             if (id.matches(NexusExporter.SPECIAL_CHARACTERS_REGEX)) {
@@ -418,6 +644,514 @@ public class LogCombiner {
         return outLine.toString();
     }
 
+    // **************************************************************
+    // Reading files ahead of the output
+    // **************************************************************
+
+    /**
+     * A thread which reads a file in chunks of records for the output to take in order. Only
+     * a few chunks are read ahead so the memory used doesn't depend on the size of the file.
+     */
+    private static abstract class RecordReader extends Thread {
+
+        RecordReader(File file) {
+            super("logcombiner-" + file.getName());
+            setDaemon(true);
+            this.file = file;
+        }
+
+        public void run() {
+            try {
+                read();
+                queue.put(END_OF_FILE);
+            } catch (InterruptedException ie) {
+                // cancelled
+            } catch (Throwable t) {
+                try {
+                    queue.put(t);
+                } catch (InterruptedException ie) {
+                    // cancelled
+                }
+            }
+        }
+
+        /**
+         * Reads the file, putting chunks of records in the queue.
+         */
+        protected abstract void read() throws Exception;
+
+        /**
+         * @return the next chunk of records, or null at the end of the file
+         */
+        Object take() throws IOException, Importer.ImportException {
+            Object item;
+            try {
+                item = queue.take();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while reading " + file.getName());
+            }
+
+            if (item == END_OF_FILE) {
+                // leave it for any further calls
+                queue.offer(END_OF_FILE);
+                return null;
+            } else if (item instanceof IOException) {
+                throw (IOException) item;
+            } else if (item instanceof Importer.ImportException) {
+                throw (Importer.ImportException) item;
+            } else if (item instanceof RuntimeException) {
+                throw (RuntimeException) item;
+            } else if (item instanceof Error) {
+                throw (Error) item;
+            } else if (item instanceof Throwable) {
+                throw new RuntimeException((Throwable) item);
+            }
+            return item;
+        }
+
+        void cancel() {
+            interrupt();
+        }
+
+        protected final File file;
+        protected final BlockingQueue<Object> queue = new ArrayBlockingQueue<Object>(CHUNKS_AHEAD);
+    }
+
+    /**
+     * The lines of a log which are read into one buffer. The values of each line are the bytes
+     * after the state with the columns separated by single tabs.
+     */
+    private static class LogChunk {
+        LogChunk(byte[] data) {
+            this.data = data;
+        }
+
+        void addLine(boolean hasState, int state, int columnCount, boolean isNumeric, int valuesStart, int valuesEnd) {
+            if (lineCount == states.length) {
+                grow();
+            }
+            this.hasState[lineCount] = hasState;
+            states[lineCount] = state;
+            columnCounts[lineCount] = columnCount;
+            this.isNumeric[lineCount] = isNumeric;
+            valuesStarts[lineCount] = valuesStart;
+            valuesEnds[lineCount] = valuesEnd;
+            lineCount++;
+        }
+
+        private void grow() {
+            final int capacity = lineCount * 2;
+
+            boolean[] newHasState = new boolean[capacity];
+            System.arraycopy(hasState, 0, newHasState, 0, lineCount);
+            hasState = newHasState;
+            int[] newStates = new int[capacity];
+            System.arraycopy(states, 0, newStates, 0, lineCount);
+            states = newStates;
+            int[] newColumnCounts = new int[capacity];
+            System.arraycopy(columnCounts, 0, newColumnCounts, 0, lineCount);
+            columnCounts = newColumnCounts;
+            boolean[] newIsNumeric = new boolean[capacity];
+            System.arraycopy(isNumeric, 0, newIsNumeric, 0, lineCount);
+            isNumeric = newIsNumeric;
+            int[] newValuesStarts = new int[capacity];
+            System.arraycopy(valuesStarts, 0, newValuesStarts, 0, lineCount);
+            valuesStarts = newValuesStarts;
+            int[] newValuesEnds = new int[capacity];
+            System.arraycopy(valuesEnds, 0, newValuesEnds, 0, lineCount);
+            valuesEnds = newValuesEnds;
+        }
+
+        final byte[] data;
+        int lineCount = 0;
+        boolean[] hasState = new boolean[256];
+        int[] states = new int[256];
+        int[] columnCounts = new int[256];
+        boolean[] isNumeric = new boolean[256];
+        int[] valuesStarts = new int[256];
+        int[] valuesEnds = new int[256];
+    }
+
+    /**
+     * Reads the lines of a log, splitting them into columns as String.split("\\s") does and
+     * checking that the values are numbers without converting them (unless they don't look
+     * like plain decimal numbers).
+     */
+    private static class LogRecordReader extends RecordReader {
+
+        LogRecordReader(File file) {
+            super(file);
+        }
+
+        /**
+         * @return the line of column headings (once the first chunk has been taken)
+         */
+        String getTitleLine() {
+            return titleLine;
+        }
+
+        /**
+         * @return the next chunk of lines, or null at the end of the file
+         */
+        LogChunk takeChunk() throws IOException {
+            try {
+                return (LogChunk) take();
+            } catch (Importer.ImportException ie) {
+                // not thrown when reading logs
+                throw new IOException(ie.getMessage());
+            }
+        }
+
+        protected void read() throws Exception {
+            InputStream in = new FileInputStream(file);
+            try {
+                byte[] buffer = new byte[CHUNK_SIZE];
+                int filled = 0;
+                boolean afterCR = false;
+                boolean endOfFile = false;
+
+                while (!endOfFile) {
+                    final int n = in.read(buffer, filled, buffer.length - filled);
+                    int p = 0;
+                    if (n < 0) {
+                        endOfFile = true;
+                    } else {
+                        if (afterCR && filled == 0 && n > 0 && buffer[0] == '\n') {
+                            // the rest of a \r\n which ended the last chunk
+                            p = 1;
+                        }
+                        afterCR = false;
+                        filled += n;
+                    }
+
+                    // the lines end with \n, \r or \r\n as for BufferedReader.readLine()
+                    LogChunk chunk = new LogChunk(buffer);
+                    while (p < filled) {
+                        int end = p;
+                        while (end < filled && buffer[end] != '\n' && buffer[end] != '\r') {
+                            end++;
+                        }
+                        if (end == filled && !endOfFile) {
+                            // an incomplete line
+                            break;
+                        }
+
+                        readLine(chunk, buffer, p, end);
+
+                        p = end + 1;
+                        if (end < filled && buffer[end] == '\r') {
+                            if (end + 1 < filled) {
+                                if (buffer[end + 1] == '\n') {
+                                    p++;
+                                }
+                            } else {
+                                afterCR = true;
+                            }
+                        }
+                    }
+
+                    if (chunk.lineCount > 0) {
+                        queue.put(chunk);
+                    }
+
+                    // move what is left of the buffer into a new one (as the chunk has the old one)
+                    final int remaining = Math.max(filled - p, 0);
+                    byte[] next = new byte[remaining < buffer.length / 2 ? CHUNK_SIZE : buffer.length * 2];
+                    System.arraycopy(buffer, p, next, 0, remaining);
+                    buffer = next;
+                    filled = remaining;
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        private void readLine(LogChunk chunk, byte[] data, int start, int end) {
+            if (titleLine == null) {
+                // lines starting with [ or # before the column headings are comments
+                if (end > start && (data[start] == '[' || data[start] == '#')) {
+                    return;
+                }
+                titleLine = new String(data, start, end - start);
+                return;
+            }
+
+            // the state is the first column
+            int p = start;
+            while (p < end && !isSeparator(data[p])) {
+                p++;
+            }
+            final int stateEnd = p;
+            final long state = parseState(data, start, stateEnd);
+
+            // find the last column which isn't empty (String.split() removes any empty
+            // ones at the end) and check the values
+            int columnCount = (stateEnd > start ? 1 : 0);
+            int valuesEnd = stateEnd;
+            boolean isNumeric = true;
+            boolean hasEmpty = false;
+            int column = 0;
+            while (p < end) {
+                final int valueStart = p + 1;
+                p = valueStart;
+                while (p < end && !isSeparator(data[p])) {
+                    p++;
+                }
+                column++;
+                if (p > valueStart) {
+                    if (hasEmpty || (isNumeric && !isNumber(data, valueStart, p))) {
+                        isNumeric = false;
+                    }
+                    columnCount = column + 1;
+                    valuesEnd = p;
+                    hasEmpty = false;
+                } else {
+                    hasEmpty = true;
+                }
+            }
+
+            // the values are written separated by tabs
+            for (int i = stateEnd; i < valuesEnd; i++) {
+                if (isSeparator(data[i])) {
+                    data[i] = '\t';
+                }
+            }
+
+            final boolean hasState = state != NO_STATE && columnCount > 0;
+            chunk.addLine(hasState, (int) state, columnCount, isNumeric, stateEnd, valuesEnd);
+        }
+
+        /**
+         * @return the state as Integer.parseInt() reads it, or NO_STATE if it isn't one
+         */
+        private static long parseState(byte[] data, int start, int end) {
+            int p = start;
+            boolean negative = false;
+            if (p < end && (data[p] == '-' || data[p] == '+')) {
+                negative = data[p] == '-';
+                p++;
+            }
+            if (p == end || end - p > 10) {
+                return NO_STATE;
+            }
+            long value = 0;
+            for (; p < end; p++) {
+                final byte b = data[p];
+                if (b < '0' || b > '9') {
+                    return NO_STATE;
+                }
+                value = value * 10 + (b - '0');
+            }
+            if (negative) {
+                value = -value;
+            }
+            if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+                return NO_STATE;
+            }
+            return value;
+        }
+
+        /**
+         * @return true if Double.valueOf() would read the value
+         */
+        private static boolean isNumber(byte[] data, int start, int end) {
+            int p = start;
+            if (p < end && (data[p] == '-' || data[p] == '+')) {
+                p++;
+            }
+            final int mantissaStart = p;
+            while (p < end && data[p] >= '0' && data[p] <= '9') {
+                p++;
+            }
+            int digits = p - mantissaStart;
+            if (p < end && data[p] == '.') {
+                p++;
+                final int fractionStart = p;
+                while (p < end && data[p] >= '0' && data[p] <= '9') {
+                    p++;
+                }
+                digits += p - fractionStart;
+            }
+            if (digits > 0 && p < end && (data[p] == 'E' || data[p] == 'e')) {
+                p++;
+                if (p < end && (data[p] == '-' || data[p] == '+')) {
+                    p++;
+                }
+                final int exponentStart = p;
+                while (p < end && data[p] >= '0' && data[p] <= '9') {
+                    p++;
+                }
+                if (p == exponentStart) {
+                    digits = 0;
+                }
+            }
+            if (digits > 0 && p == end) {
+                return true;
+            }
+
+            // something else such as NaN or Infinity
+            try {
+                Double.valueOf(new String(data, start, end - start));
+                return true;
+            } catch (NumberFormatException nfe) {
+                return false;
+            }
+        }
+
+        /**
+         * @return true for the characters that "\\s" matches
+         */
+        private static boolean isSeparator(byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == 0x0B || b == '\f' || b == '\r';
+        }
+
+        private volatile String titleLine = null;
+    }
+
+    /**
+     * The TREE statements of a tree file and their states.
+     */
+    private static class TreeChunk {
+        void addTree(byte[] statement, int nameEnd, int state) {
+            if (treeCount == statements.length) {
+                byte[][] newStatements = new byte[treeCount * 2][];
+                System.arraycopy(statements, 0, newStatements, 0, treeCount);
+                statements = newStatements;
+                int[] newNameEnds = new int[treeCount * 2];
+                System.arraycopy(nameEnds, 0, newNameEnds, 0, treeCount);
+                nameEnds = newNameEnds;
+                int[] newStates = new int[treeCount * 2];
+                System.arraycopy(states, 0, newStates, 0, treeCount);
+                states = newStates;
+            }
+            statements[treeCount] = statement;
+            nameEnds[treeCount] = nameEnd;
+            states[treeCount] = state;
+            treeCount++;
+            byteCount += statement.length;
+        }
+
+        int treeCount = 0;
+        int byteCount = 0;
+        byte[][] statements = new byte[16][];
+        int[] nameEnds = new int[16];
+        int[] states = new int[16];
+    }
+
+    /**
+     * Reads the TREE statements of a tree file without decoding the trees, finding just the
+     * states from their names.
+     */
+    private static class TreeRecordReader extends RecordReader {
+
+        TreeRecordReader(File file) {
+            super(file);
+        }
+
+        /**
+         * @return the labels of the tips and the taxa they stand for (once the first chunk
+         *         has been taken)
+         */
+        Map<String, String> getTranslation() {
+            return translation;
+        }
+
+        protected void read() throws Exception {
+            MappedTreeImporter importer = new MappedTreeImporter(file, 1);
+            try {
+                byte[] statement = importer.importNextTreeStatement();
+                translation = importer.getTranslation();
+
+                TreeChunk chunk = new TreeChunk();
+                while (statement != null) {
+                    readTree(chunk, statement);
+                    if (chunk.byteCount >= CHUNK_SIZE) {
+                        queue.put(chunk);
+                        chunk = new TreeChunk();
+                    }
+                    statement = importer.importNextTreeStatement();
+                }
+                if (chunk.treeCount > 0) {
+                    queue.put(chunk);
+                }
+            } finally {
+                importer.close();
+            }
+        }
+
+        private void readTree(TreeChunk chunk, byte[] statement) throws Importer.ImportException {
+            final int n = statement.length;
+
+            // skip the TREE keyword and any comments to the name
+            int p = 0;
+            while (p < n && !isSpace(statement[p]) && statement[p] != '[') {
+                p++;
+            }
+            while (p < n && (isSpace(statement[p]) || statement[p] == '[' || statement[p] == '*')) {
+                if (statement[p] == '[') {
+                    while (p < n && statement[p] != ']') {
+                        p++;
+                    }
+                }
+                p++;
+            }
+
+            final int nameStart;
+            final int nameEnd;
+            if (p < n && (statement[p] == '\'' || statement[p] == '"')) {
+                final byte quote = statement[p];
+                nameStart = p + 1;
+                p = nameStart;
+                while (p < n && statement[p] != quote) {
+                    p++;
+                }
+                nameEnd = Math.min(p + 1, n);
+                p = nameEnd - 1;
+            } else {
+                nameStart = p;
+                while (p < n && !isSpace(statement[p]) && statement[p] != '=' && statement[p] != '[') {
+                    p++;
+                }
+                nameEnd = p;
+            }
+
+            // split on underscore in STATE_xxxx
+            final String name = new String(statement, nameStart, p - nameStart);
+            final String[] bits = name.split("_");
+            final int state;
+            try {
+                state = Integer.parseInt(bits[1]);
+            } catch (RuntimeException re) {
+                throw new Importer.BadFormatException("Expected a tree name of the form STATE_xxxx but found '" + name + "'");
+            }
+
+            chunk.addTree(statement, nameEnd, state);
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '\f';
+        }
+
+        private volatile Map<String, String> translation = null;
+    }
+
+    private static final Object END_OF_FILE = new Object();
+    private static final long NO_STATE = Long.MIN_VALUE;
+
+    private static final int CHUNK_SIZE = 1 << 18;
+    private static final int CHUNKS_AHEAD = 4;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private static final byte[] TREE_STATE = "tree STATE_".getBytes();
+    private static final byte[] LINE_SEPARATOR = System.getProperty("line.separator").getBytes();
+
+    private long stateCount;
+    private int stateStep = -1;
+    private int columnCount = 0;
+    private String[] titles = null;
+    private boolean firstTree = true;
+
     public static void printTitle() {
         System.out.println();
         centreLine("LogCombiner " + version.getVersionString() + ", " + version.getDateString(), 60);
@@ -28,13 +28,15 @@ package dr.app.tools;
 import dr.app.beast.BeastVersion;
 import dr.app.util.Arguments;
 import dr.evolution.io.Importer;
+import dr.evolution.io.MappedTreeImporter;
 import dr.evolution.io.NewickImporter;
 import dr.evolution.io.NexusImporter;
-import dr.evolution.io.TreeImporter;
+import dr.evolution.tree.FlexibleNode;
 import dr.evolution.tree.FlexibleTree;
 import dr.evolution.tree.MutableTree;
 import dr.evolution.tree.NodeRef;
 import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
 import dr.geo.contouring.ContourMaker;
 import dr.geo.contouring.ContourPath;
@@ -48,11 +50,11 @@ import org.rosuda.JRI.RVector;
 import org.rosuda.JRI.Rengine;
 
 import javax.swing.*;
-import java.io.FileOutputStream;
-import java.io.FileReader;
-import java.io.IOException;
-import java.io.PrintStream;
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
+import java.util.List;
 
 /**
  * @author Alexei Drummond
@@ -66,7 +68,7 @@ public class TreeAnnotator {
 
     private static boolean forceIntegerToDiscrete = false;
 
-    enum Target {
+    public enum Target {
         MAX_CLADE_CREDIBILITY("Maximum clade credibility tree"),
         MAX_SUM_CLADE_CREDIBILITY("Maximum sum of clade credibilities"),
         USER_TARGET_TREE("User target tree");
@@ -82,7 +84,7 @@ public class TreeAnnotator {
         }
     }
 
-    enum HeightsSummary {
+    public enum HeightsSummary {
         MEDIAN_HEIGHTS("Median heights"),
         MEAN_HEIGHTS("Mean heights"),
         KEEP_HEIGHTS("Keep target heights");
@@ -114,6 +116,24 @@ public class TreeAnnotator {
                          String inputFileName,
                          String outputFileName
     ) throws IOException {
+        this(burnin, heightsOption, posteriorLimit, hpd2D, targetOption, targetTreeFileName, inputFileName,
+                outputFileName, false);
+    }
+
+    /**
+     * @param singlePass read the trees only once, keeping the node information in a temporary
+     *                   file rather than in memory (not used with a user target tree)
+     */
+    public TreeAnnotator(final int burnin,
+                         HeightsSummary heightsOption,
+                         double posteriorLimit,
+                         double hpd2D,
+                         Target targetOption,
+                         String targetTreeFileName,
+                         String inputFileName,
+                         String outputFileName,
+                         boolean singlePass
+    ) throws IOException {
 
         this.posteriorLimit = posteriorLimit;
         this.hpd2D = hpd2D;
@@ -121,6 +141,11 @@ public class TreeAnnotator {
         attributeNames.add("height");
         attributeNames.add("length");
 
+        if (singlePass && targetOption != Target.USER_TARGET_TREE) {
+            annotateInSinglePass(burnin, heightsOption, targetOption, inputFileName, outputFileName);
+            return;
+        }
+
         CladeSystem cladeSystem = new CladeSystem();
 
         totalTrees = 10000;
@@ -135,8 +160,7 @@ public class TreeAnnotator {
 
         if (targetOption != Target.USER_TARGET_TREE) {
             cladeSystem = new CladeSystem();
-            FileReader fileReader = new FileReader(inputFileName);
-            TreeImporter importer = new NexusImporter(fileReader);
+            MappedTreeImporter importer = new MappedTreeImporter(new File(inputFileName));
             try {
                 totalTrees = 0;
                 while (importer.hasTree()) {
@@ -159,7 +183,7 @@ public class TreeAnnotator {
                 System.err.println("Error Parsing Input Tree: " + e.getMessage());
                 return;
             }
-            fileReader.close();
+            importer.close();
             progressStream.println();
             progressStream.println();
 
@@ -232,8 +256,7 @@ public class TreeAnnotator {
         stepSize = totalTrees / 60;
         if (stepSize < 1) stepSize = 1;
 
-        FileReader fileReader = new FileReader(inputFileName);
-        NexusImporter importer = new NexusImporter(fileReader);
+        MappedTreeImporter importer = new MappedTreeImporter(new File(inputFileName));
 
         // this call increments the clade counts and it shouldn't
         // this is remedied with removeClades call after while loop below
@@ -270,7 +293,7 @@ public class TreeAnnotator {
         }
         progressStream.println();
         progressStream.println();
-        fileReader.close();
+        importer.close();
 
         progressStream.println("Annotating target tree...");
 
@@ -281,6 +304,10 @@ public class TreeAnnotator {
             return;
         }
 
+        writeAnnotatedTree(targetTree, outputFileName);
+    }
+
+    private void writeAnnotatedTree(MutableTree targetTree, String outputFileName) {
         progressStream.println("Writing annotated tree....");
 
         try {
@@ -291,9 +318,194 @@ public class TreeAnnotator {
             new NexusExporter(stream).exportTree(targetTree);
         } catch (Exception e) {
             System.err.println("Error to write annotated tree file: " + e.getMessage());
-            return;
         }
+    }
+
+    /**
+     * Finds and annotates the maximum clade credibility (or sum of clade credibilities) tree
+     * parsing the input trees only once. As each tree is read its clades are counted and it is
+     * written to a temporary file as a record of the clade, height and attribute values of each
+     * node. The target tree is chosen and rebuilt from these records and the attribute values
+     * of its clades are then copied, in one more pass, to a second file which is mapped into
+     * memory. Each clade is annotated by reading its values from there one attribute at a time
+     * so the heap only ever holds the values of one attribute of one clade.
+     */
+    private void annotateInSinglePass(int burnin, HeightsSummary heightsOption, Target targetOption,
+                                      String inputFileName, String outputFileName) throws IOException {
+
+        CladeSystem cladeSystem = new CladeSystem();
+
+        File recordFile = File.createTempFile("treeannotator", ".tmp");
+        recordFile.deleteOnExit();
+        File valuesFile = File.createTempFile("treeannotator", ".values");
+        valuesFile.deleteOnExit();
+
+        try {
+            progressStream.println("Reading trees (bar assumes 10,000 trees)...");
+            progressStream.println("0              25             50             75            100");
+            progressStream.println("|--------------|--------------|--------------|--------------|");
+
+            int stepSize = 10000 / 60;
+
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(recordFile), 1 << 16));
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+            MappedTreeImporter importer = new MappedTreeImporter(new File(inputFileName));
+            Tree firstTree = null;
+            try {
+                totalTrees = 0;
+                totalTreesUsed = 0;
+                while (importer.hasTree()) {
+                    Tree tree = importer.importNextTree();
+
+                    if (totalTrees >= burnin) {
+                        if (firstTree == null) {
+                            setupAttributes(tree);
+                            firstTree = tree;
+                        }
+
+                        cladeSystem.writeTreeRecord(tree, out, buffer);
+                        totalTreesUsed += 1;
+                    }
+
+                    if (totalTrees > 0 && totalTrees % stepSize == 0) {
+                        progressStream.print("*");
+                        progressStream.flush();
+                    }
+                    totalTrees++;
+                }
+            } catch (Importer.ImportException e) {
+                System.err.println("Error Parsing Input Tree: " + e.getMessage());
+                return;
+            } finally {
+                importer.close();
+                out.close();
+            }
+            progressStream.println();
+            progressStream.println();
+
+            if (totalTrees < 1) {
+                System.err.println("No trees");
+                return;
+            }
+            if (totalTreesUsed < 1) {
+                System.err.println("No trees to use: burnin too high");
+                return;
+            }
+            cladeSystem.calculateCladeCredibilities(totalTreesUsed);
+
+            progressStream.println("Total trees read: " + totalTrees);
+            if (burnin > 0) {
+                progressStream.println("Ignoring first " + burnin + " trees.");
+            }
+
+            progressStream.println("Total unique clades: " + cladeSystem.getCladeMap().keySet().size());
+            progressStream.println();
+
+            final boolean useSumCladeCredibility = (targetOption == Target.MAX_SUM_CLADE_CREDIBILITY);
+            if (useSumCladeCredibility) {
+                progressStream.println("Finding maximum sum clade credibility tree...");
+            } else {
+                progressStream.println("Finding maximum credibility tree...");
+            }
+
+            TreeRecord record = new TreeRecord();
+            TreeRecord bestRecord = new TreeRecord();
+            double bestScore = Double.NEGATIVE_INFINITY;
+
+            // the number of bytes of attribute values of each clade
+            long[] cladeValuesLengths = new long[cladeSystem.cladeList.size()];
 
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(recordFile), 1 << 16));
+            try {
+                for (int i = 0; i < totalTreesUsed; i++) {
+                    record.read(in);
+                    record.skipValues(in);
+
+                    for (int j = 0; j < record.nodeCount; j++) {
+                        cladeValuesLengths[record.clades[j]] += record.valuesLengths[j];
+                    }
+
+                    double score = cladeSystem.scoreTreeRecord(record, useSumCladeCredibility);
+                    if (score > bestScore) {
+                        bestRecord.copy(record);
+                        bestScore = score;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+
+            if (useSumCladeCredibility) {
+                progressStream.println("Highest Sum Clade Credibility: " + bestScore);
+            } else {
+                progressStream.println("Highest Log Clade Credibility: " + bestScore);
+            }
+
+            FlexibleNode[] targetNodes = new FlexibleNode[bestRecord.nodeCount];
+            MutableTree targetTree = cladeSystem.buildTree(bestRecord, targetNodes);
+            targetTree.setUnits(firstTree.getUnits());
+
+            progressStream.println("Collecting node information and annotating target tree...");
+
+            // the region of the value file holding the attribute values of each clade in the target tree
+            long[] regionStarts = new long[cladeSystem.cladeList.size()];
+            Arrays.fill(regionStarts, -1);
+            long valuesLength = 0;
+            for (int k = 0; k < targetNodes.length; k++) {
+                regionStarts[bestRecord.clades[k]] = valuesLength;
+                valuesLength += cladeValuesLengths[bestRecord.clades[k]];
+            }
+            cladeValuesLengths = null;
+
+            ValuesFile cladeValues = new ValuesFile(valuesFile, valuesLength);
+
+            long[] regionEnds = regionStarts.clone();
+            byte[] bytes = new byte[256];
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(recordFile), 1 << 16));
+            try {
+                for (int i = 0; i < totalTreesUsed; i++) {
+                    record.read(in);
+
+                    for (int j = 0; j < record.nodeCount; j++) {
+                        final int clade = record.clades[j];
+                        final int length = record.valuesLengths[j];
+                        if (regionStarts[clade] < 0) {
+                            skipBytes(in, length);
+                            continue;
+                        }
+
+                        if (bytes.length < length) {
+                            bytes = new byte[Math.max(length, bytes.length * 2)];
+                        }
+                        in.readFully(bytes, 0, length);
+                        cladeValues.put(regionEnds[clade], bytes, length);
+                        regionEnds[clade] += length;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+
+            for (int k = 0; k < targetNodes.length; k++) {
+                CladeSystem.Clade clade = cladeSystem.cladeList.get(bestRecord.clades[k]);
+                clade.attributeValues = new MappedValues(cladeValues, regionStarts[clade.index], regionEnds[clade.index],
+                        clade.getCount(), attributeNames.size());
+                try {
+                    cladeSystem.annotateNode(targetTree, targetNodes[k], clade.bits,
+                            bestRecord.childCounts[k] == 0, heightsOption);
+                } catch (Exception e) {
+                    System.err.println("Error to annotate tree: " + e.getMessage() + "\nPlease check the tree log file format.");
+                    return;
+                }
+                clade.attributeValues = null;
+            }
+
+            writeAnnotatedTree(targetTree, outputFileName);
+        } finally {
+            recordFile.delete();
+            valuesFile.delete();
+        }
     }
 
     private void setupAttributes(Tree tree) {
@@ -323,7 +535,7 @@ public class TreeAnnotator {
         if (stepSize < 1) stepSize = 1;
 
         int counter = 0;
-        TreeImporter importer = new NexusImporter(new FileReader(inputFileName));
+        MappedTreeImporter importer = new MappedTreeImporter(new File(inputFileName));
         try {
             while (importer.hasTree()) {
                 Tree tree = importer.importNextTree();
@@ -345,6 +557,8 @@ public class TreeAnnotator {
         } catch (Importer.ImportException e) {
             System.err.println("Error Parsing Input Tree: " + e.getMessage());
             return null;
+        } finally {
+            importer.close();
         }
         progressStream.println();
         progressStream.println();
@@ -473,46 +687,51 @@ public class TreeAnnotator {
             if (clade != null) {
 
                 if (clade.attributeValues == null) {
-                    clade.attributeValues = new ArrayList<Object[]>();
+                    clade.attributeValues = new RowValues();
                 }
 
-                int i = 0;
-                Object[] values = new Object[attributeNames.size()];
-                for (String attributeName : attributeNames) {
-                    Object value;
-                    if (attributeName.equals("height")) {
-                        value = tree.getNodeHeight(node);
-                    } else if (attributeName.equals("length")) {
-                        value = tree.getBranchLength(node);
-                    } else if (attributeName.equals(location1Attribute)) {
-                        // If this is one of the two specified bivariate location names then
-                        // merge this and the other one into a single array.
-                        Object value1 = tree.getNodeAttribute(node, attributeName);
-                        Object value2 = tree.getNodeAttribute(node, location2Attribute);
-
-                        value = new Object[]{value1, value2};
-                    } else if (attributeName.equals(location2Attribute)) {
-                        // do nothing - already dealt with this...
-                        value = null;
-                    } else {
-                        value = tree.getNodeAttribute(node, attributeName);
-                        if (value instanceof String && ((String) value).startsWith("\"")) {
-                            value = ((String) value).replaceAll("\"", "");
-                        }
-                    }
+                Object[] values = getAttributeValues(tree, node);
+                ((RowValues) clade.attributeValues).add(values);
 
-                    //if (value == null) {
-                    //    progressStream.println("attribute " + attributeNames[i] + " is null.");
-                    //}
+                //progressStream.println(clade + " " + clade.getCount());
+                clade.setCount(clade.getCount() + 1);
+            }
+        }
 
-                    values[i] = value;
-                    i++;
+        private Object[] getAttributeValues(Tree tree, NodeRef node) {
+            int i = 0;
+            Object[] values = new Object[attributeNames.size()];
+            for (String attributeName : attributeNames) {
+                Object value;
+                if (attributeName.equals("height")) {
+                    value = tree.getNodeHeight(node);
+                } else if (attributeName.equals("length")) {
+                    value = tree.getBranchLength(node);
+                } else if (attributeName.equals(location1Attribute)) {
+                    // If this is one of the two specified bivariate location names then
+                    // merge this and the other one into a single array.
+                    Object value1 = tree.getNodeAttribute(node, attributeName);
+                    Object value2 = tree.getNodeAttribute(node, location2Attribute);
+
+                    value = new Object[]{value1, value2};
+                } else if (attributeName.equals(location2Attribute)) {
+                    // do nothing - already dealt with this...
+                    value = null;
+                } else {
+                    value = tree.getNodeAttribute(node, attributeName);
+                    if (value instanceof String && ((String) value).startsWith("\"")) {
+                        value = ((String) value).replaceAll("\"", "");
+                    }
                 }
-                clade.attributeValues.add(values);
 
-                //progressStream.println(clade + " " + clade.getCount());
-                clade.setCount(clade.getCount() + 1);
+                //if (value == null) {
+                //    progressStream.println("attribute " + attributeNames[i] + " is null.");
+                //}
+
+                values[i] = value;
+                i++;
             }
+            return values;
         }
 
         public Map getCladeMap() {
@@ -644,24 +863,25 @@ public class TreeAnnotator {
 
                     HashMap<Object, Integer> hashMap = new HashMap<Object, Integer>();
 
-                    Object[] v = clade.attributeValues.get(0);
-                    if (v[i] != null) {
+                    final AttributeColumn column = clade.attributeValues.getColumn(i);
+                    final Object first = column.get(0);
+                    if (first != null) {
 
                         final boolean isHeight = attributeName.equals("height");
-                        boolean isBoolean = v[i] instanceof Boolean;
+                        boolean isBoolean = first instanceof Boolean;
 
-                        boolean isDiscrete = v[i] instanceof String;
+                        boolean isDiscrete = first instanceof String;
 
-                        if (forceIntegerToDiscrete && v[i] instanceof Integer) isDiscrete = true;
+                        if (forceIntegerToDiscrete && first instanceof Integer) isDiscrete = true;
 
                         double minValue = Double.MAX_VALUE;
                         double maxValue = -Double.MAX_VALUE;
 
-                        final boolean isArray = v[i] instanceof Object[];
-                        boolean isDoubleArray = isArray && ((Object[]) v[i])[0] instanceof Double;
+                        final boolean isArray = first instanceof Object[];
+                        boolean isDoubleArray = isArray && ((Object[]) first)[0] instanceof Double;
                         // This is Java, friends - first value type does not imply all.
                         if (isDoubleArray) {
-                            for (Object n : (Object[]) v[i]) {
+                            for (Object n : (Object[]) first) {
                                 if (!(n instanceof Double)) {
                                     isDoubleArray = false;
                                     break;
@@ -676,7 +896,7 @@ public class TreeAnnotator {
                         int lenArray = 0;
 
                         if (isDoubleArray) {
-                            lenArray = ((Object[]) v[i]).length;
+                            lenArray = ((Object[]) first).length;
 
                             valuesArray = new double[lenArray][clade.attributeValues.size()];
                             minValueArray = new double[lenArray];
@@ -689,7 +909,7 @@ public class TreeAnnotator {
                         }
 
                         for (int j = 0; j < clade.attributeValues.size(); j++) {
-                            Object value = clade.attributeValues.get(j)[i];
+                            Object value = column.get(j);
                             if (isDiscrete) {
                                 final Object s = value;
                                 if (hashMap.containsKey(s)) {
@@ -1011,6 +1231,140 @@ public class TreeAnnotator {
             }
         }
 
+        /**
+         * Adds the clades of the tree (including the tips) and writes a record of it: the
+         * clade, number of children, height, branch length and length of the attribute values
+         * of each node in postorder, followed by the attribute values of the nodes.
+         */
+        public void writeTreeRecord(Tree tree, DataOutputStream out, ByteArrayOutputStream buffer) throws IOException {
+            if (taxonList == null) {
+                taxonList = tree;
+            }
+
+            buffer.reset();
+            DataOutputStream valuesOut = new DataOutputStream(buffer);
+
+            out.writeInt(tree.getNodeCount());
+            writeNodeRecords(tree, tree.getRoot(), out, valuesOut);
+
+            valuesOut.flush();
+            out.writeInt(buffer.size());
+            buffer.writeTo(out);
+        }
+
+        private BitSet writeNodeRecords(Tree tree, NodeRef node, DataOutputStream out, DataOutputStream valuesOut) throws IOException {
+
+            BitSet bits = new BitSet();
+
+            if (tree.isExternal(node)) {
+
+                int index = taxonList.getTaxonIndex(tree.getNodeTaxon(node).getId());
+                if (index < 0) {
+                    throw new IllegalArgumentException("Taxon, " + tree.getNodeTaxon(node).getId() + ", not found in first tree");
+                }
+                bits.set(index);
+
+            } else {
+
+                for (int i = 0; i < tree.getChildCount(node); i++) {
+
+                    NodeRef node1 = tree.getChild(node, i);
+
+                    bits.or(writeNodeRecords(tree, node1, out, valuesOut));
+                }
+            }
+
+            Clade clade = cladeMap.get(bits);
+            if (clade == null) {
+                clade = new Clade(bits);
+                clade.index = cladeList.size();
+                cladeList.add(clade);
+                cladeMap.put(bits, clade);
+            }
+            clade.setCount(clade.getCount() + 1);
+
+            final int valuesStart = valuesOut.size();
+            for (Object value : getAttributeValues(tree, node)) {
+                writeValue(valuesOut, value);
+            }
+
+            out.writeInt(clade.index);
+            out.writeInt(tree.getChildCount(node));
+            out.writeDouble(tree.getNodeHeight(node));
+            out.writeDouble(tree.getBranchLength(node));
+            out.writeInt(valuesOut.size() - valuesStart);
+
+            return bits;
+        }
+
+        /**
+         * Scores a tree record in the same way as getSumCladeCredibility or getLogCladeCredibility
+         * would score the tree.
+         */
+        public double scoreTreeRecord(TreeRecord record, boolean useSumCladeCredibility) {
+            double[] scores = new double[record.nodeCount];
+            int top = 0;
+
+            for (int i = 0; i < record.nodeCount; i++) {
+                final int childCount = record.childCounts[i];
+                double score = 0.0;
+                if (childCount > 0) {
+                    for (int j = top - childCount; j < top; j++) {
+                        score += scores[j];
+                    }
+                    top -= childCount;
+
+                    double credibility = cladeList.get(record.clades[i]).getCredibility();
+                    score += (useSumCladeCredibility ? credibility : Math.log(credibility));
+                }
+                scores[top] = score;
+                top++;
+            }
+
+            return scores[0];
+        }
+
+        /**
+         * Builds a tree from a record.
+         *
+         * @param record the record
+         * @param nodes  an array in which to place the nodes of the tree in the order of the record
+         * @return the tree
+         */
+        public MutableTree buildTree(TreeRecord record, FlexibleNode[] nodes) {
+            FlexibleNode[] stack = new FlexibleNode[record.nodeCount];
+            int top = 0;
+
+            for (int i = 0; i < record.nodeCount; i++) {
+                final int childCount = record.childCounts[i];
+                FlexibleNode node;
+                if (childCount == 0) {
+                    Taxon taxon = taxonList.getTaxon(cladeList.get(record.clades[i]).bits.nextSetBit(0));
+                    node = new FlexibleNode(taxon);
+                    node.setId(taxon.getId());
+                } else {
+                    node = new FlexibleNode();
+                    for (int j = top - childCount; j < top; j++) {
+                        node.addChild(stack[j]);
+                    }
+                    top -= childCount;
+                }
+                node.setHeight(record.heights[i]);
+                node.setLength(record.lengths[i]);
+
+                nodes[i] = node;
+                stack[top] = node;
+                top++;
+            }
+
+            Map<Taxon, Integer> taxonNumberMap = new HashMap<Taxon, Integer>();
+            for (int i = 0; i < taxonList.getTaxonCount(); i++) {
+                taxonNumberMap.put(taxonList.getTaxon(i), i);
+            }
+
+            return new FlexibleTree(stack[0], true, true, taxonNumberMap);
+        }
+
         public BitSet removeClades(Tree tree, NodeRef node, boolean includeTips) {
 
             BitSet bits = new BitSet();
@@ -1092,7 +1446,10 @@ public class TreeAnnotator {
             int count;
             double credibility;
             BitSet bits;
-            List<Object[]> attributeValues = null;
+            CladeValues attributeValues = null;
+
+            // the position of the clade in cladeList (only used in the single pass mode)
+            int index = -1;
         }
 
         //
@@ -1100,10 +1457,367 @@ public class TreeAnnotator {
         //
         TaxonList taxonList = null;
         Map<BitSet, Clade> cladeMap = new HashMap<BitSet, Clade>();
+        List<Clade> cladeList = new ArrayList<Clade>();
 
         Tree targetTree;
     }
 
+    /**
+     * A tree as written to the temporary file in the single pass mode.
+     */
+    private static class TreeRecord {
+
+        void read(DataInputStream in) throws IOException {
+            nodeCount = in.readInt();
+            if (clades.length < nodeCount) {
+                clades = new int[nodeCount];
+                childCounts = new int[nodeCount];
+                heights = new double[nodeCount];
+                lengths = new double[nodeCount];
+                valuesLengths = new int[nodeCount];
+            }
+            for (int i = 0; i < nodeCount; i++) {
+                clades[i] = in.readInt();
+                childCounts[i] = in.readInt();
+                heights[i] = in.readDouble();
+                lengths[i] = in.readDouble();
+                valuesLengths[i] = in.readInt();
+            }
+            valuesLength = in.readInt();
+        }
+
+        void skipValues(DataInputStream in) throws IOException {
+            skipBytes(in, valuesLength);
+        }
+
+        void copy(TreeRecord record) {
+            nodeCount = record.nodeCount;
+            clades = record.clades.clone();
+            childCounts = record.childCounts.clone();
+            heights = record.heights.clone();
+            lengths = record.lengths.clone();
+        }
+
+        int nodeCount = 0;
+        int[] clades = new int[0];
+        int[] childCounts = new int[0];
+        double[] heights = new double[0];
+        double[] lengths = new double[0];
+        int[] valuesLengths = new int[0];
+        int valuesLength = 0;
+    }
+
+    /**
+     * The attribute values collected for a clade, one row for each tree that contains it,
+     * which are summarized one attribute at a time.
+     */
+    private interface CladeValues {
+
+        /**
+         * @return the number of rows
+         */
+        int size();
+
+        AttributeColumn getColumn(int attribute);
+    }
+
+    /**
+     * The values of one attribute of a clade. They are taken in order so need not be held in memory.
+     */
+    private interface AttributeColumn {
+
+        Object get(int row);
+    }
+
+    /**
+     * The attribute values of a clade held as rows, as they are collected from the trees.
+     */
+    private static class RowValues implements CladeValues {
+
+        void add(Object[] values) {
+            rows.add(values);
+        }
+
+        public int size() {
+            return rows.size();
+        }
+
+        public AttributeColumn getColumn(final int attribute) {
+            return new AttributeColumn() {
+                public Object get(int row) {
+                    return rows.get(row)[attribute];
+                }
+            };
+        }
+
+        private final List<Object[]> rows = new ArrayList<Object[]>();
+    }
+
+    /**
+     * The attribute values of a clade of the target tree in the single pass mode, read from its
+     * region of a mapped file. Each row holds the values of all the attributes, as written by
+     * writeValue, so the values of other attributes are skipped over.
+     */
+    private static class MappedValues implements CladeValues {
+
+        MappedValues(ValuesFile file, long start, long end, int rowCount, int attributeCount) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.rowCount = rowCount;
+            this.attributeCount = attributeCount;
+        }
+
+        public int size() {
+            return rowCount;
+        }
+
+        public AttributeColumn getColumn(final int attribute) {
+            return new AttributeColumn() {
+                public Object get(int row) {
+                    try {
+                        if (in == null || row < nextRow) {
+                            in = new DataInputStream(file.getInputStream(start, end));
+                            nextRow = 0;
+                        }
+                        for (; nextRow < row; nextRow++) {
+                            for (int j = 0; j < attributeCount; j++) {
+                                skipValue(in);
+                            }
+                        }
+
+                        for (int j = 0; j < attribute; j++) {
+                            skipValue(in);
+                        }
+                        final Object value = readValue(in);
+                        for (int j = attribute + 1; j < attributeCount; j++) {
+                            skipValue(in);
+                        }
+                        nextRow++;
+                        return value;
+                    } catch (IOException ioe) {
+                        throw new RuntimeException("Unable to read attribute values: " + ioe.getMessage());
+                    }
+                }
+
+                private DataInputStream in = null;
+                private int nextRow = 0;
+            };
+        }
+
+        private final ValuesFile file;
+        private final long start;
+        private final long end;
+        private final int rowCount;
+        private final int attributeCount;
+    }
+
+    /**
+     * A temporary file which is mapped into memory, in segments so that it can be larger than 2GB.
+     */
+    private static class ValuesFile {
+
+        private static final int SEGMENT_SHIFT = 30;
+        private static final int SEGMENT_SIZE = 1 << SEGMENT_SHIFT;
+
+        ValuesFile(File file, long length) throws IOException {
+            RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+            try {
+                randomAccessFile.setLength(length);
+                FileChannel channel = randomAccessFile.getChannel();
+                segments = new MappedByteBuffer[(int) ((length + SEGMENT_SIZE - 1) >> SEGMENT_SHIFT)];
+                for (int k = 0; k < segments.length; k++) {
+                    final long position = (long) k << SEGMENT_SHIFT;
+                    segments[k] = channel.map(FileChannel.MapMode.READ_WRITE, position,
+                            Math.min(SEGMENT_SIZE, length - position));
+                }
+            } finally {
+                // the mapping stays valid
+                randomAccessFile.close();
+            }
+        }
+
+        void put(long position, byte[] bytes, int length) {
+            int offset = 0;
+            while (offset < length) {
+                MappedByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+                final int index = (int) (position & (SEGMENT_SIZE - 1));
+                final int n = Math.min(length - offset, segment.capacity() - index);
+                segment.position(index);
+                segment.put(bytes, offset, n);
+                offset += n;
+                position += n;
+            }
+        }
+
+        InputStream getInputStream(final long start, final long end) {
+            return new InputStream() {
+                public int read() {
+                    if (position >= end) {
+                        return -1;
+                    }
+                    final int b = segments[(int) (position >> SEGMENT_SHIFT)].get((int) (position & (SEGMENT_SIZE - 1)));
+                    position++;
+                    return b & 0xFF;
+                }
+
+                public int read(byte[] bytes, int offset, int length) {
+                    if (position >= end) {
+                        return -1;
+                    }
+                    final MappedByteBuffer segment = segments[(int) (position >> SEGMENT_SHIFT)];
+                    final int index = (int) (position & (SEGMENT_SIZE - 1));
+                    final int n = (int) Math.min(Math.min(length, segment.capacity() - index), end - position);
+                    for (int i = 0; i < n; i++) {
+                        bytes[offset + i] = segment.get(index + i);
+                    }
+                    position += n;
+                    return n;
+                }
+
+                public long skip(long n) {
+                    final long skipped = Math.max(0, Math.min(n, end - position));
+                    position += skipped;
+                    return skipped;
+                }
+
+                private long position = start;
+            };
+        }
+
+        private final MappedByteBuffer[] segments;
+    }
+
+    private static final byte NULL_VALUE = 0;
+    private static final byte DOUBLE_VALUE = 1;
+    private static final byte INTEGER_VALUE = 2;
+    private static final byte BOOLEAN_VALUE = 3;
+    private static final byte STRING_VALUE = 4;
+    private static final byte ARRAY_VALUE = 5;
+    private static final byte OBJECT_VALUE = 6;
+
+    private static void writeValue(DataOutputStream out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(NULL_VALUE);
+        } else if (value instanceof Double) {
+            out.writeByte(DOUBLE_VALUE);
+            out.writeDouble((Double) value);
+        } else if (value instanceof Integer) {
+            out.writeByte(INTEGER_VALUE);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(BOOLEAN_VALUE);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            out.writeByte(STRING_VALUE);
+            writeString(out, (String) value);
+        } else if (value instanceof Object[]) {
+            Object[] array = (Object[]) value;
+            out.writeByte(ARRAY_VALUE);
+            out.writeInt(array.length);
+            for (Object element : array) {
+                writeValue(out, element);
+            }
+        } else {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ObjectOutputStream objectOut = new ObjectOutputStream(bytes);
+            objectOut.writeObject(value);
+            objectOut.close();
+
+            out.writeByte(OBJECT_VALUE);
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+    }
+
+    // the strings are written with their length as an int as writeUTF is limited to 64K
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private static void skipValue(DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case NULL_VALUE:
+                break;
+            case DOUBLE_VALUE:
+                skipBytes(in, 8);
+                break;
+            case INTEGER_VALUE:
+                skipBytes(in, 4);
+                break;
+            case BOOLEAN_VALUE:
+                skipBytes(in, 1);
+                break;
+            case STRING_VALUE:
+            case OBJECT_VALUE:
+                skipBytes(in, in.readInt());
+                break;
+            case ARRAY_VALUE: {
+                final int length = in.readInt();
+                for (int i = 0; i < length; i++) {
+                    skipValue(in);
+                }
+                break;
+            }
+            default:
+                throw new IOException("Unknown attribute value type in tree records: " + type);
+        }
+    }
+
+    private static void skipBytes(DataInputStream in, int length) throws IOException {
+        int skipped = 0;
+        while (skipped < length) {
+            int n = in.skipBytes(length - skipped);
+            if (n <= 0) {
+                throw new EOFException("Unexpected end of tree records");
+            }
+            skipped += n;
+        }
+    }
+
+    private static Object readValue(DataInputStream in) throws IOException {
+        final byte type = in.readByte();
+        switch (type) {
+            case NULL_VALUE:
+                return null;
+            case DOUBLE_VALUE:
+                return in.readDouble();
+            case INTEGER_VALUE:
+                return in.readInt();
+            case BOOLEAN_VALUE:
+                return in.readBoolean();
+            case STRING_VALUE:
+                return readString(in);
+            case ARRAY_VALUE: {
+                Object[] array = new Object[in.readInt()];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = readValue(in);
+                }
+                return array;
+            }
+            case OBJECT_VALUE: {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                try {
+                    return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+                } catch (ClassNotFoundException cnfe) {
+                    throw new IOException("Unable to read attribute value: " + cnfe.getMessage());
+                }
+            }
+            default:
+                throw new IOException("Unknown attribute value type in tree records: " + type);
+        }
+    }
+
     int totalTrees = 0;
     int totalTreesUsed = 0;
     double posteriorLimit = 0.0;
@@ -1274,6 +1988,7 @@ public class TreeAnnotator {
                         new Arguments.StringOption("target", "target_file_name", "specifies a user target tree to be annotated"),
                         new Arguments.Option("help", "option to print this message"),
                         new Arguments.Option("forceDiscrete", "forces integer traits to be treated as discrete traits."),
+                        new Arguments.Option("singlePass", "reads the trees only once, keeping the node information in a temporary file rather than in memory"),
                         new Arguments.RealOption("hpd2D", "the HPD interval to be used for the bivariate traits")
                 });
 
@@ -1295,6 +2010,8 @@ public class TreeAnnotator {
             System.exit(0);
         }
 
+        final boolean singlePass = arguments.hasOption("singlePass");
+
         HeightsSummary heights = HeightsSummary.KEEP_HEIGHTS;
         if (arguments.hasOption("heights")) {
             String value = arguments.getStringOption("heights");
@@ -1343,7 +2060,8 @@ public class TreeAnnotator {
             }
         }
 
-        new TreeAnnotator(burnin, heights, posteriorLimit, hpd2D, target, targetTreeFileName, inputFileName, outputFileName);
+        new TreeAnnotator(burnin, heights, posteriorLimit, hpd2D, target, targetTreeFileName, inputFileName, outputFileName,
+                singlePass);
 
         System.exit(0);
     }
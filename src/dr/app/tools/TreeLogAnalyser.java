@@ -102,11 +102,7 @@ public class TreeLogAnalyser {
 
         if (combine) {
             try {
-                Reader[] readers = new Reader[files.size()];
-                for (int i = 0; i < readers.length; i++) {
-                    readers[i] = new FileReader(files.get(i));
-                }
-                TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(readers, burnin, verbose);
+                TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(files.toArray(new File[files.size()]), burnin, verbose);
                 if (exportFileName != null) {
                     PrintStream exportStream = new PrintStream(exportFileName);
                     //System.err.println("Exporting trees ...");
@@ -127,8 +123,7 @@ public class TreeLogAnalyser {
         } else {
             for (File file : files) {
                 try {
-                    final Reader[] readers = {new FileReader(file)};
-                    TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(readers, burnin, verbose);
+                    TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(new File[]{file}, burnin, verbose);
                     if (verbose) {
                         analysis.report((int)(minSupport+.5));
                     } else {
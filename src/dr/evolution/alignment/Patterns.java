@@ -148,6 +148,28 @@ public class Patterns implements PatternList {
         addPatterns(patternList);
     }
 
+    /**
+     * Constructor taking one of subSetCount contiguous blocks of the patterns in a pattern
+     * list. The patterns are already unique so they are copied without comparing them.
+     */
+    public Patterns(PatternList patternList, int subSet, int subSetCount) {
+        taxonList = patternList;
+        patternLength = taxonList.getTaxonCount();
+        dataType = patternList.getDataType();
+
+        int count = patternList.getPatternCount();
+        int start = (int) (((long) count * subSet) / subSetCount);
+        int end = (int) (((long) count * (subSet + 1)) / subSetCount);
+
+        patternCount = end - start;
+        patterns = new int[patternCount][];
+        weights = new double[patternCount];
+        for (int i = 0; i < patternCount; i++) {
+            patterns[i] = patternList.getPattern(start + i);
+            weights[i] = patternList.getPatternWeight(start + i);
+        }
+    }
+
     /**
      * adds patterns to the list from a SiteList
      */
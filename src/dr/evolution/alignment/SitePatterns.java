@@ -33,6 +33,10 @@ import dr.evolution.util.Taxon;
 import dr.evolution.util.TaxonList;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Stores a set of site patterns. This differs from the simple Patterns
@@ -91,6 +95,16 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
 
     protected boolean unique = true; // Compress into weighted list of unique patterns
 
+    // the hash codes of the patterns and a hash table of the pattern indices (only while setting the patterns)
+    private int[] patternHashes;
+    private int[] patternTable;
+
+    // the number of sites each thread gets the patterns of at a time
+    private static final int BLOCK_SIZE = 256;
+
+    // alignments with fewer states than this are compressed on the calling thread
+    private static final long PARALLEL_STATE_COUNT = 1L << 20;
+
     /**
      * Constructor
      */
@@ -217,40 +231,135 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         weights = new double[siteCount];
 
         invariantCount = 0;
-        int[] pattern;
 
-        int site = 0;
+        patternHashes = new int[siteCount];
+        int tableSize = 16;
+        while (tableSize < siteCount * 2) {
+            tableSize <<= 1;
+        }
+        patternTable = new int[tableSize];
+        Arrays.fill(patternTable, -1);
+
+        final int threadCount = Math.min(Runtime.getRuntime().availableProcessors(),
+                siteCount / BLOCK_SIZE);
+
+        if (threadCount > 1 && (long) siteCount * siteList.getTaxonCount() >= PARALLEL_STATE_COUNT) {
+            setPatternsInParallel(from, every, threadCount);
+        } else {
+            int site = 0;
+
+            for (int i = from; i <= to; i += every) {
+                int[] pattern = siteList.getSitePattern(i);
+
+                if (isIncluded(pattern)) {
+                    sitePatternIndices[site] = addPattern(pattern, Arrays.hashCode(pattern));
+                } else {
+                    sitePatternIndices[site] = -1;
+                }
+                site++;
+            }
+        }
+
+        patternHashes = null;
+        patternTable = null;
+    }
+
+    /**
+     * Gets the site patterns of blocks of sites on a pool of threads, the patterns of each
+     * round of blocks are then added in site order so the patterns are the same as adding
+     * them one site at a time.
+     */
+    private void setPatternsInParallel(final int from, final int every, int threadCount) {
+        final int roundSize = threadCount * BLOCK_SIZE;
+        final int[][] roundPatterns = new int[roundSize][];
+        final int[] roundHashes = new int[roundSize];
+        final boolean[] roundIncluded = new boolean[roundSize];
+
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+
+            for (int roundStart = 0; roundStart < siteCount; roundStart += roundSize) {
+                final int roundSiteCount = Math.min(roundSize, siteCount - roundStart);
 
-        for (int i = from; i <= to; i += every) {
-            pattern = siteList.getSitePattern(i);
+                futures.clear();
+                for (int blockStart = 0; blockStart < roundSiteCount; blockStart += BLOCK_SIZE) {
+                    final int firstSite = roundStart + blockStart;
+                    final int start = blockStart;
+                    final int end = Math.min(blockStart + BLOCK_SIZE, roundSiteCount);
 
-            if (!strip || !isInvariant(pattern) ||
-                    (!isGapped(pattern) &&
-                            !isAmbiguous(pattern) &&
-                            !isUnknown(pattern))) {
+                    futures.add(executor.submit(new Runnable() {
+                        public void run() {
+                            for (int j = start; j < end; j++) {
+                                int[] pattern = siteList.getSitePattern(from + (firstSite + j - start) * every);
+                                roundPatterns[j] = pattern;
+                                roundIncluded[j] = isIncluded(pattern);
+                                roundHashes[j] = Arrays.hashCode(pattern);
+                            }
+                        }
+                    }));
+                }
 
-                sitePatternIndices[site] = addPattern(pattern);
+                for (Future<?> future : futures) {
+                    future.get();
+                }
 
-            }  else {
-              sitePatternIndices[site] = -1;
+                for (int j = 0; j < roundSiteCount; j++) {
+                    if (roundIncluded[j]) {
+                        sitePatternIndices[roundStart + j] = addPattern(roundPatterns[j], roundHashes[j]);
+                    } else {
+                        sitePatternIndices[roundStart + j] = -1;
+                    }
+                    roundPatterns[j] = null;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Site pattern compression was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            site++;
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdown();
         }
     }
 
+    /**
+     * @return false if the site is stripped out as it is invariant and completely ambiguous
+     */
+    private boolean isIncluded(int[] pattern) {
+        return !strip || !isInvariant(pattern) ||
+                (!isGapped(pattern) &&
+                        !isAmbiguous(pattern) &&
+                        !isUnknown(pattern));
+    }
+
     /**
      * adds a pattern to the pattern list
      *
+     * @param pattern the pattern
+     * @param hash    the hash code of the pattern
      * @return the index of the pattern in the pattern list
      */
-    private int addPattern(int[] pattern) {
+    private int addPattern(int[] pattern, int hash) {
 
-        for (int i = 0; i < patternCount; i++) {
+        // open addressing with linear probing on the hash of the patterns
+        final int mask = patternTable.length - 1;
+        int slot = (hash ^ (hash >>> 16)) & mask;
 
-            if (unique && comparePatterns(patterns[i], pattern)) {
+        if (unique) {
+            while (patternTable[slot] != -1) {
+                final int i = patternTable[slot];
 
-                weights[i] += 1.0;
-                return i;
+                if (patternHashes[i] == hash && comparePatterns(patterns[i], pattern)) {
+
+                    weights[i] += 1.0;
+                    return i;
+                }
+                slot = (slot + 1) & mask;
             }
         }
 
@@ -261,6 +370,10 @@ public class SitePatterns implements SiteList, dr.util.XHTMLable {
         int index = patternCount;
         patterns[index] = pattern;
         weights[index] = 1.0;
+        patternHashes[index] = hash;
+        if (unique) {
+            patternTable[slot] = index;
+        }
         patternCount++;
 
         return index;
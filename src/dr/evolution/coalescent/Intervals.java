@@ -27,7 +27,6 @@ package dr.evolution.coalescent;
 
 import dr.evolution.util.Units;
 
-import java.util.Arrays;
 
 /**
  * A concrete class for a set of coalescent intevals.
@@ -41,6 +40,7 @@ public class Intervals implements IntervalList {
 
 	public Intervals(int maxEventCount) {
 		events = new Event[maxEventCount];
+		sortBuffer = new Event[maxEventCount];
 		for (int i = 0; i < maxEventCount; i++) {
 			events[i] = new Event();
 		}
@@ -75,16 +75,27 @@ public class Intervals implements IntervalList {
 
 	public void resetEvents() {
 		intervalsKnown = false;
+		eventsSorted = false;
 		eventCount = 0;
 		sampleCount = 0;
 	}
 
+	/**
+	 * Says that the events have been added in order of time (with samples before
+	 * coalescences at the same time) so don't need sorting. Adding another event
+	 * clears this.
+	 */
+	public void setEventsSorted() {
+		eventsSorted = true;
+	}
+
 	public void addSampleEvent(double time) {
 		events[eventCount].time = time;
 		events[eventCount].type = IntervalType.SAMPLE;
 		eventCount++;
 		sampleCount++;
 		intervalsKnown = false;
+		eventsSorted = false;
 	}
 
 	public void addCoalescentEvent(double time) {
@@ -92,6 +103,7 @@ public class Intervals implements IntervalList {
 		events[eventCount].type = IntervalType.COALESCENT;
 		eventCount++;
 		intervalsKnown = false;
+		eventsSorted = false;
 	}
 
     public void addMigrationEvent(double time, int destination) {
@@ -100,6 +112,7 @@ public class Intervals implements IntervalList {
         events[eventCount].info = destination;
         eventCount++;
         intervalsKnown = false;
+        eventsSorted = false;
     }
 
 	public void addNothingEvent(double time) {
@@ -107,6 +120,7 @@ public class Intervals implements IntervalList {
 		events[eventCount].type = IntervalType.NOTHING;
 		eventCount++;
 		intervalsKnown = false;
+		eventsSorted = false;
 	}
 
 	public int getSampleCount() {
@@ -158,7 +172,9 @@ public class Intervals implements IntervalList {
 			throw new IllegalArgumentException("Too few events to construct intervals");
 		}
 
-		Arrays.sort(events, 0, eventCount);
+		if (!eventsSorted) {
+			sortEvents(0, eventCount);
+		}
 
 		if (events[0].type != IntervalType.SAMPLE) {
 			throw new IllegalArgumentException("First event is not a sample event");
@@ -184,6 +200,47 @@ public class Intervals implements IntervalList {
 		intervalsKnown = true;
 	}
 
+	/**
+	 * A stable merge sort of events[from..to) which, unlike Arrays.sort, doesn't allocate
+	 * a work array each time (this is called for every coalescent likelihood evaluation).
+	 */
+	private void sortEvents(int from, int to) {
+		if (to - from <= INSERTION_SORT_THRESHOLD) {
+			for (int i = from + 1; i < to; i++) {
+				final Event event = events[i];
+				int j = i;
+				while (j > from && events[j - 1].compareTo(event) > 0) {
+					events[j] = events[j - 1];
+					j--;
+				}
+				events[j] = event;
+			}
+			return;
+		}
+
+		final int middle = (from + to) >>> 1;
+		sortEvents(from, middle);
+		sortEvents(middle, to);
+
+		if (events[middle - 1].compareTo(events[middle]) <= 0) {
+			// already in order
+			return;
+		}
+
+		System.arraycopy(events, from, sortBuffer, from, to - from);
+		int i = from;
+		int j = middle;
+		for (int k = from; k < to; k++) {
+			if (j >= to || (i < middle && sortBuffer[i].compareTo(sortBuffer[j]) <= 0)) {
+				events[k] = sortBuffer[i++];
+			} else {
+				events[k] = sortBuffer[j++];
+			}
+		}
+	}
+
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
 	private Units.Type  units = Units.Type.GENERATIONS;
 
 	public final Units.Type getUnits() {
@@ -226,10 +283,12 @@ public class Intervals implements IntervalList {
     }
 
 	private Event[] events;
+	private final Event[] sortBuffer;
 	private int eventCount;
 	private int sampleCount;
 
 	private boolean intervalsKnown = false;
+	private boolean eventsSorted = false;
 	private double[] intervals;
 	private int[] lineageCounts;
 	private IntervalType[] intervalTypes;
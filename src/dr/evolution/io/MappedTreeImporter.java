@@ -0,0 +1,1038 @@
+/*
+ * MappedTreeImporter.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.io;
+
+import dr.evolution.tree.CompactTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Taxa;
+import dr.evolution.util.Taxon;
+import dr.evolution.util.TaxonList;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the trees of a NEXUS file much faster than NexusImporter. The file is read through
+ * a memory map by a byte level scanner which splits it into statements. The TAXA block and
+ * the TRANSLATE command are read by the scanner and each TREE statement is decoded into a
+ * CompactTree on a pool of threads, while the trees are returned in the order of the file.
+ * Only a bounded number of trees are decoded ahead of the one being returned.
+ * <p/>
+ * The trees are the same as NexusImporter's: the taxa, node numbers, heights, branch lengths
+ * and the tree and node attributes from the [&...] comments. An unfinished last statement
+ * (e.g., of a tree file which is still being written) is ignored.
+ */
+public class MappedTreeImporter implements TreeImporter {
+
+    /**
+     * Decodes the trees with as many threads as there are processors.
+     */
+    public MappedTreeImporter(File file) throws IOException {
+        this(file, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threadCount the number of threads decoding trees, if 1 then the trees are decoded
+     *                    by the calling thread
+     */
+    public MappedTreeImporter(File file, int threadCount) throws IOException {
+        this.file = file;
+        this.threadCount = Math.max(threadCount, 1);
+        channel = new RandomAccessFile(file, "r").getChannel();
+        length = channel.size();
+    }
+
+    // **************************************************************
+    // TreeImporter IMPLEMENTATION
+    // **************************************************************
+
+    /**
+     * return whether another tree is available.
+     */
+    public boolean hasTree() throws IOException, Importer.ImportException {
+        fillPending();
+        return !pending.isEmpty() || (current != null && currentIndex < current.length);
+    }
+
+    /**
+     * import the next tree.
+     * return the tree or null if no more trees are available
+     */
+    public Tree importNextTree() throws IOException, Importer.ImportException {
+        if (current == null || currentIndex == current.length) {
+            fillPending();
+            if (pending.isEmpty()) {
+                return null;
+            }
+            current = getBatch(pending.removeFirst());
+            currentIndex = 0;
+            fillPending();
+        }
+        return current[currentIndex++];
+    }
+
+    /**
+     * import a single tree.
+     */
+    public Tree importTree(TaxonList taxonList) throws IOException, Importer.ImportException {
+        this.taxonList = taxonList;
+        Tree tree = importNextTree();
+        if (tree == null) {
+            if (block != null) {
+                throw new Importer.BadFormatException("No trees defined in TREES block");
+            }
+            throw new NexusImporter.MissingBlockException("TREES block is missing");
+        }
+        return tree;
+    }
+
+    /**
+     * import an array of all trees.
+     */
+    public Tree[] importTrees(TaxonList taxonList) throws IOException, Importer.ImportException {
+        this.taxonList = taxonList;
+        List<Tree> trees = new ArrayList<Tree>();
+        Tree tree = importNextTree();
+        while (tree != null) {
+            trees.add(tree);
+            tree = importNextTree();
+        }
+        if (block == null) {
+            throw new NexusImporter.MissingBlockException("TREES block is missing");
+        }
+        if (trees.size() == 0) {
+            throw new Importer.BadFormatException("No trees defined in TREES block");
+        }
+        return trees.toArray(new Tree[trees.size()]);
+    }
+
+    /**
+     * @return the taxa of the TAXA block if there was one before the trees read so far
+     */
+    public TaxonList getTaxonList() {
+        return taxaBlock;
+    }
+
+    /**
+     * Reads the next TREE statement without decoding it, for copying trees as they are.
+     * This can't be mixed with importing the trees.
+     *
+     * @return the statement from the TREE keyword up to (but not including) the ';', or null
+     *         if there are no more
+     */
+    public byte[] importNextTreeStatement() throws IOException, Importer.ImportException {
+        return nextTreeStatement();
+    }
+
+    /**
+     * @return the labels used for the tips of the trees read so far and the ids of the taxa
+     *         they stand for, or null if no trees have been read
+     */
+    public Map<String, String> getTranslation() {
+        if (block == null || !block.prepared) {
+            return null;
+        }
+        Map<String, String> translation = new HashMap<String, String>();
+        for (Map.Entry<String, Taxon> entry : block.translationList.entrySet()) {
+            translation.put(entry.getKey(), entry.getValue().getId());
+        }
+        return translation;
+    }
+
+    public void close() throws IOException {
+        for (Future<CompactTree[]> future : pending) {
+            future.cancel(true);
+        }
+        pending.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        channel.close();
+        window = null;
+    }
+
+    // **************************************************************
+    // Scanning
+    // **************************************************************
+
+    /**
+     * Scans statements and submits batches of trees until enough are being decoded.
+     */
+    private void fillPending() throws IOException, Importer.ImportException {
+        final int maxPending = threadCount * BATCHES_PER_THREAD;
+
+        while (pending.size() < maxPending && position < length) {
+            List<byte[]> batch = new ArrayList<byte[]>();
+            int batchBytes = 0;
+            while (batch.size() < MAX_BATCH_TREES && batchBytes < MAX_BATCH_BYTES) {
+                byte[] record = nextTreeStatement();
+                if (record == null) {
+                    break;
+                }
+                batch.add(record);
+                batchBytes += record.length;
+            }
+            if (batch.size() == 0) {
+                break;
+            }
+            pending.addLast(submit(batch, block));
+        }
+    }
+
+    private Future<CompactTree[]> submit(final List<byte[]> records, final TreesBlock block) {
+        Callable<CompactTree[]> task = new Callable<CompactTree[]>() {
+            public CompactTree[] call() throws Exception {
+                Decoder decoder = new Decoder(block);
+                CompactTree[] trees = new CompactTree[records.size()];
+                for (int i = 0; i < trees.length; i++) {
+                    trees[i] = decoder.decode(records.get(i));
+                }
+                return trees;
+            }
+        };
+
+        if (threadCount == 1) {
+            FutureTask<CompactTree[]> future = new FutureTask<CompactTree[]>(task);
+            future.run();
+            return future;
+        }
+
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "tree-decoder-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor.submit(task);
+    }
+
+    private CompactTree[] getBatch(Future<CompactTree[]> future) throws IOException, Importer.ImportException {
+        try {
+            return future.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading trees");
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof Importer.ImportException) {
+                throw (Importer.ImportException) cause;
+            } else if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /**
+     * Reads statements up to the next TREE statement in a TREES block, processing the other
+     * statements on the way.
+     *
+     * @return the bytes of the TREE statement (without the ';'), or null if there are no more
+     */
+    private byte[] nextTreeStatement() throws IOException, Importer.ImportException {
+        while (position < length) {
+            long start = skipWhitespaceAndComments(position);
+            long end = findStatementEnd(start);
+            if (end < 0) {
+                // an unfinished statement at the end of the file
+                position = length;
+                return null;
+            }
+            position = end + 1;
+
+            long keywordStart = start;
+            String keyword = readKeyword(keywordStart, end);
+            if (keyword.equals("#NEXUS")) {
+                keywordStart = skipWhitespaceAndComments(keywordStart + keyword.length());
+                keyword = readKeyword(keywordStart, end);
+            }
+
+            if (inTreesBlock && (keyword.equals("TREE") || keyword.equals("UTREE"))) {
+                if (!block.prepared) {
+                    block.prepare();
+                }
+                return getBytes(keywordStart, end);
+            }
+
+            if (keyword.equals("BEGIN")) {
+                List<String> tokens = tokenize(getString(keywordStart, end));
+                String blockName = tokens.size() > 1 ? tokens.get(1).toUpperCase() : "";
+                inTaxaBlock = blockName.equals("TAXA");
+                inTreesBlock = blockName.equals("TREES");
+                if (inTreesBlock) {
+                    block = new TreesBlock(taxaBlock != null ? taxaBlock : taxonList);
+                }
+            } else if (keyword.equals("END") || keyword.equals("ENDBLOCK")) {
+                inTaxaBlock = false;
+                inTreesBlock = false;
+            } else if (inTaxaBlock && keyword.equals("TAXLABELS")) {
+                List<String> tokens = tokenize(getString(keywordStart, end));
+                Taxa taxa = new Taxa();
+                for (int i = 1; i < tokens.size(); i++) {
+                    taxa.addTaxon(new Taxon(tokens.get(i)));
+                }
+                taxaBlock = taxa;
+            } else if (inTreesBlock && keyword.equals("TRANSLATE")) {
+                readTranslateCommand(getString(keywordStart, end));
+            }
+        }
+        return null;
+    }
+
+    private void readTranslateCommand(String command) throws Importer.ImportException {
+        List<String> tokens = tokenize(command);
+        TaxonList taxa = block.taxonList;
+
+        int i = 1;
+        while (i < tokens.size()) {
+            String label = tokens.get(i);
+            if (label.equals(",") || i + 1 >= tokens.size() || tokens.get(i + 1).equals(",")) {
+                throw new Importer.BadFormatException("Missing taxon label in TRANSLATE command of TREES block");
+            }
+            String name = tokens.get(i + 1);
+            i += 2;
+            if (i < tokens.size()) {
+                if (!tokens.get(i).equals(",")) {
+                    throw new Importer.BadFormatException("Expecting ',' or ';' after taxon label in TRANSLATE command of TREES block");
+                }
+                i++;
+            }
+
+            Taxon taxon;
+            if (taxa != null) {
+                int index = taxa.getTaxonIndex(name);
+                if (index == -1) {
+                    throw new Importer.UnknownTaxonException(name);
+                }
+                taxon = taxa.getTaxon(index);
+            } else {
+                taxon = new Taxon(name);
+            }
+            block.translationList.put(label, taxon);
+        }
+
+        block.setTaxonNumbers();
+    }
+
+    private String readKeyword(long start, long end) throws IOException {
+        StringBuilder keyword = new StringBuilder();
+        long p = start;
+        while (p < end) {
+            byte b = get(p);
+            if (isWhitespace(b) || b == '[' || b == '=' || b == ';' || b == '*' || b == '(' || b == '\'' || b == '"') {
+                break;
+            }
+            keyword.append(Character.toUpperCase((char) b));
+            p++;
+        }
+        return keyword.toString();
+    }
+
+    private long skipWhitespaceAndComments(long p) throws IOException {
+        while (p < length) {
+            byte b = get(p);
+            if (isWhitespace(b)) {
+                p++;
+            } else if (b == '[') {
+                int depth = 0;
+                do {
+                    b = get(p);
+                    if (b == '[') depth++;
+                    else if (b == ']') depth--;
+                    p++;
+                } while (depth > 0 && p < length);
+            } else {
+                break;
+            }
+        }
+        return p;
+    }
+
+    /**
+     * @return the position of the ';' which ends the statement, or -1 if it isn't found
+     */
+    private long findStatementEnd(long p) throws IOException {
+        int depth = 0;
+        byte quote = 0;
+        while (p < length) {
+            byte b = get(p);
+            if (quote != 0) {
+                if (b == quote) quote = 0;
+            } else if (b == '[') {
+                depth++;
+            } else if (b == ']') {
+                if (depth > 0) depth--;
+            } else if (depth == 0) {
+                if (b == ';') {
+                    return p;
+                } else if (b == '\'' || b == '"') {
+                    quote = b;
+                }
+            }
+            p++;
+        }
+        return -1;
+    }
+
+    private byte get(long p) throws IOException {
+        if (window == null || p < windowStart || p >= windowStart + window.capacity()) {
+            final long size = Math.min(MAX_WINDOW_SIZE, length - p);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, p, size);
+            windowStart = p;
+        }
+        return window.get((int) (p - windowStart));
+    }
+
+    private byte[] getBytes(long start, long end) throws IOException {
+        final long size = end - start;
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Statement too long in " + file.getName());
+        }
+        byte[] bytes = new byte[(int) size];
+        get(start);
+        if (end <= windowStart + window.capacity()) {
+            MappedByteBuffer buffer = window;
+            buffer.position((int) (start - windowStart));
+            buffer.get(bytes);
+        } else {
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = get(start + i);
+            }
+        }
+        return bytes;
+    }
+
+    private String getString(long start, long end) throws IOException {
+        return new String(getBytes(start, end), "UTF-8");
+    }
+
+    /**
+     * Splits a (non-tree) statement into words and commas, removing comments and quotes.
+     */
+    static List<String> tokenize(String statement) {
+        List<String> tokens = new ArrayList<String>();
+        StringBuilder token = new StringBuilder();
+        int i = 0;
+        final int n = statement.length();
+        while (i < n) {
+            char ch = statement.charAt(i);
+            if (Character.isWhitespace(ch)) {
+                i++;
+            } else if (ch == '[') {
+                int depth = 0;
+                do {
+                    ch = statement.charAt(i);
+                    if (ch == '[') depth++;
+                    else if (ch == ']') depth--;
+                    i++;
+                } while (depth > 0 && i < n);
+            } else if (ch == ',' || ch == '=') {
+                tokens.add(String.valueOf(ch));
+                i++;
+            } else if (ch == '\'' || ch == '"') {
+                final char quote = ch;
+                token.setLength(0);
+                i++;
+                while (i < n) {
+                    ch = statement.charAt(i);
+                    if (ch == quote) {
+                        if (i + 1 < n && statement.charAt(i + 1) == quote) {
+                            token.append(quote);
+                            i += 2;
+                            continue;
+                        }
+                        i++;
+                        break;
+                    }
+                    token.append(ch);
+                    i++;
+                }
+                tokens.add(token.toString());
+            } else {
+                token.setLength(0);
+                while (i < n) {
+                    ch = statement.charAt(i);
+                    if (Character.isWhitespace(ch) || ch == ',' || ch == '=' || ch == '[') {
+                        break;
+                    }
+                    token.append(ch);
+                    i++;
+                }
+                tokens.add(token.toString());
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+
+    // **************************************************************
+    // Decoding
+    // **************************************************************
+
+    /**
+     * The taxa of a TREES block. As in NexusImporter, the tips are looked up in the
+     * TRANSLATE table, or are the taxa of the taxon list if there is no table, or are new
+     * taxa if there is neither (these are shared by all the trees of the block).
+     */
+    private static class TreesBlock {
+        TreesBlock(TaxonList taxonList) {
+            this.taxonList = taxonList;
+        }
+
+        void setTaxonNumbers() {
+            // the same numbers as NexusImporter gives the external nodes
+            taxonNumberMap = new HashMap<Taxon, Integer>();
+            int count = 0;
+            for (String label : translationList.keySet()) {
+                Taxon taxon = translationList.get(label);
+                int number;
+
+                try {
+                    number = Integer.parseInt(label) - 1;
+                } catch (NumberFormatException nfe) {
+                    number = count;
+                }
+
+                taxonNumberMap.put(taxon, number);
+                count++;
+            }
+        }
+
+        /**
+         * Called by the scanner before the first tree of the block is decoded.
+         */
+        void prepare() {
+            if (translationList.size() == 0 && taxonList != null) {
+                for (int i = 0; i < taxonList.getTaxonCount(); i++) {
+                    Taxon taxon = taxonList.getTaxon(i);
+                    translationList.put(taxon.getId(), taxon);
+                }
+                setTaxonNumbers();
+            }
+            prepared = true;
+        }
+
+        Taxon getTaxon(String label) throws Importer.ImportException {
+            if (translationList.size() > 0) {
+                Taxon taxon = translationList.get(label);
+                if (taxon == null) {
+                    throw new Importer.UnknownTaxonException("Taxon in tree, '" + label + "' is unknown");
+                }
+                return taxon;
+            }
+
+            Taxon taxon = newTaxa.get(label);
+            if (taxon == null) {
+                taxon = new Taxon(label);
+                Taxon existing = newTaxa.putIfAbsent(label, taxon);
+                if (existing != null) {
+                    taxon = existing;
+                }
+            }
+            return taxon;
+        }
+
+        final TaxonList taxonList;
+        final Map<String, Taxon> translationList = new HashMap<String, Taxon>();
+        Map<Taxon, Integer> taxonNumberMap = null;
+        boolean prepared = false;
+        final ConcurrentHashMap<String, Taxon> newTaxa = new ConcurrentHashMap<String, Taxon>();
+    }
+
+    /**
+     * Decodes TREE statements into CompactTrees. Each thread has its own decoder.
+     */
+    static class Decoder {
+
+        Decoder(TreesBlock block) {
+            this.block = block;
+        }
+
+        CompactTree decode(byte[] bytes) throws Importer.ImportException {
+            this.bytes = bytes;
+            pos = 0;
+
+            skipSpace(false);
+            while (pos < bytes.length && Character.isLetter((char) bytes[pos])) {
+                pos++;
+            }
+            skipSpace(false);
+            if (pos < bytes.length && bytes[pos] == '*') {
+                // Star is used to specify a default tree - ignore it
+                pos++;
+            }
+
+            clearMeta();
+            String name = readLabel();
+            skipSpace(true);
+            final String comment = takeMeta();
+
+            if (pos >= bytes.length || bytes[pos] != '=') {
+                throw new Importer.BadFormatException("Missing label for tree'" + name + "' or missing '=' in TREE command of TREES block");
+            }
+            pos++;
+
+            skipSpace(true);
+            final String scomment = takeMeta();
+
+            if (pos >= bytes.length || bytes[pos] != '(') {
+                throw new Importer.BadFormatException("Missing tree definition in TREE command of TREES block");
+            }
+
+            CompactTree.Builder builder = new CompactTree.Builder(Math.max(16, bytes.length / 8));
+            readNodes(builder);
+
+            builder.setId(name);
+
+            if (scomment != null) {
+                // below is correct only if [&W] appears on it own
+                String c = scomment;
+                while (c.length() > 0) {
+                    final char ch = c.charAt(0);
+                    if (ch == ';') {
+                        c = c.substring(1);
+                        continue;
+                    }
+                    if (ch == 'R') {
+                        // we only have rooted trees anyway
+                        c = c.substring(1);
+                    } else if (ch == 'W') {
+                        int e = c.indexOf(';');
+                        if (e < 0) e = c.length();
+
+                        try {
+                            final Float value = new Float(c.substring(2, e));
+                            builder.setAttribute("weight", value);
+                        } catch (NumberFormatException ex) {
+                            // don't fail, ignore
+                        } catch (IndexOutOfBoundsException ex) {
+                            // don't fail, ignore
+                        }
+                        c = c.substring(e);
+                    } else {
+                        c = c.substring(1);
+                    }
+                }
+            }
+
+            if (comment != null) {
+                Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+                try {
+                    parseMetaComment(comment, attributes);
+                    for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                        builder.setAttribute(entry.getKey(), entry.getValue());
+                    }
+                } catch (Importer.BadFormatException e) {
+                    // set generic comment attribute
+                    builder.setAttribute("comment", comment);
+                }
+            }
+
+            try {
+                return builder.build(block.translationList.size() > 0 ? block.taxonNumberMap : null);
+            } catch (IllegalArgumentException iae) {
+                throw new Importer.BadFormatException("Badly formed tree '" + name + "': " + iae.getMessage());
+            }
+        }
+
+        /**
+         * Reads the nodes of the tree from the opening '(' of the root. Uses an explicit
+         * stack rather than recursion so very deep trees can be read.
+         */
+        private void readNodes(CompactTree.Builder builder) throws Importer.ImportException {
+            int[] stack = new int[64];
+            int[] childCounts = new int[64];
+            int top = -1;
+
+            while (true) {
+                // the start of a node
+                clearMeta();
+                skipSpace(true);
+                if (pos >= bytes.length) {
+                    throw new Importer.BadFormatException("Missing closing ')' in tree in TREES block");
+                }
+
+                final int parent = top >= 0 ? stack[top] : -1;
+                if (top >= 0) {
+                    childCounts[top]++;
+                }
+
+                int node;
+                if (bytes[pos] == '(') {
+                    pos++;
+                    node = builder.addNode(parent);
+                    applyMeta(builder, node);
+                    top++;
+                    if (top == stack.length) {
+                        stack = copyOf(stack, top * 2);
+                        childCounts = copyOf(childCounts, top * 2);
+                    }
+                    stack[top] = node;
+                    childCounts[top] = 0;
+                    continue;
+                }
+
+                node = builder.addNode(parent);
+                String label = readLabel();
+                builder.setTaxon(node, block.getTaxon(label));
+                byte delimiter = readNodeSuffix(builder, node, false, false);
+
+                // close the internal nodes which end here
+                while (delimiter == ')') {
+                    if (top < 0) {
+                        throw new Importer.BadFormatException("Unexpected ')' in tree in TREES block");
+                    }
+                    if (childCounts[top] < 2) {
+                        throw new Importer.BadFormatException("Missing ',' in tree in TREES block");
+                    }
+                    node = stack[top];
+                    top--;
+                    // the root's length is ignored, as in NexusImporter
+                    delimiter = readNodeSuffix(builder, node, true, top < 0);
+                }
+
+                if (delimiter == ',') {
+                    if (top < 0) {
+                        throw new Importer.BadFormatException("Unexpected ',' in tree in TREES block");
+                    }
+                } else {
+                    // the end of the statement
+                    if (top >= 0) {
+                        throw new Importer.BadFormatException("Missing closing ')' in tree in TREES block");
+                    }
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Reads anything after a node's label or closing ')': an internal node label (which
+         * is ignored), the branch length and any meta comments.
+         *
+         * @return the delimiter which follows the node: ',', ')' or 0 at the end
+         */
+        private byte readNodeSuffix(CompactTree.Builder builder, int node, boolean isInternal, boolean isRoot)
+                throws Importer.ImportException {
+            skipSpace(true);
+            if (isInternal && pos < bytes.length && !isDelimiter(bytes[pos])) {
+                readLabel();
+                skipSpace(true);
+            }
+            applyMeta(builder, node);
+
+            if (pos < bytes.length && bytes[pos] == ':') {
+                pos++;
+                skipSpace(true);
+                final int start = pos;
+                while (pos < bytes.length && !isDelimiter(bytes[pos]) && !isSpace(bytes[pos]) && bytes[pos] != '[') {
+                    pos++;
+                }
+                double length;
+                try {
+                    length = Double.parseDouble(new String(bytes, start, pos - start));
+                } catch (NumberFormatException nfe) {
+                    throw new Importer.ImportException("Number format error: " + nfe.getMessage());
+                }
+                if (!isRoot) {
+                    builder.setLength(node, length);
+                }
+                skipSpace(true);
+                applyMeta(builder, node);
+            }
+
+            if (pos >= bytes.length) {
+                return 0;
+            }
+            final byte delimiter = bytes[pos];
+            if (delimiter == ',' || delimiter == ')') {
+                pos++;
+                return delimiter;
+            }
+            throw new Importer.BadFormatException("Unexpected character '" + (char) delimiter + "' in tree in TREES block");
+        }
+
+        /**
+         * Reads a possibly quoted label. As in Importer.readToken, runs of whitespace in a
+         * quoted label become a single space and a repeated quote is a quote.
+         */
+        private String readLabel() {
+            skipSpace(true);
+            if (pos >= bytes.length) {
+                return "";
+            }
+
+            final byte first = bytes[pos];
+            if (first == '\'' || first == '"') {
+                pos++;
+                StringBuilder label = new StringBuilder();
+                int start = pos;
+                boolean space = false;
+                while (pos < bytes.length) {
+                    byte b = bytes[pos];
+                    if (b == first) {
+                        if (pos + 1 < bytes.length && bytes[pos + 1] == first) {
+                            label.append(decode(start, pos + 1));
+                            pos += 2;
+                            start = pos;
+                            continue;
+                        }
+                        break;
+                    }
+                    if (isSpace(b)) {
+                        label.append(decode(start, pos));
+                        if (!space) {
+                            label.append(' ');
+                        }
+                        space = true;
+                        pos++;
+                        start = pos;
+                        continue;
+                    }
+                    space = false;
+                    pos++;
+                }
+                label.append(decode(start, pos));
+                if (pos < bytes.length) {
+                    pos++; // the closing quote
+                }
+                return label.toString();
+            }
+
+            final int start = pos;
+            while (pos < bytes.length) {
+                byte b = bytes[pos];
+                if (isSpace(b) || isDelimiter(b) || b == '[' || b == '=') {
+                    break;
+                }
+                pos++;
+            }
+            return decode(start, pos);
+        }
+
+        private String decode(int start, int end) {
+            for (int i = start; i < end; i++) {
+                if (bytes[i] < 0) {
+                    try {
+                        return new String(bytes, start, end - start, "UTF-8");
+                    } catch (UnsupportedEncodingException uee) {
+                        throw new RuntimeException(uee);
+                    }
+                }
+            }
+            // plain ASCII
+            char[] chars = new char[end - start];
+            for (int i = start; i < end; i++) {
+                chars[i - start] = (char) bytes[i];
+            }
+            return new String(chars);
+        }
+
+        /**
+         * Skips whitespace and comments. If keepMeta is true then the meta comments ([&...])
+         * are kept (consecutive ones are joined with a ';' as in Importer).
+         */
+        private void skipSpace(boolean keepMeta) {
+            while (pos < bytes.length) {
+                final byte b = bytes[pos];
+                if (isSpace(b)) {
+                    pos++;
+                } else if (b == '[') {
+                    final boolean isMeta = keepMeta && pos + 1 < bytes.length && bytes[pos + 1] == '&';
+                    pos += isMeta ? 2 : 1;
+                    int start = pos;
+                    StringBuilder comment = isMeta ? new StringBuilder() : null;
+                    int depth = 1;
+                    while (pos < bytes.length && depth > 0) {
+                        final byte c = bytes[pos];
+                        if (c == '[' || c == ']') {
+                            if (comment != null) {
+                                comment.append(decode(start, pos));
+                            }
+                            depth += (c == '[') ? 1 : -1;
+                            start = pos + 1;
+                        }
+                        pos++;
+                    }
+                    if (comment != null) {
+                        if (depth > 0) {
+                            comment.append(decode(start, pos));
+                        }
+                        meta = (meta != null ? meta + ";" : "") + comment.toString();
+                    }
+                } else {
+                    break;
+                }
+            }
+        }
+
+        private void clearMeta() {
+            meta = null;
+        }
+
+        private String takeMeta() {
+            String comment = meta;
+            meta = null;
+            return comment;
+        }
+
+        private void applyMeta(CompactTree.Builder builder, int node) {
+            final String comment = takeMeta();
+            if (comment != null) {
+                attributes.clear();
+                try {
+                    parseMetaComment(comment, attributes);
+                } catch (Importer.BadFormatException bfe) {
+                    // ignore it, as NexusImporter does
+                }
+                for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                    builder.setNodeAttribute(node, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        private static boolean isSpace(byte b) {
+            return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+        }
+
+        private static boolean isDelimiter(byte b) {
+            return b == ',' || b == ')' || b == '(' || b == ':' || b == ';';
+        }
+
+        private static int[] copyOf(int[] array, int length) {
+            int[] copy = new int[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        private final TreesBlock block;
+        private final Map<String, Object> attributes = new LinkedHashMap<String, Object>();
+        private byte[] bytes;
+        private int pos;
+        private String meta = null;
+    }
+
+    /**
+     * Parses the label=value pairs of a meta comment as NexusImporter.parseMetaCommentPairs does
+     * but with the pattern compiled once and a quicker path for numbers.
+     */
+    static void parseMetaComment(String meta, Map<String, Object> attributes) throws Importer.BadFormatException {
+        Matcher matcher = META_COMMENT_PAIR.matcher(meta);
+
+        while (matcher.find()) {
+            String label = matcher.group(1);
+            if (label.charAt(0) == '\"') {
+                label = label.substring(1, label.length() - 1);
+            }
+            if (label.trim().length() == 0) {
+                throw new Importer.BadFormatException("Badly formatted attribute: '" + matcher.group() + "'");
+            }
+            final String value = matcher.group(2);
+            if (value != null && value.trim().length() > 0) {
+                attributes.put(label, parseValue(value.substring(1)));
+            } else {
+                attributes.put(label, Boolean.TRUE);
+            }
+        }
+    }
+
+    /**
+     * The same as NexusImporter.parseValue but numbers are parsed without an exception
+     * being thrown first for every value which isn't an integer.
+     */
+    static Object parseValue(String value) {
+        value = value.trim();
+        final int n = value.length();
+        if (n > 0) {
+            final char first = value.charAt(0);
+            if ((first >= '0' && first <= '9') || first == '-' || first == '+' || first == '.') {
+                boolean isInteger = n < 11;
+                for (int i = (first == '-' || first == '+') ? 1 : 0; isInteger && i < n; i++) {
+                    final char ch = value.charAt(i);
+                    isInteger = ch >= '0' && ch <= '9';
+                }
+                if (isInteger && (n > 1 || first >= '0')) {
+                    try {
+                        return Integer.parseInt(value);
+                    } catch (NumberFormatException nfe) {
+                        // too large so it is a double
+                    }
+                }
+                try {
+                    return Double.parseDouble(value);
+                } catch (NumberFormatException nfe) {
+                    // not a number
+                }
+            }
+        }
+        return NexusImporter.parseValue(value);
+    }
+
+    // the same pattern as NexusImporter.parseMetaCommentPairs
+    private static final Pattern META_COMMENT_PAIR =
+            Pattern.compile("(\"[^\"]*\"+|[^,=\\s]+)\\s*(=\\s*(\\{[^=}]*\\}|\"[^\"]*\"+|[^,]+))?");
+
+    private static final int BATCHES_PER_THREAD = 4;
+    private static final int MAX_BATCH_TREES = 32;
+    private static final int MAX_BATCH_BYTES = 1 << 20;
+    private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+    private final File file;
+    private final int threadCount;
+    private final FileChannel channel;
+    private final long length;
+
+    private MappedByteBuffer window = null;
+    private long windowStart;
+    private long position = 0;
+
+    private boolean inTaxaBlock = false;
+    private boolean inTreesBlock = false;
+    private TaxonList taxaBlock = null;
+    private TaxonList taxonList = null;
+    private TreesBlock block = null;
+
+    private final LinkedList<Future<CompactTree[]>> pending = new LinkedList<Future<CompactTree[]>>();
+    private CompactTree[] current = null;
+    private int currentIndex = 0;
+
+    private ExecutorService executor = null;
+    private final AtomicInteger threadNumber = new AtomicInteger();
+}
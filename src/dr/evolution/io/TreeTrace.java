@@ -25,11 +25,14 @@
 
 package dr.evolution.io;
 
+import dr.evolution.tree.CompactTree;
 import dr.evolution.tree.Tree;
 import dr.util.Identifiable;
 
 import java.io.BufferedReader;
 import java.io.EOFException;
+import java.io.File;
+import java.io.FileReader;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.ArrayList;
@@ -122,21 +125,8 @@ public class TreeTrace implements Identifiable {
 
         if (line.toUpperCase().startsWith("#NEXUS")) {
             NexusImporter importer = new NexusImporter(reader);
-            Tree[] trees = importer.importTrees(null);
-
-            if (trees.length < 2) {
-                throw new Importer.ImportException("Less than two trees in the trace file");
-            }
-
-            String id1 = trees[0].getId();
-            String id2 = trees[1].getId();
-
-            minState = getStateNumber(id1);
-            stepSize = getStateNumber(id2) - minState;
-
-            for (Tree tree : trees) {
-                trace.add(tree);
-            }
+            loadNexusTrees(importer, trace);
+            return trace;
         } else {
             NewickImporter importer = new NewickImporter(reader);
 
@@ -169,7 +159,7 @@ public class TreeTrace implements Identifiable {
                     stepSize = state - minState;
                 }
 
-                trace.add(tree);
+                trace.add(CompactTree.copyOf(tree));
             }
         }
 
@@ -179,6 +169,55 @@ public class TreeTrace implements Identifiable {
         return trace;
     }
 
+    /**
+     * Loads the trace of trees from a file. NEXUS tree files are read with a
+     * MappedTreeImporter.
+     *
+     * @param file the file to load the trees from
+     * @return the TreeTrace
+     * @throws dr.evolution.io.Importer.ImportException
+     *                             thrown when tree file is not correctly formatted
+     * @throws java.io.IOException if general I/O error occurs
+     */
+    public static TreeTrace loadTreeTrace(File file) throws IOException, Importer.ImportException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        String line = reader.readLine();
+        if (line == null || !line.toUpperCase().startsWith("#NEXUS")) {
+            reader.close();
+            return loadTreeTrace(new FileReader(file));
+        }
+        reader.close();
+
+        TreeTrace trace = new TreeTrace();
+        MappedTreeImporter importer = new MappedTreeImporter(file);
+        try {
+            loadNexusTrees(importer, trace);
+        } finally {
+            importer.close();
+        }
+        return trace;
+    }
+
+    /**
+     * Adds the trees to the trace as CompactTrees, which take much less memory than the
+     * trees the importer gives.
+     */
+    private static void loadNexusTrees(TreeImporter importer, TreeTrace trace) throws IOException, Importer.ImportException {
+        Tree tree = importer.importNextTree();
+        while (tree != null) {
+            trace.add(CompactTree.copyOf(tree));
+            tree = importer.importNextTree();
+        }
+
+        if (trace.trees.size() < 2) {
+            throw new Importer.ImportException("Less than two trees in the trace file");
+        }
+
+        int minState = getStateNumber(trace.trees.get(0).getId());
+        trace.setMinimumState(minState);
+        trace.setStepSize(getStateNumber(trace.trees.get(1).getId()) - minState);
+    }
+
     private static int getStateNumber(String id) throws Importer.ImportException {
         try {
             if (id.indexOf('_') != -1) { // probably BEAST tree file
@@ -0,0 +1,893 @@
+/*
+ * CompactTree.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evolution.tree;
+
+import dr.evolution.util.Taxon;
+
+import java.util.*;
+
+/**
+ * An immutable tree held in arrays indexed by node number: the parent of each node, the
+ * children of each node (as runs of a single array), the heights and branch lengths, and
+ * the node attributes as one typed column per attribute name (doubles, integers or
+ * strings coded against a dictionary). It takes a fraction of the memory of a FlexibleTree
+ * which has an object and an attribute map for every node, so it suits tools which keep
+ * many trees.
+ * <p/>
+ * The nodes are numbered as FlexibleTree numbers them: the external nodes first, in the
+ * order of the taxon number map if one is given, then the internal nodes in post-order.
+ * CompactTrees are made with a CompactTree.Builder or copied from another tree with copyOf,
+ * and toFlexibleTree makes a copy which can be changed.
+ */
+public class CompactTree implements Tree {
+
+    private CompactTree(String id, Map<String, Object> attributes, Type units, Taxon[] taxa, int root,
+                        int[] parents, int[] childStarts, int[] children, double[] heights, double[] lengths,
+                        Map<String, Column> columns) {
+        this.id = id;
+        this.attributes = attributes;
+        this.units = units;
+        this.taxa = taxa;
+        this.root = root;
+        this.parents = parents;
+        this.childStarts = childStarts;
+        this.children = children;
+        this.heights = heights;
+        this.lengths = lengths;
+        this.columns = columns;
+
+        nodes = new Node[parents.length];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node(i);
+        }
+    }
+
+    /**
+     * Makes a CompactTree with the same node numbers, heights, taxa and attributes as
+     * another tree, e.g., one read by NexusImporter.
+     */
+    public static CompactTree copyOf(Tree tree) {
+        if (tree instanceof CompactTree) {
+            return (CompactTree) tree;
+        }
+
+        final int n = tree.getNodeCount();
+        final int externalCount = tree.getExternalNodeCount();
+
+        Taxon[] taxa = new Taxon[externalCount];
+        int[] parents = new int[n];
+        int[] childStarts = new int[n + 1];
+        double[] heights = new double[n];
+        Map<String, Object[]> nodeAttributes = new LinkedHashMap<String, Object[]>();
+
+        for (int i = 0; i < n; i++) {
+            NodeRef node = tree.getNode(i);
+            if (tree.isExternal(node) != (i < externalCount)) {
+                throw new IllegalArgumentException("The external nodes of tree " + tree.getId() + " are not numbered first");
+            }
+            if (i < externalCount) {
+                taxa[i] = tree.getNodeTaxon(node);
+            }
+            NodeRef parent = tree.getParent(node);
+            parents[i] = parent == null ? -1 : parent.getNumber();
+            childStarts[i + 1] = childStarts[i] + tree.getChildCount(node);
+            heights[i] = tree.getNodeHeight(node);
+
+            Iterator iter = tree.getNodeAttributeNames(node);
+            if (iter != null) {
+                while (iter.hasNext()) {
+                    String name = (String) iter.next();
+                    Object[] values = nodeAttributes.get(name);
+                    if (values == null) {
+                        values = new Object[n];
+                        nodeAttributes.put(name, values);
+                    }
+                    values[i] = tree.getNodeAttribute(node, name);
+                }
+            }
+        }
+
+        int[] children = new int[childStarts[n]];
+        for (int i = 0; i < n; i++) {
+            NodeRef node = tree.getNode(i);
+            for (int j = 0; j < tree.getChildCount(node); j++) {
+                children[childStarts[i] + j] = tree.getChild(node, j).getNumber();
+            }
+        }
+
+        Map<String, Column> columns = new LinkedHashMap<String, Column>();
+        for (Map.Entry<String, Object[]> entry : nodeAttributes.entrySet()) {
+            columns.put(entry.getKey(), Builder.createColumn(entry.getKey(), entry.getValue()));
+        }
+
+        Map<String, Object> attributes = null;
+        Iterator<String> iter = tree.getAttributeNames();
+        if (iter != null && iter.hasNext()) {
+            attributes = new LinkedHashMap<String, Object>();
+            while (iter.hasNext()) {
+                String name = iter.next();
+                attributes.put(name, tree.getAttribute(name));
+            }
+        }
+
+        return new CompactTree(tree.getId(), attributes, tree.getUnits(), taxa, tree.getRoot().getNumber(),
+                parents, childStarts, children, heights, null, columns);
+    }
+
+    /**
+     * @return a FlexibleTree copy of this tree, with its attributes, for code which changes trees
+     */
+    public FlexibleTree toFlexibleTree() {
+        FlexibleTree tree = new FlexibleTree(this, true);
+        tree.setId(id);
+        if (attributes != null) {
+            for (Map.Entry<String, Object> entry : attributes.entrySet()) {
+                tree.setAttribute(entry.getKey(), entry.getValue());
+            }
+        }
+        return tree;
+    }
+
+    // **************************************************************
+    // Tree IMPLEMENTATION
+    // **************************************************************
+
+    public NodeRef getRoot() {
+        return nodes[root];
+    }
+
+    public int getNodeCount() {
+        return nodes.length;
+    }
+
+    public NodeRef getNode(int i) {
+        return nodes[i];
+    }
+
+    public NodeRef getInternalNode(int i) {
+        return nodes[i + taxa.length];
+    }
+
+    public NodeRef getExternalNode(int i) {
+        return nodes[i];
+    }
+
+    public int getExternalNodeCount() {
+        return taxa.length;
+    }
+
+    public int getInternalNodeCount() {
+        return nodes.length - taxa.length;
+    }
+
+    public Taxon getNodeTaxon(NodeRef node) {
+        final int i = node.getNumber();
+        return i < taxa.length ? taxa[i] : null;
+    }
+
+    public boolean hasNodeHeights() {
+        return true;
+    }
+
+    public double getNodeHeight(NodeRef node) {
+        return heights[node.getNumber()];
+    }
+
+    public boolean hasBranchLengths() {
+        return true;
+    }
+
+    public double getBranchLength(NodeRef node) {
+        final int i = node.getNumber();
+        if (lengths != null) {
+            return lengths[i];
+        }
+        return parents[i] < 0 ? 0.0 : heights[parents[i]] - heights[i];
+    }
+
+    public double getNodeRate(NodeRef node) {
+        Object rateAttr = getNodeAttribute(node, "rate");
+
+        if (rateAttr != null) {
+            if (rateAttr instanceof Number) return ((Number) rateAttr).doubleValue();
+            if (rateAttr instanceof String) return Double.parseDouble((String) rateAttr);
+        }
+
+        return 1.0;
+    }
+
+    public Object getNodeAttribute(NodeRef node, String name) {
+        Column column = columns.get(name);
+        if (column == null) {
+            return null;
+        }
+        return column.getValue(node.getNumber());
+    }
+
+    public Iterator getNodeAttributeNames(NodeRef node) {
+        final int i = node.getNumber();
+        List<String> names = new ArrayList<String>();
+        for (Column column : columns.values()) {
+            if (column.hasValue(i)) {
+                names.add(column.name);
+            }
+        }
+        return names.iterator();
+    }
+
+    public boolean isExternal(NodeRef node) {
+        return node.getNumber() < taxa.length;
+    }
+
+    public boolean isRoot(NodeRef node) {
+        return node.getNumber() == root;
+    }
+
+    public int getChildCount(NodeRef node) {
+        final int i = node.getNumber();
+        return childStarts[i + 1] - childStarts[i];
+    }
+
+    public NodeRef getChild(NodeRef node, int j) {
+        return nodes[children[childStarts[node.getNumber()] + j]];
+    }
+
+    public NodeRef getParent(NodeRef node) {
+        final int parent = parents[node.getNumber()];
+        return parent < 0 ? null : nodes[parent];
+    }
+
+    /**
+     * @return this tree, as it can't be changed
+     */
+    public Tree getCopy() {
+        return this;
+    }
+
+    // **************************************************************
+    // Array access
+    // **************************************************************
+
+    /**
+     * @return the number of the root node
+     */
+    public int getRootNumber() {
+        return root;
+    }
+
+    /**
+     * @return the number of the parent of the given node, or -1 for the root
+     */
+    public int getParentNumber(int node) {
+        return parents[node];
+    }
+
+    /**
+     * @return the number of the j'th child of the given node
+     */
+    public int getChildNumber(int node, int j) {
+        return children[childStarts[node] + j];
+    }
+
+    public int getChildCount(int node) {
+        return childStarts[node + 1] - childStarts[node];
+    }
+
+    public double getNodeHeight(int node) {
+        return heights[node];
+    }
+
+    /**
+     * @return the value of a node attribute column as a double, or NaN if the node has no
+     *         value or the value is not a number
+     */
+    public double getNodeAttributeValue(int node, String name) {
+        Column column = columns.get(name);
+        if (column == null || !column.hasValue(node)) {
+            return Double.NaN;
+        }
+        return column.getDoubleValue(node);
+    }
+
+    /**
+     * @return the names of the node attributes
+     */
+    public Set<String> getNodeAttributeNameSet() {
+        return Collections.unmodifiableSet(columns.keySet());
+    }
+
+    // **************************************************************
+    // TaxonList IMPLEMENTATION
+    // **************************************************************
+
+    public int getTaxonCount() {
+        return taxa.length;
+    }
+
+    public Taxon getTaxon(int taxonIndex) {
+        // as in FlexibleTree, an internal node's number gives no taxon
+        return taxonIndex < taxa.length ? taxa[taxonIndex] : null;
+    }
+
+    public String getTaxonId(int taxonIndex) {
+        Taxon taxon = getTaxon(taxonIndex);
+        if (taxon != null)
+            return taxon.getId();
+        else
+            return null;
+    }
+
+    public int getTaxonIndex(String id) {
+        for (int i = 0; i < taxa.length; i++) {
+            if (getTaxonId(i).equals(id)) return i;
+        }
+        return -1;
+    }
+
+    public int getTaxonIndex(Taxon taxon) {
+        for (int i = 0; i < taxa.length; i++) {
+            if (taxa[i] == taxon) return i;
+        }
+        return -1;
+    }
+
+    public List<Taxon> asList() {
+        return new ArrayList<Taxon>(Arrays.asList(taxa));
+    }
+
+    public Iterator<Taxon> iterator() {
+        return asList().iterator();
+    }
+
+    public Object getTaxonAttribute(int taxonIndex, String name) {
+        Taxon taxon = getTaxon(taxonIndex);
+        if (taxon != null)
+            return taxon.getAttribute(name);
+        else
+            return null;
+    }
+
+    // **************************************************************
+    // Identifiable, Attributable and Units IMPLEMENTATION
+    // **************************************************************
+
+    public String getId() {
+        return id;
+    }
+
+    public void setId(String id) {
+        throw new UnsupportedOperationException("CompactTree is immutable");
+    }
+
+    public void setAttribute(String name, Object value) {
+        throw new UnsupportedOperationException("CompactTree is immutable");
+    }
+
+    public Object getAttribute(String name) {
+        return attributes == null ? null : attributes.get(name);
+    }
+
+    public Iterator<String> getAttributeNames() {
+        if (attributes == null) {
+            return Collections.<String>emptyList().iterator();
+        }
+        return Collections.unmodifiableSet(attributes.keySet()).iterator();
+    }
+
+    public Type getUnits() {
+        return units;
+    }
+
+    public void setUnits(Type units) {
+        throw new UnsupportedOperationException("CompactTree is immutable");
+    }
+
+    public String toString() {
+        return Tree.Utils.newick(this);
+    }
+
+    // **************************************************************
+    // Private classes
+    // **************************************************************
+
+    private static final class Node implements NodeRef {
+        Node(int number) {
+            this.number = number;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        public void setNumber(int n) {
+            throw new UnsupportedOperationException("CompactTree is immutable");
+        }
+
+        public String toString() {
+            return "node " + number;
+        }
+
+        private final int number;
+    }
+
+    /**
+     * The values of one attribute for all the nodes. present is null if every node has a value.
+     */
+    private static abstract class Column {
+        Column(String name, BitSet present) {
+            this.name = name;
+            this.present = present;
+        }
+
+        boolean hasValue(int node) {
+            return present == null || present.get(node);
+        }
+
+        Object getValue(int node) {
+            return hasValue(node) ? get(node) : null;
+        }
+
+        abstract Object get(int node);
+
+        double getDoubleValue(int node) {
+            Object value = get(node);
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+        }
+
+        final String name;
+        final BitSet present;
+    }
+
+    private static final class DoubleColumn extends Column {
+        DoubleColumn(String name, BitSet present, Object[] values) {
+            super(name, present);
+            this.values = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    this.values[i] = (Double) values[i];
+                }
+            }
+        }
+
+        Object get(int node) {
+            return values[node];
+        }
+
+        double getDoubleValue(int node) {
+            return values[node];
+        }
+
+        private final double[] values;
+    }
+
+    private static final class IntegerColumn extends Column {
+        IntegerColumn(String name, BitSet present, Object[] values) {
+            super(name, present);
+            this.values = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    this.values[i] = (Integer) values[i];
+                }
+            }
+        }
+
+        Object get(int node) {
+            return values[node];
+        }
+
+        double getDoubleValue(int node) {
+            return values[node];
+        }
+
+        private final int[] values;
+    }
+
+    private static final class StringColumn extends Column {
+        StringColumn(String name, BitSet present, Object[] values) {
+            super(name, present);
+            codes = new int[values.length];
+
+            Map<String, Integer> codeMap = new HashMap<String, Integer>();
+            List<String> dictionary = new ArrayList<String>();
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    Integer code = codeMap.get(values[i]);
+                    if (code == null) {
+                        code = dictionary.size();
+                        codeMap.put((String) values[i], code);
+                        dictionary.add((String) values[i]);
+                    }
+                    codes[i] = code;
+                }
+            }
+            this.dictionary = dictionary.toArray(new String[dictionary.size()]);
+        }
+
+        Object get(int node) {
+            return dictionary[codes[node]];
+        }
+
+        private final int[] codes;
+        private final String[] dictionary;
+    }
+
+    /**
+     * Holds the attributes which are not all of one of the other types (e.g., arrays).
+     */
+    private static final class ObjectColumn extends Column {
+        ObjectColumn(String name, BitSet present, Object[] values) {
+            super(name, present);
+            this.values = values;
+        }
+
+        Object get(int node) {
+            return values[node];
+        }
+
+        private final Object[] values;
+    }
+
+    // **************************************************************
+    // Builder
+    // **************************************************************
+
+    /**
+     * Collects the nodes of a tree in any order, e.g., as they are read, and makes the
+     * CompactTree. The node indices used by the builder are not the final node numbers.
+     */
+    public static class Builder {
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int nodeCapacity) {
+            parents = new int[nodeCapacity];
+            lengths = new double[nodeCapacity];
+            taxa = new Taxon[nodeCapacity];
+        }
+
+        /**
+         * Adds a node. The children of a node keep the order in which they are added.
+         *
+         * @param parent the builder index of the parent or -1 for the root
+         * @return the builder index of the new node
+         */
+        public int addNode(int parent) {
+            if (nodeCount == parents.length) {
+                final int capacity = nodeCount * 2;
+                parents = copyOf(parents, capacity);
+                lengths = copyOf(lengths, capacity);
+                taxa = copyOf(taxa, capacity);
+                if (heights != null) {
+                    heights = copyOf(heights, capacity);
+                }
+                for (Map.Entry<String, Object[]> entry : nodeAttributes.entrySet()) {
+                    entry.setValue(copyOf(entry.getValue(), capacity));
+                }
+            }
+            parents[nodeCount] = parent;
+            return nodeCount++;
+        }
+
+        public int getNodeCount() {
+            return nodeCount;
+        }
+
+        public void setTaxon(int node, Taxon taxon) {
+            taxa[node] = taxon;
+        }
+
+        /**
+         * Sets the length of the branch above a node. Unless heights are given the heights
+         * are calculated from the lengths as they are in FlexibleTree.
+         */
+        public void setLength(int node, double length) {
+            lengths[node] = length;
+        }
+
+        /**
+         * Sets the height of a node. If any heights are given then all must be.
+         */
+        public void setHeight(int node, double height) {
+            if (heights == null) {
+                heights = new double[parents.length];
+            }
+            heights[node] = height;
+        }
+
+        public void setNodeAttribute(int node, String name, Object value) {
+            Object[] values = nodeAttributes.get(name);
+            if (values == null) {
+                values = new Object[parents.length];
+                nodeAttributes.put(name, values);
+            }
+            values[node] = value;
+        }
+
+        public void setId(String id) {
+            this.id = id;
+        }
+
+        public void setAttribute(String name, Object value) {
+            if (attributes == null) {
+                attributes = new LinkedHashMap<String, Object>();
+            }
+            attributes.put(name, value);
+        }
+
+        public void setUnits(Type units) {
+            this.units = units;
+        }
+
+        /**
+         * @param taxonNumberMap the number of each external node's taxon (as given to
+         *                       FlexibleTree), or null to number them in post-order
+         * @return the tree
+         */
+        public CompactTree build(Map<Taxon, Integer> taxonNumberMap) {
+            final int n = nodeCount;
+
+            // the children of each node in the builder's order
+            int rootIndex = -1;
+            int[] childCounts = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                if (parents[i] < 0) {
+                    if (rootIndex >= 0) {
+                        throw new IllegalArgumentException("The tree has more than one root");
+                    }
+                    rootIndex = i;
+                } else {
+                    childCounts[parents[i]]++;
+                }
+            }
+            if (rootIndex < 0) {
+                throw new IllegalArgumentException("The tree has no root");
+            }
+            int[] starts = new int[n + 1];
+            for (int i = 0; i < n; i++) {
+                starts[i + 1] = starts[i] + childCounts[i];
+            }
+            int[] kids = new int[n];
+            int[] filled = new int[n];
+            for (int i = 0; i < n; i++) {
+                if (parents[i] >= 0) {
+                    kids[starts[parents[i]] + filled[parents[i]]] = i;
+                    filled[parents[i]]++;
+                }
+            }
+
+            // post-order traversal
+            int[] postOrder = new int[n];
+            int[] stack = new int[n];
+            int[] next = new int[n];
+            int count = 0;
+            int top = 0;
+            stack[0] = rootIndex;
+            while (top >= 0) {
+                final int node = stack[top];
+                if (next[node] < starts[node + 1] - starts[node]) {
+                    stack[++top] = kids[starts[node] + next[node]];
+                    next[node]++;
+                } else {
+                    postOrder[count++] = node;
+                    top--;
+                }
+            }
+            if (count != n) {
+                throw new IllegalArgumentException("The tree has nodes which are not connected to the root");
+            }
+
+            int externalCount = 0;
+            for (int i = 0; i < n; i++) {
+                if (starts[i + 1] == starts[i]) {
+                    externalCount++;
+                }
+            }
+
+            // number the nodes as FlexibleTree does
+            int[] numbers = new int[n];
+            boolean[] used = new boolean[n];
+            int nextExternal = 0;
+            int nextInternal = externalCount;
+            final boolean useMap = taxonNumberMap != null && taxonNumberMap.size() > 0;
+            for (int k = 0; k < n; k++) {
+                final int node = postOrder[k];
+                int number;
+                if (starts[node + 1] == starts[node]) {
+                    if (useMap) {
+                        Integer mapped = taxonNumberMap.get(taxa[node]);
+                        if (mapped == null || mapped < 0 || mapped >= externalCount) {
+                            throw new IllegalArgumentException("Taxon " + taxa[node] + " has no node number");
+                        }
+                        number = mapped;
+                    } else {
+                        number = nextExternal++;
+                    }
+                } else {
+                    number = nextInternal++;
+                }
+                if (used[number]) {
+                    throw new IllegalArgumentException("Node number " + number + " is used twice");
+                }
+                used[number] = true;
+                numbers[node] = number;
+            }
+
+            int[] newParents = new int[n];
+            int[] newStarts = new int[n + 1];
+            int[] newChildren = new int[n];
+            for (int i = 0; i < n; i++) {
+                newParents[numbers[i]] = parents[i] < 0 ? -1 : numbers[parents[i]];
+                newStarts[numbers[i] + 1] = starts[i + 1] - starts[i];
+            }
+            for (int i = 0; i < n; i++) {
+                newStarts[i + 1] += newStarts[i];
+            }
+            for (int i = 0; i < n; i++) {
+                int start = newStarts[numbers[i]];
+                for (int j = starts[i]; j < starts[i + 1]; j++) {
+                    newChildren[start++] = numbers[kids[j]];
+                }
+            }
+
+            Taxon[] newTaxa = new Taxon[externalCount];
+            for (int i = 0; i < n; i++) {
+                if (numbers[i] < externalCount) {
+                    newTaxa[numbers[i]] = taxa[i];
+                }
+            }
+
+            double[] newHeights = new double[n];
+            double[] newLengths = null;
+            if (heights != null) {
+                for (int i = 0; i < n; i++) {
+                    newHeights[numbers[i]] = heights[i];
+                }
+            } else {
+                // the distance from the root (negative lengths are ignored) and then the height
+                // above the furthest tip
+                double[] depths = new double[n];
+                double maxDepth = 0.0;
+                for (int k = n - 1; k >= 0; k--) {
+                    final int node = postOrder[k];
+                    double depth = parents[node] < 0 ? 0.0 : depths[parents[node]];
+                    if (lengths[node] > 0.0) {
+                        depth += lengths[node];
+                    }
+                    depths[node] = depth;
+                    if (starts[node + 1] == starts[node] && depth > maxDepth) {
+                        maxDepth = depth;
+                    }
+                }
+                newLengths = new double[n];
+                for (int i = 0; i < n; i++) {
+                    newHeights[numbers[i]] = maxDepth - depths[i];
+                    newLengths[numbers[i]] = lengths[i];
+                }
+            }
+
+            Map<String, Column> columns = new LinkedHashMap<String, Column>();
+            for (Map.Entry<String, Object[]> entry : nodeAttributes.entrySet()) {
+                Object[] values = new Object[n];
+                Object[] builderValues = entry.getValue();
+                for (int i = 0; i < n; i++) {
+                    values[numbers[i]] = builderValues[i];
+                }
+                columns.put(entry.getKey(), createColumn(entry.getKey(), values));
+            }
+
+            return new CompactTree(id, attributes, units, newTaxa, numbers[rootIndex], newParents, newStarts,
+                    newChildren, newHeights, newLengths, columns);
+        }
+
+        private static Column createColumn(String name, Object[] values) {
+            BitSet present = new BitSet(values.length);
+            Class type = null;
+            boolean mixed = false;
+            for (int i = 0; i < values.length; i++) {
+                if (values[i] != null) {
+                    present.set(i);
+                    if (type == null) {
+                        type = values[i].getClass();
+                    } else if (type != values[i].getClass()) {
+                        mixed = true;
+                    }
+                }
+            }
+            if (present.cardinality() == values.length) {
+                present = null;
+            }
+
+            if (mixed || type == null) {
+                return new ObjectColumn(name, present, values);
+            } else if (type == Double.class) {
+                return new DoubleColumn(name, present, values);
+            } else if (type == Integer.class) {
+                return new IntegerColumn(name, present, values);
+            } else if (type == String.class) {
+                return new StringColumn(name, present, values);
+            }
+            return new ObjectColumn(name, present, values);
+        }
+
+        private static int[] copyOf(int[] array, int length) {
+            int[] copy = new int[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        private static double[] copyOf(double[] array, int length) {
+            double[] copy = new double[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        private static Taxon[] copyOf(Taxon[] array, int length) {
+            Taxon[] copy = new Taxon[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        private static Object[] copyOf(Object[] array, int length) {
+            Object[] copy = new Object[length];
+            System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+            return copy;
+        }
+
+        private int nodeCount = 0;
+        private int[] parents;
+        private double[] lengths;
+        private double[] heights = null;
+        private Taxon[] taxa;
+        private final Map<String, Object[]> nodeAttributes = new LinkedHashMap<String, Object[]>();
+
+        private String id = null;
+        private Map<String, Object> attributes = null;
+        private Type units = Type.SUBSTITUTIONS;
+    }
+
+    private final String id;
+    private final Map<String, Object> attributes;
+    private final Type units;
+
+    // the taxa of the external nodes, which are numbered 0 to taxa.length - 1
+    private final Taxon[] taxa;
+    private final int root;
+
+    // the children of node i are children[childStarts[i]] to children[childStarts[i + 1] - 1]
+    private final int[] parents;
+    private final int[] childStarts;
+    private final int[] children;
+
+    private final double[] heights;
+    // the branch lengths as given, or null if they are the differences of the heights
+    private final double[] lengths;
+
+    private final Map<String, Column> columns;
+
+    private final Node[] nodes;
+}
@@ -30,11 +30,13 @@ import dr.evolution.tree.Tree;
 import dr.evomodel.tree.TreeModel;
 import dr.evomodel.tree.TreeParameterModel;
 import dr.evomodelxml.branchratemodel.DiscretizedBranchRatesParser;
+import dr.inference.distribution.LogNormalDistributionModel;
 import dr.inference.distribution.ParametricDistributionModel;
 import dr.inference.model.Model;
 import dr.inference.model.ModelListener;
 import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
+import dr.math.distributions.NormalDistribution;
 
 /**
  * @author Alexei Drummond
@@ -51,13 +53,22 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel {
 
     private final int categoryCount;
     private final double step;
-    private final double[] rates;
+    private double[] rates;
+    private double[] storedRates;
     private boolean normalize = false;
     private double normalizeBranchRateTo = Double.NaN;
     private double scaleFactor = 1.0;
     private TreeModel treeModel;
     private final double logDensityNormalizationConstant;
 
+    // the values of the distribution's parameters for which the rates were calculated
+    // (null if the distribution can't be keyed on its parameters)
+    private double[] ratesKey;
+    private double[] storedRatesKey;
+
+    // the standard normal quantiles of the categories if the distribution is lognormal
+    private double[] standardQuantiles = null;
+
     //overSampling control the number of effective categories
 
     public DiscretizedBranchRates(
@@ -85,6 +96,7 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel {
         step = 1.0 / (double) categoryCount;
 
         rates = new double[categoryCount];
+        storedRates = new double[categoryCount];
 
         this.normalize = normalize;
 
@@ -101,6 +113,26 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel {
             rateCategoryParameter.setParameterValue(i, index);
         }
 
+        if (isKeyedOnParameters(model)) {
+            int keySize = 0;
+            for (int i = 0; i < model.getVariableCount(); i++) {
+                keySize += model.getVariable(i).getSize();
+            }
+            ratesKey = new double[keySize];
+            storedRatesKey = new double[keySize];
+            // NaN never equals a parameter value so the rates are calculated the first time
+            ratesKey[0] = Double.NaN;
+        }
+
+        if (model instanceof LogNormalDistributionModel) {
+            standardQuantiles = new double[categoryCount];
+            double z = step / 2.0;
+            for (int i = 0; i < categoryCount; i++) {
+                standardQuantiles[i] = NormalDistribution.quantile(z, 0.0, 1.0);
+                z += step;
+            }
+        }
+
         addModel(model);
         // AR - commented out: changes to the tree are handled by model changed events fired by rateCategories
 //        addModel(tree);
@@ -172,10 +204,27 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel {
     }
 
     protected void storeState() {
+        System.arraycopy(rates, 0, storedRates, 0, categoryCount);
+        if (ratesKey != null) {
+            System.arraycopy(ratesKey, 0, storedRatesKey, 0, ratesKey.length);
+        }
     }
 
     protected void restoreState() {
-        setupRates();
+        if (ratesKey != null) {
+            // the rates can be swapped back rather than recalculated
+            double[] tmp = rates;
+            rates = storedRates;
+            storedRates = tmp;
+
+            tmp = ratesKey;
+            ratesKey = storedRatesKey;
+            storedRatesKey = tmp;
+
+            if (normalize) computeFactor();
+        } else {
+            setupRates();
+        }
     }
 
     protected void acceptState() {
@@ -196,11 +245,21 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel {
      */
     protected void setupRates() {
 
-        double z = step / 2.0;
-        for (int i = 0; i < categoryCount; i++) {
-            rates[i] = distributionModel.quantile(z);
-            //System.out.print(rates[i]+"\t");
-            z += step;
+        if (ratesKey != null && !updateRatesKey()) {
+            // the distribution's parameters haven't changed so neither have the rates
+            if (normalize) computeFactor();
+            return;
+        }
+
+        if (standardQuantiles != null) {
+            ((LogNormalDistributionModel) distributionModel).quantiles(standardQuantiles, rates);
+        } else {
+            double z = step / 2.0;
+            for (int i = 0; i < categoryCount; i++) {
+                rates[i] = distributionModel.quantile(z);
+                //System.out.print(rates[i]+"\t");
+                z += step;
+            }
         }
         /*if(distributionModel.getClass().getName().equals("dr.inference.distribution.LogNormalDistributionModel")) {
             LogNormalDistributionModel lndm = (LogNormalDistributionModel) distributionModel;
@@ -210,6 +269,44 @@ public class DiscretizedBranchRates extends AbstractBranchRateModel {
         if (normalize) computeFactor();
     }
 
+    /**
+     * Sets the key to the current values of the distribution's parameters.
+     *
+     * @return true if any of the values have changed
+     */
+    private boolean updateRatesKey() {
+        boolean changed = false;
+        int k = 0;
+        for (int i = 0; i < distributionModel.getVariableCount(); i++) {
+            Parameter parameter = (Parameter) distributionModel.getVariable(i);
+            for (int j = 0; j < parameter.getDimension(); j++) {
+                double value = parameter.getParameterValue(j);
+                if (value != ratesKey[k]) {
+                    ratesKey[k] = value;
+                    changed = true;
+                }
+                k++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The quantiles of a distribution can be cached against the values of its parameters
+     * if these are all it depends on.
+     */
+    private static boolean isKeyedOnParameters(ParametricDistributionModel model) {
+        if (model.getModelCount() > 0 || model.getVariableCount() == 0) {
+            return false;
+        }
+        for (int i = 0; i < model.getVariableCount(); i++) {
+            if (!(model.getVariable(i) instanceof Parameter)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     public double getLogLikelihood() {
         return logDensityNormalizationConstant;
     }
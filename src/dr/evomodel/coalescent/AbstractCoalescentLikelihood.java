@@ -77,6 +77,12 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
 
         if (tree instanceof TreeModel) {
             addModel((TreeModel) tree);
+
+            if (includedLeafSet == null && excludedLeafSets.length == 0) {
+                // the whole tree is used so the events can be kept in order as the tree changes
+                eventList = new CoalescentEventList((TreeModel) tree);
+                addModel(eventList);
+            }
         }
 
         intervals = new Intervals(tree.getNodeCount());
@@ -166,6 +172,9 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
     public final void makeDirty() {
         likelihoodKnown = false;
         eventsKnown = false;
+        if (eventList != null) {
+            eventList.makeDirty();
+        }
     }
 
     /**
@@ -214,7 +223,19 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
     protected final void setupIntervals() {
 
         intervals.resetEvents();
-        collectTimes(tree, getIncludedMRCA(tree), getExcludedMRCAs(tree), intervals);
+        if (eventList != null) {
+            eventList.update();
+            for (int i = 0; i < eventList.getEventCount(); i++) {
+                if (eventList.isSampleEvent(i)) {
+                    intervals.addSampleEvent(eventList.getEventTime(i));
+                } else {
+                    intervals.addCoalescentEvent(eventList.getEventTime(i));
+                }
+            }
+            intervals.setEventsSorted();
+        } else {
+            collectTimes(tree, getIncludedMRCA(tree), getExcludedMRCAs(tree), intervals);
+        }
         // force a calculation of the intervals...
         intervals.getIntervalCount();
 
@@ -289,6 +310,11 @@ public abstract class AbstractCoalescentLikelihood extends AbstractModelLikeliho
     private final Set<String> includedLeafSet;
     private final Set[] excludedLeafSets;
 
+    /**
+     * The events of the tree kept in order (only if the whole tree is used and is a TreeModel).
+     */
+    private CoalescentEventList eventList = null;
+
     /**
      * The intervals.
      */
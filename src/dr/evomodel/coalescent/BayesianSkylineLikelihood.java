@@ -124,7 +124,7 @@ public class BayesianSkylineLikelihood extends OldAbstractCoalescentLikelihood {
 
         this.tree = tree;
         if (tree instanceof TreeModel) {
-            addModel((TreeModel)tree);
+            addTreeModel((TreeModel)tree);
         }
         addVariable(popSizeParameter);
 
@@ -0,0 +1,352 @@
+/*
+ * CoalescentEventList.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.coalescent;
+
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.AbstractModel;
+import dr.inference.model.Model;
+import dr.inference.model.Parameter;
+import dr.inference.model.Variable;
+
+/**
+ * The sampling and coalescent events of a TreeModel (i.e., its nodes) in order of time,
+ * kept sorted as the tree changes rather than being sorted from scratch for every evaluation
+ * of a coalescent likelihood.
+ *
+ * The list listens to the tree and notes which nodes have had their heights changed. When it
+ * is next used each of these is moved to its new place in the order, which for the usual
+ * operators (that move one or a few nodes) is a short, local shift. Changes in topology leave
+ * the node heights, and so the order, unchanged. Anything else (such as scaling all the node
+ * heights) causes the whole list to be sorted again. The order is stored and restored with
+ * the tree so a rejected move costs nothing.
+ *
+ * Events at the same time are ordered with samples before coalescences, as in Intervals.
+ */
+public class CoalescentEventList extends AbstractModel {
+
+    public static final String COALESCENT_EVENT_LIST = "coalescentEventList";
+
+    public CoalescentEventList(TreeModel tree) {
+        super(COALESCENT_EVENT_LIST);
+
+        this.tree = tree;
+        addModel(tree);
+
+        nodeCount = tree.getNodeCount();
+        externalNodeCount = tree.getExternalNodeCount();
+
+        order = new int[nodeCount];
+        position = new int[nodeCount];
+        times = new double[nodeCount];
+        storedOrder = new int[nodeCount];
+        storedPosition = new int[nodeCount];
+        storedTimes = new double[nodeCount];
+        sortBuffer = new int[nodeCount];
+
+        dirty = new boolean[nodeCount];
+        dirtyNodes = new int[nodeCount];
+
+        for (int i = 0; i < nodeCount; i++) {
+            order[i] = i;
+        }
+        allDirty = true;
+    }
+
+    /**
+     * @return the number of events (the number of nodes in the tree).
+     */
+    public int getEventCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @param i the index of an event in order of time (youngest first)
+     * @return the number of the tree node for the event
+     */
+    public int getNodeNumber(int i) {
+        update();
+        return order[i];
+    }
+
+    /**
+     * @param i the index of an event in order of time (youngest first)
+     * @return the time of the event
+     */
+    public double getEventTime(int i) {
+        update();
+        return times[order[i]];
+    }
+
+    /**
+     * @param i the index of an event in order of time (youngest first)
+     * @return true if this is a sampling event (an external node), false for a coalescence
+     */
+    public boolean isSampleEvent(int i) {
+        update();
+        return order[i] < externalNodeCount;
+    }
+
+    /**
+     * Marks the whole list as needing to be sorted again.
+     */
+    public void makeDirty() {
+        allDirty = true;
+    }
+
+    /**
+     * Brings the order up to date with the heights in the tree.
+     */
+    public void update() {
+        if (allDirty) {
+            for (int i = 0; i < nodeCount; i++) {
+                times[i] = tree.getNodeHeight(tree.getNode(i));
+            }
+            sortOrder(0, nodeCount);
+            for (int i = 0; i < nodeCount; i++) {
+                position[order[i]] = i;
+            }
+            clearDirty();
+            allDirty = false;
+        } else if (dirtyCount > 0) {
+            // Each node is moved in turn using the old times of the nodes not yet moved. The
+            // order is consistent with these times after each move so a move only has to shift
+            // the node past those that it has changed places with.
+            for (int i = 0; i < dirtyCount; i++) {
+                final int node = dirtyNodes[i];
+                final double time = tree.getNodeHeight(tree.getNode(node));
+                if (time != times[node]) {
+                    times[node] = time;
+                    moveNode(node);
+                }
+            }
+            clearDirty();
+        }
+    }
+
+    private void moveNode(int node) {
+        int pos = position[node];
+
+        while (pos > 0 && isBefore(node, order[pos - 1])) {
+            order[pos] = order[pos - 1];
+            position[order[pos]] = pos;
+            pos--;
+        }
+        while (pos < nodeCount - 1 && isBefore(order[pos + 1], node)) {
+            order[pos] = order[pos + 1];
+            position[order[pos]] = pos;
+            pos++;
+        }
+
+        order[pos] = node;
+        position[node] = pos;
+    }
+
+    /**
+     * @return true if the event for node1 comes strictly before that for node2. Samples come
+     *         before coalescences at the same time and the node number decides the rest so
+     *         that the order is unique.
+     */
+    private boolean isBefore(int node1, int node2) {
+        final double time1 = times[node1];
+        final double time2 = times[node2];
+        if (time1 != time2) {
+            return time1 < time2;
+        }
+        final boolean sample1 = node1 < externalNodeCount;
+        final boolean sample2 = node2 < externalNodeCount;
+        if (sample1 != sample2) {
+            return sample1;
+        }
+        return node1 < node2;
+    }
+
+    /**
+     * A merge sort of order[from..to) which checks for halves already in order, so that
+     * re-sorting after something like a scaling of all the heights is close to linear.
+     */
+    private void sortOrder(int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            for (int i = from + 1; i < to; i++) {
+                final int node = order[i];
+                int j = i;
+                while (j > from && isBefore(node, order[j - 1])) {
+                    order[j] = order[j - 1];
+                    j--;
+                }
+                order[j] = node;
+            }
+            return;
+        }
+
+        final int middle = (from + to) >>> 1;
+        sortOrder(from, middle);
+        sortOrder(middle, to);
+
+        if (!isBefore(order[middle], order[middle - 1])) {
+            // already in order
+            return;
+        }
+
+        System.arraycopy(order, from, sortBuffer, from, to - from);
+        int i = from;
+        int j = middle;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < middle && !isBefore(sortBuffer[j], sortBuffer[i]))) {
+                order[k] = sortBuffer[i++];
+            } else {
+                order[k] = sortBuffer[j++];
+            }
+        }
+    }
+
+    private void markDirty(int node) {
+        if (!dirty[node]) {
+            dirty[node] = true;
+            dirtyNodes[dirtyCount] = node;
+            dirtyCount++;
+        }
+    }
+
+    private void clearDirty() {
+        for (int i = 0; i < dirtyCount; i++) {
+            dirty[dirtyNodes[i]] = false;
+        }
+        dirtyCount = 0;
+    }
+
+    // **************************************************************
+    // ModelListener IMPLEMENTATION
+    // **************************************************************
+
+    protected void handleModelChangedEvent(Model model, Object object, int index) {
+        if (allDirty) {
+            return;
+        }
+
+        if (object instanceof TreeModel.TreeChangedEvent) {
+            final TreeModel.TreeChangedEvent event = (TreeModel.TreeChangedEvent) object;
+
+            if (!event.isNodeChanged()) {
+                // the whole tree has changed
+                allDirty = true;
+            } else if (event.isNodeParameterChanged()) {
+                if (event.getIndex() < 0) {
+                    // a change in all the values of a parameter (e.g., scaling all the heights)
+                    allDirty = true;
+                } else {
+                    // Only the node's height can affect the order. This doesn't use isHeightChanged()
+                    // because the height parameters may have been swapped between nodes (if the
+                    // root changed) by the time the event arrives. If it wasn't the height that
+                    // changed then the time will be found to be the same when updating.
+                    markDirty(event.getNode().getNumber());
+                }
+            }
+            // otherwise the topology has changed which leaves the heights (and the order) alone
+        } else if (object instanceof Variable) {
+            // the tree passes on changes to its parameters as well as the TreeChangedEvent for them
+        } else {
+            allDirty = true;
+        }
+    }
+
+    // **************************************************************
+    // VariableListener IMPLEMENTATION
+    // **************************************************************
+
+    protected void handleVariableChangedEvent(Variable variable, int index, Parameter.ChangeType type) {
+        // no variables
+    }
+
+    // **************************************************************
+    // Model IMPLEMENTATION
+    // **************************************************************
+
+    protected void storeState() {
+        // the tree is being stored so bring the order up to date with it first
+        update();
+
+        System.arraycopy(order, 0, storedOrder, 0, nodeCount);
+        System.arraycopy(position, 0, storedPosition, 0, nodeCount);
+        System.arraycopy(times, 0, storedTimes, 0, nodeCount);
+    }
+
+    protected void restoreState() {
+        int[] tmp = storedOrder;
+        storedOrder = order;
+        order = tmp;
+
+        tmp = storedPosition;
+        storedPosition = position;
+        position = tmp;
+
+        double[] tmp2 = storedTimes;
+        storedTimes = times;
+        times = tmp2;
+
+        // the stored order was up to date with the heights that have been restored
+        clearDirty();
+        allDirty = false;
+    }
+
+    protected void acceptState() {
+    } // nothing to do
+
+    // **************************************************************
+    // Private stuff
+    // **************************************************************
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private final TreeModel tree;
+    private final int nodeCount;
+    private final int externalNodeCount;
+
+    /**
+     * The node numbers in order of time.
+     */
+    private int[] order;
+
+    /**
+     * The position of each node in the order.
+     */
+    private int[] position;
+
+    /**
+     * The times of the nodes when they were last put in order.
+     */
+    private double[] times;
+
+    private int[] storedOrder;
+    private int[] storedPosition;
+    private double[] storedTimes;
+
+    private final int[] sortBuffer;
+
+    private final boolean[] dirty;
+    private final int[] dirtyNodes;
+    private int dirtyCount = 0;
+    private boolean allDirty;
+}
@@ -171,7 +171,7 @@ public class GMRFSkyrideLikelihood extends OldAbstractCoalescentLikelihood {
         this.tree = treeList.get(0);
         this.treesSet = null;
         if (tree instanceof TreeModel) {
-            addModel((TreeModel) tree);
+            addTreeModel((TreeModel) tree);
         }
     }
 
@@ -114,7 +114,7 @@ public class OldAbstractCoalescentLikelihood extends AbstractModelLikelihood imp
         this.tree = tree;
 
         if (tree instanceof TreeModel) {
-            addModel((TreeModel) tree);
+            addTreeModel((TreeModel) tree);
         }
 
         if (demoModel != null) {
@@ -130,6 +130,19 @@ public class OldAbstractCoalescentLikelihood extends AbstractModelLikelihood imp
         super(name);
     }
 
+    /**
+     * Adds the tree as a model and keeps its events in order as it changes so that
+     * setupIntervals() doesn't have to collect and sort them each time.
+     *
+     * @param treeModel the tree
+     */
+    protected final void addTreeModel(TreeModel treeModel) {
+        addModel(treeModel);
+
+        eventList = new CoalescentEventList(treeModel);
+        addModel(eventList);
+    }
+
     // **************************************************************
     // Extendable methods
     // **************************************************************
@@ -238,6 +251,9 @@ public class OldAbstractCoalescentLikelihood extends AbstractModelLikelihood imp
     public final void makeDirty() {
         likelihoodKnown = false;
         intervalsKnown = false;
+        if (eventList != null) {
+            eventList.makeDirty();
+        }
     }
 
     /**
@@ -414,7 +430,12 @@ public class OldAbstractCoalescentLikelihood extends AbstractModelLikelihood imp
         }
 
         XTreeIntervals ti = new XTreeIntervals(intervals, lineageCounts);
-        getTreeIntervals(tree, getMRCAOfCoalescent(tree), getExcludedMRCAs(tree), ti);
+        final NodeRef[] exclude = getExcludedMRCAs(tree);
+        if (eventList != null && exclude == null && getMRCAOfCoalescent(tree) == tree.getRoot()) {
+            getTreeIntervals(tree, eventList, ti);
+        } else {
+            getTreeIntervals(tree, getMRCAOfCoalescent(tree), exclude, ti);
+        }
         intervalCount = ti.nIntervals;
 
         intervalsKnown = true;
@@ -471,8 +492,6 @@ public class OldAbstractCoalescentLikelihood extends AbstractModelLikelihood imp
     }
 
     private static void getTreeIntervals(Tree tree, NodeRef root, NodeRef[] exclude, XTreeIntervals ti) {
-        double MULTIFURCATION_LIMIT = 1e-9;
-
         ArrayList<ComparableDouble> times = new ArrayList<ComparableDouble>();
         ArrayList<Integer> childs = new ArrayList<Integer>();
         collectAllTimes(tree, root, exclude, times, childs);
@@ -480,33 +499,72 @@ public class OldAbstractCoalescentLikelihood extends AbstractModelLikelihood imp
 
         HeapSort.sort(times, indices);
 
+        final double[] sortedTimes = new double[times.size()];
+        final int[] sortedChilds = new int[times.size()];
+        for (int i = 0; i < times.size(); i++) {
+            sortedTimes[i] = times.get(indices[i]).doubleValue();
+            sortedChilds[i] = childs.get(indices[i]);
+        }
+
+        getTreeIntervals(sortedTimes, sortedChilds, times.size(), ti);
+    }
+
+    /**
+     * Gets the intervals of the whole tree from the events kept in order by the event list.
+     */
+    private void getTreeIntervals(Tree tree, CoalescentEventList eventList, XTreeIntervals ti) {
+        final int eventCount = eventList.getEventCount();
+        if (eventTimes == null) {
+            eventTimes = new double[eventCount];
+            eventChilds = new int[eventCount];
+        }
+
+        eventList.update();
+        for (int i = 0; i < eventCount; i++) {
+            eventTimes[i] = eventList.getEventTime(i);
+            eventChilds[i] = eventList.isSampleEvent(i) ? 0 :
+                    tree.getChildCount(tree.getNode(eventList.getNodeNumber(i)));
+        }
+
+        getTreeIntervals(eventTimes, eventChilds, eventCount, ti);
+    }
+
+    /**
+     * @param times  the times of the events in order
+     * @param childs the number of children of the node at each event
+     * @param count  the number of events
+     * @param ti     the intervals to fill in
+     */
+    private static void getTreeIntervals(double[] times, int[] childs, int count, XTreeIntervals ti) {
+        double MULTIFURCATION_LIMIT = 1e-9;
+
         final double[] intervals = ti.intervals;
         final int[] lineageCounts = ti.lineagesCount;
 
         // start is the time of the first tip
-        double start = times.get(indices[0]).doubleValue();
+        double start = times[0];
         int numLines = 0;
         int i = 0;
         int intervalCount = 0;
-        while (i < times.size()) {
+        while (i < count) {
 
             int lineagesRemoved = 0;
             int lineagesAdded = 0;
 
-            final double finish = times.get(indices[i]).doubleValue();
+            final double finish = times[i];
             double next = finish;
 
             while (Math.abs(next - finish) < MULTIFURCATION_LIMIT) {
-                final int children = childs.get(indices[i]);
+                final int children = childs[i];
                 if (children == 0) {
                     lineagesAdded += 1;
                 } else {
                     lineagesRemoved += (children - 1);
                 }
                 i += 1;
-                if (i == times.size()) break;
+                if (i == count) break;
 
-                next = times.get(indices[i]).doubleValue();
+                next = times[i];
             }
             //System.out.println("time = " + finish + " removed = " + lineagesRemoved + " added = " + lineagesAdded);
             if (lineagesAdded > 0) {
@@ -818,6 +876,13 @@ public class OldAbstractCoalescentLikelihood extends AbstractModelLikelihood imp
      */
     Tree tree = null;
 
+    /**
+     * The events of the tree kept in order (if the tree is a TreeModel).
+     */
+    private CoalescentEventList eventList = null;
+    private double[] eventTimes = null;
+    private int[] eventChilds = null;
+
     /**
      * The widths of the intervals.
      */
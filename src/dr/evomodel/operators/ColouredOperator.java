@@ -200,16 +200,12 @@ public class ColouredOperator implements CoercableMCMCOperator {
         return innerOperator.getPerformanceSuggestion();
     }
 
-    public double getMeanEvaluationTime() {
-        return innerOperator.getMeanEvaluationTime();
+    public void addTime(Step step, long time) {
+        innerOperator.addTime(step, time);
     }
 
-    public long getTotalEvaluationTime() {
-        return innerOperator.getTotalEvaluationTime();
-    }
-
-    public void addEvaluationTime(long time) {
-        innerOperator.addEvaluationTime(time);
+    public long getTotalTime(Step step) {
+        return innerOperator.getTotalTime(step);
     }
 
     public static XMLObjectParser PARSER = new AbstractXMLObjectParser() {
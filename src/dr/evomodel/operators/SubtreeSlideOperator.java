@@ -52,6 +52,9 @@ public class SubtreeSlideOperator extends AbstractTreeOperator implements Coerca
     private final boolean scaledDirichletBranches;
     private CoercionMode mode = CoercionMode.DEFAULT;
 
+    // reused between proposals to avoid allocating a list every time
+    private final List<NodeRef> newChildren = new ArrayList<NodeRef>();
+
     public SubtreeSlideOperator(TreeModel tree, double weight, double size, boolean gaussian,
                                 boolean swapRates, boolean swapTraits, boolean scaleDirichletBranches, CoercionMode mode) {
         this.tree = tree;
@@ -183,7 +186,7 @@ public class SubtreeSlideOperator extends AbstractTreeOperator implements Coerca
             // 4.1 will the move change the topology
             if (tree.getNodeHeight(CiP) > newHeight) {
 
-                List<NodeRef> newChildren = new ArrayList<NodeRef>();
+                newChildren.clear();
                 final int possibleDestinations = intersectingEdges(tree, CiP, newHeight, newChildren);
 
                 // if no valid destinations then return a failure
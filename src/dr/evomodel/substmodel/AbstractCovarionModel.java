@@ -92,6 +92,10 @@ public abstract class AbstractCovarionModel extends AbstractModel implements Sub
 
         updateMatrix = storedUpdateMatrix;
 
+        double[] tmp1 = storedEval;
+        storedEval = Eval;
+        Eval = tmp1;
+
         double[][] tmp2 = storedIevc;
         storedIevc = Ievc;
         Ievc = tmp2;
@@ -145,20 +149,51 @@ public abstract class AbstractCovarionModel extends AbstractModel implements Sub
      * @param matrix   an array to store the matrix
      */
     public void getTransitionProbabilities(double distance, double[] matrix) {
-        int i, j, k;
-        double temp;
 
         // this must be synchronized to avoid being called simultaneously by
         // two different likelihood threads - AJD
         synchronized (this) {
-            //if (updateMatrix) {
-            setupMatrix();
-            //}
+            if (updateMatrix) {
+                setupMatrix();
+            }
         }
 
         // implemented a pool of iexp matrices to support multiple threads
         // without creating a new matrix each call. - AJD
         double[][] iexp = popiexp();
+        calculateTransitionProbabilities(distance, iexp, matrix, 0);
+        pushiexp(iexp);
+    }
+
+    /**
+     * get the transition probability matrices for a set of distances, setting up
+     * the matrix once for all of them
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+
+        // the batches can be calculated by several threads at once so the eigen system is
+        // only set up when it has changed rather than being rewritten while it is read
+        synchronized (this) {
+            if (updateMatrix) {
+                setupMatrix();
+            }
+        }
+
+        double[][] iexp = popiexp();
+        for (int n = 0; n < count; n++) {
+            calculateTransitionProbabilities(distances[n], iexp, matrices, n * stateCount * stateCount);
+        }
+        pushiexp(iexp);
+    }
+
+    private void calculateTransitionProbabilities(double distance, double[][] iexp, double[] matrix, int offset) {
+        int i, j, k;
+        double temp;
+
         for (i = 0; i < stateCount; i++) {
             temp = Math.exp(distance * Eval[i]);
             for (j = 0; j < stateCount; j++) {
@@ -166,7 +201,7 @@ public abstract class AbstractCovarionModel extends AbstractModel implements Sub
             }
         }
 
-        int u = 0;
+        int u = offset;
         for (i = 0; i < stateCount; i++) {
             for (j = 0; j < stateCount; j++) {
                 temp = 0.0;
@@ -178,7 +213,6 @@ public abstract class AbstractCovarionModel extends AbstractModel implements Sub
                 u++;
             }
         }
-        pushiexp(iexp);
     }
 
     /**
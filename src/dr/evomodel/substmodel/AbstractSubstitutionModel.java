@@ -32,8 +32,10 @@ import dr.inference.model.Parameter;
 import dr.inference.model.Variable;
 import dr.math.MachineAccuracy;
 
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * An abstract base class for substitution models.
@@ -107,6 +109,8 @@ public abstract class AbstractSubstitutionModel extends AbstractModel implements
         for (int i = 0; i < rateCount; i++) {
             relativeRates[i] = 1.0;
         }
+
+        matrixCache = new MatrixCache(getDefaultCacheSize(), stateCount * stateCount);
     }
 
     // *****************************************************************
@@ -131,6 +135,7 @@ public abstract class AbstractSubstitutionModel extends AbstractModel implements
     protected void storeState() {
 
         storedUpdateMatrix = updateMatrix;
+        storedEigenVersion = eigenVersion;
 
         System.arraycopy(relativeRates, 0, storedRelativeRates, 0, rateCount);
 
@@ -148,6 +153,7 @@ public abstract class AbstractSubstitutionModel extends AbstractModel implements
     protected void restoreState() {
 
         updateMatrix = storedUpdateMatrix;
+        eigenVersion = storedEigenVersion;
 
         // To restore all this stuff just swap the pointers...
         double[] tmp1 = storedRelativeRates;
@@ -197,8 +203,6 @@ public abstract class AbstractSubstitutionModel extends AbstractModel implements
      * @param matrix   an array to store the matrix
      */
     public void getTransitionProbabilities(double distance, double[] matrix) {
-        int i, j, k;
-        double temp;
 
         // this must be synchronized to avoid being called simultaneously by
         // two different likelihood threads - AJD
@@ -208,29 +212,141 @@ public abstract class AbstractSubstitutionModel extends AbstractModel implements
             }
         }
 
+        final MatrixCache cache = matrixCache;
+        final int version = eigenVersion;
+        if (cache != null && cache.getMatrix(version, distance, matrix, 0)) {
+            return;
+        }
+
         // implemented a pool of iexp matrices to support multiple threads
         // without creating a new matrix each call. - AJD
         double[][] iexp = popiexp();
+        calculateTransitionProbabilities(distance, iexp, matrix, 0);
+        pushiexp(iexp);
+
+        if (cache != null) {
+            cache.putMatrix(version, distance, matrix, 0);
+        }
+    }
+
+    /**
+     * get the transition probability matrices for a set of distances. The eigen
+     * system is checked and the scratch matrix taken from the pool once for all
+     * of them.
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+
+        synchronized (this) {
+            if (updateMatrix) {
+                setupMatrix();
+            }
+        }
+
+        final MatrixCache cache = matrixCache;
+        final int version = eigenVersion;
+        final int matrixSize = stateCount * stateCount;
+
+        double[][] iexp = popiexp();
+        int offset = 0;
+        for (int n = 0; n < count; n++) {
+            if (cache == null || !cache.getMatrix(version, distances[n], matrices, offset)) {
+                calculateTransitionProbabilities(distances[n], iexp, matrices, offset);
+                if (cache != null) {
+                    cache.putMatrix(version, distances[n], matrices, offset);
+                }
+            }
+            offset += matrixSize;
+        }
+        pushiexp(iexp);
+    }
+
+    /**
+     * get the transition probability matrices for a set of distances by calling
+     * getTransitionProbabilities for each in turn. This is for subclasses that
+     * calculate the matrices without the eigen system.
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    protected final void getTransitionProbabilitiesForEach(double[] distances, int count, double[] matrices) {
+        final int matrixSize = stateCount * stateCount;
+        double[] matrix = forEachMatrix.get();
+        if (matrix == null || matrix.length != matrixSize) {
+            matrix = new double[matrixSize];
+            forEachMatrix.set(matrix);
+        }
+        int offset = 0;
+        for (int n = 0; n < count; n++) {
+            getTransitionProbabilities(distances[n], matrix);
+            System.arraycopy(matrix, 0, matrices, offset, matrixSize);
+            offset += matrixSize;
+        }
+    }
+
+    private void calculateTransitionProbabilities(double distance, double[][] iexp, double[] matrix, int offset) {
+        int i, j, k;
+        double temp;
+
+        final double[] eval = Eval;
+        final double[][] evec = Evec;
+        final double[][] ievc = Ievc;
+
         for (i = 0; i < stateCount; i++) {
-            temp = Math.exp(distance * Eval[i]);
+            temp = Math.exp(distance * eval[i]);
+            final double[] ievcRow = ievc[i];
+            final double[] iexpRow = iexp[i];
             for (j = 0; j < stateCount; j++) {
-                iexp[i][j] = Ievc[i][j] * temp;
+                iexpRow[j] = ievcRow[j] * temp;
             }
         }
 
-        int u = 0;
+        int u = offset;
         for (i = 0; i < stateCount; i++) {
+            final double[] evecRow = evec[i];
             for (j = 0; j < stateCount; j++) {
                 temp = 0.0;
                 for (k = 0; k < stateCount; k++) {
-                    temp += Evec[i][k] * iexp[k][j];
+                    temp += evecRow[k] * iexp[k][j];
                 }
 
                 matrix[u] = Math.abs(temp);
                 u++;
             }
         }
-        pushiexp(iexp);
+    }
+
+    /**
+     * Sets the number of transition probability matrices kept for reuse. The matrices
+     * are keyed on the branch length and the eigen decomposition they were computed
+     * from so a change to the rate matrix makes the existing ones unreachable; they are
+     * then dropped least recently used first. A size of zero turns the cache off.
+     *
+     * @param size the maximum number of matrices
+     */
+    public void setTransitionMatrixCacheSize(int size) {
+        synchronized (this) {
+            matrixCache = (size > 0 ? new MatrixCache(size, stateCount * stateCount) : null);
+        }
+    }
+
+    /**
+     * @return the number of transition probability matrices that were found in the cache
+     */
+    public long getTransitionMatrixCacheHitCount() {
+        return (matrixCache != null ? matrixCache.hitCount : 0);
+    }
+
+    /**
+     * @return the number of transition probability matrices that had to be calculated
+     *         while the cache was on
+     */
+    public long getTransitionMatrixCacheMissCount() {
+        return (matrixCache != null ? matrixCache.missCount : 0);
     }
 
     /**
@@ -306,6 +422,10 @@ public abstract class AbstractSubstitutionModel extends AbstractModel implements
         hqr2(stateCount, 1, stateCount, amat, Evec, Eval, evali);
         luinverse(Evec, Ievc, stateCount);
 
+        // a new version so the cached matrices of the previous eigen system aren't used
+        eigenVersionCount++;
+        eigenVersion = eigenVersionCount;
+
         updateMatrix = false;
     }
 
@@ -421,6 +541,99 @@ public abstract class AbstractSubstitutionModel extends AbstractModel implements
         return q;
     }
 
+    /**
+     * The default number of matrices cached: about 2MB worth of matrices but at least 16.
+     */
+    private int getDefaultCacheSize() {
+        return Math.max(16, (1 << 18) / (stateCount * stateCount));
+    }
+
+    private int eigenVersionCount = 0;
+    private int eigenVersion = 0;
+    private int storedEigenVersion = 0;
+
+    // replaced under the lock but read without it by the likelihood threads
+    private volatile MatrixCache matrixCache = null;
+
+    // a matrix for each thread calling getTransitionProbabilitiesForEach
+    private final ThreadLocal<double[]> forEachMatrix = new ThreadLocal<double[]>();
+
+    private static class MatrixKey {
+        MatrixKey(int version, double distance) {
+            set(version, distance);
+        }
+
+        void set(int version, double distance) {
+            this.version = version;
+            this.distance = Double.doubleToLongBits(distance);
+        }
+
+        public boolean equals(Object o) {
+            if (!(o instanceof MatrixKey)) {
+                return false;
+            }
+            MatrixKey key = (MatrixKey) o;
+            return version == key.version && distance == key.distance;
+        }
+
+        public int hashCode() {
+            return 31 * version + (int) (distance ^ (distance >>> 32));
+        }
+
+        private int version;
+        private long distance;
+    }
+
+    /**
+     * A least recently used map of transition probability matrices. The array of an
+     * evicted matrix is reused for the next one added.
+     */
+    private static class MatrixCache extends LinkedHashMap<MatrixKey, double[]> {
+        MatrixCache(int maxSize, int matrixSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+            this.matrixSize = matrixSize;
+        }
+
+        synchronized boolean getMatrix(int version, double distance, double[] matrix, int offset) {
+            // a key is only created when a matrix is added
+            lookupKey.set(version, distance);
+            double[] cached = get(lookupKey);
+            if (cached == null) {
+                missCount++;
+                return false;
+            }
+            System.arraycopy(cached, 0, matrix, offset, matrixSize);
+            hitCount++;
+            return true;
+        }
+
+        synchronized void putMatrix(int version, double distance, double[] matrix, int offset) {
+            double[] cached = spare;
+            spare = null;
+            if (cached == null) {
+                cached = new double[matrixSize];
+            }
+            System.arraycopy(matrix, offset, cached, 0, matrixSize);
+            put(new MatrixKey(version, distance), cached);
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<MatrixKey, double[]> eldest) {
+            if (size() > maxSize) {
+                spare = eldest.getValue();
+                return true;
+            }
+            return false;
+        }
+
+        private final int maxSize;
+        private final int matrixSize;
+        private final MatrixKey lookupKey = new MatrixKey(0, 0.0);
+        private double[] spare = null;
+        private long hitCount = 0;
+        private long missCount = 0;
+    }
+
     protected synchronized double[][] popiexp() {
 
         if (iexpPool.size() == 0) {
@@ -113,6 +113,17 @@ public class ComplexSubstitutionModel extends AbstractSubstitutionModel implemen
         }
     }
 
+    /**
+     * get the transition probability matrices for a set of distances
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+        getTransitionProbabilitiesForEach(distances, count, matrices);
+    }
+
     public void getTransitionProbabilities(double distance, double[] matrix) {
 
         double temp;
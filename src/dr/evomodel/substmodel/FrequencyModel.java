@@ -99,10 +99,19 @@ public class FrequencyModel extends AbstractModel {
 
     public double[] getFrequencies() {
         double[] frequencies = new double[getFrequencyCount()];
+        getFrequencies(frequencies);
+        return frequencies;
+    }
+
+    /**
+     * Copies the frequencies into an existing array (of length getFrequencyCount()).
+     *
+     * @param frequencies the array to fill
+     */
+    public void getFrequencies(double[] frequencies) {
         for (int i = 0; i < frequencies.length; i++) {
             frequencies[i] = getFrequency(i);
         }
-        return frequencies;
     }
 
     public double[] getCumulativeFrequencies() {
@@ -152,6 +152,17 @@ public class HKY extends AbstractNucleotideModel {
         updateIntermediates = false;
     }
 
+    /**
+     * get the transition probability matrices for a set of distances
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+        getTransitionProbabilitiesForEach(distances, count, matrices);
+    }
+
     /**
      * get the complete transition probability matrix for the given distance
      *
@@ -110,6 +110,18 @@ public class MutationDeathModel extends AbstractSubstitutionModel {
     protected void setupRelativeRates() {
     }
 
+    /**
+     * get the transition probability matrices for a set of distances
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    public synchronized void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+        // synchronized as the matrices are calculated in trMatrix, which is shared
+        getTransitionProbabilitiesForEach(distances, count, matrices);
+    }
+
     public void getTransitionProbabilities(double distance, double[] matrix) {
         int i, j;
         // assuming that expected number of changes in CTMCModel is 1 per unit time
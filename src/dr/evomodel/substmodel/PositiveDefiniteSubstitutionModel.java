@@ -171,6 +171,14 @@ public class PositiveDefiniteSubstitutionModel extends AbstractModel implements
             getRawTransitionProbabilities(distance, matrix);
     }
 
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+        double[] matrix = new double[Ksquared];
+        for (int n = 0; n < count; n++) {
+            getTransitionProbabilities(distances[n], matrix);
+            System.arraycopy(matrix, 0, matrices, n * Ksquared, Ksquared);
+        }
+    }
+
     public double[][] getEigenVectors() {
         throw new UnsupportedOperationException("Not yet implemented.");
     }
@@ -84,6 +84,17 @@ public class SubstitutionEpochModel extends AbstractSubstitutionModel {
     protected void setupRelativeRates() {
     }
 
+    /**
+     * get the transition probability matrices for a set of distances
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+        getTransitionProbabilitiesForEach(distances, count, matrices);
+    }
+
     public void getTransitionProbabilities(double startTime, double endTime, double distance, double[] matrix) {
         int matrixCount = 0;
         boolean oneMatrix = (getEpochWeights(startTime, endTime, weight) == 1);
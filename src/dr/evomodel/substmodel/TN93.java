@@ -174,6 +174,17 @@ public class TN93 extends AbstractNucleotideModel {
         updateIntermediates = false;
     }
 
+    /**
+     * get the transition probability matrices for a set of distances
+     *
+     * @param distances the expected numbers of substitutions
+     * @param count     the number of distances
+     * @param matrices  an array to store the matrices one after another
+     */
+    public void getTransitionProbabilities(double[] distances, int count, double[] matrices) {
+        getTransitionProbabilitiesForEach(distances, count, matrices);
+    }
+
     /**
      * get the complete transition probability matrix for the given distance.
      * <p/>
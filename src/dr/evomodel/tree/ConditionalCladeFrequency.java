@@ -38,6 +38,7 @@ import dr.inference.model.Likelihood;
 import dr.inference.prior.Prior;
 import dr.math.MathUtils;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.util.*;
@@ -648,4 +649,26 @@ public class ConditionalCladeFrequency extends
 
         return new ConditionalCladeFrequency(trace, e, burnin, verbose);
     }
+
+    /**
+     * @param files   the tree files to be analyzed
+     * @param burnin  the burnin in states
+     * @param verbose true if progress should be logged to stdout
+     * @return an analyses of the trees in a log file.
+     * @throws java.io.IOException if general I/O error occurs
+     */
+    public static ConditionalCladeFrequency analyzeLogFile(File[] files,
+                                                           double e, int burnin, boolean verbose) throws IOException {
+
+        TreeTrace[] trace = new TreeTrace[files.length];
+        for (int i = 0; i < files.length; i++) {
+            try {
+                trace[i] = TreeTrace.loadTreeTrace(files[i]);
+            } catch (Importer.ImportException ie) {
+                throw new RuntimeException(ie.toString());
+            }
+        }
+
+        return new ConditionalCladeFrequency(trace, e, burnin, verbose);
+    }
 }
@@ -33,6 +33,9 @@ import dr.util.Attributable;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.*;
 
 /**
@@ -42,7 +45,7 @@ import java.util.*;
  * @author Alexei Drummond
  * @version $Id: TreeModel.java,v 1.129 2006/01/05 17:55:47 rambaut Exp $
  */
-public class TreeModel extends AbstractModel implements MutableTree {
+public class TreeModel extends AbstractModel implements MutableTree, Checkpointable {
 
     //
     // Public stuff
@@ -52,6 +55,10 @@ public class TreeModel extends AbstractModel implements MutableTree {
 
     private static final boolean TEST_NODE_BOUNDS = false;
 
+    // if true then the whole node structure is copied on every store (as a check on
+    // the default which only stores and restores the nodes that have been edited).
+    private static final boolean FULL_COPY_STORE_RESTORE = false;
+
     public TreeModel(String name) {
         super(name);
         nodeCount = 0;
@@ -124,6 +131,9 @@ public class TreeModel extends AbstractModel implements MutableTree {
             }
         } while (node != root);
 
+        journaledNodes = new boolean[nodeCount];
+        nodeJournal = new int[nodeCount];
+
         // must be done here to allow programmatic running of BEAST
         setupHeightBounds();
     }
@@ -145,24 +155,25 @@ public class TreeModel extends AbstractModel implements MutableTree {
     }
 
     /**
-     * Push a tree changed event into the event stack.
+     * Push a tree changed event into the event stack. The events are immutable so the
+     * same ones are reused rather than creating one for every change.
      */
     public void pushTreeChangedEvent() {
-        pushTreeChangedEvent(new TreeChangedEvent());
+        pushTreeChangedEvent(wholeTreeChangedEvent);
     }
 
     /**
      * Push a tree changed event into the event stack.
      */
     public void pushTreeChangedEvent(NodeRef nodeRef) {
-        pushTreeChangedEvent(new TreeChangedEvent((Node) nodeRef));
+        pushTreeChangedEvent(((Node) nodeRef).getChangedEvent(null, -1));
     }
 
     /**
      * Push a tree changed event into the event stack.
      */
     public void pushTreeChangedEvent(Node node, Parameter parameter, int index) {
-        pushTreeChangedEvent(new TreeChangedEvent(node, parameter, index));
+        pushTreeChangedEvent(node.getChangedEvent(parameter, index));
     }
 
     /**
@@ -188,7 +199,7 @@ public class TreeModel extends AbstractModel implements MutableTree {
         final Node node = getNodeOfParameter((Parameter) variable);
         if (type == Parameter.ChangeType.ALL_VALUES_CHANGED) {
             //this signals events where values in all dimensions of a parameter is changed.
-            pushTreeChangedEvent(new TreeChangedEvent(node, (Parameter) variable, TreeChangedEvent.CHANGE_IN_ALL_INTERNAL_NODES));
+            pushTreeChangedEvent(node, (Parameter) variable, TreeChangedEvent.CHANGE_IN_ALL_INTERNAL_NODES);
         } else {
             pushTreeChangedEvent(node, (Parameter) variable, index);
         }
@@ -197,6 +208,8 @@ public class TreeModel extends AbstractModel implements MutableTree {
 
     private final List<TreeChangedEvent> treeChangedEvents = new ArrayList<TreeChangedEvent>();
 
+    private final TreeChangedEvent wholeTreeChangedEvent = new TreeChangedEvent();
+
     public boolean hasRates() {
         return hasRates;
     }
@@ -529,8 +542,8 @@ public class TreeModel extends AbstractModel implements MutableTree {
             }
         }
 
-        for (TreeChangedEvent treeChangedEvent : treeChangedEvents) {
-            listenerHelper.fireModelChanged(this, treeChangedEvent);
+        for (int i = 0; i < treeChangedEvents.size(); i++) {
+            listenerHelper.fireModelChanged(this, treeChangedEvents.get(i));
         }
         treeChangedEvents.clear();
     }
@@ -581,7 +594,12 @@ public class TreeModel extends AbstractModel implements MutableTree {
      */
     protected void storeState() {
 
-        copyNodeStructure(storedNodes);
+        if (FULL_COPY_STORE_RESTORE) {
+            copyNodeStructure(storedNodes);
+        } else {
+            // the nodes will be journaled as they are edited
+            clearNodeJournal();
+        }
         storedRootNumber = root.getNumber();
 
     }
@@ -591,9 +609,17 @@ public class TreeModel extends AbstractModel implements MutableTree {
      */
     protected void restoreState() {
 
-        Node[] tmp = storedNodes;
-        storedNodes = nodes;
-        nodes = tmp;
+        if (FULL_COPY_STORE_RESTORE) {
+            Node[] tmp = storedNodes;
+            storedNodes = nodes;
+            nodes = tmp;
+        } else {
+            for (int i = 0; i < nodeJournalSize; i++) {
+                final int number = nodeJournal[i];
+                copyNodeLinks(storedNodes[number], nodes[number]);
+            }
+            clearNodeJournal();
+        }
 
         root = nodes[storedRootNumber];
     }
@@ -602,7 +628,47 @@ public class TreeModel extends AbstractModel implements MutableTree {
      * accept the stored state
      */
     protected void acceptState() {
-    } // nothing to do
+        if (!FULL_COPY_STORE_RESTORE) {
+            clearNodeJournal();
+        }
+    }
+
+    /**
+     * Called before the links or parameter objects of a node are changed. The first
+     * time this happens for a node after a store, its links are copied to the
+     * corresponding stored node so they can be restored. The stored links point to
+     * the nodes in the nodes array.
+     */
+    private void journalNode(Node node) {
+        if (FULL_COPY_STORE_RESTORE || journaledNodes == null) {
+            return;
+        }
+
+        final int number = node.getNumber();
+        if (!journaledNodes[number]) {
+            journaledNodes[number] = true;
+            nodeJournal[nodeJournalSize] = number;
+            nodeJournalSize++;
+
+            copyNodeLinks(node, storedNodes[number]);
+        }
+    }
+
+    private void clearNodeJournal() {
+        for (int i = 0; i < nodeJournalSize; i++) {
+            journaledNodes[nodeJournal[i]] = false;
+        }
+        nodeJournalSize = 0;
+    }
+
+    private static void copyNodeLinks(Node source, Node destination) {
+        destination.parent = source.parent;
+        destination.leftChild = source.leftChild;
+        destination.rightChild = source.rightChild;
+        destination.heightParameter = source.heightParameter;
+        destination.rateParameter = source.rateParameter;
+        destination.traitParameters = source.traitParameters;
+    }
 
     /**
      * Copies the node connections from this TreeModel's nodes array to the
@@ -646,6 +712,95 @@ public class TreeModel extends AbstractModel implements MutableTree {
         }
     }
 
+    // *****************************************************************
+    // Interface Checkpointable
+    // *****************************************************************
+
+    /**
+     * Writes the node connections and the assignment of parameter objects to
+     * nodes (these are swapped when the root changes). The parameter values
+     * themselves are written by the checkpoint.
+     */
+    public void writeCheckpoint(DataOutput out) throws IOException {
+
+        final Map<Variable, Integer> variableIndices = new IdentityHashMap<Variable, Integer>();
+        for (int i = 0; i < getVariableCount(); i++) {
+            variableIndices.put(getVariable(i), i);
+        }
+
+        out.writeInt(nodeCount);
+        out.writeInt(root.getNumber());
+
+        for (Node node : nodes) {
+            out.writeUTF(node.taxon != null ? node.taxon.getId() : "");
+            out.writeInt(node.parent != null ? node.parent.getNumber() : -1);
+            out.writeInt(node.leftChild != null ? node.leftChild.getNumber() : -1);
+            out.writeInt(node.rightChild != null ? node.rightChild.getNumber() : -1);
+
+            out.writeInt(variableIndices.get(node.heightParameter));
+            if (hasRates) {
+                out.writeInt(variableIndices.get(node.rateParameter));
+            }
+            if (hasTraits) {
+                out.writeInt(node.traitParameters.size());
+                for (Map.Entry<String, Parameter> entry : node.traitParameters.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    final Integer index = variableIndices.get(entry.getValue());
+                    out.writeInt(index != null ? index : -1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Restores the node connections. The node numbering depends on the starting
+     * tree so this must have been constructed in the same way (i.e., with the same
+     * random number seed).
+     */
+    public void readCheckpoint(DataInput in) throws IOException {
+
+        if (in.readInt() != nodeCount) {
+            throw new IOException("Checkpoint does not match the number of nodes in tree, " + getId());
+        }
+
+        final int rootNumber = in.readInt();
+
+        for (Node node : nodes) {
+            final String taxonId = in.readUTF();
+            if (!taxonId.equals(node.taxon != null ? node.taxon.getId() : "")) {
+                throw new IOException("The starting tree, " + getId() + ", differs from the checkpointed run " +
+                        "(the same random number seed must be used to resume)");
+            }
+
+            final int parent = in.readInt();
+            final int leftChild = in.readInt();
+            final int rightChild = in.readInt();
+
+            node.parent = (parent >= 0 ? nodes[parent] : null);
+            node.leftChild = (leftChild >= 0 ? nodes[leftChild] : null);
+            node.rightChild = (rightChild >= 0 ? nodes[rightChild] : null);
+
+            node.heightParameter = (Parameter) getVariable(in.readInt());
+            if (hasRates) {
+                node.rateParameter = (Parameter) getVariable(in.readInt());
+            }
+            if (hasTraits) {
+                final int traitCount = in.readInt();
+                for (int i = 0; i < traitCount; i++) {
+                    final String name = in.readUTF();
+                    final int index = in.readInt();
+                    if (index >= 0) {
+                        node.traitParameters.put(name, (Parameter) getVariable(index));
+                    }
+                }
+            }
+        }
+
+        root = nodes[rootNumber];
+
+        pushTreeChangedEvent();
+    }
+
     /**
      * @return the number of statistics of this component.
      */
@@ -1037,6 +1192,9 @@ public class TreeModel extends AbstractModel implements MutableTree {
      */
     private void swapParameterObjects(Node n1, Node n2) {
 
+        journalNode(n1);
+        journalNode(n2);
+
         double height1 = n1.getHeight();
         double height2 = n2.getHeight();
 
@@ -1133,6 +1291,29 @@ public class TreeModel extends AbstractModel implements MutableTree {
             heightParameter.addBounds(new NodeHeightBounds(heightParameter));
         }
 
+        /**
+         * @return an event for a change to this node (or one of its parameters if the
+         *         parameter isn't null)
+         */
+        TreeChangedEvent getChangedEvent(Parameter parameter, int index) {
+            if (parameter == null && index == -1) {
+                if (nodeChangedEvent == null) {
+                    nodeChangedEvent = new TreeChangedEvent(this);
+                }
+                return nodeChangedEvent;
+            }
+            // the parameters are swapped between nodes when the root changes so check
+            // the last event is still for the same parameter
+            if (parameterChangedEvent == null || parameterChangedEvent.parameter != parameter ||
+                    parameterChangedEvent.index != index) {
+                parameterChangedEvent = new TreeChangedEvent(this, parameter, index);
+            }
+            return parameterChangedEvent;
+        }
+
+        private TreeChangedEvent nodeChangedEvent = null;
+        private TreeChangedEvent parameterChangedEvent = null;
+
         public final void createRateParameter(double[] initialValues) {
             if (rateParameter == null) {
                 if (initialValues != null) {
@@ -1262,6 +1443,8 @@ public class TreeModel extends AbstractModel implements MutableTree {
          * @param node new child node
          */
         public void addChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == null) {
                 leftChild = node;
             } else if (rightChild == null) {
@@ -1278,6 +1461,8 @@ public class TreeModel extends AbstractModel implements MutableTree {
          * @param node child to be removed
          */
         public Node removeChild(Node node) {
+            journalNode(this);
+            journalNode(node);
             if (leftChild == node) {
                 leftChild = null;
             } else if (rightChild == node) {
@@ -1295,6 +1480,7 @@ public class TreeModel extends AbstractModel implements MutableTree {
          * @param n number of child to be removed
          */
         public Node removeChild(int n) {
+            journalNode(this);
             Node node;
             if (n == 0) {
                 node = leftChild;
@@ -1305,6 +1491,7 @@ public class TreeModel extends AbstractModel implements MutableTree {
             } else {
                 throw new IllegalArgumentException("TreeModel.Nodes can only have 2 children");
             }
+            journalNode(node);
             node.parent = null;
             return node;
         }
@@ -1385,6 +1572,13 @@ public class TreeModel extends AbstractModel implements MutableTree {
     private Node[] nodes = null;
     private Node[] storedNodes = null;
 
+    /**
+     * the numbers of the nodes that have been edited since the last store
+     */
+    private boolean[] journaledNodes = null;
+    private int[] nodeJournal = null;
+    private int nodeJournalSize = 0;
+
     /**
      * number of nodes (including root and tips)
      */
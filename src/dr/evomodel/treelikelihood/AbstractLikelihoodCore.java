@@ -55,8 +55,14 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
     protected int[] storedPartialsIndices;
 
     protected boolean useScaling = false;
+    protected boolean recomputeScaleFactors = true;
 
     protected double[][][] scalingFactors;
+    protected double[][][] scalingFactorValues;
+    protected boolean[][] nodeScaled;
+
+    protected int[] currentScalingIndices;
+    protected int[] storedScalingIndices;
 
     private double scalingThreshold = 1.0E-100;
 
@@ -99,6 +105,9 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
         currentPartialsIndices = new int[nodeCount];
         storedPartialsIndices = new int[nodeCount];
 
+        currentScalingIndices = new int[nodeCount];
+        storedScalingIndices = new int[nodeCount];
+
         states = new int[nodeCount][];
 
         for (int i = 0; i < nodeCount; i++) {
@@ -132,6 +141,10 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
         storedMatricesIndices = null;
 
         scalingFactors = null;
+        scalingFactorValues = null;
+        nodeScaled = null;
+        currentScalingIndices = null;
+        storedScalingIndices = null;
     }
 
     public void setUseScaling(boolean useScaling) {
@@ -139,9 +152,15 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
 
         if (useScaling) {
             scalingFactors = new double[2][nodeCount][patternCount];
+            scalingFactorValues = new double[2][nodeCount][patternCount];
+            nodeScaled = new boolean[2][nodeCount];
         }
     }
 
+    public void setRecomputeScaleFactors(boolean recomputeScaleFactors) {
+        this.recomputeScaleFactors = recomputeScaleFactors;
+    }
+
     /**
      * Allocates partials for a node
      */
@@ -270,7 +289,11 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
         }
 
         if (useScaling) {
-            scalePartials(nodeIndex3);
+            if (recomputeScaleFactors) {
+                scalePartials(nodeIndex3);
+            } else {
+                applyScalingFactors(nodeIndex3);
+            }
         }
 
 //
@@ -345,7 +368,11 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
         }
 
         if (useScaling) {
-            scalePartials(nodeIndex3);
+            if (recomputeScaleFactors) {
+                scalePartials(nodeIndex3);
+            } else {
+                applyScalingFactors(nodeIndex3);
+            }
         }
     }
 
@@ -396,10 +423,18 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
      * most of the performance hit. Ziheng suggests only doing this on a proportion of nodes
      * but this sounded like a headache to organize (and he doesn't use the threshold idea
      * which improves the performance quite a bit).
+     * <p/>
+     * The scaling factors have their own buffers which only flip when they are recomputed
+     * so the factors can be applied again by applyScalingFactors.
      *
      * @param nodeIndex
      */
     protected void scalePartials(int nodeIndex) {
+        currentScalingIndices[nodeIndex] = 1 - currentScalingIndices[nodeIndex];
+
+        final int scalingIndex = currentScalingIndices[nodeIndex];
+        boolean scaled = false;
+
         int u = 0;
 
         for (int i = 0; i < patternCount; i++) {
@@ -426,15 +461,54 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
                     }
                     v += (patternCount - 1) * stateCount;
                 }
-                scalingFactors[currentPartialsIndices[nodeIndex]][nodeIndex][i] = Math.log(scaleFactor);
+                scalingFactors[scalingIndex][nodeIndex][i] = Math.log(scaleFactor);
+                scalingFactorValues[scalingIndex][nodeIndex][i] = scaleFactor;
+                scaled = true;
 
             } else {
-                scalingFactors[currentPartialsIndices[nodeIndex]][nodeIndex][i] = 0.0;
+                scalingFactors[scalingIndex][nodeIndex][i] = 0.0;
+                scalingFactorValues[scalingIndex][nodeIndex][i] = 1.0;
             }
             u += stateCount;
 
 
         }
+
+        nodeScaled[scalingIndex][nodeIndex] = scaled;
+    }
+
+    /**
+     * Rescales the partials at a given node by the scaling factors last computed for
+     * that node rather than searching for the largest partial of each pattern. Nodes
+     * which didn't need any scaling are left alone.
+     *
+     * @param nodeIndex
+     */
+    protected void applyScalingFactors(int nodeIndex) {
+        final int scalingIndex = currentScalingIndices[nodeIndex];
+        if (!nodeScaled[scalingIndex][nodeIndex]) {
+            return;
+        }
+
+        final double[] partials1 = partials[currentPartialsIndices[nodeIndex]][nodeIndex];
+        final double[] scaleFactors = scalingFactorValues[scalingIndex][nodeIndex];
+
+        int u = 0;
+        for (int i = 0; i < patternCount; i++) {
+            final double scaleFactor = scaleFactors[i];
+
+            if (scaleFactor != 1.0) {
+                int v = u;
+                for (int k = 0; k < matrixCount; k++) {
+                    for (int j = 0; j < stateCount; j++) {
+                        partials1[v] /= scaleFactor;
+                        v++;
+                    }
+                    v += (patternCount - 1) * stateCount;
+                }
+            }
+            u += stateCount;
+        }
     }
 
     /**
@@ -448,7 +522,7 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
         double logScalingFactor = 0.0;
         if (useScaling) {
             for (int i = 0; i < nodeCount; i++) {
-                logScalingFactor += scalingFactors[currentPartialsIndices[i]][i][pattern];
+                logScalingFactor += scalingFactors[currentScalingIndices[i]][i][pattern];
             }
         }
         return logScalingFactor;
@@ -473,6 +547,7 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
 
         System.arraycopy(currentMatricesIndices, 0, storedMatricesIndices, 0, nodeCount);
         System.arraycopy(currentPartialsIndices, 0, storedPartialsIndices, 0, nodeCount);
+        System.arraycopy(currentScalingIndices, 0, storedScalingIndices, 0, nodeCount);
     }
 
     /**
@@ -487,5 +562,9 @@ public abstract class AbstractLikelihoodCore implements LikelihoodCore {
         int[] tmp2 = currentPartialsIndices;
         currentPartialsIndices = storedPartialsIndices;
         storedPartialsIndices = tmp2;
+
+        int[] tmp3 = currentScalingIndices;
+        currentScalingIndices = storedScalingIndices;
+        storedScalingIndices = tmp3;
     }
 }
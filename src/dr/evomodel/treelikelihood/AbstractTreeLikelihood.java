@@ -42,7 +42,7 @@ import dr.xml.Reportable;
  * @version $Id: AbstractTreeLikelihood.java,v 1.16 2005/06/07 16:27:39 alexei Exp $
  */
 
-public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood implements Reportable {
+public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood implements Reportable, TreeTraversalCounts {
 
     protected static final boolean COUNT_TOTAL_OPERATIONS = true;
 
@@ -285,6 +285,10 @@ public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood imp
         return logLikelihood;
     }
 
+    public boolean isLikelihoodKnown() {
+        return likelihoodKnown;
+    }
+
     /**
      * Forces a complete recalculation of the likelihood next time getLikelihood is called
      */
@@ -296,6 +300,28 @@ public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood imp
 
     protected abstract double calculateLogLikelihood();
 
+    /**
+     * Counts a calculation of the likelihood as a full traversal of the tree (every node
+     * needs updating) or a partial one. Subclasses call this before traversing the tree.
+     */
+    protected final void countTraversal() {
+        for (int i = 0; i < nodeCount; i++) {
+            if (!updateNode[i]) {
+                partialTraversalCount++;
+                return;
+            }
+        }
+        fullTraversalCount++;
+    }
+
+    public int getFullTraversalCount() {
+        return fullTraversalCount;
+    }
+
+    public int getPartialTraversalCount() {
+        return partialTraversalCount;
+    }
+
     public String getReport() {
         getLogLikelihood();
         return getClass().getName() + "(" + logLikelihood + ") total operations = " + totalOperationCount;
@@ -354,4 +380,7 @@ public abstract class AbstractTreeLikelihood extends AbstractModelLikelihood imp
     private boolean storedLikelihoodKnown = false;
 
     protected int totalOperationCount = 0;
+
+    private int fullTraversalCount = 0;
+    private int partialTraversalCount = 0;
 }
\ No newline at end of file
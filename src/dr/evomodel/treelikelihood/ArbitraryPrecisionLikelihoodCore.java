@@ -516,6 +516,9 @@ public class ArbitraryPrecisionLikelihoodCore implements LikelihoodCore {
     public void setUseScaling(boolean useScaling) {
     }
 
+    public void setRecomputeScaleFactors(boolean recomputeScaleFactors) {
+    }
+
     public double getLogScalingFactor(int pattern) {
         return 0;
     }
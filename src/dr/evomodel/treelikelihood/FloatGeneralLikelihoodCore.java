@@ -0,0 +1,513 @@
+/*
+ * FloatGeneralLikelihoodCore.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treelikelihood;
+
+/**
+ * FloatGeneralLikelihoodCore - An implementation of LikelihoodCore for any data which
+ * stores the partial likelihoods in single precision, halving their memory.
+ * <p/>
+ * The sums are accumulated in double precision and only rounded when they are stored.
+ * As the range of a float is much smaller than that of a double, the partials of each
+ * pattern are always rescaled when their largest value falls below a threshold.
+ */
+public class FloatGeneralLikelihoodCore implements LikelihoodCore {
+
+    /**
+     * Partials are rescaled below this value so that the product of two children
+     * and a transition probability remains well within the range of a float.
+     */
+    public static final double SCALING_THRESHOLD = 1.0E-10;
+
+    protected int stateCount;
+    protected int nodeCount;
+    protected int patternCount;
+    protected int partialsSize;
+    protected int matrixSize;
+    protected int matrixCount;
+
+    protected boolean integrateCategories;
+
+    protected float[][][] partials;
+
+    protected int[][] states;
+
+    protected double[][][] matrices;
+
+    protected int[] currentMatricesIndices;
+    protected int[] storedMatricesIndices;
+    protected int[] currentPartialsIndices;
+    protected int[] storedPartialsIndices;
+
+    protected double[][][] scalingFactors;
+
+    /**
+     * Constructor
+     *
+     * @param stateCount number of states
+     */
+    public FloatGeneralLikelihoodCore(int stateCount) {
+        this.stateCount = stateCount;
+    }
+
+    /**
+     * initializes partial likelihood arrays.
+     *
+     * @param nodeCount           the number of nodes in the tree
+     * @param patternCount        the number of patterns
+     * @param matrixCount         the number of matrices (i.e., number of categories)
+     * @param integrateCategories whether sites are being integrated over all matrices
+     */
+    public void initialize(int nodeCount, int patternCount, int matrixCount, boolean integrateCategories) {
+
+        this.nodeCount = nodeCount;
+        this.patternCount = patternCount;
+        this.matrixCount = matrixCount;
+
+        this.integrateCategories = integrateCategories;
+
+        if (integrateCategories) {
+            partialsSize = patternCount * stateCount * matrixCount;
+        } else {
+            partialsSize = patternCount * stateCount;
+        }
+
+        partials = new float[2][nodeCount][];
+
+        currentMatricesIndices = new int[nodeCount];
+        storedMatricesIndices = new int[nodeCount];
+
+        currentPartialsIndices = new int[nodeCount];
+        storedPartialsIndices = new int[nodeCount];
+
+        states = new int[nodeCount][];
+
+        matrixSize = stateCount * stateCount;
+
+        matrices = new double[2][nodeCount][matrixCount * matrixSize];
+
+        scalingFactors = new double[2][nodeCount][patternCount];
+    }
+
+    /**
+     * cleans up and deallocates arrays.
+     */
+    public void finalize() throws java.lang.Throwable {
+        super.finalize();
+
+        nodeCount = 0;
+        patternCount = 0;
+        matrixCount = 0;
+
+        partials = null;
+        currentPartialsIndices = null;
+        storedPartialsIndices = null;
+        states = null;
+        matrices = null;
+        currentMatricesIndices = null;
+        storedMatricesIndices = null;
+
+        scalingFactors = null;
+    }
+
+    /**
+     * Scaling is always used with single precision partials so this is ignored.
+     */
+    public void setUseScaling(boolean useScaling) {
+    }
+
+    /**
+     * The scaling factors are always recomputed with single precision partials so this is ignored.
+     */
+    public void setRecomputeScaleFactors(boolean recomputeScaleFactors) {
+    }
+
+    /**
+     * Allocates partials for a node
+     */
+    public void createNodePartials(int nodeIndex) {
+        this.partials[0][nodeIndex] = new float[partialsSize];
+        this.partials[1][nodeIndex] = new float[partialsSize];
+    }
+
+    /**
+     * Sets partials for a node
+     */
+    public void setNodePartials(int nodeIndex, double[] partials) {
+        if (this.partials[0][nodeIndex] == null) {
+            createNodePartials(nodeIndex);
+        }
+        copyPartials(partials, this.partials[0][nodeIndex]);
+    }
+
+    /**
+     * Allocates states for a node
+     */
+    public void createNodeStates(int nodeIndex) {
+        this.states[nodeIndex] = new int[patternCount];
+    }
+
+    /**
+     * Sets states for a node
+     */
+    public void setNodeStates(int nodeIndex, int[] states) {
+        if (this.states[nodeIndex] == null) {
+            createNodeStates(nodeIndex);
+        }
+        System.arraycopy(states, 0, this.states[nodeIndex], 0, patternCount);
+    }
+
+    public void setNodeMatrixForUpdate(int nodeIndex) {
+        currentMatricesIndices[nodeIndex] = 1 - currentMatricesIndices[nodeIndex];
+    }
+
+    /**
+     * Sets probability matrix for a node
+     */
+    public void setNodeMatrix(int nodeIndex, int matrixIndex, double[] matrix) {
+        System.arraycopy(matrix, 0, matrices[currentMatricesIndices[nodeIndex]][nodeIndex],
+                matrixIndex * matrixSize, matrixSize);
+    }
+
+    public void setNodePartialsForUpdate(int nodeIndex) {
+        currentPartialsIndices[nodeIndex] = 1 - currentPartialsIndices[nodeIndex];
+    }
+
+    /**
+     * Sets the currently updating node partials for node nodeIndex. This may
+     * need to repeatedly copy the partials for the different category partitions
+     */
+    public void setCurrentNodePartials(int nodeIndex, double[] partials) {
+        copyPartials(partials, this.partials[currentPartialsIndices[nodeIndex]][nodeIndex]);
+    }
+
+    private void copyPartials(double[] inPartials, float[] outPartials) {
+        if (inPartials.length < partialsSize) {
+            int k = 0;
+            for (int i = 0; i < matrixCount; i++) {
+                for (int j = 0; j < inPartials.length; j++) {
+                    outPartials[k] = (float) inPartials[j];
+                    k++;
+                }
+            }
+        } else {
+            for (int j = 0; j < partialsSize; j++) {
+                outPartials[j] = (float) inPartials[j];
+            }
+        }
+    }
+
+    /**
+     * Calculates partial likelihoods at a node.
+     *
+     * @param nodeIndex1 the 'child 1' node
+     * @param nodeIndex2 the 'child 2' node
+     * @param nodeIndex3 the 'parent' node
+     */
+    public void calculatePartials(int nodeIndex1, int nodeIndex2, int nodeIndex3) {
+        calculatePartials(nodeIndex1, nodeIndex2, nodeIndex3, null);
+    }
+
+    /**
+     * Calculates partial likelihoods at a node.
+     *
+     * @param nodeIndex1 the 'child 1' node
+     * @param nodeIndex2 the 'child 2' node
+     * @param nodeIndex3 the 'parent' node
+     * @param matrixMap  a map of which matrix to use for each pattern (can be null if integrating over categories)
+     */
+    public void calculatePartials(int nodeIndex1, int nodeIndex2, int nodeIndex3, int[] matrixMap) {
+        if (states[nodeIndex1] == null && states[nodeIndex2] != null) {
+            // put the child with states first
+            final int tmp = nodeIndex1;
+            nodeIndex1 = nodeIndex2;
+            nodeIndex2 = tmp;
+        }
+
+        final double[] matrices1 = matrices[currentMatricesIndices[nodeIndex1]][nodeIndex1];
+        final double[] matrices2 = matrices[currentMatricesIndices[nodeIndex2]][nodeIndex2];
+        final float[] partials3 = partials[currentPartialsIndices[nodeIndex3]][nodeIndex3];
+
+        if (states[nodeIndex1] != null) {
+            if (states[nodeIndex2] != null) {
+                calculateStatesStatesPruning(states[nodeIndex1], matrices1, states[nodeIndex2], matrices2,
+                        partials3, matrixMap);
+            } else {
+                calculateStatesPartialsPruning(states[nodeIndex1], matrices1,
+                        partials[currentPartialsIndices[nodeIndex2]][nodeIndex2], matrices2,
+                        partials3, matrixMap);
+            }
+        } else {
+            calculatePartialsPartialsPruning(partials[currentPartialsIndices[nodeIndex1]][nodeIndex1], matrices1,
+                    partials[currentPartialsIndices[nodeIndex2]][nodeIndex2], matrices2,
+                    partials3, matrixMap);
+        }
+
+        scalePartials(nodeIndex3);
+    }
+
+    private int getCategoryCount() {
+        return (integrateCategories ? matrixCount : 1);
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when both children have states.
+     */
+    protected void calculateStatesStatesPruning(int[] states1, double[] matrices1,
+                                                int[] states2, double[] matrices2,
+                                                float[] partials3, int[] matrixMap) {
+        int v = 0;
+
+        for (int l = 0; l < getCategoryCount(); l++) {
+            for (int k = 0; k < patternCount; k++) {
+
+                final int state1 = states1[k];
+                final int state2 = states2[k];
+
+                int w = (matrixMap == null ? l : matrixMap[k]) * matrixSize;
+
+                for (int i = 0; i < stateCount; i++) {
+                    double p = 1.0;
+                    if (state1 < stateCount) {
+                        p *= matrices1[w + state1];
+                    }
+                    if (state2 < stateCount) {
+                        p *= matrices2[w + state2];
+                    }
+                    partials3[v] = (float) p;
+
+                    v++;
+                    w += stateCount;
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when one child has states and one has partials.
+     */
+    protected void calculateStatesPartialsPruning(int[] states1, double[] matrices1,
+                                                  float[] partials2, double[] matrices2,
+                                                  float[] partials3, int[] matrixMap) {
+        int u = 0;
+        int v = 0;
+
+        for (int l = 0; l < getCategoryCount(); l++) {
+            for (int k = 0; k < patternCount; k++) {
+
+                final int state1 = states1[k];
+
+                int w = (matrixMap == null ? l : matrixMap[k]) * matrixSize;
+
+                for (int i = 0; i < stateCount; i++) {
+
+                    double sum = 0.0;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum += matrices2[w + j] * partials2[v + j];
+                    }
+
+                    if (state1 < stateCount) {
+                        sum *= matrices1[w + state1];
+                    }
+                    partials3[u] = (float) sum;
+
+                    u++;
+                    w += stateCount;
+                }
+                v += stateCount;
+            }
+        }
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when both children have partials.
+     */
+    protected void calculatePartialsPartialsPruning(float[] partials1, double[] matrices1,
+                                                    float[] partials2, double[] matrices2,
+                                                    float[] partials3, int[] matrixMap) {
+        int u = 0;
+        int v = 0;
+
+        for (int l = 0; l < getCategoryCount(); l++) {
+            for (int k = 0; k < patternCount; k++) {
+
+                int w = (matrixMap == null ? l : matrixMap[k]) * matrixSize;
+
+                for (int i = 0; i < stateCount; i++) {
+
+                    double sum1 = 0.0;
+                    double sum2 = 0.0;
+                    for (int j = 0; j < stateCount; j++) {
+                        sum1 += matrices1[w + j] * partials1[v + j];
+                        sum2 += matrices2[w + j] * partials2[v + j];
+                    }
+                    partials3[u] = (float) (sum1 * sum2);
+
+                    u++;
+                    w += stateCount;
+                }
+                v += stateCount;
+            }
+        }
+    }
+
+    /**
+     * Scale the partials at a given node in the same way as AbstractLikelihoodCore
+     * but with a threshold suitable for single precision. Patterns which are
+     * zero for every state are left alone so they give a likelihood of zero.
+     *
+     * @param nodeIndex the node
+     */
+    protected void scalePartials(int nodeIndex) {
+        final float[] partials3 = partials[currentPartialsIndices[nodeIndex]][nodeIndex];
+        final double[] scalingFactors3 = scalingFactors[currentPartialsIndices[nodeIndex]][nodeIndex];
+        final int categoryCount = getCategoryCount();
+
+        int u = 0;
+        for (int k = 0; k < patternCount; k++) {
+
+            double scaleFactor = 0.0;
+            int v = u;
+            for (int l = 0; l < categoryCount; l++) {
+                for (int j = 0; j < stateCount; j++) {
+                    if (partials3[v] > scaleFactor) {
+                        scaleFactor = partials3[v];
+                    }
+                    v++;
+                }
+                v += (patternCount - 1) * stateCount;
+            }
+
+            if (scaleFactor < SCALING_THRESHOLD && scaleFactor > 0.0) {
+                v = u;
+                for (int l = 0; l < categoryCount; l++) {
+                    for (int j = 0; j < stateCount; j++) {
+                        partials3[v] = (float) (partials3[v] / scaleFactor);
+                        v++;
+                    }
+                    v += (patternCount - 1) * stateCount;
+                }
+                scalingFactors3[k] = Math.log(scaleFactor);
+            } else {
+                scalingFactors3[k] = 0.0;
+            }
+            u += stateCount;
+        }
+    }
+
+    /**
+     * This function returns the scaling factor for that pattern by summing over
+     * the log scalings used at each node.
+     *
+     * @return the log scaling factor
+     */
+    public double getLogScalingFactor(int pattern) {
+        double logScalingFactor = 0.0;
+        for (int i = 0; i < nodeCount; i++) {
+            logScalingFactor += scalingFactors[currentPartialsIndices[i]][i][pattern];
+        }
+        return logScalingFactor;
+    }
+
+    /**
+     * Gets the partials for a particular node.
+     *
+     * @param nodeIndex   the node
+     * @param outPartials an array into which the partials will go
+     */
+    public void getPartials(int nodeIndex, double[] outPartials) {
+        final float[] partials1 = partials[currentPartialsIndices[nodeIndex]][nodeIndex];
+        for (int i = 0; i < partialsSize; i++) {
+            outPartials[i] = partials1[i];
+        }
+    }
+
+    /**
+     * Integrates partials across categories.
+     *
+     * @param nodeIndex   the node at which to integrate the partials
+     * @param proportions the proportions of sites in each category
+     * @param outPartials an array into which the integrated partials will go
+     */
+    public void integratePartials(int nodeIndex, double[] proportions, double[] outPartials) {
+        final float[] inPartials = partials[currentPartialsIndices[nodeIndex]][nodeIndex];
+        final int size = patternCount * stateCount;
+
+        int v = 0;
+        for (int u = 0; u < size; u++) {
+            outPartials[u] = inPartials[v] * proportions[0];
+            v++;
+        }
+
+        for (int l = 1; l < matrixCount; l++) {
+            for (int u = 0; u < size; u++) {
+                outPartials[u] += inPartials[v] * proportions[l];
+                v++;
+            }
+        }
+    }
+
+    /**
+     * Calculates pattern log likelihoods at a node.
+     *
+     * @param partials          the partials used to calculate the likelihoods
+     * @param frequencies       an array of state frequencies
+     * @param outLogLikelihoods an array into which the likelihoods will go
+     */
+    public void calculateLogLikelihoods(double[] partials, double[] frequencies, double[] outLogLikelihoods) {
+        int v = 0;
+        for (int k = 0; k < patternCount; k++) {
+
+            double sum = 0.0;
+            for (int i = 0; i < stateCount; i++) {
+                sum += frequencies[i] * partials[v];
+                v++;
+            }
+            outLogLikelihoods[k] = Math.log(sum) + getLogScalingFactor(k);
+        }
+    }
+
+    /**
+     * Store current state
+     */
+    public void storeState() {
+        System.arraycopy(currentMatricesIndices, 0, storedMatricesIndices, 0, nodeCount);
+        System.arraycopy(currentPartialsIndices, 0, storedPartialsIndices, 0, nodeCount);
+    }
+
+    /**
+     * Restore the stored state
+     */
+    public void restoreState() {
+        // Rather than copying the stored stuff back, just swap the pointers...
+        int[] tmp1 = currentMatricesIndices;
+        currentMatricesIndices = storedMatricesIndices;
+        storedMatricesIndices = tmp1;
+
+        int[] tmp2 = currentPartialsIndices;
+        currentPartialsIndices = storedPartialsIndices;
+        storedPartialsIndices = tmp2;
+    }
+}
@@ -138,6 +138,15 @@ public interface LikelihoodCore {
 
     void setUseScaling(boolean useScaling);
 
+    /**
+     * Sets whether the scaling factors are recomputed as partials are calculated. If not
+     * then the factors each node had when they were last computed are applied again, which
+     * avoids searching for the largest partial of every pattern.
+     *
+     * @param recomputeScaleFactors whether to recompute the scaling factors
+     */
+    void setRecomputeScaleFactors(boolean recomputeScaleFactors);
+
     double getLogScalingFactor(int pattern);
 
     /**
@@ -0,0 +1,870 @@
+/*
+ * ParallelLikelihoodCore.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treelikelihood;
+
+import dr.inference.model.LikelihoodEvaluationPool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * ParallelLikelihoodCore - A pure Java implementation of LikelihoodCore for any data
+ * which keeps the partials, matrices and scaling factors in flat arrays and divides
+ * the site patterns into blocks which are calculated in parallel on the shared
+ * likelihood evaluation pool.
+ * <p/>
+ * The partials of each node are padded to a whole number of 64 byte cache lines so
+ * that neighbouring buffers do not share lines. The inner products are fully unrolled
+ * for nucleotides and unrolled four states at a time for other data types (so 20 amino
+ * acid states are an exact multiple and 61 codon states leave a single remainder).
+ */
+public class ParallelLikelihoodCore implements LikelihoodCore {
+
+    /**
+     * The smallest number of patterns worth handing to another thread.
+     */
+    public static final int MIN_PATTERNS_PER_BLOCK = 256;
+
+    private static final int CACHE_LINE_DOUBLES = 8;
+
+    private static final int STATES_STATES = 0;
+    private static final int STATES_PARTIALS = 1;
+    private static final int PARTIALS_PARTIALS = 2;
+
+    /**
+     * Constructor
+     *
+     * @param stateCount number of states
+     */
+    public ParallelLikelihoodCore(int stateCount) {
+        this(stateCount, -1);
+    }
+
+    /**
+     * Constructor
+     *
+     * @param stateCount  number of states
+     * @param threadCount the number of threads (if less than 1 then the default pool is used)
+     */
+    public ParallelLikelihoodCore(int stateCount, int threadCount) {
+        this.stateCount = stateCount;
+        this.matrixSize = stateCount * stateCount;
+
+        if (threadCount < 1) {
+            pool = LikelihoodEvaluationPool.getDefaultPool();
+        } else {
+            pool = LikelihoodEvaluationPool.getPool(threadCount);
+        }
+    }
+
+    /**
+     * initializes partial likelihood arrays.
+     *
+     * @param nodeCount           the number of nodes in the tree
+     * @param patternCount        the number of patterns
+     * @param matrixCount         the number of matrices (i.e., number of categories)
+     * @param integrateCategories whether sites are being integrated over all matrices
+     */
+    public void initialize(int nodeCount, int patternCount, int matrixCount, boolean integrateCategories) {
+
+        this.nodeCount = nodeCount;
+        this.patternCount = patternCount;
+        this.matrixCount = matrixCount;
+
+        partialsCategoryCount = (integrateCategories ? matrixCount : 1);
+        partialsSize = patternCount * stateCount * partialsCategoryCount;
+        paddedPartialsSize = ((partialsSize + CACHE_LINE_DOUBLES - 1) / CACHE_LINE_DOUBLES) * CACHE_LINE_DOUBLES;
+
+        if (2L * nodeCount * paddedPartialsSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The partials for " + patternCount + " patterns on " + nodeCount +
+                    " nodes are too large for the parallel likelihood core");
+        }
+
+        partials = new double[0];
+        partialsSlots = new int[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            partialsSlots[i] = -1;
+        }
+        slotCount = 0;
+
+        states = new int[nodeCount][];
+
+        matrices = new double[2 * nodeCount * matrixCount * matrixSize];
+
+        currentMatricesIndices = new int[nodeCount];
+        storedMatricesIndices = new int[nodeCount];
+
+        currentPartialsIndices = new int[nodeCount];
+        storedPartialsIndices = new int[nodeCount];
+
+        currentScalingIndices = new int[nodeCount];
+        storedScalingIndices = new int[nodeCount];
+
+        final int blockCount = Math.max(1, Math.min(pool.getThreadCount(), patternCount / MIN_PATTERNS_PER_BLOCK));
+        blocks = new ArrayList<PatternBlock>(blockCount);
+        for (int i = 0; i < blockCount; i++) {
+            blocks.add(new PatternBlock((int) ((long) patternCount * i / blockCount),
+                    (int) ((long) patternCount * (i + 1) / blockCount)));
+        }
+        blockResults = new double[blockCount];
+    }
+
+    /**
+     * cleans up and deallocates arrays.
+     */
+    public void finalize() throws java.lang.Throwable {
+        super.finalize();
+
+        nodeCount = 0;
+        patternCount = 0;
+        matrixCount = 0;
+
+        partials = null;
+        partialsSlots = null;
+        states = null;
+        matrices = null;
+        scalingFactors = null;
+        scalingFactorValues = null;
+        nodeScaled = null;
+
+        currentMatricesIndices = null;
+        storedMatricesIndices = null;
+        currentPartialsIndices = null;
+        storedPartialsIndices = null;
+        currentScalingIndices = null;
+        storedScalingIndices = null;
+
+        blocks = null;
+    }
+
+    /**
+     * @return the number of blocks the patterns are divided into
+     */
+    public int getPatternBlockCount() {
+        return blocks.size();
+    }
+
+    public void setUseScaling(boolean useScaling) {
+        this.useScaling = useScaling;
+
+        if (useScaling) {
+            scalingFactors = new double[2 * nodeCount * patternCount];
+            scalingFactorValues = new double[2 * nodeCount * patternCount];
+            nodeScaled = new boolean[2 * nodeCount];
+        }
+    }
+
+    public void setRecomputeScaleFactors(boolean recomputeScaleFactors) {
+        this.recomputeScaleFactors = recomputeScaleFactors;
+    }
+
+    /**
+     * Allocates partials for a node
+     */
+    public void createNodePartials(int nodeIndex) {
+        if (partialsSlots[nodeIndex] == -1) {
+            partialsSlots[nodeIndex] = slotCount;
+            slotCount++;
+
+            final int length = 2 * slotCount * paddedPartialsSize;
+            if (partials.length < length) {
+                // grow geometrically as the nodes are usually created one at a time
+                final long capacity = Math.min(2L * partials.length, 2L * nodeCount * paddedPartialsSize);
+                final double[] newPartials = new double[(int) Math.max(length, capacity)];
+                System.arraycopy(partials, 0, newPartials, 0, partials.length);
+                partials = newPartials;
+            }
+        }
+    }
+
+    /**
+     * Sets partials for a node
+     */
+    public void setNodePartials(int nodeIndex, double[] partials) {
+        if (partialsSlots[nodeIndex] == -1) {
+            createNodePartials(nodeIndex);
+        }
+        copyPartials(partials, getPartialsOffset(nodeIndex, 0));
+    }
+
+    /**
+     * Allocates states for a node
+     */
+    public void createNodeStates(int nodeIndex) {
+        this.states[nodeIndex] = new int[patternCount];
+    }
+
+    /**
+     * Sets states for a node
+     */
+    public void setNodeStates(int nodeIndex, int[] states) {
+        if (this.states[nodeIndex] == null) {
+            createNodeStates(nodeIndex);
+        }
+        System.arraycopy(states, 0, this.states[nodeIndex], 0, patternCount);
+    }
+
+    /**
+     * Gets states for a node
+     */
+    public void getNodeStates(int nodeIndex, int[] states) {
+        System.arraycopy(this.states[nodeIndex], 0, states, 0, patternCount);
+    }
+
+    public void setNodeMatrixForUpdate(int nodeIndex) {
+        currentMatricesIndices[nodeIndex] = 1 - currentMatricesIndices[nodeIndex];
+    }
+
+    /**
+     * Sets probability matrix for a node
+     */
+    public void setNodeMatrix(int nodeIndex, int matrixIndex, double[] matrix) {
+        System.arraycopy(matrix, 0, matrices, getMatricesOffset(nodeIndex) + matrixIndex * matrixSize, matrixSize);
+    }
+
+    /**
+     * Gets probability matrix for a node
+     */
+    public void getNodeMatrix(int nodeIndex, int matrixIndex, double[] matrix) {
+        System.arraycopy(matrices, getMatricesOffset(nodeIndex) + matrixIndex * matrixSize, matrix, 0, matrixSize);
+    }
+
+    public void setNodePartialsForUpdate(int nodeIndex) {
+        currentPartialsIndices[nodeIndex] = 1 - currentPartialsIndices[nodeIndex];
+    }
+
+    /**
+     * Sets the currently updating node partials for node nodeIndex. This may
+     * need to repeatedly copy the partials for the different category partitions
+     */
+    public void setCurrentNodePartials(int nodeIndex, double[] partials) {
+        copyPartials(partials, getPartialsOffset(nodeIndex, currentPartialsIndices[nodeIndex]));
+    }
+
+    private void copyPartials(double[] partials, int offset) {
+        if (partials.length < partialsSize) {
+            int k = offset;
+            for (int i = 0; i < partialsCategoryCount; i++) {
+                System.arraycopy(partials, 0, this.partials, k, partials.length);
+                k += partials.length;
+            }
+        } else {
+            System.arraycopy(partials, 0, this.partials, offset, partialsSize);
+        }
+    }
+
+    /**
+     * Calculates partial likelihoods at a node.
+     *
+     * @param nodeIndex1 the 'child 1' node
+     * @param nodeIndex2 the 'child 2' node
+     * @param nodeIndex3 the 'parent' node
+     */
+    public void calculatePartials(int nodeIndex1, int nodeIndex2, int nodeIndex3) {
+        calculatePartials(nodeIndex1, nodeIndex2, nodeIndex3, null);
+    }
+
+    /**
+     * Calculates partial likelihoods at a node. The operation is recorded in this
+     * core and then each block of patterns is calculated by whichever thread of the
+     * pool picks it up.
+     *
+     * @param nodeIndex1 the 'child 1' node
+     * @param nodeIndex2 the 'child 2' node
+     * @param nodeIndex3 the 'parent' node
+     * @param matrixMap  a map of which matrix to use for each pattern (can be null if integrating over categories)
+     */
+    public void calculatePartials(int nodeIndex1, int nodeIndex2, int nodeIndex3, int[] matrixMap) {
+        if (states[nodeIndex1] == null && states[nodeIndex2] != null) {
+            // always put the child with states first
+            final int tmp = nodeIndex1;
+            nodeIndex1 = nodeIndex2;
+            nodeIndex2 = tmp;
+        }
+
+        if (states[nodeIndex1] != null) {
+            operation = (states[nodeIndex2] != null ? STATES_STATES : STATES_PARTIALS);
+        } else {
+            operation = PARTIALS_PARTIALS;
+        }
+
+        states1 = states[nodeIndex1];
+        states2 = states[nodeIndex2];
+        partialsOffset1 = (states1 != null ? -1 : getCurrentPartialsOffset(nodeIndex1));
+        partialsOffset2 = (states2 != null ? -1 : getCurrentPartialsOffset(nodeIndex2));
+        partialsOffset3 = getCurrentPartialsOffset(nodeIndex3);
+        matricesOffset1 = getMatricesOffset(nodeIndex1);
+        matricesOffset2 = getMatricesOffset(nodeIndex2);
+        this.matrixMap = matrixMap;
+
+        if (useScaling) {
+            if (recomputeScaleFactors) {
+                // the blocks write new factors into the other buffer
+                currentScalingIndices[nodeIndex3] = 1 - currentScalingIndices[nodeIndex3];
+                nodeScaled[2 * nodeIndex3 + currentScalingIndices[nodeIndex3]] = false;
+            }
+            scalingIndex3 = 2 * nodeIndex3 + currentScalingIndices[nodeIndex3];
+            scalingOffset3 = getScalingOffset(nodeIndex3);
+        }
+
+        if (blocks.size() == 1) {
+            calculateBlock(0, patternCount);
+        } else {
+            pool.evaluate(blocks, blockResults);
+        }
+
+        states1 = null;
+        states2 = null;
+        this.matrixMap = null;
+    }
+
+    /**
+     * Calculates the recorded operation for a block of patterns.
+     *
+     * @param from the first pattern
+     * @param to   one past the last pattern
+     */
+    private void calculateBlock(int from, int to) {
+        final boolean unrolled = (stateCount == 4 && matrixMap == null);
+
+        switch (operation) {
+            case STATES_STATES:
+                calculateStatesStatesPruning(from, to);
+                break;
+            case STATES_PARTIALS:
+                if (unrolled) {
+                    calculateStatesPartialsPruning4(from, to);
+                } else {
+                    calculateStatesPartialsPruning(from, to);
+                }
+                break;
+            case PARTIALS_PARTIALS:
+                if (unrolled) {
+                    calculatePartialsPartialsPruning4(from, to);
+                } else {
+                    calculatePartialsPartialsPruning(from, to);
+                }
+                break;
+        }
+
+        if (useScaling) {
+            if (recomputeScaleFactors) {
+                scalePartials(from, to);
+            } else if (nodeScaled[scalingIndex3]) {
+                applyScalingFactors(from, to);
+            }
+        }
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when both children have states.
+     */
+    private void calculateStatesStatesPruning(int from, int to) {
+        final double[] partials = this.partials;
+        final double[] matrices = this.matrices;
+
+        for (int l = 0; l < partialsCategoryCount; l++) {
+            int u = partialsOffset3 + (l * patternCount + from) * stateCount;
+
+            for (int k = from; k < to; k++) {
+                final int state1 = states1[k];
+                final int state2 = states2[k];
+
+                final int w = (matrixMap == null ? l : matrixMap[k]) * matrixSize;
+                int w1 = matricesOffset1 + w + state1;
+                int w2 = matricesOffset2 + w + state2;
+
+                if (state1 < stateCount && state2 < stateCount) {
+                    for (int i = 0; i < stateCount; i++) {
+                        partials[u] = matrices[w1] * matrices[w2];
+                        u++;
+                        w1 += stateCount;
+                        w2 += stateCount;
+                    }
+                } else if (state1 < stateCount) {
+                    // child 2 has a gap or unknown state so treat it as unknown
+                    for (int i = 0; i < stateCount; i++) {
+                        partials[u] = matrices[w1];
+                        u++;
+                        w1 += stateCount;
+                    }
+                } else if (state2 < stateCount) {
+                    // child 1 has a gap or unknown state so treat it as unknown
+                    for (int i = 0; i < stateCount; i++) {
+                        partials[u] = matrices[w2];
+                        u++;
+                        w2 += stateCount;
+                    }
+                } else {
+                    // both children have a gap or unknown state so set partials to 1
+                    for (int i = 0; i < stateCount; i++) {
+                        partials[u] = 1.0;
+                        u++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when one child has states and one has partials.
+     */
+    private void calculateStatesPartialsPruning(int from, int to) {
+        final double[] partials = this.partials;
+        final double[] matrices = this.matrices;
+
+        for (int l = 0; l < partialsCategoryCount; l++) {
+            int v = (l * patternCount + from) * stateCount;
+
+            for (int k = from; k < to; k++) {
+                final int state1 = states1[k];
+
+                final int w = (matrixMap == null ? l : matrixMap[k]) * matrixSize;
+                int w1 = matricesOffset1 + w + state1;
+                int w2 = matricesOffset2 + w;
+                final int v2 = partialsOffset2 + v;
+                int u = partialsOffset3 + v;
+
+                if (state1 < stateCount) {
+                    for (int i = 0; i < stateCount; i++) {
+                        partials[u] = matrices[w1] * innerProduct(matrices, w2, partials, v2, stateCount);
+                        u++;
+                        w1 += stateCount;
+                        w2 += stateCount;
+                    }
+                } else {
+                    // child 1 has a gap or unknown state so don't use it
+                    for (int i = 0; i < stateCount; i++) {
+                        partials[u] = innerProduct(matrices, w2, partials, v2, stateCount);
+                        u++;
+                        w2 += stateCount;
+                    }
+                }
+                v += stateCount;
+            }
+        }
+    }
+
+    /**
+     * Calculates partial likelihoods at a node when both children have partials.
+     */
+    private void calculatePartialsPartialsPruning(int from, int to) {
+        final double[] partials = this.partials;
+        final double[] matrices = this.matrices;
+
+        for (int l = 0; l < partialsCategoryCount; l++) {
+            int v = (l * patternCount + from) * stateCount;
+
+            for (int k = from; k < to; k++) {
+                final int w = (matrixMap == null ? l : matrixMap[k]) * matrixSize;
+                int w1 = matricesOffset1 + w;
+                int w2 = matricesOffset2 + w;
+                final int v1 = partialsOffset1 + v;
+                final int v2 = partialsOffset2 + v;
+                int u = partialsOffset3 + v;
+
+                for (int i = 0; i < stateCount; i++) {
+                    partials[u] = innerProduct(matrices, w1, partials, v1, stateCount) *
+                            innerProduct(matrices, w2, partials, v2, stateCount);
+                    u++;
+                    w1 += stateCount;
+                    w2 += stateCount;
+                }
+                v += stateCount;
+            }
+        }
+    }
+
+    /**
+     * The inner product of a row of a matrix and the partials of a pattern, unrolled
+     * four states at a time with independent sums so the multiplications can overlap.
+     */
+    private static double innerProduct(double[] matrices, int w, double[] partials, int v, int count) {
+        double sum0 = 0.0;
+        double sum1 = 0.0;
+        double sum2 = 0.0;
+        double sum3 = 0.0;
+
+        final int end = count & ~3;
+        int j = 0;
+        while (j < end) {
+            sum0 += matrices[w + j] * partials[v + j];
+            sum1 += matrices[w + j + 1] * partials[v + j + 1];
+            sum2 += matrices[w + j + 2] * partials[v + j + 2];
+            sum3 += matrices[w + j + 3] * partials[v + j + 3];
+            j += 4;
+        }
+        while (j < count) {
+            sum0 += matrices[w + j] * partials[v + j];
+            j++;
+        }
+
+        return (sum0 + sum1) + (sum2 + sum3);
+    }
+
+    /**
+     * Calculates nucleotide partial likelihoods at a node when one child has states and
+     * one has partials. The matrix of the child with partials is held in local variables
+     * for each category.
+     */
+    private void calculateStatesPartialsPruning4(int from, int to) {
+        final double[] partials = this.partials;
+        final double[] matrices = this.matrices;
+
+        for (int l = 0; l < partialsCategoryCount; l++) {
+            final int w1 = matricesOffset1 + l * 16;
+            int w = matricesOffset2 + l * 16;
+
+            final double m00 = matrices[w], m01 = matrices[w + 1], m02 = matrices[w + 2], m03 = matrices[w + 3];
+            final double m10 = matrices[w + 4], m11 = matrices[w + 5], m12 = matrices[w + 6], m13 = matrices[w + 7];
+            final double m20 = matrices[w + 8], m21 = matrices[w + 9], m22 = matrices[w + 10], m23 = matrices[w + 11];
+            final double m30 = matrices[w + 12], m31 = matrices[w + 13], m32 = matrices[w + 14], m33 = matrices[w + 15];
+
+            int v = (l * patternCount + from) * 4;
+
+            for (int k = from; k < to; k++) {
+                final int state1 = states1[k];
+
+                final int v2 = partialsOffset2 + v;
+                final double p0 = partials[v2], p1 = partials[v2 + 1], p2 = partials[v2 + 2], p3 = partials[v2 + 3];
+
+                final int u = partialsOffset3 + v;
+
+                if (state1 < 4) {
+                    partials[u] = matrices[w1 + state1] * (m00 * p0 + m01 * p1 + m02 * p2 + m03 * p3);
+                    partials[u + 1] = matrices[w1 + 4 + state1] * (m10 * p0 + m11 * p1 + m12 * p2 + m13 * p3);
+                    partials[u + 2] = matrices[w1 + 8 + state1] * (m20 * p0 + m21 * p1 + m22 * p2 + m23 * p3);
+                    partials[u + 3] = matrices[w1 + 12 + state1] * (m30 * p0 + m31 * p1 + m32 * p2 + m33 * p3);
+                } else {
+                    // child 1 has a gap or unknown state so don't use it
+                    partials[u] = m00 * p0 + m01 * p1 + m02 * p2 + m03 * p3;
+                    partials[u + 1] = m10 * p0 + m11 * p1 + m12 * p2 + m13 * p3;
+                    partials[u + 2] = m20 * p0 + m21 * p1 + m22 * p2 + m23 * p3;
+                    partials[u + 3] = m30 * p0 + m31 * p1 + m32 * p2 + m33 * p3;
+                }
+                v += 4;
+            }
+        }
+    }
+
+    /**
+     * Calculates nucleotide partial likelihoods at a node when both children have partials.
+     * The matrices of both children are held in local variables for each category.
+     */
+    private void calculatePartialsPartialsPruning4(int from, int to) {
+        final double[] partials = this.partials;
+        final double[] matrices = this.matrices;
+
+        for (int l = 0; l < partialsCategoryCount; l++) {
+            int w = matricesOffset1 + l * 16;
+
+            final double a00 = matrices[w], a01 = matrices[w + 1], a02 = matrices[w + 2], a03 = matrices[w + 3];
+            final double a10 = matrices[w + 4], a11 = matrices[w + 5], a12 = matrices[w + 6], a13 = matrices[w + 7];
+            final double a20 = matrices[w + 8], a21 = matrices[w + 9], a22 = matrices[w + 10], a23 = matrices[w + 11];
+            final double a30 = matrices[w + 12], a31 = matrices[w + 13], a32 = matrices[w + 14], a33 = matrices[w + 15];
+
+            w = matricesOffset2 + l * 16;
+
+            final double b00 = matrices[w], b01 = matrices[w + 1], b02 = matrices[w + 2], b03 = matrices[w + 3];
+            final double b10 = matrices[w + 4], b11 = matrices[w + 5], b12 = matrices[w + 6], b13 = matrices[w + 7];
+            final double b20 = matrices[w + 8], b21 = matrices[w + 9], b22 = matrices[w + 10], b23 = matrices[w + 11];
+            final double b30 = matrices[w + 12], b31 = matrices[w + 13], b32 = matrices[w + 14], b33 = matrices[w + 15];
+
+            int v = (l * patternCount + from) * 4;
+
+            for (int k = from; k < to; k++) {
+                final int v1 = partialsOffset1 + v;
+                final double p0 = partials[v1], p1 = partials[v1 + 1], p2 = partials[v1 + 2], p3 = partials[v1 + 3];
+
+                final int v2 = partialsOffset2 + v;
+                final double q0 = partials[v2], q1 = partials[v2 + 1], q2 = partials[v2 + 2], q3 = partials[v2 + 3];
+
+                final int u = partialsOffset3 + v;
+
+                partials[u] = (a00 * p0 + a01 * p1 + a02 * p2 + a03 * p3) * (b00 * q0 + b01 * q1 + b02 * q2 + b03 * q3);
+                partials[u + 1] = (a10 * p0 + a11 * p1 + a12 * p2 + a13 * p3) * (b10 * q0 + b11 * q1 + b12 * q2 + b13 * q3);
+                partials[u + 2] = (a20 * p0 + a21 * p1 + a22 * p2 + a23 * p3) * (b20 * q0 + b21 * q1 + b22 * q2 + b23 * q3);
+                partials[u + 3] = (a30 * p0 + a31 * p1 + a32 * p2 + a33 * p3) * (b30 * q0 + b31 * q1 + b32 * q2 + b33 * q3);
+
+                v += 4;
+            }
+        }
+    }
+
+    /**
+     * Scales the partials of the block of patterns at the parent node in the same way
+     * as AbstractLikelihoodCore.
+     */
+    private void scalePartials(int from, int to) {
+        final double[] partials = this.partials;
+        final int categoryStride = patternCount * stateCount;
+        boolean scaled = false;
+
+        for (int k = from; k < to; k++) {
+            final int u = partialsOffset3 + k * stateCount;
+
+            double scaleFactor = 0.0;
+            int v = u;
+            for (int l = 0; l < partialsCategoryCount; l++) {
+                for (int j = 0; j < stateCount; j++) {
+                    if (partials[v + j] > scaleFactor) {
+                        scaleFactor = partials[v + j];
+                    }
+                }
+                v += categoryStride;
+            }
+
+            if (scaleFactor < scalingThreshold) {
+                v = u;
+                for (int l = 0; l < partialsCategoryCount; l++) {
+                    for (int j = 0; j < stateCount; j++) {
+                        partials[v + j] /= scaleFactor;
+                    }
+                    v += categoryStride;
+                }
+                scalingFactors[scalingOffset3 + k] = Math.log(scaleFactor);
+                scalingFactorValues[scalingOffset3 + k] = scaleFactor;
+                scaled = true;
+            } else {
+                scalingFactors[scalingOffset3 + k] = 0.0;
+                scalingFactorValues[scalingOffset3 + k] = 1.0;
+            }
+        }
+
+        if (scaled) {
+            // blocks only ever set this so it doesn't matter which one does
+            nodeScaled[scalingIndex3] = true;
+        }
+    }
+
+    /**
+     * Rescales the partials of the block of patterns at the parent node by the scaling
+     * factors last computed for that node.
+     */
+    private void applyScalingFactors(int from, int to) {
+        final double[] partials = this.partials;
+        final int categoryStride = patternCount * stateCount;
+
+        for (int k = from; k < to; k++) {
+            final double scaleFactor = scalingFactorValues[scalingOffset3 + k];
+
+            if (scaleFactor != 1.0) {
+                int v = partialsOffset3 + k * stateCount;
+                for (int l = 0; l < partialsCategoryCount; l++) {
+                    for (int j = 0; j < stateCount; j++) {
+                        partials[v + j] /= scaleFactor;
+                    }
+                    v += categoryStride;
+                }
+            }
+        }
+    }
+
+    /**
+     * This function returns the scaling factor for that pattern by summing over
+     * the log scalings used at each node. If scaling is off then this just returns
+     * a 0.
+     *
+     * @return the log scaling factor
+     */
+    public double getLogScalingFactor(int pattern) {
+        double logScalingFactor = 0.0;
+        if (useScaling) {
+            for (int i = 0; i < nodeCount; i++) {
+                logScalingFactor += scalingFactors[getScalingOffset(i) + pattern];
+            }
+        }
+        return logScalingFactor;
+    }
+
+    /**
+     * Gets the partials for a particular node.
+     *
+     * @param nodeIndex   the node
+     * @param outPartials an array into which the partials will go
+     */
+    public void getPartials(int nodeIndex, double[] outPartials) {
+        System.arraycopy(partials, getCurrentPartialsOffset(nodeIndex), outPartials, 0, partialsSize);
+    }
+
+    /**
+     * Integrates partials across categories.
+     *
+     * @param nodeIndex   the node at which to integrate the partials
+     * @param proportions the proportions of sites in each category
+     * @param outPartials an array into which the integrated partials will go
+     */
+    public void integratePartials(int nodeIndex, double[] proportions, double[] outPartials) {
+        final int size = patternCount * stateCount;
+        int v = getCurrentPartialsOffset(nodeIndex);
+
+        for (int u = 0; u < size; u++) {
+            outPartials[u] = partials[v] * proportions[0];
+            v++;
+        }
+
+        for (int l = 1; l < matrixCount; l++) {
+            for (int u = 0; u < size; u++) {
+                outPartials[u] += partials[v] * proportions[l];
+                v++;
+            }
+        }
+    }
+
+    /**
+     * Calculates pattern log likelihoods at a node.
+     *
+     * @param partials          the partials used to calculate the likelihoods
+     * @param frequencies       an array of state frequencies
+     * @param outLogLikelihoods an array into which the likelihoods will go
+     */
+    public void calculateLogLikelihoods(double[] partials, double[] frequencies, double[] outLogLikelihoods) {
+        int v = 0;
+        for (int k = 0; k < patternCount; k++) {
+
+            double sum = 0.0;
+            for (int i = 0; i < stateCount; i++) {
+                sum += frequencies[i] * partials[v];
+                v++;
+            }
+            outLogLikelihoods[k] = Math.log(sum) + getLogScalingFactor(k);
+        }
+    }
+
+    /**
+     * Store current state
+     */
+    public void storeState() {
+        System.arraycopy(currentMatricesIndices, 0, storedMatricesIndices, 0, nodeCount);
+        System.arraycopy(currentPartialsIndices, 0, storedPartialsIndices, 0, nodeCount);
+        System.arraycopy(currentScalingIndices, 0, storedScalingIndices, 0, nodeCount);
+    }
+
+    /**
+     * Restore the stored state
+     */
+    public void restoreState() {
+        // Rather than copying the stored stuff back, just swap the pointers...
+        int[] tmp1 = currentMatricesIndices;
+        currentMatricesIndices = storedMatricesIndices;
+        storedMatricesIndices = tmp1;
+
+        int[] tmp2 = currentPartialsIndices;
+        currentPartialsIndices = storedPartialsIndices;
+        storedPartialsIndices = tmp2;
+
+        int[] tmp3 = currentScalingIndices;
+        currentScalingIndices = storedScalingIndices;
+        storedScalingIndices = tmp3;
+    }
+
+    private int getPartialsOffset(int nodeIndex, int buffer) {
+        return (2 * partialsSlots[nodeIndex] + buffer) * paddedPartialsSize;
+    }
+
+    private int getCurrentPartialsOffset(int nodeIndex) {
+        return getPartialsOffset(nodeIndex, currentPartialsIndices[nodeIndex]);
+    }
+
+    private int getMatricesOffset(int nodeIndex) {
+        return (2 * nodeIndex + currentMatricesIndices[nodeIndex]) * matrixCount * matrixSize;
+    }
+
+    private int getScalingOffset(int nodeIndex) {
+        return (2 * nodeIndex + currentScalingIndices[nodeIndex]) * patternCount;
+    }
+
+    /**
+     * A block of patterns which is calculated by one thread of the pool.
+     */
+    private class PatternBlock implements Callable<Double> {
+
+        PatternBlock(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        public Double call() {
+            calculateBlock(from, to);
+            return 0.0;
+        }
+
+        private final int from;
+        private final int to;
+    }
+
+    private final int stateCount;
+    private final int matrixSize;
+    private final LikelihoodEvaluationPool pool;
+
+    private int nodeCount;
+    private int patternCount;
+    private int matrixCount;
+    private int partialsCategoryCount;
+    private int partialsSize;
+    private int paddedPartialsSize;
+
+    private double[] partials;
+    private int[] partialsSlots;
+    private int slotCount;
+
+    private int[][] states;
+
+    private double[] matrices;
+
+    private int[] currentMatricesIndices;
+    private int[] storedMatricesIndices;
+    private int[] currentPartialsIndices;
+    private int[] storedPartialsIndices;
+    private int[] currentScalingIndices;
+    private int[] storedScalingIndices;
+
+    private boolean useScaling = false;
+    private boolean recomputeScaleFactors = true;
+
+    private double[] scalingFactors;
+    private double[] scalingFactorValues;
+    private boolean[] nodeScaled;
+
+    private final double scalingThreshold = 1.0E-100;
+
+    private List<PatternBlock> blocks;
+    private double[] blockResults;
+
+    // the operation being calculated by the pattern blocks
+    private int operation;
+    private int[] states1;
+    private int[] states2;
+    private int[] matrixMap;
+    private int partialsOffset1;
+    private int partialsOffset2;
+    private int partialsOffset3;
+    private int matricesOffset1;
+    private int matricesOffset2;
+    private int scalingOffset3;
+    private int scalingIndex3;
+}
@@ -0,0 +1,224 @@
+/*
+ * ShardedTreeLikelihood.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.evomodel.treelikelihood;
+
+import dr.app.beagle.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.evolution.alignment.AscertainedSitePatterns;
+import dr.evolution.alignment.PatternList;
+import dr.evolution.alignment.Patterns;
+import dr.evomodel.branchratemodel.BranchRateModel;
+import dr.evomodel.branchratemodel.DefaultBranchRateModel;
+import dr.evomodel.sitemodel.SiteModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodelxml.treelikelihood.TreeLikelihoodParser;
+import dr.inference.model.LikelihoodEvaluationPool;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+/**
+ * A tree likelihood for a single large partition which divides the site patterns
+ * among a number of TreeLikelihoods (shards), each with its own likelihood core, that
+ * are evaluated concurrently. The shards share the tree, site model and branch rate
+ * model and the transition probability matrices are only calculated once for all of
+ * them.
+ */
+public class ShardedTreeLikelihood extends AbstractTreeLikelihood {
+
+    public ShardedTreeLikelihood(PatternList patternList,
+                                 TreeModel treeModel,
+                                 SiteModel siteModel,
+                                 BranchRateModel branchRateModel,
+                                 boolean useAmbiguities,
+                                 boolean allowMissingTaxa,
+                                 boolean storePartials,
+                                 boolean forceJavaCore,
+                                 boolean forceRescaling,
+                                 boolean useFloatPartials,
+                                 PartialsRescalingScheme rescalingScheme,
+                                 int shardCount,
+                                 int threadCount) {
+
+        super(TreeLikelihoodParser.TREE_LIKELIHOOD, patternList, treeModel);
+
+        if (!siteModel.integrateAcrossCategories()) {
+            throw new IllegalArgumentException("The site patterns can only be divided among shards for a site model that integrates across rate categories");
+        }
+        if (patternList instanceof AscertainedSitePatterns) {
+            throw new IllegalArgumentException("The site patterns can't be divided among shards when using an ascertainment correction");
+        }
+        if (shardCount < 1 || shardCount > patternCount) {
+            throw new IllegalArgumentException("The number of shards must be between 1 and the number of patterns (" + patternCount + ")");
+        }
+
+        addModel(siteModel);
+        addModel(siteModel.getFrequencyModel());
+
+        if (branchRateModel == null) {
+            branchRateModel = new DefaultBranchRateModel();
+        }
+        addModel(branchRateModel);
+
+        shards = new TreeLikelihood[shardCount];
+        sharedMatrices = new SharedMatrices(nodeCount, siteModel.getCategoryCount() * stateCount * stateCount);
+
+        for (int i = 0; i < shardCount; i++) {
+            PatternList shardPatterns = (shardCount > 1 ? new Patterns(patternList, i, shardCount) : patternList);
+
+            shards[i] = new TreeLikelihood(shardPatterns, treeModel, siteModel, branchRateModel, null,
+                    useAmbiguities, allowMissingTaxa, storePartials, forceJavaCore, forceRescaling,
+                    false, -1, useFloatPartials, rescalingScheme);
+            shards[i].setSharedMatrices(sharedMatrices);
+            addModel(shards[i]);
+
+            shardCallers.add(new ShardCaller(shards[i]));
+        }
+        shardLogLikelihoods = new double[shardCount];
+
+        if (shardCount > 1) {
+            pool = (threadCount < 1 ? LikelihoodEvaluationPool.getDefaultPool() :
+                    LikelihoodEvaluationPool.getPool(threadCount));
+        } else {
+            pool = null;
+        }
+
+        Logger.getLogger("dr.evomodel").info("  Site patterns divided among " + shardCount + " shards evaluated using " +
+                (pool == null ? 1 : pool.getThreadCount()) + " thread(s).");
+    }
+
+    public final int getShardCount() {
+        return shards.length;
+    }
+
+    public final TreeLikelihood getShard(int index) {
+        return shards[index];
+    }
+
+    // **************************************************************
+    // Likelihood IMPLEMENTATION
+    // **************************************************************
+
+    protected double calculateLogLikelihood() {
+
+        // the matrices of the branches that need updating are calculated for all the shards
+        // here, which also brings any lazily updated models up to date before the shards use
+        // them concurrently
+        shards[0].calculateSharedMatrices();
+
+        try {
+            if (pool == null) {
+                for (int i = 0; i < shards.length; i++) {
+                    shardLogLikelihoods[i] = shards[i].getLogLikelihood();
+                }
+            } else {
+                pool.evaluate(shardCallers, shardLogLikelihoods);
+            }
+        } finally {
+            sharedMatrices.clear();
+        }
+
+        // summed in order so the result doesn't depend on the order the shards finish
+        double logL = 0.0;
+        for (int i = 0; i < shards.length; i++) {
+            logL += shardLogLikelihoods[i];
+        }
+        return logL;
+    }
+
+    /**
+     * The shards all do the same traversals so these are the counts of the first one.
+     */
+    public int getFullTraversalCount() {
+        return shards[0].getFullTraversalCount();
+    }
+
+    public int getPartialTraversalCount() {
+        return shards[0].getPartialTraversalCount();
+    }
+
+    public void makeDirty() {
+        super.makeDirty();
+
+        for (TreeLikelihood shard : shards) {
+            shard.makeDirty();
+        }
+    }
+
+    private class ShardCaller implements Callable<Double> {
+
+        ShardCaller(TreeLikelihood shard) {
+            this.shard = shard;
+        }
+
+        public Double call() throws Exception {
+            return shard.getLogLikelihood();
+        }
+
+        private final TreeLikelihood shard;
+    }
+
+    /**
+     * The transition probability matrices (for all the rate categories) of the branches,
+     * calculated once and then copied into the likelihood core of each shard.
+     */
+    static final class SharedMatrices {
+
+        SharedMatrices(int nodeCount, int matrixLength) {
+            matrices = new double[nodeCount][matrixLength];
+            valid = new boolean[nodeCount];
+        }
+
+        boolean isValid(int nodeIndex) {
+            return valid[nodeIndex];
+        }
+
+        double[] getMatrices(int nodeIndex) {
+            return matrices[nodeIndex];
+        }
+
+        void setMatrices(int nodeIndex, double[] source, int offset) {
+            System.arraycopy(source, offset, matrices[nodeIndex], 0, matrices[nodeIndex].length);
+            valid[nodeIndex] = true;
+        }
+
+        void clear() {
+            Arrays.fill(valid, false);
+        }
+
+        private final double[][] matrices;
+        private final boolean[] valid;
+    }
+
+    private final TreeLikelihood[] shards;
+    private final SharedMatrices sharedMatrices;
+
+    private final LikelihoodEvaluationPool pool;
+    private final List<ShardCaller> shardCallers = new ArrayList<ShardCaller>();
+    private final double[] shardLogLikelihoods;
+}
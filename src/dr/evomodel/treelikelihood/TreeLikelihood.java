@@ -25,6 +25,7 @@
 
 package dr.evomodel.treelikelihood;
 
+import dr.app.beagle.evomodel.treelikelihood.PartialsRescalingScheme;
 import dr.evolution.alignment.AscertainedSitePatterns;
 import dr.evolution.alignment.PatternList;
 import dr.evolution.alignment.SitePatterns;
@@ -37,11 +38,16 @@ import dr.evomodel.branchratemodel.BranchRateModel;
 import dr.evomodel.branchratemodel.DefaultBranchRateModel;
 import dr.evomodel.sitemodel.SiteModel;
 import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.SubstitutionModel;
 import dr.evomodel.tree.TreeModel;
 import dr.evomodelxml.treelikelihood.TreeLikelihoodParser;
+import dr.inference.model.LikelihoodEvaluationPool;
 import dr.inference.model.Model;
 import dr.inference.model.Statistic;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.logging.Logger;
 
 /**
@@ -66,6 +72,34 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
                           boolean storePartials,
                           boolean forceJavaCore,
                           boolean forceRescaling) {
+        this(patternList, treeModel, siteModel, branchRateModel, tipPartialsModel,
+                useAmbiguities, allowMissingTaxa, storePartials, forceJavaCore, forceRescaling, false, -1, false,
+                PartialsRescalingScheme.DEFAULT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param useParallelCore  whether to use the Java core which calculates blocks of patterns in parallel
+     * @param threadCount      the number of threads for the parallel core (if less than 1 then the default)
+     * @param useFloatPartials whether to store the partials in single precision (checked against
+     *                         double precision whenever the likelihood is fully evaluated)
+     * @param rescalingScheme  the scheme for rescaling partials (DEFAULT, NONE, ALWAYS or DYNAMIC)
+     */
+    public TreeLikelihood(PatternList patternList,
+                          TreeModel treeModel,
+                          SiteModel siteModel,
+                          BranchRateModel branchRateModel,
+                          TipPartialsModel tipPartialsModel,
+                          boolean useAmbiguities,
+                          boolean allowMissingTaxa,
+                          boolean storePartials,
+                          boolean forceJavaCore,
+                          boolean forceRescaling,
+                          boolean useParallelCore,
+                          int threadCount,
+                          boolean useFloatPartials,
+                          PartialsRescalingScheme rescalingScheme) {
 
         super(TreeLikelihoodParser.TREE_LIKELIHOOD, patternList, treeModel);
 
@@ -86,7 +120,23 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
 
             final Logger logger = Logger.getLogger("dr.evomodel");
             String coreName = "Java general";
-            if (integrateAcrossCategories) {
+            if (useFloatPartials) {
+                coreName = "Java single precision";
+                likelihoodCore = new FloatGeneralLikelihoodCore(patternList.getStateCount());
+
+                if (patternList.getDataType() instanceof dr.evolution.datatype.Codons) {
+                    useAmbiguities = true;
+                }
+            } else if (useParallelCore) {
+                coreName = "Java parallel";
+                likelihoodCore = new ParallelLikelihoodCore(patternList.getStateCount(), threadCount);
+                matrixPool = (threadCount < 1 ? LikelihoodEvaluationPool.getDefaultPool() :
+                        LikelihoodEvaluationPool.getPool(threadCount));
+
+                if (patternList.getDataType() instanceof dr.evolution.datatype.Codons) {
+                    useAmbiguities = true;
+                }
+            } else if (integrateAcrossCategories) {
 
                 final DataType dataType = patternList.getDataType();
 
@@ -149,17 +199,21 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
 
             probabilities = new double[stateCount * stateCount];
 
-            likelihoodCore.initialize(nodeCount, patternCount, categoryCount, integrateAcrossCategories);
+            // as many branches in a batch of transition matrices as fit in MAX_BATCH_SIZE
+            branchesPerBatch = Math.max(1, Math.min(nodeCount, MAX_BATCH_SIZE / (categoryCount * stateCount * stateCount)));
+            batchNodes = new int[branchesPerBatch];
+            batchDistances = new double[branchesPerBatch * categoryCount];
+            batchMatrices = new double[branchesPerBatch * categoryCount * stateCount * stateCount];
 
-            int extNodeCount = treeModel.getExternalNodeCount();
-            int intNodeCount = treeModel.getInternalNodeCount();
+            this.useAmbiguities = useAmbiguities;
+            this.allowMissingTaxa = allowMissingTaxa;
 
             if (tipPartialsModel != null) {
                 tipPartialsModel.setTree(treeModel);
 
                 tipPartials = new double[patternCount * stateCount];
 
-                for (int i = 0; i < extNodeCount; i++) {
+                for (int i = 0; i < treeModel.getExternalNodeCount(); i++) {
                     // Find the id of tip i in the patternList
                     String id = treeModel.getTaxonId(i);
                     int index = patternList.getTaxonIndex(id);
@@ -170,43 +224,41 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
                     }
 
                     tipPartialsModel.setStates(patternList, index, i, id);
-                    likelihoodCore.createNodePartials(i);
                 }
 
                 addModel(tipPartialsModel);
                 //useAmbiguities = true;
-            } else {
-                for (int i = 0; i < extNodeCount; i++) {
-                    // Find the id of tip i in the patternList
-                    String id = treeModel.getTaxonId(i);
-                    int index = patternList.getTaxonIndex(id);
-
-                    if (index == -1) {
-                        if (!allowMissingTaxa) {
-                            throw new TaxonList.MissingTaxonException("Taxon, " + id + ", in tree, " + treeModel.getId() +
-                                    ", is not found in patternList, " + patternList.getId());
-                        }
-                        if (useAmbiguities) {
-                            setMissingPartials(likelihoodCore, i);
-                        } else {
-                            setMissingStates(likelihoodCore, i);
-                        }
-                    } else {
-                        if (useAmbiguities) {
-                            setPartials(likelihoodCore, patternList, categoryCount, index, i);
-                        } else {
-                            setStates(likelihoodCore, patternList, index, i);
-                        }
-                    }
-                }
             }
-            for (int i = 0; i < intNodeCount; i++) {
-                likelihoodCore.createNodePartials(extNodeCount + i);
+
+            initializeLikelihoodCore(likelihoodCore);
+
+            if (likelihoodCore instanceof ParallelLikelihoodCore) {
+                logger.info("  Patterns divided into " + ((ParallelLikelihoodCore) likelihoodCore).getPatternBlockCount() +
+                        " block(s) for parallel calculation.");
             }
 
             if (forceRescaling) {
+                rescalingScheme = PartialsRescalingScheme.ALWAYS;
+            }
+            switch (rescalingScheme) {
+                case DEFAULT:
+                case NONE:
+                case ALWAYS:
+                case DYNAMIC:
+                    break;
+                default:
+                    logger.info("  Rescaling scheme, " + rescalingScheme.getText() + ", is not supported by this likelihood; using default");
+                    rescalingScheme = PartialsRescalingScheme.DEFAULT;
+            }
+            this.rescalingScheme = rescalingScheme;
+
+            if (rescalingScheme == PartialsRescalingScheme.ALWAYS) {
                 likelihoodCore.setUseScaling(true);
                 logger.info("  Forcing use of partials rescaling.");
+            } else if (rescalingScheme == PartialsRescalingScheme.DYNAMIC) {
+                likelihoodCore.setUseScaling(true);
+                logger.info("  Using dynamic rescaling of partials (recomputed every " + RESCALE_FREQUENCY +
+                        " evaluations or after an underflow).");
             }
 
         } catch (TaxonList.MissingTaxonException mte) {
@@ -216,6 +268,50 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
         addStatistic(new SiteLikelihoodsStatistic());
     }
 
+    /**
+     * Initializes a likelihood core and sets the tips from the pattern list.
+     */
+    private void initializeLikelihoodCore(LikelihoodCore core) throws TaxonList.MissingTaxonException {
+
+        core.initialize(nodeCount, patternCount, categoryCount, integrateAcrossCategories);
+
+        int extNodeCount = treeModel.getExternalNodeCount();
+        int intNodeCount = treeModel.getInternalNodeCount();
+
+        for (int i = 0; i < extNodeCount; i++) {
+            if (tipPartialsModel != null) {
+                // the partials are set from the tip partials model when the likelihood is calculated
+                core.createNodePartials(i);
+                continue;
+            }
+
+            // Find the id of tip i in the patternList
+            String id = treeModel.getTaxonId(i);
+            int index = patternList.getTaxonIndex(id);
+
+            if (index == -1) {
+                if (!allowMissingTaxa) {
+                    throw new TaxonList.MissingTaxonException("Taxon, " + id + ", in tree, " + treeModel.getId() +
+                            ", is not found in patternList, " + patternList.getId());
+                }
+                if (useAmbiguities) {
+                    setMissingPartials(core, i);
+                } else {
+                    setMissingStates(core, i);
+                }
+            } else {
+                if (useAmbiguities) {
+                    setPartials(core, patternList, categoryCount, index, i);
+                } else {
+                    setStates(core, patternList, index, i);
+                }
+            }
+        }
+        for (int i = 0; i < intNodeCount; i++) {
+            core.createNodePartials(extNodeCount + i);
+        }
+    }
+
     public final LikelihoodCore getLikelihoodCore() {
         return likelihoodCore;
     }
@@ -290,6 +386,13 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
      */
     protected void storeState() {
 
+        if (switchToDoublePrecision) {
+            // the check was made outside a proposal (e.g., the first evaluation) and the
+            // double precision core was fully evaluated for the state being stored
+            likelihoodCore = doublePrecisionCore;
+            switchToDoublePrecision = false;
+        }
+
         if (storePartials) {
             likelihoodCore.storeState();
         }
@@ -302,7 +405,13 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
      */
     protected void restoreState() {
 
-        if (storePartials) {
+        if (switchToDoublePrecision) {
+            // the double precision core has no stored state to go back to so the
+            // restored state is recalculated with it from scratch
+            likelihoodCore = doublePrecisionCore;
+            switchToDoublePrecision = false;
+            updateAllNodes();
+        } else if (storePartials) {
             likelihoodCore.restoreState();
         } else {
             updateAllNodes();
@@ -312,6 +421,21 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
 
     }
 
+    /**
+     * Accepts the proposed state
+     */
+    protected void acceptState() {
+
+        if (switchToDoublePrecision) {
+            // the double precision core was fully evaluated for this state
+            likelihoodCore = doublePrecisionCore;
+            switchToDoublePrecision = false;
+        }
+
+        super.acceptState();
+
+    }
+
     // **************************************************************
     // Likelihood IMPLEMENTATION
     // **************************************************************
@@ -336,6 +460,89 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
             }
         }
 
+        if (rescalingScheme == PartialsRescalingScheme.DYNAMIC) {
+            // the scaling factors are recomputed every RESCALE_FREQUENCY evaluations and
+            // otherwise the factors from the last time are used again
+            recomputeScaleFactors = (rescalingCount == 0);
+            likelihoodCore.setRecomputeScaleFactors(recomputeScaleFactors);
+            if (recomputeScaleFactors) {
+                updateAllNodes();
+            }
+
+            rescalingCount++;
+            if (rescalingCount >= RESCALE_FREQUENCY) {
+                rescalingCount = 0;
+            }
+        }
+
+        countTraversal();
+
+        double logL = evaluateLikelihoodCore();
+
+        if (likelihoodCore instanceof FloatGeneralLikelihoodCore &&
+                (precisionCheckPending || Double.isNaN(logL) || Double.isInfinite(logL))) {
+            logL = checkPrecision(logL);
+        }
+        precisionCheckPending = false;
+
+        //********************************************************************
+        // after traverse all nodes and patterns have been updated --
+        //so change flags to reflect this.
+        for (int i = 0; i < nodeCount; i++) {
+            updateNode[i] = false;
+        }
+        //********************************************************************
+
+        return logL;
+    }
+
+    /**
+     * Calculates the log likelihood using the current likelihood core.
+     *
+     * @return the log likelihood.
+     */
+    private double evaluateLikelihoodCore() {
+
+        double logL = calculatePatternLogLikelihoods();
+
+        boolean retry = false;
+        if (rescalingScheme == PartialsRescalingScheme.DYNAMIC) {
+            if ((Double.isNaN(logL) || Double.isInfinite(logL)) && !recomputeScaleFactors) {
+                // the scaling factors may be out of date so recompute them now
+                recomputeScaleFactors = true;
+                likelihoodCore.setRecomputeScaleFactors(true);
+                rescalingCount = 1;
+                retry = true;
+            }
+        } else if (logL == Double.NEGATIVE_INFINITY && rescalingScheme != PartialsRescalingScheme.NONE) {
+            Logger.getLogger("dr.evomodel").info("TreeLikelihood, " + this.getId() + ", turning on partial likelihood scaling to avoid precision loss");
+
+            // We probably had an underflow... turn on scaling
+            likelihoodCore.setUseScaling(true);
+            retry = true;
+        }
+
+        if (retry) {
+            // undo the buffer flips of the first attempt so that the stored partials are
+            // kept and then try again...
+            likelihoodCore.restoreState();
+            likelihoodCore.storeState();
+
+            updateAllNodes();
+            updateAllPatterns();
+            logL = calculatePatternLogLikelihoods();
+        }
+
+        return logL;
+    }
+
+    /**
+     * Traverses the tree to calculate the pattern log likelihoods.
+     *
+     * @return the log likelihood.
+     */
+    private double calculatePatternLogLikelihoods() {
+
         if (tipPartialsModel != null) {
             int extNodeCount = treeModel.getExternalNodeCount();
             for (int index = 0; index < extNodeCount; index++) {
@@ -357,32 +564,67 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
             logL += (patternLogLikelihoods[i] - ascertainmentCorrection) * patternWeights[i];
         }
 
-        if (logL == Double.NEGATIVE_INFINITY) {
-            Logger.getLogger("dr.evomodel").info("TreeLikelihood, " + this.getId() + ", turning on partial likelihood scaling to avoid precision loss");
+        return logL;
+    }
 
-            // We probably had an underflow... turn on scaling
-            likelihoodCore.setUseScaling(true);
+    /**
+     * A full evaluation of a likelihood using single precision partials (as done after
+     * each step in the test phase at the start of an MCMC run) is repeated in double
+     * precision.
+     */
+    public void makeDirty() {
+        super.makeDirty();
 
-            // and try again...
-            updateAllNodes();
-            updateAllPatterns();
-            traverse(treeModel, root);
+        if (likelihoodCore instanceof FloatGeneralLikelihoodCore && precisionCheckCount < MAX_PRECISION_CHECKS) {
+            precisionCheckPending = true;
+        }
+    }
 
-            logL = 0.0;
-            ascertainmentCorrection = getAscertainmentCorrection(patternLogLikelihoods);
-            for (int i = 0; i < patternCount; i++) {
-                logL += (patternLogLikelihoods[i] - ascertainmentCorrection) * patternWeights[i];
+    /**
+     * Recalculates the likelihood in double precision and compares it with the single
+     * precision result. If they differ (for example because the single precision
+     * partials have underflowed) then the double precision core is used from then on.
+     * The check is made part way through a proposal, after the single precision core
+     * has stored its state, so the switch is only made when the proposal is accepted
+     * or rejected.
+     *
+     * @param floatLogL the log likelihood from the single precision partials
+     * @return the log likelihood
+     */
+    private double checkPrecision(double floatLogL) {
+        if (doublePrecisionCore == null) {
+            if (integrateAcrossCategories && dataType instanceof dr.evolution.datatype.Nucleotides) {
+                doublePrecisionCore = new NucleotideLikelihoodCore();
+            } else {
+                doublePrecisionCore = new GeneralLikelihoodCore(stateCount);
             }
+            try {
+                initializeLikelihoodCore(doublePrecisionCore);
+            } catch (TaxonList.MissingTaxonException mte) {
+                throw new RuntimeException(mte.toString());
+            }
+            doublePrecisionCore.setUseScaling(true);
+
+            floatPatternLogLikelihoods = new double[patternCount];
         }
+        precisionCheckCount++;
 
-        //********************************************************************
-        // after traverse all nodes and patterns have been updated --
-        //so change flags to reflect this.
-        for (int i = 0; i < nodeCount; i++) {
-            updateNode[i] = false;
+        System.arraycopy(patternLogLikelihoods, 0, floatPatternLogLikelihoods, 0, patternCount);
+
+        final LikelihoodCore floatCore = likelihoodCore;
+        likelihoodCore = doublePrecisionCore;
+        updateAllNodes();
+        final double logL = evaluateLikelihoodCore();
+        likelihoodCore = floatCore;
+
+        if (logL == floatLogL || Math.abs(logL - floatLogL) <= PRECISION_TOLERANCE * Math.abs(logL)) {
+            System.arraycopy(floatPatternLogLikelihoods, 0, patternLogLikelihoods, 0, patternCount);
+            return floatLogL;
         }
-        //********************************************************************
 
+        switchToDoublePrecision = true;
+        Logger.getLogger("dr.evomodel").info("TreeLikelihood, " + this.getId() + ", single precision likelihood (" +
+                floatLogL + ") differs from double precision (" + logL + "), switching to double precision partials");
         return logL;
     }
 
@@ -450,27 +692,11 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
 
         NodeRef parent = tree.getParent(node);
 
-        // First update the transition probability matrix(ices) for this branch
-        if (parent != null && updateNode[nodeNum]) {
-
-            final double branchRate = branchRateModel.getBranchRate(tree, node);
-
-            // Get the operational time of the branch
-            final double branchTime = branchRate * (tree.getNodeHeight(parent) - tree.getNodeHeight(node));
-
-            if (branchTime < 0.0) {
-                throw new RuntimeException("Negative branch length: " + branchTime);
-            }
-
-            likelihoodCore.setNodeMatrixForUpdate(nodeNum);
-
-            for (int i = 0; i < categoryCount; i++) {
-
-                double branchLength = siteModel.getRateForCategory(i) * branchTime;
-                siteModel.getSubstitutionModel().getTransitionProbabilities(branchLength, probabilities);
-                likelihoodCore.setNodeMatrix(nodeNum, i, probabilities);
-            }
-
+        if (parent == null) {
+            // At the root first update the transition probability matrices of
+            // all the branches that need them
+            updateTransitionMatrices(tree, false);
+        } else if (updateNode[nodeNum]) {
             update = true;
         }
 
@@ -505,7 +731,10 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
                 if (parent == null) {
                     // No parent this is the root of the tree -
                     // calculate the pattern likelihoods
-                    double[] frequencies = frequencyModel.getFrequencies();
+                    if (frequencies == null) {
+                        frequencies = new double[frequencyModel.getFrequencyCount()];
+                    }
+                    frequencyModel.getFrequencies(frequencies);
 
                     double[] partials = getRootPartials();
 
@@ -520,6 +749,180 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
 
     }
 
+    /**
+     * Calculates the transition probability matrices for all the branches that need
+     * updating. The branch lengths are collected first and the matrices obtained from
+     * the substitution model in batches rather than one at a time.
+     *
+     * @param toShared whether the matrices are put in the shared matrices rather than
+     *                 the likelihood core
+     */
+    private void updateTransitionMatrices(Tree tree, boolean toShared) {
+        int count = 0;
+
+        for (int i = 0; i < nodeCount; i++) {
+            NodeRef node = tree.getNode(i);
+            NodeRef parent = tree.getParent(node);
+
+            if (parent != null && updateNode[i]) {
+
+                if (!toShared && sharedMatrices != null && sharedMatrices.isValid(i)) {
+                    // already calculated for another shard of the same patterns
+                    final double[] matrices = sharedMatrices.getMatrices(i);
+                    final int matrixSize = stateCount * stateCount;
+                    likelihoodCore.setNodeMatrixForUpdate(i);
+                    for (int j = 0; j < categoryCount; j++) {
+                        System.arraycopy(matrices, j * matrixSize, probabilities, 0, matrixSize);
+                        likelihoodCore.setNodeMatrix(i, j, probabilities);
+                    }
+                    continue;
+                }
+
+                final double branchRate = branchRateModel.getBranchRate(tree, node);
+
+                // Get the operational time of the branch
+                final double branchTime = branchRate * (tree.getNodeHeight(parent) - tree.getNodeHeight(node));
+
+                if (branchTime < 0.0) {
+                    throw new RuntimeException("Negative branch length: " + branchTime);
+                }
+
+                int k = count * categoryCount;
+                for (int j = 0; j < categoryCount; j++) {
+                    batchDistances[k] = siteModel.getRateForCategory(j) * branchTime;
+                    k++;
+                }
+                batchNodes[count] = i;
+                count++;
+
+                if (count == branchesPerBatch) {
+                    setTransitionMatrices(count, toShared);
+                    count = 0;
+                }
+            }
+        }
+
+        if (count > 0) {
+            setTransitionMatrices(count, toShared);
+        }
+    }
+
+    private void setTransitionMatrices(int branchCount, boolean toShared) {
+        final SubstitutionModel substitutionModel = siteModel.getSubstitutionModel();
+        final int matrixCount = branchCount * categoryCount;
+        final int matrixSize = stateCount * stateCount;
+
+        if (matrixPool != null && matrixPool.getThreadCount() > 1 &&
+                (double) matrixCount * matrixSize * stateCount >= 2.0 * MIN_MATRIX_WORK_PER_BLOCK) {
+            calculateTransitionMatricesInParallel(substitutionModel, matrixCount);
+        } else {
+            substitutionModel.getTransitionProbabilities(batchDistances, matrixCount, batchMatrices);
+        }
+
+        int offset = 0;
+        for (int k = 0; k < branchCount; k++) {
+            final int nodeNum = batchNodes[k];
+            if (toShared) {
+                sharedMatrices.setMatrices(nodeNum, batchMatrices, offset);
+                offset += categoryCount * matrixSize;
+                continue;
+            }
+            likelihoodCore.setNodeMatrixForUpdate(nodeNum);
+            for (int j = 0; j < categoryCount; j++) {
+                System.arraycopy(batchMatrices, offset, probabilities, 0, matrixSize);
+                likelihoodCore.setNodeMatrix(nodeNum, j, probabilities);
+                offset += matrixSize;
+            }
+        }
+    }
+
+    /**
+     * Makes this likelihood take the transition probability matrices from matrices
+     * shared with other shards of the same patterns, where they have been calculated.
+     */
+    void setSharedMatrices(ShardedTreeLikelihood.SharedMatrices sharedMatrices) {
+        this.sharedMatrices = sharedMatrices;
+    }
+
+    /**
+     * Calculates the transition probability matrices of the branches that need updating
+     * into the shared matrices so that the other shards don't have to.
+     */
+    void calculateSharedMatrices() {
+        if (rescalingScheme == PartialsRescalingScheme.DYNAMIC && rescalingCount == 0) {
+            // all the nodes will be updated to recompute the scaling factors
+            updateAllNodes();
+        }
+        updateTransitionMatrices(treeModel, true);
+    }
+
+    private void calculateTransitionMatricesInParallel(SubstitutionModel substitutionModel, int matrixCount) {
+        // the first matrix is calculated on this thread so that the model brings itself up
+        // to date (e.g., sets up its eigen system) before the blocks read it at the same time
+        substitutionModel.getTransitionProbabilities(batchDistances, 1, batchMatrices);
+
+        final double work = (double) stateCount * stateCount * stateCount;
+        final int blockCount = (int) Math.max(1, Math.min(matrixPool.getThreadCount(),
+                matrixCount * work / MIN_MATRIX_WORK_PER_BLOCK));
+
+        if (matrixBlocks == null) {
+            matrixBlocks = new ArrayList<MatrixBlock>();
+        }
+        while (matrixBlocks.size() < blockCount) {
+            matrixBlocks.add(new MatrixBlock());
+        }
+        while (matrixBlocks.size() > blockCount) {
+            matrixBlocks.remove(matrixBlocks.size() - 1);
+        }
+
+        int from = 0;
+        for (int i = 0; i < blockCount; i++) {
+            final int to = (int) (((long) matrixCount * (i + 1)) / blockCount);
+            matrixBlocks.get(i).set(substitutionModel, from, to);
+            from = to;
+        }
+
+        if (matrixBlockResults == null || matrixBlockResults.length < blockCount) {
+            matrixBlockResults = new double[blockCount];
+        }
+        matrixPool.evaluate(matrixBlocks, matrixBlockResults);
+    }
+
+    /**
+     * Calculates a contiguous part of a batch of transition probability matrices.
+     */
+    private class MatrixBlock implements Callable<Double> {
+
+        void set(SubstitutionModel substitutionModel, int from, int to) {
+            this.substitutionModel = substitutionModel;
+            this.from = from;
+            this.to = to;
+
+            final int count = to - from;
+            if (distances == null || distances.length < count) {
+                distances = new double[count];
+                matrices = new double[count * stateCount * stateCount];
+            }
+        }
+
+        public Double call() throws Exception {
+            final int count = to - from;
+            final int matrixSize = stateCount * stateCount;
+
+            System.arraycopy(batchDistances, from, distances, 0, count);
+            substitutionModel.getTransitionProbabilities(distances, count, matrices);
+            System.arraycopy(matrices, 0, batchMatrices, from * matrixSize, count * matrixSize);
+
+            return 0.0;
+        }
+
+        private SubstitutionModel substitutionModel;
+        private int from;
+        private int to;
+        private double[] distances = null;
+        private double[] matrices = null;
+    }
+
     public final double[] getRootPartials() {
         if (rootPartials == null) {
             rootPartials = new double[patternCount * stateCount];
@@ -544,6 +947,7 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
      * use getRootPartials() instead).
      */
     private double[] rootPartials = null;
+    private double[] frequencies = null;
 
     public class SiteLikelihoodsStatistic extends Statistic.Abstract {
 
@@ -628,6 +1032,27 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
      */
     protected double[] probabilities;
 
+    /**
+     * the maximum number of doubles in a batch of transition probability matrices
+     */
+    private static final int MAX_BATCH_SIZE = 1 << 18;
+
+    /**
+     * the minimum amount of work (matrices x stateCount^3) for each thread when the
+     * transition probability matrices are calculated in parallel
+     */
+    private static final double MIN_MATRIX_WORK_PER_BLOCK = 1 << 18;
+
+    private int branchesPerBatch;
+    private int[] batchNodes;
+    private double[] batchDistances;
+    private double[] batchMatrices;
+
+    private LikelihoodEvaluationPool matrixPool = null;
+    private ShardedTreeLikelihood.SharedMatrices sharedMatrices = null;
+    private List<MatrixBlock> matrixBlocks = null;
+    private double[] matrixBlockResults = null;
+
 
     /**
      * an array used to transfer tip partials
@@ -638,4 +1063,37 @@ public class TreeLikelihood extends AbstractTreeLikelihood {
      * the LikelihoodCore
      */
     protected LikelihoodCore likelihoodCore;
+
+    private boolean useAmbiguities;
+    private boolean allowMissingTaxa;
+
+    /**
+     * the number of evaluations between recomputing the scaling factors with the DYNAMIC scheme
+     */
+    private static final int RESCALE_FREQUENCY = 10000;
+
+    private PartialsRescalingScheme rescalingScheme;
+    private boolean recomputeScaleFactors = true;
+    private int rescalingCount = 0;
+
+    /**
+     * the largest relative difference allowed between single and double precision log likelihoods
+     */
+    private static final double PRECISION_TOLERANCE = 1.0E-6;
+
+    /**
+     * the number of full evaluations checked in double precision (the default length of the
+     * MCMC test phase) so that operators which make the likelihood dirty at every step don't
+     * keep paying for it
+     */
+    private static final int MAX_PRECISION_CHECKS = 2000;
+
+    /**
+     * a double precision core for checking single precision partials
+     */
+    private LikelihoodCore doublePrecisionCore = null;
+    private double[] floatPatternLogLikelihoods = null;
+    private boolean precisionCheckPending = false;
+    private boolean switchToDoublePrecision = false;
+    private int precisionCheckCount = 0;
 }
@@ -62,7 +62,7 @@ public class ConditionalCladeFrequencyParser extends AbstractXMLObjectParser {
     public Object parseXMLObject(XMLObject xo) throws XMLParseException {
 
         try {
-            Reader reader;
+            File traceFile;
 
             // the tree file with the trace of trees. Usually an output of an previous BEAST run like *.trees
             String fileName = xo.getStringAttribute(FILE_NAME);
@@ -76,7 +76,10 @@ public class ConditionalCladeFrequencyParser extends AbstractXMLObjectParser {
                     parent = System.getProperty("user.dir");
                 }
 
-                reader = new FileReader(new File(parent, name));
+                traceFile = new File(parent, name);
+                if (!traceFile.canRead()) {
+                    throw new FileNotFoundException(traceFile.toString());
+                }
             } catch (FileNotFoundException fnfe) {
                 throw new XMLParseException("File '" + fileName + "' can not be opened for " + getParserName() + " element.");
             }
@@ -131,7 +134,7 @@ public class ConditionalCladeFrequencyParser extends AbstractXMLObjectParser {
             }
 
             // creates a new analyzer object
-            ConditionalCladeFrequency analysis = ConditionalCladeFrequency.analyzeLogFile(new Reader[]{reader}, e, burnin, true);
+            ConditionalCladeFrequency analysis = ConditionalCladeFrequency.analyzeLogFile(new File[]{traceFile}, e, burnin, true);
 
             // analyze the reference tree and prints its estimated posterior
             analysis.report(referenceTree);
@@ -58,7 +58,7 @@ public class TreeTraceAnalysisParser extends AbstractXMLObjectParser {
     public Object parseXMLObject(XMLObject xo) throws XMLParseException {
 
         try {
-            Reader reader;
+            File traceFile;
 
             String fileName = xo.getStringAttribute(FILE_NAME);
             String name;
@@ -72,7 +72,10 @@ public class TreeTraceAnalysisParser extends AbstractXMLObjectParser {
                 }
 
 //					System.out.println("Writing log file to "+parent+System.getProperty("path.separator")+name);
-                reader = new FileReader(new File(parent, name));
+                traceFile = new File(parent, name);
+                if (!traceFile.canRead()) {
+                    throw new FileNotFoundException(traceFile.toString());
+                }
             } catch (FileNotFoundException fnfe) {
                 throw new XMLParseException("File '" + fileName + "' can not be opened for " + getParserName() + " element.");
             }
@@ -114,7 +117,7 @@ public class TreeTraceAnalysisParser extends AbstractXMLObjectParser {
 
             boolean shortReport = xo.getAttribute(SHORT_REPORT, false);
 
-            TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(new Reader[]{reader}, burnin, true);
+            TreeTraceAnalysis analysis = TreeTraceAnalysis.analyzeLogFile(new File[]{traceFile}, burnin, true);
 
             if (shortReport) {
                 analysis.shortReport(name, referenceTree, true, credSetProbability);
@@ -1,9 +1,11 @@
 package dr.evomodelxml.treelikelihood;
 
+import dr.app.beagle.evomodel.treelikelihood.PartialsRescalingScheme;
 import dr.evolution.alignment.PatternList;
 import dr.evomodel.branchratemodel.BranchRateModel;
 import dr.evomodel.sitemodel.SiteModel;
 import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treelikelihood.ShardedTreeLikelihood;
 import dr.evomodel.treelikelihood.TipPartialsModel;
 import dr.evomodel.treelikelihood.TreeLikelihood;
 import dr.xml.*;
@@ -20,6 +22,11 @@ public class TreeLikelihoodParser extends AbstractXMLObjectParser {
     public static final String SCALING_THRESHOLD = "scalingThreshold";
     public static final String FORCE_JAVA_CORE = "forceJavaCore";
     public static final String FORCE_RESCALING = "forceRescaling";
+    public static final String PARALLEL_CORE = "parallelCore";
+    public static final String THREADS = "threads";
+    public static final String FLOAT_PARTIALS = "floatPartials";
+    public static final String SCALING_SCHEME = "scalingScheme";
+    public static final String SHARDS = "shards";
 
 
     public String getParserName() {
@@ -47,13 +54,44 @@ public class TreeLikelihoodParser extends AbstractXMLObjectParser {
 
         boolean forceRescaling = xo.getAttribute(FORCE_RESCALING, false);
 
+        boolean useParallelCore = xo.getAttribute(PARALLEL_CORE, false);
+        int threadCount = xo.getAttribute(THREADS, -1);
+        boolean useFloatPartials = xo.getAttribute(FLOAT_PARTIALS, false);
+
+        PartialsRescalingScheme scalingScheme = PartialsRescalingScheme.DEFAULT;
+        if (xo.hasAttribute(SCALING_SCHEME)) {
+            scalingScheme = PartialsRescalingScheme.parseFromString(xo.getStringAttribute(SCALING_SCHEME));
+        }
+
+        int shardCount = xo.getAttribute(SHARDS, 1);
+        if (shardCount > 1) {
+            if (tipPartialsModel != null) {
+                throw new XMLParseException("The patterns of a tree likelihood with a tip partials model can't be divided into shards");
+            }
+            if (useParallelCore) {
+                throw new XMLParseException("The " + SHARDS + " and " + PARALLEL_CORE + " options of a tree likelihood can't be used together");
+            }
+            try {
+                return new ShardedTreeLikelihood(
+                        patternList,
+                        treeModel,
+                        siteModel,
+                        branchRateModel,
+                        useAmbiguities, allowMissingTaxa, storePartials, forceJavaCore, forceRescaling,
+                        useFloatPartials, scalingScheme, shardCount, threadCount);
+            } catch (IllegalArgumentException iae) {
+                throw new XMLParseException(iae.getMessage());
+            }
+        }
+
         return new TreeLikelihood(
                 patternList,
                 treeModel,
                 siteModel,
                 branchRateModel,
                 tipPartialsModel,
-                useAmbiguities, allowMissingTaxa, storePartials, forceJavaCore, forceRescaling);
+                useAmbiguities, allowMissingTaxa, storePartials, forceJavaCore, forceRescaling,
+                useParallelCore, threadCount, useFloatPartials, scalingScheme);
     }
 
     //************************************************************************
@@ -78,6 +116,11 @@ public class TreeLikelihoodParser extends AbstractXMLObjectParser {
             AttributeRule.newBooleanRule(STORE_PARTIALS, true),
             AttributeRule.newBooleanRule(FORCE_JAVA_CORE, true),
             AttributeRule.newBooleanRule(FORCE_RESCALING, true),
+            AttributeRule.newBooleanRule(PARALLEL_CORE, true),
+            AttributeRule.newIntegerRule(THREADS, true),
+            AttributeRule.newBooleanRule(FLOAT_PARTIALS, true),
+            AttributeRule.newStringRule(SCALING_SCHEME, true),
+            AttributeRule.newIntegerRule(SHARDS, true),
             new ElementRule(PatternList.class),
             new ElementRule(TreeModel.class),
             new ElementRule(SiteModel.class),
@@ -163,6 +163,23 @@ public class LogNormalDistributionModel extends AbstractModel implements Paramet
         return Math.exp(NormalDistribution.quantile(y, getM(), getStDev())) + offset;
     }
 
+    /**
+     * Calculates the quantiles of a set of probabilities from their standard normal
+     * quantiles (i.e., NormalDistribution.quantile(y, 0, 1)). When the same probabilities
+     * are used repeatedly these can be calculated once, avoiding the numerical inversion
+     * each time the parameters change.
+     *
+     * @param standardQuantiles the standard normal quantiles
+     * @param quantiles         an array in which to place the quantiles
+     */
+    public void quantiles(double[] standardQuantiles, double[] quantiles) {
+        final double m = getM();
+        final double stDev = getStDev();
+        for (int i = 0; i < standardQuantiles.length; i++) {
+            quantiles[i] = Math.exp(m + stDev * standardQuantiles[i]) + offset;
+        }
+    }
+
     /**
      * @return the mean of the distribution
      */
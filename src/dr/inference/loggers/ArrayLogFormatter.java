@@ -52,6 +52,9 @@ public class ArrayLogFormatter implements LogFormatter {
         echo(values);
     }
 
+    public void flush() {
+    }
+
     public void stopLogging() {
     }
 
@@ -0,0 +1,389 @@
+/*
+ * BinaryLogFormatter.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+import java.io.*;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * A class that writes a log in a compressed, column oriented binary format. This is
+ * much smaller than a tab delimited log and much quicker to read back, which matters
+ * for logs with thousands of columns.
+ *
+ * The file starts with MAGIC and VERSION and is followed by a sequence of records,
+ * each starting with a tag byte:
+ * <ul>
+ * <li>HEADING or LINE: a string (an int length followed by UTF-8 bytes)</li>
+ * <li>LABELS: an int count followed by the labels as strings</li>
+ * <li>BLOCK: an int row count, an int byte count and then that many bytes compressed
+ * with java.util.zip.Deflater. Uncompressed, the block holds an int column count and
+ * then, for each column in turn, a type byte and the values of all the rows.</li>
+ * </ul>
+ * The values of a column in a block are stored as LONG_COLUMN if they are all integers
+ * (as differences from the previous value), DOUBLE_COLUMN if they are all numbers or
+ * STRING_COLUMN otherwise. MCLogger passes the values of its number columns as doubles
+ * (see NumericLogFormatter) so they are stored at full precision without being formatted
+ * and parsed again; other loggers pass strings, which are parsed. The bytes of the longs and doubles are arranged by
+ * significance (all the first bytes, then all the second bytes and so on) so that
+ * the sign and exponent bytes, which vary little along a column, compress well.
+ *
+ * The values are buffered and written as a block every blockSize rows, or sooner if
+ * flushInterval milliseconds have passed since the last block so that the log of a
+ * running chain can be read. They are also written by flush() so that a checkpoint
+ * records the length of a complete log. Numbers are stored by value so a log converted back to
+ * text (see BinaryLogReader) has the same values but not necessarily the same
+ * formatting as the tab delimited log (whole numbers lose their decimal point and
+ * number columns aren't rounded to their significant figures).
+ */
+public class BinaryLogFormatter implements NumericLogFormatter {
+
+    public static final byte[] MAGIC = {'B', 'E', 'A', 'S', 'T', 'L', 'O', 'G'};
+    public static final int VERSION = 1;
+
+    public static final byte HEADING = 'H';
+    public static final byte LINE = 'L';
+    public static final byte LABELS = 'N';
+    public static final byte BLOCK = 'B';
+
+    public static final byte LONG_COLUMN = 'I';
+    public static final byte DOUBLE_COLUMN = 'D';
+    public static final byte STRING_COLUMN = 'S';
+
+    public static final int DEFAULT_BLOCK_SIZE = 100;
+    public static final long DEFAULT_FLUSH_INTERVAL = 60000;
+
+    // larger whole numbers are kept as doubles as they are only approximately integers
+    private static final double MAX_EXACT_INTEGER = (double) (1L << 53);
+
+    public BinaryLogFormatter(OutputStream stream) {
+        this(stream, DEFAULT_BLOCK_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * @param stream        the stream to write to
+     * @param blockSize     the maximum number of rows in a block
+     * @param flushInterval the longest time (in milliseconds) that rows are held back
+     */
+    public BinaryLogFormatter(OutputStream stream, int blockSize, long flushInterval) {
+        this.out = new DataOutputStream(new BufferedOutputStream(stream));
+        this.blockSize = blockSize;
+        this.flushInterval = flushInterval;
+        lastFlushTime = System.currentTimeMillis();
+    }
+
+    public void startLogging(String title) {
+        // When resuming from a checkpoint this isn't called and the blocks are
+        // appended to the existing log.
+        try {
+            out.write(MAGIC);
+            out.writeInt(VERSION);
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write log: " + ioe.getMessage());
+        }
+    }
+
+    public void logHeading(String heading) {
+        if (heading != null) {
+            writeRecord(HEADING, heading);
+        }
+    }
+
+    public void logLine(String line) {
+        writeRecord(LINE, line);
+    }
+
+    public void logLabels(String[] labels) {
+        try {
+            writeBlock();
+            out.writeByte(LABELS);
+            out.writeInt(labels.length);
+            for (String label : labels) {
+                writeString(out, label);
+            }
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write log: " + ioe.getMessage());
+        }
+    }
+
+    public void logValues(String[] values) {
+        try {
+            startRow(values.length);
+            System.arraycopy(values, 0, strings[rowCount], 0, values.length);
+            endRow();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write log: " + ioe.getMessage());
+        }
+    }
+
+    public void logValues(long state, double[] numbers, String[] values) {
+        try {
+            startRow(values.length + 1);
+            strings[rowCount][0] = null;
+            this.numbers[rowCount][0] = state;
+            System.arraycopy(values, 0, strings[rowCount], 1, values.length);
+            System.arraycopy(numbers, 0, this.numbers[rowCount], 1, numbers.length);
+            endRow();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write log: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Makes room for a row; all the rows in a block have the same number of columns so
+     * a different number starts a new block.
+     */
+    private void startRow(int length) throws IOException {
+        if (length != columnCount) {
+            writeBlock();
+            strings = new String[blockSize][length];
+            numbers = new double[blockSize][length];
+            columnCount = length;
+        }
+    }
+
+    private void endRow() throws IOException {
+        rowCount++;
+        if (rowCount == blockSize || System.currentTimeMillis() - lastFlushTime >= flushInterval) {
+            writeBlock();
+        }
+    }
+
+    public void flush() {
+        try {
+            writeBlock();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write log: " + ioe.getMessage());
+        }
+    }
+
+    public void stopLogging() {
+        flush();
+    }
+
+    private void writeRecord(byte tag, String text) {
+        try {
+            writeBlock();
+            out.writeByte(tag);
+            writeString(out, text);
+            out.flush();
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to write log: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Writes the buffered rows as a block.
+     *
+     * @throws IOException if the block can't be written
+     */
+    private void writeBlock() throws IOException {
+        lastFlushTime = System.currentTimeMillis();
+        if (rowCount == 0) {
+            return;
+        }
+
+        compressed.reset();
+        deflater.reset();
+        final DeflaterOutputStream deflaterStream = new DeflaterOutputStream(compressed, deflater, 1 << 16);
+        final DataOutputStream data = new DataOutputStream(deflaterStream);
+
+        data.writeInt(columnCount);
+        for (int j = 0; j < columnCount; j++) {
+            writeColumn(data, j);
+        }
+        data.flush();
+        deflaterStream.finish();
+
+        out.writeByte(BLOCK);
+        out.writeInt(rowCount);
+        out.writeInt(compressed.size());
+        compressed.writeTo(out);
+        out.flush();
+
+        // the strings are left to be overwritten by the next block
+        rowCount = 0;
+    }
+
+    private void writeColumn(DataOutputStream data, int column) throws IOException {
+        if (longs.length < rowCount) {
+            longs = new long[blockSize];
+        }
+
+        boolean isLong = true;
+        for (int i = 0; i < rowCount && isLong; i++) {
+            final String value = strings[i][column];
+            if (value == null) {
+                final double number = numbers[i][column];
+                if (isInteger(number)) {
+                    longs[i] = (long) number;
+                } else {
+                    isLong = false;
+                }
+            } else if (isInteger(value)) {
+                longs[i] = Long.parseLong(value);
+            } else {
+                isLong = false;
+            }
+        }
+
+        if (isLong) {
+            data.writeByte(LONG_COLUMN);
+            long last = 0;
+            for (int i = 0; i < rowCount; i++) {
+                final long value = longs[i];
+                longs[i] = value - last;
+                last = value;
+            }
+            writeShuffled(data, longs, rowCount);
+            return;
+        }
+
+        boolean isDouble = true;
+        for (int i = 0; i < rowCount && isDouble; i++) {
+            final String value = strings[i][column];
+            if (value == null) {
+                longs[i] = Double.doubleToLongBits(numbers[i][column]);
+            } else if (isNumber(value)) {
+                try {
+                    longs[i] = Double.doubleToLongBits(Double.parseDouble(value));
+                } catch (NumberFormatException nfe) {
+                    isDouble = false;
+                }
+            } else {
+                isDouble = false;
+            }
+        }
+
+        if (isDouble) {
+            data.writeByte(DOUBLE_COLUMN);
+            writeShuffled(data, longs, rowCount);
+            return;
+        }
+
+        data.writeByte(STRING_COLUMN);
+        for (int i = 0; i < rowCount; i++) {
+            final String value = strings[i][column];
+            writeString(data, value != null ? value : Double.toString(numbers[i][column]));
+        }
+    }
+
+    /**
+     * Writes the most significant byte of each value, then the next byte of each and so on.
+     */
+    private void writeShuffled(DataOutputStream data, long[] values, int count) throws IOException {
+        final int length = count * 8;
+        if (shuffled.length < length) {
+            shuffled = new byte[length];
+        }
+
+        for (int i = 0; i < count; i++) {
+            final long value = values[i];
+            for (int b = 0; b < 8; b++) {
+                shuffled[b * count + i] = (byte) (value >>> (56 - 8 * b));
+            }
+        }
+        data.write(shuffled, 0, length);
+    }
+
+    /**
+     * @return true if the number is whole and small enough to be stored exactly as a long (and isn't -0).
+     */
+    private static boolean isInteger(double number) {
+        return number == Math.rint(number) && Math.abs(number) <= MAX_EXACT_INTEGER &&
+                !(number == 0.0 && Double.doubleToRawLongBits(number) != 0L);
+    }
+
+    /**
+     * @return true if the value is a whole number small enough to be parsed as a long. This
+     *         is checked first so that parsing the columns of doubles doesn't throw exceptions.
+     */
+    private static boolean isInteger(String value) {
+        final int length = value.length();
+        final int start = (length > 0 && value.charAt(0) == '-') ? 1 : 0;
+        if (length == start || length - start > 18) {
+            return false;
+        }
+
+        for (int i = start; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the value looks like a decimal number that can be stored as a double without
+     *         changing how it is read (so not, for example, a hexadecimal number or one
+     *         with a type suffix that a category would keep).
+     */
+    private static boolean isNumber(String value) {
+        final int length = value.length();
+        if (length == 0) {
+            return false;
+        }
+
+        final char last = value.charAt(length - 1);
+        if (last < '0' || last > '9') {
+            return value.equals("NaN") || value.equals("Infinity") || value.equals("-Infinity");
+        }
+
+        for (int i = 0; i < length; i++) {
+            final char c = value.charAt(i);
+            if (!((c >= '0' && c <= '9') || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static void writeString(DataOutputStream data, String value) throws IOException {
+        final byte[] bytes = value.getBytes("UTF-8");
+        data.writeInt(bytes.length);
+        data.write(bytes);
+    }
+
+    private final DataOutputStream out;
+    private final int blockSize;
+    private final long flushInterval;
+
+    // the values of the rows in the current block, a null string is a number
+    private String[][] strings = null;
+    private double[][] numbers = null;
+    private int columnCount = -1;
+    private int rowCount = 0;
+    private long lastFlushTime;
+
+    // the mantissas hardly compress so a slower level gains little
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    private long[] longs = new long[0];
+    private byte[] shuffled = new byte[0];
+}
@@ -0,0 +1,347 @@
+/*
+ * BinaryLogReader.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+import java.io.*;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the records of a log written by BinaryLogFormatter one at a time. A record that
+ * has only been partly written (because the chain is still running) is treated as the
+ * end of the log.
+ */
+public class BinaryLogReader {
+
+    public static final int END = -1;
+
+    /**
+     * @param stream the stream to read from
+     * @throws IOException if the stream doesn't start with the header of a binary log
+     */
+    public BinaryLogReader(InputStream stream) throws IOException {
+        in = new DataInputStream(stream);
+
+        final byte[] magic = new byte[BinaryLogFormatter.MAGIC.length];
+        try {
+            in.readFully(magic);
+        } catch (EOFException eofe) {
+            throw new IOException("The log file is empty or is not a binary log");
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (magic[i] != BinaryLogFormatter.MAGIC[i]) {
+                throw new IOException("The log file is not a binary log");
+            }
+        }
+
+        final int version = in.readInt();
+        if (version > BinaryLogFormatter.VERSION) {
+            throw new IOException("The binary log was written by a later version (" + version + ")");
+        }
+    }
+
+    /**
+     * @param file a file
+     * @return true if the file starts with the header of a binary log
+     * @throws IOException if the file can't be read
+     */
+    public static boolean isBinaryLog(File file) throws IOException {
+        final InputStream stream = new FileInputStream(file);
+        try {
+            for (byte b : BinaryLogFormatter.MAGIC) {
+                if (stream.read() != b) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            stream.close();
+        }
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @return the tag of the record (BinaryLogFormatter.HEADING, LINE, LABELS or BLOCK) or END
+     * @throws IOException if the record is not valid
+     */
+    public int next() throws IOException {
+        final int tag = in.read();
+        if (tag < 0) {
+            return END;
+        }
+
+        try {
+            switch (tag) {
+                case BinaryLogFormatter.HEADING:
+                case BinaryLogFormatter.LINE:
+                    text = readString(in);
+                    break;
+
+                case BinaryLogFormatter.LABELS:
+                    labels = new String[in.readInt()];
+                    for (int i = 0; i < labels.length; i++) {
+                        labels[i] = readString(in);
+                    }
+                    break;
+
+                case BinaryLogFormatter.BLOCK:
+                    readBlock();
+                    break;
+
+                default:
+                    throw new IOException("Unknown record in binary log (" + tag + ")");
+            }
+        } catch (EOFException eofe) {
+            // the rest of the record hasn't been written yet
+            return END;
+        }
+
+        return tag;
+    }
+
+    /**
+     * @return the text of a HEADING or LINE record
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the labels of a LABELS record
+     */
+    public String[] getLabels() {
+        return labels;
+    }
+
+    /**
+     * @return the number of rows in a BLOCK record
+     */
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @return the number of columns in a BLOCK record
+     */
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    /**
+     * @param column the column
+     * @return the type of the column, BinaryLogFormatter.LONG_COLUMN, DOUBLE_COLUMN or STRING_COLUMN
+     */
+    public byte getColumnType(int column) {
+        return columnTypes[column];
+    }
+
+    /**
+     * @param column a LONG_COLUMN
+     * @return the values, only the first getRowCount() of which are used
+     */
+    public long[] getLongValues(int column) {
+        return longValues[column];
+    }
+
+    /**
+     * @param column a DOUBLE_COLUMN
+     * @return the values, only the first getRowCount() of which are used
+     */
+    public double[] getDoubleValues(int column) {
+        return doubleValues[column];
+    }
+
+    /**
+     * @param row    the row
+     * @param column the column
+     * @return the value of the given row and column as text
+     */
+    public String getString(int row, int column) {
+        switch (columnTypes[column]) {
+            case BinaryLogFormatter.LONG_COLUMN:
+                return Long.toString(longValues[column][row]);
+            case BinaryLogFormatter.DOUBLE_COLUMN:
+                return Double.toString(doubleValues[column][row]);
+            default:
+                return stringValues[column][row];
+        }
+    }
+
+    /**
+     * @param row the row
+     * @return the values of the given row as text
+     */
+    public String[] getRow(int row) {
+        final String[] values = new String[columnCount];
+        for (int j = 0; j < columnCount; j++) {
+            values[j] = getString(row, j);
+        }
+        return values;
+    }
+
+    /**
+     * Writes the rest of the log to a formatter, for example to convert it to tab delimited text.
+     *
+     * @param formatter the formatter
+     * @throws IOException if the log is not valid
+     */
+    public void copyTo(LogFormatter formatter) throws IOException {
+        int tag = next();
+        while (tag != END) {
+            switch (tag) {
+                case BinaryLogFormatter.HEADING:
+                    formatter.logHeading(text);
+                    break;
+                case BinaryLogFormatter.LINE:
+                    formatter.logLine(text);
+                    break;
+                case BinaryLogFormatter.LABELS:
+                    formatter.logLabels(labels);
+                    break;
+                case BinaryLogFormatter.BLOCK:
+                    for (int i = 0; i < rowCount; i++) {
+                        formatter.logValues(getRow(i));
+                    }
+                    break;
+            }
+            tag = next();
+        }
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readBlock() throws IOException {
+        final int count = in.readInt();
+        final int length = in.readInt();
+        if (count < 0 || length < 0) {
+            throw new IOException("Invalid block in binary log");
+        }
+        if (compressed.length < length) {
+            compressed = new byte[length];
+        }
+        in.readFully(compressed, 0, length);
+
+        inflater.reset();
+        final DataInputStream data = new DataInputStream(new InflaterInputStream(
+                new ByteArrayInputStream(compressed, 0, length), inflater));
+
+        try {
+            rowCount = count;
+            columnCount = data.readInt();
+            columnTypes = new byte[columnCount];
+            longValues = new long[columnCount][];
+            doubleValues = new double[columnCount][];
+            stringValues = new String[columnCount][];
+
+            for (int j = 0; j < columnCount; j++) {
+                columnTypes[j] = data.readByte();
+                switch (columnTypes[j]) {
+                    case BinaryLogFormatter.LONG_COLUMN: {
+                        final long[] values = readShuffled(data, count);
+                        long last = 0;
+                        for (int i = 0; i < count; i++) {
+                            last += values[i];
+                            values[i] = last;
+                        }
+                        longValues[j] = values;
+                        break;
+                    }
+                    case BinaryLogFormatter.DOUBLE_COLUMN: {
+                        final long[] bits = readShuffled(data, count);
+                        final double[] values = new double[count];
+                        for (int i = 0; i < count; i++) {
+                            values[i] = Double.longBitsToDouble(bits[i]);
+                        }
+                        doubleValues[j] = values;
+                        break;
+                    }
+                    case BinaryLogFormatter.STRING_COLUMN: {
+                        final String[] values = new String[count];
+                        for (int i = 0; i < count; i++) {
+                            values[i] = readString(data);
+                        }
+                        stringValues[j] = values;
+                        break;
+                    }
+                    default:
+                        throw new IOException("Unknown column type in binary log (" + columnTypes[j] + ")");
+                }
+            }
+        } catch (EOFException eofe) {
+            // the block was read in full so it is damaged rather than unfinished
+            throw new IOException("Invalid block in binary log");
+        } catch (ZipException ze) {
+            throw new IOException("Invalid block in binary log: " + ze.getMessage());
+        }
+    }
+
+    private long[] readShuffled(DataInputStream data, int count) throws IOException {
+        final int length = count * 8;
+        if (shuffled.length < length) {
+            shuffled = new byte[length];
+        }
+        data.readFully(shuffled, 0, length);
+
+        final long[] values = new long[count];
+        for (int i = 0; i < count; i++) {
+            long value = 0;
+            for (int b = 0; b < 8; b++) {
+                value = (value << 8) | (shuffled[b * count + i] & 0xFFL);
+            }
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private static String readString(DataInputStream data) throws IOException {
+        final int length = data.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid string in binary log");
+        }
+        final byte[] bytes = new byte[length];
+        data.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    private final DataInputStream in;
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[0];
+    private byte[] shuffled = new byte[0];
+
+    private String text;
+    private String[] labels;
+
+    private int rowCount;
+    private int columnCount;
+    private byte[] columnTypes;
+    private long[][] longValues;
+    private double[][] doubleValues;
+    private String[][] stringValues;
+}
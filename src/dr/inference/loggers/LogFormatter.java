@@ -44,6 +44,11 @@ public interface LogFormatter {
 
     void logValues(String[] values);
 
+    /**
+     * Writes anything that is held back so that the log is complete up to the last values.
+     */
+    void flush();
+
     void stopLogging();
 
 }
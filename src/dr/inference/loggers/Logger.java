@@ -39,6 +39,8 @@ public interface Logger {
 
 	void log(int state);
 	
+	void flush();
+
 	void stopLogging();
 
 }
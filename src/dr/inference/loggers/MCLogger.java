@@ -212,14 +212,7 @@ public class MCLogger implements Logger {
 
             final int columnCount = getColumnCount();
 
-            String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
-
-            values[0] = Integer.toString(state);
-
-            for (int i = 0; i < columnCount; i++) {
-                values[i + 1] = getColumnFormatted(i);
-            }
-
+            String performance = null;
             if (performanceReport) {
                 if (performanceReportStarted) {
 
@@ -227,14 +220,30 @@ public class MCLogger implements Logger {
 
                     double hoursPerMillionStates = (double) (time - startTime) / (3.6 * (double) (state - startState));
 
-                    values[columnCount + 1] = formatter.format(hoursPerMillionStates) + " hours/million states";
+                    performance = formatter.format(hoursPerMillionStates) + " hours/million states";
 
                 } else {
-                    values[columnCount + 1] = "-";
+                    performance = "-";
                 }
             }
 
-            logValues(values);
+            if (hasNumericFormatter()) {
+                logNumericValues(state, performance);
+            } else {
+                String[] values = new String[columnCount + (performanceReport ? 2 : 1)];
+
+                values[0] = Integer.toString(state);
+
+                for (int i = 0; i < columnCount; i++) {
+                    values[i + 1] = getColumnFormatted(i);
+                }
+
+                if (performanceReport) {
+                    values[columnCount + 1] = performance;
+                }
+
+                logValues(values);
+            }
         }
 
         if (performanceReport && !performanceReportStarted && state >= performanceReportDelay) {
@@ -243,6 +252,77 @@ public class MCLogger implements Logger {
 
     }
 
+    private boolean hasNumericFormatter() {
+        for (LogFormatter formatter : formatters) {
+            if (formatter instanceof NumericLogFormatter) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Logs the values of a state with the number columns passed as numbers to the formatters
+     * that take them, and formatted as strings for the others.
+     */
+    private void logNumericValues(int state, String performance) {
+        final int columnCount = getColumnCount();
+        final int length = columnCount + (performance != null ? 1 : 0);
+        if (numbers == null || numbers.length != length) {
+            numbers = new double[length];
+            numberValues = new String[length];
+        }
+
+        for (int i = 0; i < columnCount; i++) {
+            final LogColumn column = getColumn(i);
+            if (column instanceof NumberColumn) {
+                numbers[i] = ((NumberColumn) column).getDoubleValue();
+                numberValues[i] = null;
+            } else {
+                numberValues[i] = column.getFormatted();
+            }
+        }
+        if (performance != null) {
+            numberValues[columnCount] = performance;
+        }
+
+        String[] values = null;
+        for (LogFormatter formatter : formatters) {
+            if (formatter instanceof NumericLogFormatter) {
+                ((NumericLogFormatter) formatter).logValues(state, numbers, numberValues);
+            } else {
+                if (values == null) {
+                    values = new String[length + 1];
+                    values[0] = Integer.toString(state);
+                    for (int i = 0; i < length; i++) {
+                        values[i + 1] = (numberValues[i] != null ? numberValues[i] : formatNumber(i));
+                    }
+                }
+                formatter.logValues(values);
+            }
+        }
+    }
+
+    /**
+     * Formats a number column from the value read by logNumericValues, so the column
+     * isn't evaluated twice.
+     */
+    private String formatNumber(int index) {
+        final NumberColumn column = (NumberColumn) getColumn(index);
+        StringBuffer buffer = new StringBuffer(column.formatValue(numbers[index]));
+        while (buffer.length() < column.getMinimumWidth()) {
+            buffer.append(' ');
+        }
+        return buffer.toString();
+    }
+
+    public void flush() {
+
+        for (LogFormatter formatter : formatters) {
+            formatter.flush();
+        }
+    }
+
     public void stopLogging() {
 
         for (LogFormatter formatter : formatters) {
@@ -272,4 +352,8 @@ public class MCLogger implements Logger {
 
     private NumberFormat formatter = NumberFormat.getNumberInstance();
 
+    // reused by logNumericValues
+    private double[] numbers = null;
+    private String[] numberValues = null;
+
 }
@@ -0,0 +1,46 @@
+/*
+ * NumericLogFormatter.java
+ *
+ * Copyright (C) 2002-2006 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.loggers;
+
+/**
+ * A log formatter that can take the values of number columns as numbers, so that they
+ * don't have to be formatted by MCLogger and parsed back again.
+ */
+public interface NumericLogFormatter extends LogFormatter {
+
+    /**
+     * Logs the values of a state. The arrays have an element for each column after the state;
+     * a column that has a string in values is logged as that string and one that has null is
+     * logged as the number in numbers. The arrays are reused for the next state so they mustn't
+     * be kept.
+     *
+     * @param state   the state number
+     * @param numbers the values of the number columns
+     * @param values  the formatted values of the other columns, null for the number columns
+     */
+    void logValues(long state, double[] numbers, String[] values);
+
+}
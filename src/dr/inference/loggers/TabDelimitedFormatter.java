@@ -106,6 +106,10 @@ public class TabDelimitedFormatter implements LogFormatter {
         printWriter.flush();
     }
 
+    public void flush() {
+        printWriter.flush();
+    }
+
     public void stopLogging() {
         // Nothing to do...
     }
@@ -167,11 +167,21 @@ public final class MarkovChain {
 
             // assert Profiler.startProfile("Store");
 
+            // the steps of the move are timed for the operator analysis and runtime profile
+            long time = 0;
+            if (PROFILE) {
+                time = System.nanoTime();
+            }
+
             // The current model is stored here in case the proposal fails
             if (currentModel != null) {
                 currentModel.storeModelState();
             }
 
+            if (PROFILE) {
+                time = addTime(mcmcOperator, MCMCOperator.Step.STORE, time);
+            }
+
             // assert Profiler.stopProfile("Store");
 
             boolean operatorSucceeded = true;
@@ -199,6 +209,10 @@ public final class MarkovChain {
                 operatorSucceeded = false;
             }
 
+            if (PROFILE) {
+                time = addTime(mcmcOperator, MCMCOperator.Step.OPERATE, time);
+            }
+
             double score = 0.0;
             double deviation = 0.0;
 
@@ -212,16 +226,11 @@ public final class MarkovChain {
                     System.out.println("** Evaluate");
                 }
 
-                long elapsedTime = 0;
-                if (PROFILE) {
-                    elapsedTime = System.currentTimeMillis();
-                }
-
                 // The new model is evaluated
                 score = evaluate(likelihood, prior);
 
                 if (PROFILE) {
-                    mcmcOperator.addEvaluationTime(System.currentTimeMillis() - elapsedTime);
+                    addTime(mcmcOperator, MCMCOperator.Step.EVALUATE, time);
                 }
 
                 // assert Profiler.stopProfile("Evaluate");
@@ -284,7 +293,15 @@ public final class MarkovChain {
 
                 // assert Profiler.startProfile("Restore");
 
+                if (PROFILE) {
+                    time = System.nanoTime();
+                }
+
                 currentModel.restoreModelState();
+
+                if (PROFILE) {
+                    addTime(mcmcOperator, MCMCOperator.Step.RESTORE, time);
+                }
             }
             // assert Profiler.stopProfile("Restore");
 
@@ -475,6 +492,17 @@ public final class MarkovChain {
         return logPosterior;
     }
 
+    /**
+     * Adds the time since startTime to a step of an operator's moves.
+     *
+     * @return the current time (the start of the next step)
+     */
+    private static long addTime(MCMCOperator op, MCMCOperator.Step step, long startTime) {
+        final long time = System.nanoTime();
+        op.addTime(step, time - startTime);
+        return time;
+    }
+
     /**
      * Updates the proposal parameter, based on the target acceptance
      * probability This method relies on the proposal parameter being a
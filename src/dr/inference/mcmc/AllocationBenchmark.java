@@ -0,0 +1,138 @@
+/*
+ * AllocationBenchmark.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.mcmc;
+
+import dr.app.beast.BeastParser;
+import dr.inference.markovchain.MarkovChain;
+import dr.math.MathUtils;
+import dr.xml.XMLParser;
+
+import java.io.FileReader;
+import java.io.Reader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Measures the memory allocated by each state of a Markov chain. The MCMC in a BEAST
+ * XML file is run (without its loggers) for a number of states to warm up and then
+ * for a number of states during which the bytes allocated by the thread running the
+ * chain are counted. This is used to check that the inner loop of the chain (the
+ * common operators, store/restore and the likelihood calculations) doesn't start
+ * allocating on every state.
+ * <p/>
+ * Usage: AllocationBenchmark &lt;file.xml&gt; [state count] [maximum bytes per state]
+ * <p/>
+ * If a maximum is given then the exit status is 1 when it is exceeded.
+ */
+public class AllocationBenchmark {
+
+    public static final int DEFAULT_WARM_UP_COUNT = 20000;
+    public static final int DEFAULT_STATE_COUNT = 100000;
+
+    public AllocationBenchmark(MCMC mcmc) {
+        this.mcmc = mcmc;
+    }
+
+    /**
+     * Reads the MCMC from a BEAST XML file without running it.
+     *
+     * @param fileName the XML file
+     * @param seed     the random number seed (which determines the starting tree)
+     * @return the benchmark
+     * @throws Exception if the file can't be read or parsed
+     */
+    public static AllocationBenchmark readBenchmark(String fileName, long seed) throws Exception {
+        MathUtils.setSeed(seed);
+
+        XMLParser parser = new BeastParser(new String[]{fileName}, null, false, false, false);
+        Reader reader = new FileReader(fileName);
+        try {
+            return new AllocationBenchmark((MCMC) parser.parse(reader, MCMC.class));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @return true if the virtual machine can count the bytes allocated by a thread
+     */
+    public static boolean isSupported() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        return bean instanceof com.sun.management.ThreadMXBean &&
+                ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported();
+    }
+
+    /**
+     * Runs the chain and returns the mean number of bytes allocated per state.
+     *
+     * @param warmUpCount the number of states run before counting (so the code is compiled
+     *                    and any buffers have been created)
+     * @param stateCount  the number of states counted
+     * @return the bytes allocated per state
+     */
+    public double getBytesPerState(int warmUpCount, int stateCount) {
+        if (!isSupported()) {
+            throw new UnsupportedOperationException("This virtual machine can't measure the memory allocated by a thread");
+        }
+
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        bean.setThreadAllocatedMemoryEnabled(true);
+        final long threadId = Thread.currentThread().getId();
+
+        final MarkovChain mc = mcmc.getMarkovChain();
+        mc.runChain(warmUpCount, false);
+
+        final long before = bean.getThreadAllocatedBytes(threadId);
+        mc.runChain(stateCount, false);
+        final long after = bean.getThreadAllocatedBytes(threadId);
+
+        return (double) (after - before) / stateCount;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: AllocationBenchmark <file.xml> [state count] [maximum bytes per state]");
+            System.exit(2);
+        }
+
+        final int stateCount = (args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_STATE_COUNT);
+
+        AllocationBenchmark benchmark = readBenchmark(args[0], 666);
+        final double bytesPerState = benchmark.getBytesPerState(DEFAULT_WARM_UP_COUNT, stateCount);
+
+        System.out.println(args[0] + ": " + stateCount + " states, " + bytesPerState + " bytes allocated per state");
+
+        if (args.length > 2) {
+            final double maximum = Double.parseDouble(args[2]);
+            if (bytesPerState > maximum) {
+                System.out.println("Allocation has regressed: more than " + maximum + " bytes allocated per state");
+                System.exit(1);
+            }
+        }
+    }
+
+    private final MCMC mcmc;
+}
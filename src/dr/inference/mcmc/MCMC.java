@@ -33,9 +33,10 @@ import dr.inference.model.Model;
 import dr.inference.operators.*;
 import dr.inference.prior.Prior;
 import dr.util.Identifiable;
-import dr.util.NumberFormatter;
 import dr.xml.Spawnable;
+import dr.xml.XMLParser;
 
+import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.PrintStream;
@@ -163,9 +164,30 @@ public class MCMC implements Identifiable, Spawnable {
         stopping = false;
         currentState = 0;
 
+        if (checkpointFile != null) {
+            checkpoint = new MCMCCheckpoint(mc.getLikelihood(), schedule);
+
+            if (resume) {
+                try {
+                    currentState = checkpoint.readCheckpoint(checkpointFile);
+                } catch (IOException ioe) {
+                    throw new RuntimeException("Unable to resume from checkpoint file, " +
+                            checkpointFile.getName() + ": " + ioe.getMessage());
+                }
+                mc.setCurrentLength(currentState);
+                resumedState = currentState;
+
+                java.util.logging.Logger.getLogger("dr.inference").info(
+                        "Resuming chain from checkpoint at state " + currentState);
+            }
+
+            Runtime.getRuntime().addShutdownHook(shutdownHook);
+        }
+
         timer.start();
 
-        if (loggers != null) {
+        // when resuming, the log files already have their headers
+        if (loggers != null && !resume) {
             for (Logger logger : loggers) {
                 logger.startLogging();
             }
@@ -174,14 +196,11 @@ public class MCMC implements Identifiable, Spawnable {
         if (!stopping) {
             mc.addMarkovChainListener(chainListener);
 
-            int chainLength = getChainLength();
-
             final int coercionDelay = getCoercionDelay();
 
-            if (coercionDelay > 0) {
+            if (coercionDelay > currentState) {
                 // Run the chain for coercionDelay steps with coercion disabled
-                mc.runChain(coercionDelay, true);
-                chainLength -= coercionDelay;
+                mc.runChain(coercionDelay - currentState, true);
 
                 // reset operator acceptance levels
                 for (int i = 0; i < schedule.getOperatorCount(); i++) {
@@ -189,15 +208,68 @@ public class MCMC implements Identifiable, Spawnable {
                 }
             }
 
-            mc.runChain(chainLength, false);
+            if (!stopping) {
+                mc.runChain(getChainLength() - mc.getCurrentLength(), false);
+            }
 
             mc.terminateChain();
 
             mc.removeMarkovChainListener(chainListener);
         }
+
+        if (checkpointFile != null) {
+            synchronized (checkpointLock) {
+                chainRunning = false;
+                checkpointLock.notifyAll();
+            }
+            try {
+                Runtime.getRuntime().removeShutdownHook(shutdownHook);
+            } catch (IllegalStateException ise) {
+                // the virtual machine is already shutting down
+            }
+        }
+
         timer.stop();
     }
 
+    /**
+     * Writes a checkpoint of the current state and signals any waiting shutdown hook.
+     */
+    private void writeCheckpoint(int state) {
+        // the lengths of the logs are recorded so anything held back must be written first
+        if (loggers != null) {
+            for (Logger logger : loggers) {
+                logger.flush();
+            }
+        }
+        try {
+            checkpoint.writeCheckpoint(checkpointFile, state, XMLParser.getLogFiles());
+        } catch (IOException ioe) {
+            java.util.logging.Logger.getLogger("dr.inference").warning(
+                    "Unable to write checkpoint file, " + checkpointFile.getName() + ": " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * On termination of the virtual machine (e.g., by SIGTERM) this requests that
+     * the chain writes a checkpoint at the next state and waits for it to do so.
+     */
+    private final Thread shutdownHook = new Thread() {
+        public void run() {
+            synchronized (checkpointLock) {
+                if (!chainRunning) {
+                    return;
+                }
+                checkpointRequested = true;
+                try {
+                    checkpointLock.wait(SHUTDOWN_CHECKPOINT_TIMEOUT);
+                } catch (InterruptedException ie) {
+                    // give up waiting
+                }
+            }
+        }
+    };
+
     private final MarkovChainListener chainListener = new MarkovChainListener() {
 
         // MarkovChainListener interface *******************************************
@@ -210,6 +282,23 @@ public class MCMC implements Identifiable, Spawnable {
 
             currentState = state;
 
+            // the checkpoint is written before logging so that the log line for this
+            // state is written again when resuming.
+            if (checkpoint != null && state != resumedState) {
+                if (checkpointRequested) {
+                    writeCheckpoint(state);
+                    pleaseStop();
+                    synchronized (checkpointLock) {
+                        checkpointRequested = false;
+                        checkpointLock.notifyAll();
+                    }
+                    return;
+                }
+                if (checkpointEvery > 0 && state % checkpointEvery == 0) {
+                    writeCheckpoint(state);
+                }
+            }
+
             if (loggers != null) {
                 for (Logger logger : loggers) {
                     logger.log(state);
@@ -236,7 +325,6 @@ public class MCMC implements Identifiable, Spawnable {
                     logger.stopLogging();
                 }
             }
-            // OperatorAnalysisPrinter class can do the job now
             if (showOperatorAnalysis) {
                 showOperatorAnalysis(System.out);
                 try {
@@ -266,109 +354,13 @@ public class MCMC implements Identifiable, Spawnable {
     };
 
     /**
-     * Writes ano operator analysis to the provided print stream
+     * Writes an operator analysis (including the time spent in each operator and
+     * likelihood) to the provided print stream
      *
      * @param out the print stream to write operator analysis to
      */
     private void showOperatorAnalysis(PrintStream out) {
-        out.println();
-        out.println("Operator analysis");
-        out.println(formatter.formatToFieldWidth("Operator", 50) +
-                formatter.formatToFieldWidth("Tuning", 9) +
-                formatter.formatToFieldWidth("Count", 11) +
-                formatter.formatToFieldWidth("Time", 9) +
-                formatter.formatToFieldWidth("Time/Op", 9) +
-                formatter.formatToFieldWidth("Pr(accept)", 11) +
-                " Performance suggestion");
-
-        for (int i = 0; i < schedule.getOperatorCount(); i++) {
-
-            final MCMCOperator op = schedule.getOperator(i);
-            if (op instanceof JointOperator) {
-                JointOperator jointOp = (JointOperator) op;
-                for (int k = 0; k < jointOp.getNumberOfSubOperators(); k++) {
-                    out.println(formattedOperatorName(jointOp.getSubOperatorName(k))
-                            + formattedParameterString(jointOp.getSubOperator(k))
-                            + formattedCountString(op)
-                            + formattedTimeString(op)
-                            + formattedTimePerOpString(op)
-                            + formattedProbString(jointOp)
-                            + formattedDiagnostics(jointOp, MCMCOperator.Utils.getAcceptanceProbability(jointOp)));
-                }
-            } else {
-                out.println(formattedOperatorName(op.getOperatorName())
-                        + formattedParameterString(op)
-                        + formattedCountString(op)
-                        + formattedTimeString(op)
-                        + formattedTimePerOpString(op)
-                        + formattedProbString(op)
-                        + formattedDiagnostics(op, MCMCOperator.Utils.getAcceptanceProbability(op)));
-            }
-
-        }
-        out.println();
-    }
-
-    private String formattedOperatorName(String operatorName) {
-        return formatter.formatToFieldWidth(operatorName, 50);
-    }
-
-    private String formattedParameterString(MCMCOperator op) {
-        String pString = "        ";
-        if (op instanceof CoercableMCMCOperator && ((CoercableMCMCOperator) op).getMode() != CoercionMode.COERCION_OFF) {
-            pString = formatter.formatToFieldWidth(formatter.formatDecimal(((CoercableMCMCOperator) op).getRawParameter(), 3), 8);
-        }
-        return pString;
-    }
-
-    private String formattedCountString(MCMCOperator op) {
-        final int count = op.getCount();
-        return formatter.formatToFieldWidth(Integer.toString(count), 10) + " ";
-    }
-
-    private String formattedTimeString(MCMCOperator op) {
-        final long time = op.getTotalEvaluationTime();
-        return formatter.formatToFieldWidth(Long.toString(time), 8) + " ";
-    }
-
-    private String formattedTimePerOpString(MCMCOperator op) {
-        final double time = op.getMeanEvaluationTime();
-        return formatter.formatToFieldWidth(formatter.formatDecimal(time, 2), 8) + " ";
-    }
-
-    private String formattedProbString(MCMCOperator op) {
-        final double acceptanceProb = MCMCOperator.Utils.getAcceptanceProbability(op);
-        return formatter.formatToFieldWidth(formatter.formatDecimal(acceptanceProb, 4), 11) + " ";
-    }
-
-    private String formattedDiagnostics(MCMCOperator op, double acceptanceProb) {
-
-        String message = "good";
-        if (acceptanceProb < op.getMinimumGoodAcceptanceLevel()) {
-            if (acceptanceProb < (op.getMinimumAcceptanceLevel() / 10.0)) {
-                message = "very low";
-            } else if (acceptanceProb < op.getMinimumAcceptanceLevel()) {
-                message = "low";
-            } else message = "slightly low";
-
-        } else if (acceptanceProb > op.getMaximumGoodAcceptanceLevel()) {
-            double reallyHigh = 1.0 - ((1.0 - op.getMaximumAcceptanceLevel()) / 10.0);
-            if (acceptanceProb > reallyHigh) {
-                message = "very high";
-            } else if (acceptanceProb > op.getMaximumAcceptanceLevel()) {
-                message = "high";
-            } else message = "slightly high";
-        }
-
-        String performacsMsg;
-        if (op instanceof GibbsOperator) {
-            performacsMsg = "none (Gibbs operator)";
-        } else {
-            final String suggestion = op.getPerformanceSuggestion();
-            performacsMsg = message + "\t" + suggestion;
-        }
-
-        return performacsMsg;
+        new OperatorAnalysisPrinter(schedule, getLikelihood()).showOperatorAnalysis(out);
     }
 
     /**
@@ -476,6 +468,19 @@ public class MCMC implements Identifiable, Spawnable {
         this.operatorAnalysisFileName = operatorAnalysisFileName;
     }
 
+    /**
+     * Sets up checkpointing of this chain.
+     *
+     * @param checkpointFile  the file to write checkpoints to
+     * @param checkpointEvery write a checkpoint every this number of states (0 to only write one on termination)
+     * @param resume          restore the chain from the checkpoint file before running
+     */
+    public void setCheckpoint(File checkpointFile, int checkpointEvery, boolean resume) {
+        this.checkpointFile = checkpointFile;
+        this.checkpointEvery = checkpointEvery;
+        this.resume = resume;
+    }
+
     public String getId() {
         return id;
     }
@@ -494,7 +499,17 @@ public class MCMC implements Identifiable, Spawnable {
     private final dr.util.Timer timer = new dr.util.Timer();
     private int currentState = 0;
     //private int stepsPerReport = 1000;
-    private final NumberFormatter formatter = new NumberFormatter(8);
+
+    private static final long SHUTDOWN_CHECKPOINT_TIMEOUT = 60000;
+
+    private File checkpointFile = null;
+    private int checkpointEvery = 0;
+    private boolean resume = false;
+    private MCMCCheckpoint checkpoint = null;
+    private int resumedState = -1;
+    private final Object checkpointLock = new Object();
+    private boolean chainRunning = true;
+    private volatile boolean checkpointRequested = false;
 
     /**
      * this markov chain does most of the work.
@@ -0,0 +1,321 @@
+/*
+ * MCMCCheckpoint.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.mcmc;
+
+import dr.inference.model.*;
+import dr.inference.operators.CoercableMCMCOperator;
+import dr.inference.operators.JointOperator;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorSchedule;
+import dr.math.MathUtils;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes and reads a binary snapshot of the state of an MCMC run so that it
+ * can be resumed after the process has been stopped. The snapshot contains the
+ * values of every parameter, the additional state of any Checkpointable model
+ * (e.g., tree topologies), the operator tuning and acceptance counts, the state
+ * of the random number generator and the lengths of the log files at the time
+ * it was written (so they can be truncated back to this state on resuming).
+ * <p/>
+ * Parameters and models are identified by their position in a deterministic
+ * walk of the model graph so the same XML file and random number seed (which
+ * determines the starting tree) must be used to resume. The seed is stored in
+ * the checkpoint for this purpose.
+ */
+public class MCMCCheckpoint {
+
+    private static final int MAGIC = 0x42434b50; // "BCKP"
+    private static final int VERSION = 1;
+
+    public MCMCCheckpoint(Likelihood likelihood, OperatorSchedule schedule) {
+        this.schedule = schedule;
+        this.seed = MathUtils.getSeed();
+
+        Map<Object, Object> visited = new IdentityHashMap<Object, Object>();
+        if (likelihood.getModel() != null) {
+            collect(likelihood.getModel(), visited);
+        }
+
+        // parameters and models that are not part of the likelihood's model graph
+        // (e.g., only used by priors and operators) are added in order of id.
+        for (Model model : sortById(Model.FULL_MODEL_SET)) {
+            collect(model, visited);
+        }
+        for (Parameter parameter : sortById(Parameter.FULL_PARAMETER_SET)) {
+            if (visited.put(parameter, parameter) == null) {
+                parameters.add(parameter);
+            }
+        }
+    }
+
+    /**
+     * Writes the checkpoint to a temporary file and then renames it so that a
+     * complete checkpoint is always available.
+     *
+     * @param file     the checkpoint file
+     * @param state    the current state of the chain
+     * @param logFiles the log files being written by the chain
+     * @throws IOException if the checkpoint could not be written
+     */
+    public void writeCheckpoint(File file, int state, List<File> logFiles) throws IOException {
+
+        final File tmpFile = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(seed);
+            out.writeInt(state);
+
+            MathUtils.writeRandomState(out);
+
+            out.writeInt(models.size());
+            for (Model model : models) {
+                out.writeUTF(getId(model));
+                ((Checkpointable) model).writeCheckpoint(out);
+            }
+
+            out.writeInt(parameters.size());
+            for (Parameter parameter : parameters) {
+                out.writeUTF(getId(parameter));
+                final int dim = parameter.getDimension();
+                out.writeInt(dim);
+                for (int i = 0; i < dim; i++) {
+                    out.writeDouble(parameter.getParameterValue(i));
+                }
+            }
+
+            out.writeInt(schedule.getOperatorCount());
+            for (int i = 0; i < schedule.getOperatorCount(); i++) {
+                final MCMCOperator op = schedule.getOperator(i);
+                writeOperator(out, op);
+                if (op instanceof JointOperator) {
+                    final JointOperator jointOp = (JointOperator) op;
+                    for (int k = 0; k < jointOp.getNumberOfSubOperators(); k++) {
+                        writeOperator(out, jointOp.getSubOperator(k));
+                    }
+                }
+            }
+
+            out.writeInt(logFiles.size());
+            for (File logFile : logFiles) {
+                out.writeUTF(logFile.getAbsolutePath());
+                out.writeLong(logFile.length());
+            }
+        } finally {
+            out.close();
+        }
+
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Unable to replace checkpoint file, " + file.getName());
+        }
+        if (!tmpFile.renameTo(file)) {
+            throw new IOException("Unable to rename checkpoint file, " + tmpFile.getName());
+        }
+    }
+
+    /**
+     * Restores the state of the chain from a checkpoint and truncates the log
+     * files back to their lengths when it was written.
+     *
+     * @param file the checkpoint file
+     * @return the state of the chain when the checkpoint was written
+     * @throws IOException if the checkpoint could not be read or doesn't match this analysis
+     */
+    public int readCheckpoint(File file) throws IOException {
+
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+        try {
+            readHeader(in, file);
+
+            final int state = in.readInt();
+
+            MathUtils.readRandomState(in);
+
+            checkCount("models", in.readInt(), models.size());
+            for (Model model : models) {
+                checkId(in.readUTF(), model);
+                ((Checkpointable) model).readCheckpoint(in);
+            }
+
+            checkCount("parameters", in.readInt(), parameters.size());
+            for (Parameter parameter : parameters) {
+                checkId(in.readUTF(), parameter);
+                final int dim = in.readInt();
+                if (dim != parameter.getDimension()) {
+                    parameter.setDimension(dim);
+                }
+                for (int i = 0; i < dim; i++) {
+                    parameter.setParameterValue(i, in.readDouble());
+                }
+            }
+
+            checkCount("operators", in.readInt(), schedule.getOperatorCount());
+            for (int i = 0; i < schedule.getOperatorCount(); i++) {
+                final MCMCOperator op = schedule.getOperator(i);
+                readOperator(in, op);
+                if (op instanceof JointOperator) {
+                    final JointOperator jointOp = (JointOperator) op;
+                    for (int k = 0; k < jointOp.getNumberOfSubOperators(); k++) {
+                        readOperator(in, jointOp.getSubOperator(k));
+                    }
+                }
+            }
+
+            final int logFileCount = in.readInt();
+            for (int i = 0; i < logFileCount; i++) {
+                final File logFile = new File(in.readUTF());
+                final long length = in.readLong();
+                if (logFile.exists()) {
+                    final RandomAccessFile raf = new RandomAccessFile(logFile, "rw");
+                    try {
+                        if (raf.length() > length) {
+                            raf.setLength(length);
+                        }
+                    } finally {
+                        raf.close();
+                    }
+                }
+            }
+
+            return state;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Reads the random number seed that the checkpointed run was started with.
+     *
+     * @param file the checkpoint file
+     * @return the seed
+     * @throws IOException if the file is not a checkpoint file
+     */
+    public static long readSeed(File file) throws IOException {
+        final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            return readHeader(in, file);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long readHeader(DataInput in, File file) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("File, " + file.getName() + ", is not a BEAST checkpoint file");
+        }
+        if (in.readInt() != VERSION) {
+            throw new IOException("Checkpoint file, " + file.getName() + ", was written by a different version of BEAST");
+        }
+        return in.readLong();
+    }
+
+    private void collect(Model model, Map<Object, Object> visited) {
+        if (visited.put(model, model) != null) {
+            return;
+        }
+
+        if (model instanceof Checkpointable) {
+            models.add(model);
+        }
+
+        for (int i = 0; i < model.getVariableCount(); i++) {
+            final Variable variable = model.getVariable(i);
+            if (variable instanceof Parameter && visited.put(variable, variable) == null) {
+                parameters.add((Parameter) variable);
+            }
+        }
+
+        for (int i = 0; i < model.getModelCount(); i++) {
+            collect(model.getModel(i), visited);
+        }
+    }
+
+    private static <T extends dr.util.Identifiable> List<T> sortById(Set<T> set) {
+        final List<T> list = new ArrayList<T>();
+        for (T item : set) {
+            if (item.getId() != null) {
+                list.add(item);
+            }
+        }
+        Collections.sort(list, new Comparator<T>() {
+            public int compare(T item1, T item2) {
+                return item1.getId().compareTo(item2.getId());
+            }
+        });
+        return list;
+    }
+
+    private static void writeOperator(DataOutput out, MCMCOperator op) throws IOException {
+        out.writeUTF(op.getOperatorName());
+        out.writeInt(op.getAcceptCount());
+        out.writeInt(op.getRejectCount());
+        out.writeDouble(op.getSumDeviation());
+        if (op instanceof CoercableMCMCOperator) {
+            out.writeDouble(((CoercableMCMCOperator) op).getCoercableParameter());
+        }
+    }
+
+    private static void readOperator(DataInput in, MCMCOperator op) throws IOException {
+        final String name = in.readUTF();
+        if (!name.equals(op.getOperatorName())) {
+            throw new IOException("Checkpoint operator, " + name + ", does not match operator, " + op.getOperatorName());
+        }
+        op.setAcceptCount(in.readInt());
+        op.setRejectCount(in.readInt());
+        op.setSumDeviation(in.readDouble());
+        if (op instanceof CoercableMCMCOperator) {
+            ((CoercableMCMCOperator) op).setCoercableParameter(in.readDouble());
+        }
+    }
+
+    private static String getId(dr.util.Identifiable item) {
+        return item.getId() != null ? item.getId() : "";
+    }
+
+    private static void checkId(String id, dr.util.Identifiable item) throws IOException {
+        if (!id.equals(getId(item))) {
+            throw new IOException("Checkpoint element, " + id + ", does not match, " + getId(item));
+        }
+    }
+
+    private static void checkCount(String name, int count, int expected) throws IOException {
+        if (count != expected) {
+            throw new IOException("Checkpoint has " + count + " " + name + " but the analysis has " + expected);
+        }
+    }
+
+    private final OperatorSchedule schedule;
+    private final long seed;
+
+    private final List<Model> models = new ArrayList<Model>();
+    private final List<Parameter> parameters = new ArrayList<Parameter>();
+}
@@ -25,6 +25,7 @@
 
 package dr.inference.mcmc;
 
+import dr.inference.loggers.LogFormatter;
 import dr.inference.loggers.Logger;
 import dr.inference.loggers.MCLogger;
 import dr.inference.markovchain.MarkovChain;
@@ -40,6 +41,10 @@ import dr.xml.*;
 import org.apache.commons.math.MathException;
 import org.apache.commons.math.distribution.BetaDistributionImpl;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * An MCMC analysis that estimates parameters of a probabilistic model.
  *
@@ -105,6 +110,191 @@ MCLogger logger) {
         }
     }
 
+    /**
+     * Runs the steps of the path in parallel. The steps are divided into contiguous
+     * blocks, one for each thread, and each block is run on its own copy of the model
+     * (parsed again from the XML) so that each step is started from the state at the end
+     * of the neighbouring step in its block. The copies start from the initial state of
+     * the model so they are burnt in at the first step of their block before it is run.
+     * The rows logged for each step are buffered and written to the logger in the same
+     * order as the sequential integration.
+     */
+    public void integrateInParallel(Integrator scheme) {
+        setDefaultBurnin();
+
+        final List<Double> pathParameters = new ArrayList<Double>();
+        scheme.init();
+        for (double p = scheme.nextPathParameter(); p >= 0; p = scheme.nextPathParameter()) {
+            pathParameters.add(p);
+        }
+
+        final int stepCount = pathParameters.size();
+        final int workerCount = Math.min(threadCount, stepCount);
+
+        outputFormatters = logger.getFormatters();
+        stepRows = new ArrayList<List<String[]>>(Collections.<List<String[]>>nCopies(stepCount, null));
+        nextStepToWrite = 0;
+
+        // the copies are parsed before any of the threads are started
+        final MarginalLikelihoodEstimator[] estimators = new MarginalLikelihoodEstimator[workerCount];
+        estimators[0] = this;
+        for (int i = 1; i < workerCount; i++) {
+            try {
+                estimators[i] = (MarginalLikelihoodEstimator) xmlObject.parseCopy();
+            } catch (XMLParseException xpe) {
+                throw new RuntimeException("Unable to copy the model for parallel path sampling: " + xpe.getMessage());
+            }
+            estimators[i].burnin = burnin;
+        }
+
+        final Thread[] threads = new Thread[workerCount];
+        final Throwable[] exceptions = new Throwable[workerCount];
+        int firstStep = 0;
+        for (int i = 0; i < workerCount; i++) {
+            final MarginalLikelihoodEstimator estimator = estimators[i];
+            final int from = firstStep;
+            final int to = from + (stepCount - from) / (workerCount - i);
+            final int index = i;
+            firstStep = to;
+
+            threads[i] = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        estimator.runSteps(pathParameters, from, to, MarginalLikelihoodEstimator.this);
+                    } catch (Throwable t) {
+                        exceptions[index] = t;
+                    }
+                }
+            }, "pathSampling-" + i);
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ie) {
+                throw new RuntimeException("Interrupted while waiting for path sampling threads");
+            }
+        }
+
+        logger.setFormatters(outputFormatters);
+        logger.stopLogging();
+
+        for (Throwable t : exceptions) {
+            if (t != null) {
+                throw new RuntimeException("Path sampling thread failed: " + t.getMessage(), t);
+            }
+        }
+    }
+
+    /**
+     * Runs the given steps of the path on this estimator's model, passing the logged
+     * rows of each step to the output estimator.
+     */
+    private void runSteps(List<Double> pathParameters, int from, int to, MarginalLikelihoodEstimator output) {
+
+        if (this != output) {
+            // a copy starts from the initial state of the model rather than the end of
+            // the previous step, so it is run for a whole step (which isn't logged) first
+            pathLikelihood.setPathParameter(pathParameters.get(from));
+            mc.setCurrentLength(0);
+            mc.runChain(burnin + chainLength, false);
+            ((CombinedOperatorSchedule) schedule).reset();
+        }
+
+        final BufferedLogFormatter buffer = new BufferedLogFormatter();
+        final List<LogFormatter> formatters = new ArrayList<LogFormatter>();
+        formatters.add(buffer);
+        logger.setFormatters(formatters);
+
+        final MarkovChainListener stepListener = new MarkovChainListener() {
+            public void currentState(int state, Model currentModel) {
+                if (state >= burnin) {
+                    logger.log(state);
+                }
+            }
+
+            public void bestState(int state, Model bestModel) {
+            }
+
+            public void finished(int chainLength) {
+            }
+        };
+
+        mc.addMarkovChainListener(stepListener);
+
+        for (int step = from; step < to; step++) {
+            pathParameter = pathParameters.get(step);
+            pathLikelihood.setPathParameter(pathParameter);
+            reportIteration(pathParameter, chainLength, burnin);
+
+            mc.setCurrentLength(0);
+            mc.runChain(burnin, false);
+            // the states are numbered as in the sequential integration
+            mc.setCurrentLength(burnin + step * chainLength);
+            mc.runChain(chainLength, false);
+            ((CombinedOperatorSchedule) schedule).reset();
+
+            output.stepCompleted(step, buffer.takeRows());
+        }
+
+        mc.removeMarkovChainListener(stepListener);
+    }
+
+    /**
+     * Writes the rows of any steps that have completed in order.
+     */
+    private synchronized void stepCompleted(int step, List<String[]> rows) {
+        stepRows.set(step, rows);
+        while (nextStepToWrite < stepRows.size() && stepRows.get(nextStepToWrite) != null) {
+            for (String[] values : stepRows.get(nextStepToWrite)) {
+                for (LogFormatter formatter : outputFormatters) {
+                    formatter.logValues(values);
+                }
+            }
+            stepRows.set(nextStepToWrite, Collections.<String[]>emptyList());
+            nextStepToWrite++;
+        }
+    }
+
+    /**
+     * A log formatter that keeps the logged values until they are taken.
+     */
+    private static class BufferedLogFormatter implements LogFormatter {
+
+        public void startLogging(String title) {
+        }
+
+        public void logHeading(String heading) {
+        }
+
+        public void logLine(String line) {
+        }
+
+        public void logLabels(String[] labels) {
+        }
+
+        public void logValues(String[] values) {
+            rows.add(values);
+        }
+
+        public void flush() {
+        }
+
+        public void stopLogging() {
+        }
+
+        List<String[]> takeRows() {
+            final List<String[]> taken = rows;
+            rows = new ArrayList<String[]>();
+            return taken;
+        }
+
+        private List<String[]> rows = new ArrayList<String[]>();
+    }
+
     public abstract class Integrator {
         protected int step;
         protected int pathSteps;
@@ -232,6 +422,12 @@ MCLogger logger) {
     public void run() {
 
         logger.startLogging();
+
+        if (threadCount > 1) {
+            integrateInParallel(createIntegrator());
+            return;
+        }
+
         mc.addMarkovChainListener(chainListener);
 /*
         switch (scheme) {
@@ -251,24 +447,24 @@ MCLogger logger) {
                 throw new RuntimeException("Illegal path scheme");
         }    */
 
+        integrate(createIntegrator());
+
+        mc.removeMarkovChainListener(chainListener);
+    }
+
+    private Integrator createIntegrator() {
         switch (scheme) {
             case LINEAR:
-                integrate(new LinearIntegrator(pathSteps));
-                break;
+                return new LinearIntegrator(pathSteps);
             case GEOMETRIC:
-                integrate(new GeometricIntegrator(pathSteps));
-                break;
+                return new GeometricIntegrator(pathSteps);
             case ONE_SIDED_BETA:
-                integrate(new BetaIntegrator(1.0, betaFactor, pathSteps));
-                break;
+                return new BetaIntegrator(1.0, betaFactor, pathSteps);
             case BETA:
-                integrate(new BetaIntegrator(alphaFactor, betaFactor, pathSteps));
-                break;
+                return new BetaIntegrator(alphaFactor, betaFactor, pathSteps);
             default:
                 throw new RuntimeException("Illegal path scheme");
         }
-
-        mc.removeMarkovChainListener(chainListener);
     }
 
     private final MarkovChainListener chainListener = new MarkovChainListener() {
@@ -337,6 +533,21 @@ MCLogger logger) {
         return betaFactor;
     }
 
+    /**
+     * Run the steps of the path in parallel threads.
+     *
+     * @param threadCount the number of threads
+     * @param xo          the XML object this estimator was parsed from (used to create copies of the model)
+     */
+    public void setParallel(int threadCount, XMLObject xo) {
+        this.threadCount = threadCount;
+        this.xmlObject = xo;
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
     //PRIVATE METHODS *****************************************
     public static XMLObjectParser PARSER = new AbstractXMLObjectParser() {
 
@@ -420,6 +631,11 @@ MCLogger logger) {
                 mle.setBetaFactor(xo.getAttribute(BETA, 0.5));
             }
 
+            final int threads = xo.getAttribute(THREADS, 1);
+            if (threads > 1) {
+                mle.setParallel(threads, xo);
+            }
+
             String alphaBetaText = "(";
             if (scheme == PathScheme.ONE_SIDED_BETA) {
                 alphaBetaText += "1," + mle.getBetaFactor() + ")";
@@ -430,6 +646,7 @@ MCLogger logger) {
                     "\n  chainLength=" + chainLength +
                     "\n  pathSteps=" + pathSteps +
                     "\n  pathScheme=" + scheme.getText() + alphaBetaText +
+                    (threads > 1 ? "\n  threads=" + threads : "") +
                     "\n  If you use these results, please cite:" +
                     "\n    Alekseyenko, Rambaut, Lemey and Suchard (in preparation)");
             return mle;
@@ -462,6 +679,7 @@ MCLogger logger) {
                 AttributeRule.newStringRule(PATH_SCHEME, true),
                 AttributeRule.newDoubleRule(ALPHA, true),
                 AttributeRule.newDoubleRule(BETA, true),
+                AttributeRule.newIntegerRule(THREADS, true),
                 new ElementRule(MCMC,
                         new XMLSyntaxRule[]{new ElementRule(MCMC.class, 1, Integer.MAX_VALUE)}, false),
                 //new ElementRule(MCMC.class),
@@ -531,6 +749,14 @@ MCLogger logger) {
 
     private final MCLogger logger;
 
+    private int threadCount = 1;
+    private XMLObject xmlObject = null;
+
+    // the buffered rows of each step when running in parallel
+    private List<LogFormatter> outputFormatters;
+    private List<List<String[]>> stepRows;
+    private int nextStepToWrite;
+
     private final PathLikelihood pathLikelihood;
 
     public static final String MARGINAL_LIKELIHOOD_ESTIMATOR = "marginalLikelihoodEstimator";
@@ -545,4 +771,5 @@ MCLogger logger) {
     public static final String ALPHA = "alpha";
     public static final String BETA = "beta";
     public static final String PRERUN = "prerun";
+    public static final String THREADS = "threads";
 }
\ No newline at end of file
@@ -0,0 +1,426 @@
+/*
+ * MCMCMCCoordinator.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.mcmcmc;
+
+import dr.inference.loggers.LogFormatter;
+import dr.inference.loggers.Logger;
+import dr.inference.loggers.MCLogger;
+import dr.inference.mcmc.MCMC;
+import dr.math.MathUtils;
+import dr.util.NumberFormatter;
+
+import java.io.*;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A Metropolis-coupled MCMC in which each chain is run by an MCMCMCWorker, usually
+ * in a JVM of its own on this host or on another node. The coordinator doesn't run
+ * a chain itself: it decides the temperature swaps between neighbouring chains and
+ * writes the log files with the output of whichever chain is currently cold.
+ * <p/>
+ * Unlike MCMCMC, the chains are not synchronized: a chain only waits for the partner
+ * of its swap (see MCMCMCProtocol) so the slowest chain only holds up its neighbours.
+ */
+public class MCMCMCCoordinator implements Runnable {
+
+    /**
+     * @param mcmc         an MCMC parsed from the same XML as the workers' which provides
+     *                     the loggers and the chain length
+     * @param serverSocket the socket the workers will connect to
+     */
+    public MCMCMCCoordinator(MCMC mcmc, MCMCMCOptions mcmcmcOptions, ServerSocket serverSocket) {
+
+        this.mcmcmcOptions = mcmcmcOptions;
+        this.serverSocket = serverSocket;
+        this.chainLength = mcmc.getOptions().getChainLength();
+
+        if (mcmcmcOptions.getChainTemperatures()[0] != 1.0) {
+            throw new RuntimeException("The first chain in the array should be cold (temperature = 1.0)");
+        }
+
+        Logger[] loggers = mcmc.getLoggers();
+        mcLoggers = new MCLogger[loggers.length];
+        for (int i = 0; i < loggers.length; i++) {
+            mcLoggers[i] = (MCLogger) loggers[i];
+        }
+
+        chainCount = mcmcmcOptions.getChainTemperatures().length;
+        connections = new Connection[chainCount];
+        swapAttempts = new int[chainCount - 1];
+        swapAccepts = new int[chainCount - 1];
+    }
+
+    public void run() {
+
+        try {
+            // The workers only connect once they have parsed the XML so the log
+            // files are not started until they have all arrived.
+            for (int i = 0; i < chainCount; i++) {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections[i] = new Connection(i, socket);
+            }
+        } catch (IOException ioe) {
+            throw new RuntimeException("Failed to connect to the chains: " + ioe.getMessage());
+        }
+
+        timer.start();
+
+        for (MCLogger logger : mcLoggers) {
+            logger.startLogging();
+        }
+
+        for (Connection connection : connections) {
+            connection.sendHello();
+        }
+
+        for (Connection connection : connections) {
+            connection.start();
+        }
+
+        synchronized (this) {
+            while (finishedCount < chainCount) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    // continue...
+                }
+            }
+        }
+
+        for (Connection connection : connections) {
+            connection.close();
+        }
+
+        synchronized (mcLoggers) {
+            for (MCLogger logger : mcLoggers) {
+                logger.stopLogging();
+            }
+        }
+
+        timer.stop();
+
+        System.out.println();
+        System.out.println("Time taken: " + timer.toString());
+
+        if (showSwapAnalysis) {
+            showSwapAnalysis(System.out);
+        }
+
+        if (failure != null) {
+            throw new RuntimeException(failure);
+        }
+    }
+
+    private void showSwapAnalysis(PrintStream out) {
+        NumberFormatter formatter = new NumberFormatter(8);
+
+        out.println();
+        out.println("Swap analysis");
+        out.println(formatter.formatToFieldWidth("Chains", 12) +
+                formatter.formatToFieldWidth("Temperatures", 22) +
+                formatter.formatToFieldWidth("Attempts", 10) +
+                formatter.formatToFieldWidth("Pr(accept)", 11));
+
+        double[] temperatures = mcmcmcOptions.getChainTemperatures();
+        for (int i = 0; i < swapAttempts.length; i++) {
+            double acceptance = swapAttempts[i] > 0 ? (double) swapAccepts[i] / swapAttempts[i] : 0.0;
+            out.println(formatter.formatToFieldWidth(i + " - " + (i + 1), 12) +
+                    formatter.formatToFieldWidth(formatter.formatDecimal(temperatures[i], 4) + " - " +
+                            formatter.formatDecimal(temperatures[i + 1], 4), 22) +
+                    formatter.formatToFieldWidth(Integer.toString(swapAttempts[i]), 10) +
+                    formatter.formatToFieldWidth(formatter.formatDecimal(acceptance, 4), 11));
+        }
+        out.println();
+    }
+
+    /**
+     * Called when a chain offers a swap. If its partner is already waiting then the swap
+     * is decided and both chains are sent their new ranks, otherwise the offer waits for
+     * the partner.
+     */
+    private synchronized void offer(Connection connection, int round, int rank, double score) {
+
+        if (stopped) {
+            connection.sendStop();
+            return;
+        }
+
+        int partnerRank = MCMCMCProtocol.getPartner(round, rank, chainCount);
+        if (partnerRank < 0) {
+            fail("Chain " + connection.chainIndex + " offered a swap without a partner");
+            return;
+        }
+
+        int pair = Math.min(rank, partnerRank);
+        Long key = ((long) round * chainCount) + pair;
+
+        Offer partner = pendingOffers.remove(key);
+        if (partner == null) {
+            pendingOffers.put(key, new Offer(connection, rank, score));
+            return;
+        }
+
+        double[] temperatures = mcmcmcOptions.getChainTemperatures();
+        boolean swap = MCMCMCProtocol.acceptSwap(score, temperatures[rank], partner.score, temperatures[partner.rank],
+                Math.log(MathUtils.nextDouble()));
+
+        swapAttempts[pair]++;
+        if (swap) {
+            swapAccepts[pair]++;
+            connection.sendRank(partner.rank);
+            partner.connection.sendRank(rank);
+        } else {
+            connection.sendRank(rank);
+            partner.connection.sendRank(partner.rank);
+        }
+    }
+
+    private synchronized void finished(Connection connection, int state) {
+        finishedCount++;
+        if (state < chainLength) {
+            // the chain was stopped early so stop the others too
+            stop();
+        }
+        notifyAll();
+    }
+
+    private synchronized void fail(String message) {
+        if (failure == null) {
+            failure = message;
+        }
+        stop();
+    }
+
+    private synchronized void stop() {
+        if (!stopped) {
+            stopped = true;
+
+            for (Offer offer : pendingOffers.values()) {
+                offer.connection.sendStop();
+            }
+            pendingOffers.clear();
+
+            for (Connection connection : connections) {
+                if (!connection.finished) {
+                    connection.sendStop();
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests that all the chains stop prematurely.
+     */
+    public void pleaseStop() {
+        stop();
+    }
+
+    private void log(int loggerIndex, byte kind, String[] strings) {
+        synchronized (mcLoggers) {
+            for (LogFormatter formatter : mcLoggers[loggerIndex].getFormatters()) {
+                switch (kind) {
+                    case MCMCMCProtocol.LOG_HEADING:
+                        formatter.logHeading(strings[0]);
+                        break;
+                    case MCMCMCProtocol.LOG_LINE:
+                        formatter.logLine(strings[0]);
+                        break;
+                    case MCMCMCProtocol.LOG_LABELS:
+                        formatter.logLabels(strings);
+                        break;
+                    case MCMCMCProtocol.LOG_VALUES:
+                        formatter.logValues(strings);
+                        break;
+                }
+            }
+        }
+    }
+
+    public void setShowSwapAnalysis(boolean ssa) {
+        showSwapAnalysis = ssa;
+    }
+
+    public int getSwapAttemptCount(int pair) {
+        return swapAttempts[pair];
+    }
+
+    public int getSwapAcceptCount(int pair) {
+        return swapAccepts[pair];
+    }
+
+    /**
+     * @return the timer.
+     */
+    public dr.util.Timer getTimer() {
+        return timer;
+    }
+
+    private class Offer {
+        Offer(Connection connection, int rank, double score) {
+            this.connection = connection;
+            this.rank = rank;
+            this.score = score;
+        }
+
+        final Connection connection;
+        final int rank;
+        final double score;
+    }
+
+    /**
+     * The connection to a worker. The thread reads its messages and the replies to it
+     * may be sent from the thread of its partner's connection.
+     */
+    private class Connection extends Thread {
+
+        Connection(int chainIndex, Socket socket) throws IOException {
+            super("MCMCMC chain " + chainIndex);
+            setDaemon(true);
+
+            this.chainIndex = chainIndex;
+            this.socket = socket;
+            input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        public void run() {
+            try {
+                while (!finished) {
+                    byte message = input.readByte();
+                    switch (message) {
+                        case MCMCMCProtocol.LOG:
+                            int loggerIndex = input.readInt();
+                            byte kind = input.readByte();
+                            log(loggerIndex, kind, MCMCMCProtocol.readStrings(input));
+                            break;
+                        case MCMCMCProtocol.OFFER:
+                            int round = input.readInt();
+                            int rank = input.readInt();
+                            offer(this, round, rank, input.readDouble());
+                            break;
+                        case MCMCMCProtocol.FINISHED:
+                            int state = input.readInt();
+                            finished = true;
+                            finished(this, state);
+                            break;
+                        default:
+                            throw new IOException("Unexpected message: " + message);
+                    }
+                }
+            } catch (IOException ioe) {
+                synchronized (MCMCMCCoordinator.this) {
+                    if (!finished) {
+                        finished = true;
+                        fail("Lost the connection to chain " + chainIndex + ": " + ioe.getMessage());
+                        finishedCount++;
+                        MCMCMCCoordinator.this.notifyAll();
+                    }
+                }
+            }
+        }
+
+        void sendHello() {
+            double[] temperatures = mcmcmcOptions.getChainTemperatures();
+            synchronized (output) {
+                try {
+                    output.writeByte(MCMCMCProtocol.HELLO);
+                    output.writeInt(chainIndex);
+                    output.writeInt(temperatures.length);
+                    for (double temperature : temperatures) {
+                        output.writeDouble(temperature);
+                    }
+                    output.writeInt(mcmcmcOptions.getSwapChainsEvery());
+                    output.flush();
+                } catch (IOException ioe) {
+                    throw new RuntimeException("Failed to start chain " + chainIndex + ": " + ioe.getMessage());
+                }
+            }
+        }
+
+        void sendRank(int rank) {
+            synchronized (output) {
+                try {
+                    output.writeByte(MCMCMCProtocol.RANK);
+                    output.writeInt(rank);
+                    output.flush();
+                } catch (IOException ioe) {
+                    // the reader thread will report the lost connection
+                }
+            }
+        }
+
+        void sendStop() {
+            synchronized (output) {
+                try {
+                    output.writeByte(MCMCMCProtocol.STOP);
+                    output.flush();
+                } catch (IOException ioe) {
+                    // the reader thread will report the lost connection
+                }
+            }
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+
+        final int chainIndex;
+        private final Socket socket;
+        private final DataInputStream input;
+        private final DataOutputStream output;
+
+        volatile boolean finished = false;
+    }
+
+    // PRIVATE TRANSIENTS
+
+    private final MCMCMCOptions mcmcmcOptions;
+    private final ServerSocket serverSocket;
+    private final int chainLength;
+    private final int chainCount;
+
+    private final MCLogger[] mcLoggers;
+    private final Connection[] connections;
+    private final Map<Long, Offer> pendingOffers = new HashMap<Long, Offer>();
+
+    private final int[] swapAttempts;
+    private final int[] swapAccepts;
+
+    private boolean showSwapAnalysis = true;
+    private final dr.util.Timer timer = new dr.util.Timer();
+
+    private int finishedCount = 0;
+    private boolean stopped = false;
+    private String failure = null;
+}
@@ -0,0 +1,143 @@
+/*
+ * MCMCMCProtocol.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.mcmcmc;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * The messages passed between an MCMCMCCoordinator and its MCMCMCWorkers.
+ * <p/>
+ * Chains are identified by their temperature rank: rank 0 is the cold chain and
+ * rank i + 1 is the next hotter chain after rank i. Swaps are only proposed between
+ * neighbouring ranks and the pairs alternate between rounds: (0,1), (2,3)... in even
+ * rounds and (1,2), (3,4)... in odd rounds. A chain therefore only waits for its one
+ * partner at a swap and a chain without a partner in a round doesn't wait at all.
+ */
+final class MCMCMCProtocol {
+
+    private MCMCMCProtocol() {
+    }
+
+    // coordinator to worker
+
+    /**
+     * followed by the chain index, the temperatures of all the ranks and the swap interval
+     */
+    static final byte HELLO = 1;
+
+    /**
+     * the reply to an OFFER, followed by the chain's new rank
+     */
+    static final byte RANK = 2;
+
+    /**
+     * the run has been stopped
+     */
+    static final byte STOP = 3;
+
+    // worker to coordinator
+
+    /**
+     * followed by the round, the chain's current rank and its log posterior
+     */
+    static final byte OFFER = 10;
+
+    /**
+     * followed by the logger index, the kind of call and its strings
+     */
+    static final byte LOG = 11;
+
+    /**
+     * followed by the final state of the chain
+     */
+    static final byte FINISHED = 12;
+
+    // the LogFormatter calls forwarded by a LOG message
+
+    static final byte LOG_HEADING = 0;
+    static final byte LOG_LINE = 1;
+    static final byte LOG_LABELS = 2;
+    static final byte LOG_VALUES = 3;
+
+    /**
+     * @return the rank which the given rank is paired with in the given round,
+     *         or -1 if it is not paired.
+     */
+    static int getPartner(int round, int rank, int chainCount) {
+        int partner;
+        if ((rank % 2) == (round % 2)) {
+            partner = rank + 1;
+        } else {
+            partner = rank - 1;
+        }
+
+        if (partner < 0 || partner >= chainCount) {
+            return -1;
+        }
+        return partner;
+    }
+
+    /**
+     * Decides a swap between two chains with the same Metropolis ratio as MCMCMC.
+     *
+     * @param logRandom the log of a uniform random number
+     */
+    static boolean acceptSwap(double score1, double temperature1, double score2, double temperature2, double logRandom) {
+        double logRatio = ((score2 - score1) * temperature1) + ((score1 - score2) * temperature2);
+        return logRandom < logRatio;
+    }
+
+    // DataOutputStream.writeUTF is limited to 64K which a tree line may exceed.
+
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+        out.writeInt(strings.length);
+        for (String string : strings) {
+            writeString(out, string);
+        }
+    }
+
+    static String[] readStrings(DataInputStream in) throws IOException {
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(in);
+        }
+        return strings;
+    }
+}
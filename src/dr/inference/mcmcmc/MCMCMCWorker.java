@@ -0,0 +1,307 @@
+/*
+ * MCMCMCWorker.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.mcmcmc;
+
+import dr.inference.loggers.LogFormatter;
+import dr.inference.loggers.Logger;
+import dr.inference.loggers.MCLogger;
+import dr.inference.markovchain.MarkovChain;
+import dr.inference.markovchain.MarkovChainListener;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCCriterion;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.model.Model;
+import dr.inference.operators.CoercableMCMCOperator;
+import dr.inference.operators.CoercionMode;
+import dr.inference.operators.OperatorSchedule;
+
+import java.io.*;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs one chain of a Metropolis-coupled MCMC for an MCMCMCCoordinator, usually in
+ * a process of its own.
+ * <p/>
+ * Every swapChainsEvery states the worker offers its log posterior to the coordinator
+ * if its rank has a partner in that round and then waits for its new rank. Only the
+ * (logPosterior, temperature rank) pair is exchanged: the state and the operator tuning
+ * stay with the process. While the worker holds rank 0 (the cold chain) the output of
+ * its loggers is forwarded to the coordinator, which writes it to the log files.
+ */
+public class MCMCMCWorker implements Runnable {
+
+    /**
+     * @param mcmc the chain, parsed from the same XML as the coordinator's
+     */
+    public MCMCMCWorker(MCMC mcmc, String host, int port) {
+        this.mcmcOptions = mcmc.getOptions();
+        this.chain = mcmc.getMarkovChain();
+        this.schedule = mcmc.getOperatorSchedule();
+        this.host = host;
+        this.port = port;
+
+        Logger[] loggers = mcmc.getLoggers();
+        mcLoggers = new MCLogger[loggers.length];
+        for (int i = 0; i < loggers.length; i++) {
+            mcLoggers[i] = (MCLogger) loggers[i];
+        }
+    }
+
+    public void run() {
+        Socket socket = null;
+        try {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+            if (input.readByte() != MCMCMCProtocol.HELLO) {
+                throw new IOException("Expected a greeting from the coordinator");
+            }
+            chainIndex = input.readInt();
+            temperatures = new double[input.readInt()];
+            for (int i = 0; i < temperatures.length; i++) {
+                temperatures[i] = input.readDouble();
+            }
+            int swapChainsEvery = input.readInt();
+
+            runChain(swapChainsEvery);
+
+        } catch (IOException ioe) {
+            throw new RuntimeException("Chain " + chainIndex + " lost its connection to the coordinator: " +
+                    ioe.getMessage());
+        } finally {
+            if (socket != null) {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    private void runChain(int swapChainsEvery) throws IOException {
+        rank = chainIndex;
+
+        MCMCCriterion acceptor = (MCMCCriterion) chain.getAcceptor();
+        acceptor.setTemperature(temperatures[rank]);
+
+        if (isPreBurninNeeded()) {
+            int preBurnin = mcmcOptions.getCoercionDelay();
+            if (preBurnin > 0) {
+                chain.runChain(preBurnin, true);
+                chain.reset();
+            }
+        }
+
+        // The coordinator writes the log files so everything the loggers produce is
+        // forwarded to it. The headers have already been written by the coordinator.
+        for (int i = 0; i < mcLoggers.length; i++) {
+            List<LogFormatter> formatters = new ArrayList<LogFormatter>();
+            formatters.add(new RemoteLogFormatter(i));
+            mcLoggers[i].setFormatters(formatters);
+        }
+
+        chain.addMarkovChainListener(chainListener);
+
+        final int chainLength = mcmcOptions.getChainLength();
+        int round = 0;
+        boolean stopped = false;
+
+        while (!stopped && chain.getCurrentLength() < chainLength) {
+            chain.runChain(Math.min(swapChainsEvery, chainLength - chain.getCurrentLength()), false);
+
+            if (chain.isStopped()) {
+                break;
+            }
+
+            if (chain.getCurrentLength() < chainLength) {
+                int partner = MCMCMCProtocol.getPartner(round, rank, temperatures.length);
+
+                if (partner >= 0) {
+                    output.writeByte(MCMCMCProtocol.OFFER);
+                    output.writeInt(round);
+                    output.writeInt(rank);
+                    output.writeDouble(chain.getCurrentScore());
+                    output.flush();
+
+                    stopped = readReply();
+                } else if (input.available() > 0) {
+                    stopped = readReply();
+                }
+
+                acceptor.setTemperature(temperatures[rank]);
+            }
+            output.flush();
+            round++;
+        }
+
+        chain.removeMarkovChainListener(chainListener);
+
+        if (rank == 0) {
+            for (MCLogger logger : mcLoggers) {
+                logger.log(chain.getCurrentLength());
+            }
+        }
+
+        output.writeByte(MCMCMCProtocol.FINISHED);
+        output.writeInt(chain.getCurrentLength());
+        output.flush();
+    }
+
+    /**
+     * @return true if the coordinator has stopped the run
+     */
+    private boolean readReply() throws IOException {
+        byte message = input.readByte();
+        if (message == MCMCMCProtocol.STOP) {
+            return true;
+        }
+        if (message != MCMCMCProtocol.RANK) {
+            throw new IOException("Unexpected message from the coordinator: " + message);
+        }
+        rank = input.readInt();
+        return false;
+    }
+
+    private boolean isPreBurninNeeded() {
+
+        if (mcmcOptions.useCoercion()) return true;
+
+        for (int i = 0; i < schedule.getOperatorCount(); i++) {
+            if (schedule.getOperator(i) instanceof CoercableMCMCOperator) {
+                if (((CoercableMCMCOperator) schedule.getOperator(i)).getMode() == CoercionMode.COERCION_ON) return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Requests that the chain stop prematurely.
+     */
+    public void pleaseStop() {
+        chain.pleaseStop();
+    }
+
+    /**
+     * @return the index of this chain (its initial rank), or -1 before it has connected.
+     */
+    public int getChainIndex() {
+        return chainIndex;
+    }
+
+    /**
+     * @return the current temperature rank of this chain (0 is cold).
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    private final MarkovChainListener chainListener = new MarkovChainListener() {
+
+        public void currentState(int state, Model currentModel) {
+            if (rank == 0) {
+                for (MCLogger logger : mcLoggers) {
+                    logger.log(state);
+                }
+            }
+        }
+
+        public void bestState(int state, Model bestModel) {
+        }
+
+        public void finished(int chainLength) {
+        }
+    };
+
+    /**
+     * Forwards the calls of a logger to the coordinator. The calls made by startLogging
+     * and stopLogging are not forwarded as the coordinator makes them on its own copy of
+     * the logger.
+     */
+    private class RemoteLogFormatter implements LogFormatter {
+
+        RemoteLogFormatter(int loggerIndex) {
+            this.loggerIndex = loggerIndex;
+        }
+
+        public void startLogging(String title) {
+        }
+
+        public void logHeading(String heading) {
+            send(MCMCMCProtocol.LOG_HEADING, new String[]{heading});
+        }
+
+        public void logLine(String line) {
+            send(MCMCMCProtocol.LOG_LINE, new String[]{line});
+        }
+
+        public void logLabels(String[] labels) {
+            send(MCMCMCProtocol.LOG_LABELS, labels);
+        }
+
+        public void logValues(String[] values) {
+            send(MCMCMCProtocol.LOG_VALUES, values);
+        }
+
+        public void flush() {
+        }
+
+        public void stopLogging() {
+        }
+
+        private void send(byte kind, String[] strings) {
+            try {
+                output.writeByte(MCMCMCProtocol.LOG);
+                output.writeInt(loggerIndex);
+                output.writeByte(kind);
+                MCMCMCProtocol.writeStrings(output, strings);
+            } catch (IOException ioe) {
+                throw new RuntimeException("Chain " + chainIndex + " failed to send its log to the coordinator: " +
+                        ioe.getMessage());
+            }
+        }
+
+        private final int loggerIndex;
+    }
+
+    private final MCMCOptions mcmcOptions;
+    private final MarkovChain chain;
+    private final OperatorSchedule schedule;
+    private final MCLogger[] mcLoggers;
+    private final String host;
+    private final int port;
+
+    private DataInputStream input;
+    private DataOutputStream output;
+
+    private int chainIndex = -1;
+    private double[] temperatures;
+    private volatile int rank = -1;
+}
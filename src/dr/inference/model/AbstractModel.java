@@ -235,16 +235,19 @@ public abstract class AbstractModel implements Model, ModelListener, VariableLis
     // Model IMPLEMENTATION
     // **************************************************************
 
+    // These are called for every state of the chain so use indexed loops rather than
+    // allocating iterators.
+
     public final void storeModelState() {
         if (isValidState) {
             //System.out.println("STORE MODEL: " + getModelName() + "/" + getId());
 
-            for (Model m : models) {
-                m.storeModelState();
+            for (int i = 0; i < models.size(); i++) {
+                models.get(i).storeModelState();
             }
 
-            for (Variable variable : variables) {
-                variable.storeVariableValues();
+            for (int i = 0; i < variables.size(); i++) {
+                variables.get(i).storeVariableValues();
             }
 
             storeState();
@@ -256,11 +259,11 @@ public abstract class AbstractModel implements Model, ModelListener, VariableLis
         if (!isValidState) {
             //System.out.println("RESTORE MODEL: " + getModelName() + "/" + getId());
 
-            for (Variable variable : variables) {
-                variable.restoreVariableValues();
+            for (int i = 0; i < variables.size(); i++) {
+                variables.get(i).restoreVariableValues();
             }
-            for (Model m : models) {
-                m.restoreModelState();
+            for (int i = 0; i < models.size(); i++) {
+                models.get(i).restoreModelState();
             }
 
             restoreState();
@@ -274,12 +277,12 @@ public abstract class AbstractModel implements Model, ModelListener, VariableLis
         if (!isValidState) {
             //System.out.println("ACCEPT MODEL: " + getModelName() + "/" + getId());
 
-            for (Variable variable : variables) {
-                variable.acceptVariableValues();
+            for (int i = 0; i < variables.size(); i++) {
+                variables.get(i).acceptVariableValues();
             }
 
-            for (Model m : models) {
-                m.acceptModelState();
+            for (int i = 0; i < models.size(); i++) {
+                models.get(i).acceptModelState();
             }
 
             acceptState();
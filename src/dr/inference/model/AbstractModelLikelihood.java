@@ -19,6 +19,17 @@ public abstract class AbstractModelLikelihood extends AbstractModel implements L
         return Likelihood.Abstract.getPrettyName(this);
     }
 
+    /**
+     * Used by compound likelihoods to avoid dispatching likelihoods that don't need
+     * recalculating to other threads. Subclasses that cache their likelihood should
+     * override this.
+     *
+     * @return true if the likelihood is known and getLogLikelihood will not recalculate it
+     */
+    public boolean isLikelihoodKnown() {
+        return false;
+    }
+
     @Override
     public boolean isUsed() {
         return isUsed;
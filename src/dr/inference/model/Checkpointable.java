@@ -0,0 +1,55 @@
+/*
+ * Checkpointable.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.model;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * An interface for models that hold state beyond the values of their parameters
+ * (such as a tree topology). The values of the parameters themselves are written
+ * separately by the MCMC checkpoint so only the additional state should be written here.
+ */
+public interface Checkpointable {
+
+    /**
+     * Write the state of this model that is not held in its parameters.
+     *
+     * @param out the output to write to
+     * @throws IOException if the state could not be written
+     */
+    void writeCheckpoint(DataOutput out) throws IOException;
+
+    /**
+     * Restore the state previously written by writeCheckpoint. This is called
+     * before the parameter values are restored.
+     *
+     * @param in the input to read from
+     * @throws IOException if the state could not be read or does not match this model
+     */
+    void readCheckpoint(DataInput in) throws IOException;
+}
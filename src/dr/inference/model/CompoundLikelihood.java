@@ -31,7 +31,7 @@ import dr.xml.Reportable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.Callable;
 
 /**
  * A likelihood function which is simply the product of a set of likelihood functions.
@@ -48,19 +48,15 @@ public class CompoundLikelihood implements Likelihood, Reportable {
 
     public CompoundLikelihood(int threads, Collection<Likelihood> likelihoods) {
         if (threads < 0 && likelihoods.size() > 1) {
-            // asking for an automatic threadpool size
-            threadCount = likelihoods.size();
-        } else {
+            // asking for an automatic threadpool size (one thread per processor)
+            pool = LikelihoodEvaluationPool.getPool(-1);
+            threadCount = pool.getThreadCount();
+        } else if (threads > 0) {
+            pool = LikelihoodEvaluationPool.getPool(threads);
             threadCount = threads;
-        }
-
-        if (threadCount > 0) {
-            pool = Executors.newFixedThreadPool(threadCount);
-//        } else if (threads < 0) {
-//            // create a cached thread pool which should create one thread per likelihood...
-//            pool = Executors.newCachedThreadPool();
         } else {
             pool = null;
+            threadCount = threads;
         }
 
         int i = 0;
@@ -76,6 +72,10 @@ public class CompoundLikelihood implements Likelihood, Reportable {
             evaluationTimes = null;
             evaluationCounts = null;
         }
+
+        logLikelihoods = new double[likelihoodCallers.size()];
+        dirtyResults = new double[likelihoodCallers.size()];
+        dirtyIndices = new int[likelihoodCallers.size()];
     }
 
     private void addLikelihood(Likelihood likelihood, int index) {
@@ -99,6 +99,22 @@ public class CompoundLikelihood implements Likelihood, Reportable {
         return likelihoods.get(i);
     }
 
+    /**
+     * @param i the index of a likelihood
+     * @return the total time in nanoseconds spent getting the log likelihood of the i'th likelihood
+     */
+    public long getEvaluationTime(int i) {
+        return (EVALUATION_TIMERS ? evaluationTimes[i] : 0);
+    }
+
+    /**
+     * @param i the index of a likelihood
+     * @return the number of times the log likelihood of the i'th likelihood has been got
+     */
+    public int getEvaluationCount(int i) {
+        return (EVALUATION_TIMERS ? evaluationCounts[i] : 0);
+    }
+
     // **************************************************************
     // Likelihood IMPLEMENTATION
     // **************************************************************
@@ -116,8 +132,8 @@ public class CompoundLikelihood implements Likelihood, Reportable {
         if (pool == null) {
             // Single threaded
 
-            int i = 0;
-            for (Likelihood likelihood : likelihoods) {
+            for (int i = 0; i < likelihoods.size(); i++) {
+                final Likelihood likelihood = likelihoods.get(i);
                 if (EVALUATION_TIMERS) {
                     // this code is only compiled if EVALUATION_TIMERS is true
                     long time = System.nanoTime();
@@ -129,8 +145,6 @@ public class CompoundLikelihood implements Likelihood, Reportable {
                         return Double.NEGATIVE_INFINITY;
 
                     logLikelihood += l;
-
-                    i++;
                 } else {
                     final double l = likelihood.getLogLikelihood();
                     // if the likelihood is zero then short cut the rest of the likelihoods
@@ -142,19 +156,27 @@ public class CompoundLikelihood implements Likelihood, Reportable {
                 }
             }
         } else {
-            try {
-
-                List<Future<Double>> results = pool.invokeAll(likelihoodCallers);
-
-                for (Future<Double> result : results) {
-                    double logL = result.get();
-                    logLikelihood += logL;
+            // only the likelihoods that need recalculating are sent to the pool, the
+            // others are already known. These are summed in order so the result is the
+            // same as when evaluated in a single thread.
+            dirtyCallers.clear();
+            for (int i = 0; i < likelihoods.size(); i++) {
+                final Likelihood likelihood = likelihoods.get(i);
+                if (LikelihoodEvaluationPool.isLikelihoodKnown(likelihood)) {
+                    logLikelihoods[i] = likelihood.getLogLikelihood();
+                } else {
+                    dirtyCallers.add(likelihoodCallers.get(i));
+                    dirtyIndices[dirtyCallers.size() - 1] = i;
                 }
+            }
 
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            } catch (ExecutionException e) {
-                e.printStackTrace();
+            pool.evaluate(dirtyCallers, dirtyResults);
+
+            for (int i = 0; i < dirtyCallers.size(); i++) {
+                logLikelihoods[dirtyIndices[i]] = dirtyResults[i];
+            }
+            for (int i = 0; i < likelihoods.size(); i++) {
+                logLikelihood += logLikelihoods[i];
             }
         }
 
@@ -356,13 +378,17 @@ public class CompoundLikelihood implements Likelihood, Reportable {
 
     private final int threadCount;
 
-    private final ExecutorService pool;
+    private final LikelihoodEvaluationPool pool;
 
     private final ArrayList<Likelihood> likelihoods = new ArrayList<Likelihood>();
     private final CompoundModel compoundModel = new CompoundModel("compoundModel");
 
 
     private final List<Callable<Double>> likelihoodCallers = new ArrayList<Callable<Double>>();
+    private final List<Callable<Double>> dirtyCallers = new ArrayList<Callable<Double>>();
+    private final double[] logLikelihoods;
+    private final double[] dirtyResults;
+    private final int[] dirtyIndices;
 
     class LikelihoodCaller implements Callable<Double> {
 
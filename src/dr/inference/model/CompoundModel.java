@@ -88,20 +88,20 @@ public class CompoundModel implements Model {
 	}
 
 	public void storeModelState() {
-        for (Model model : models) {
-            model.storeModelState();
+        for (int i = 0; i < models.size(); i++) {
+            models.get(i).storeModelState();
         }
     }
 
 	public void restoreModelState() {
-        for (Model model : models) {
-            model.restoreModelState();
+        for (int i = 0; i < models.size(); i++) {
+            models.get(i).restoreModelState();
         }
     }
 
 	public void acceptModelState() {
-        for (Model model : models) {
-            model.acceptModelState();
+        for (int i = 0; i < models.size(); i++) {
+            models.get(i).acceptModelState();
         }
     }
 
@@ -52,9 +52,10 @@ public class IntersectionBounds implements Bounds<Double> {
 
         double lower = Double.NEGATIVE_INFINITY;
         if (bounds != null) {
-            for (Bounds<Double> boundary : bounds) {
-                if (boundary.getLowerLimit(index) > lower) {
-                    lower = boundary.getLowerLimit(index);
+            for (int i = 0; i < bounds.size(); i++) {
+                final double limit = bounds.get(i).getLowerLimit(index);
+                if (limit > lower) {
+                    lower = limit;
                 }
             }
         }
@@ -68,9 +69,10 @@ public class IntersectionBounds implements Bounds<Double> {
 
         double upper = Double.POSITIVE_INFINITY;
         if (bounds != null) {
-            for (Bounds<Double> boundary : bounds) {
-                if (boundary.getUpperLimit(index) < upper) {
-                    upper = boundary.getUpperLimit(index);
+            for (int i = 0; i < bounds.size(); i++) {
+                final double limit = bounds.get(i).getUpperLimit(index);
+                if (limit < upper) {
+                    upper = limit;
                 }
             }
         }
@@ -0,0 +1,206 @@
+/*
+ * LikelihoodEvaluationPool.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.model;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of threads shared by the compound likelihoods for evaluating their
+ * component likelihoods in parallel.
+ * <p/>
+ * Each evaluation is a batch of tasks which idle pool threads and the calling
+ * thread take from in turn, so the calling thread does useful work rather than
+ * spinning while it waits and the number of busy threads is bounded by the size
+ * of the pool rather than the number of likelihoods. As the caller only ever waits for tasks that are already running
+ * in other threads, nested compound likelihoods can share the same pool without
+ * deadlocking.
+ */
+public class LikelihoodEvaluationPool {
+
+    /**
+     * Returns a shared pool with the given number of threads, creating it if required.
+     *
+     * @param threadCount the number of threads, including the calling thread (if less than 1 then
+     *                    the number of available processors)
+     * @return the pool
+     */
+    public static synchronized LikelihoodEvaluationPool getPool(int threadCount) {
+        if (threadCount < 1) {
+            threadCount = Runtime.getRuntime().availableProcessors();
+        }
+
+        LikelihoodEvaluationPool pool = POOLS.get(threadCount);
+        if (pool == null) {
+            pool = new LikelihoodEvaluationPool(threadCount);
+            POOLS.put(threadCount, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Returns the pool sized by the 'thread.count' System Property (set by the -threads
+     * command line option) or the number of available processors if this is not set.
+     *
+     * @return the pool
+     */
+    public static LikelihoodEvaluationPool getDefaultPool() {
+        int threadCount = -1;
+        if (System.getProperty("thread.count") != null) {
+            threadCount = Integer.parseInt(System.getProperty("thread.count"));
+        }
+        return getPool(threadCount);
+    }
+
+    private LikelihoodEvaluationPool(int threadCount) {
+        this.threadCount = threadCount;
+
+        executor = Executors.newFixedThreadPool(Math.max(threadCount - 1, 1), new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "likelihood-" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * Calls each of the callers, in parallel, and places the results in the array.
+     * This returns once all the calls have completed.
+     *
+     * @param callers the callers to evaluate
+     * @param results an array in which to place the result of each caller
+     */
+    public void evaluate(List<? extends Callable<Double>> callers, double[] results) {
+        final int count = callers.size();
+
+        if (count == 1) {
+            results[0] = call(callers.get(0));
+            return;
+        }
+
+        final Batch batch = new Batch(callers, results);
+
+        // the calling thread takes one share of the work itself
+        final int helperCount = Math.min(count - 1, threadCount - 1);
+        for (int i = 0; i < helperCount; i++) {
+            executor.execute(batch);
+        }
+
+        batch.run();
+        batch.await();
+
+        if (batch.exception != null) {
+            throw new RuntimeException("Exception evaluating likelihood: " + batch.exception.getMessage(),
+                    batch.exception);
+        }
+    }
+
+    /**
+     * @param likelihood the likelihood
+     * @return true if the likelihood is known to be cached, in which case it is cheaper
+     *         to get it in the calling thread than to dispatch it to the pool.
+     */
+    public static boolean isLikelihoodKnown(Likelihood likelihood) {
+        if (likelihood instanceof Likelihood.Abstract) {
+            return ((Likelihood.Abstract) likelihood).getLikelihoodKnown();
+        }
+        if (likelihood instanceof AbstractModelLikelihood) {
+            return ((AbstractModelLikelihood) likelihood).isLikelihoodKnown();
+        }
+        return false;
+    }
+
+    private static double call(Callable<Double> caller) {
+        try {
+            return caller.call();
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            throw new RuntimeException("Exception evaluating likelihood: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A set of tasks which are claimed in turn by whichever threads run this batch.
+     */
+    private static class Batch implements Runnable {
+
+        Batch(List<? extends Callable<Double>> callers, double[] results) {
+            this.callers = callers;
+            this.results = results;
+            this.remaining = new CountDownLatch(callers.size());
+        }
+
+        public void run() {
+            int i = next.getAndIncrement();
+            while (i < callers.size()) {
+                try {
+                    results[i] = callers.get(i).call();
+                } catch (Throwable t) {
+                    exception = t;
+                } finally {
+                    remaining.countDown();
+                }
+                i = next.getAndIncrement();
+            }
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (remaining.getCount() > 0) {
+                try {
+                    remaining.await();
+                } catch (InterruptedException ie) {
+                    // the tasks must complete before the results can be used
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private final List<? extends Callable<Double>> callers;
+        private final double[] results;
+        private final AtomicInteger next = new AtomicInteger(0);
+        private final CountDownLatch remaining;
+        private volatile Throwable exception = null;
+    }
+
+    private static final Map<Integer, LikelihoodEvaluationPool> POOLS = new HashMap<Integer, LikelihoodEvaluationPool>();
+    private static final AtomicInteger threadNumber = new AtomicInteger(0);
+
+    private final int threadCount;
+    private final ExecutorService executor;
+}
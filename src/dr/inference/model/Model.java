@@ -124,8 +124,8 @@ public interface Model extends Identifiable {
 
 		public void fireModelChanged(Model model, Object object, int index) {
 			if (listeners != null) {
-                for (ModelListener listener : listeners) {
-                    listener.modelChangedEvent(model, object, index);
+                for (int i = 0; i < listeners.size(); i++) {
+                    listeners.get(i).modelChangedEvent(model, object, index);
                 }
             }
 		}
@@ -152,8 +152,8 @@ public interface Model extends Identifiable {
 
         public void fireModelRestored(Model model) {
             if (restoreListeners != null) {
-                for (ModelListener listener : restoreListeners ) {
-                    listener.modelRestored(model);
+                for (int i = 0; i < restoreListeners.size(); i++) {
+                    restoreListeners.get(i).modelRestored(model);
                 }
             }
         }
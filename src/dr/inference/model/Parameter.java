@@ -211,8 +211,8 @@ public interface Parameter extends Statistic, Variable<Double> {
          */
         public void fireParameterChangedEvent(int index, Parameter.ChangeType type) {
             if (listeners != null) {
-                for (VariableListener listener : listeners) {
-                    listener.variableChangedEvent(this, index, type);
+                for (int i = 0; i < listeners.size(); i++) {
+                    listeners.get(i).variableChangedEvent(this, index, type);
                 }
             }
         }
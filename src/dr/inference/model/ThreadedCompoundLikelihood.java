@@ -29,8 +29,7 @@ import dr.util.NumberFormatter;
 
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.locks.Condition;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.Callable;
 
 /**
  * A likelihood function which is simply the product of a set of likelihood functions.
@@ -76,28 +75,35 @@ public class ThreadedCompoundLikelihood implements Likelihood {
     public double getLogLikelihood() {
         double logLikelihood = 0.0;
 
-        if (threads == null) {
-            // first call so setup a thread for each likelihood...
-            threads = new LikelihoodThread[likelihoodCallers.size()];
-            for (int i = 0; i < threads.length; i++) {
-                // and start them running...
-                threads[i] = new LikelihoodThread();
-                threads[i].start();
-            }
+        if (pool == null) {
+            // first call so get the shared pool sized by the -threads option
+            pool = LikelihoodEvaluationPool.getDefaultPool();
+            logLikelihoods = new double[likelihoods.size()];
+            dirtyResults = new double[likelihoods.size()];
+            dirtyIndices = new int[likelihoods.size()];
         }
 
-        for (int i = 0; i < threads.length; i++) {
-            // set the caller which will be called in each thread
-            threads[i].setCaller(likelihoodCallers.get(i));
+        // only the likelihoods that need recalculating are sent to the pool, the
+        // others are already known. These are summed in order so the result is the
+        // same as when evaluated in a single thread.
+        dirtyCallers.clear();
+        for (int i = 0; i < likelihoods.size(); i++) {
+            final Likelihood likelihood = likelihoods.get(i);
+            if (LikelihoodEvaluationPool.isLikelihoodKnown(likelihood)) {
+                logLikelihoods[i] = likelihood.getLogLikelihood();
+            } else {
+                dirtyCallers.add(likelihoodCallers.get(i));
+                dirtyIndices[dirtyCallers.size() - 1] = i;
+            }
         }
 
-        for (LikelihoodThread thread : threads) {
-            // now wait for the results to be set...
-            Double result = thread.getResult();
-            while (result == null) {
-                result = thread.getResult();
-            }
-            logLikelihood += result;
+        pool.evaluate(dirtyCallers, dirtyResults);
+
+        for (int i = 0; i < dirtyCallers.size(); i++) {
+            logLikelihoods[dirtyIndices[i]] = dirtyResults[i];
+        }
+        for (int i = 0; i < likelihoods.size(); i++) {
+            logLikelihood += logLikelihoods[i];
         }
 
         return logLikelihood; // * weightFactor;
@@ -203,80 +209,32 @@ public class ThreadedCompoundLikelihood implements Likelihood {
         return id;
     }
 
-    private LikelihoodThread[] threads;
+    private LikelihoodEvaluationPool pool = null;
 
     private final ArrayList<Likelihood> likelihoods = new ArrayList<Likelihood>();
     private final CompoundModel compoundModel = new CompoundModel("compoundModel");
 
     private final List<LikelihoodCaller> likelihoodCallers = new ArrayList<LikelihoodCaller>();
+    private final List<LikelihoodCaller> dirtyCallers = new ArrayList<LikelihoodCaller>();
+    private double[] logLikelihoods;
+    private double[] dirtyResults;
+    private int[] dirtyIndices;
 
     private double weightFactor = 1.0;
 
-    class LikelihoodCaller {
+    class LikelihoodCaller implements Callable<Double> {
 
         public LikelihoodCaller(Likelihood likelihood) {
             this.likelihood = likelihood;
         }
 
-        public double call() {
+        public Double call() {
             return likelihood.getLogLikelihood();
         }
 
         private final Likelihood likelihood;
     }
 
-    class LikelihoodThread extends Thread {
-
-        public LikelihoodThread() {
-        }
-
-        public void setCaller(LikelihoodCaller caller) {
-            lock.lock();
-            resultAvailable = false;
-            try {
-            	this.caller = caller;
-            	condition.signal();
-            } finally {
-            	lock.unlock();
-            }
-        }
-
-        /**
-         * Main run loop
-         */
-        public void run() {
-            while (true) {
-            	lock.lock();
-            	try {
-            		while( caller == null)
-            			condition.await();
-                	result = caller.call(); // SLOW
-                     resultAvailable = true;
-                     caller = null;
-            	} catch (InterruptedException e){
-
-                 } finally {
-                    lock.unlock();
-                 }
-            }
-        }
-
-        public Double getResult() {
-        	Double returnValue = null;
-        	if (!lock.isLocked() && resultAvailable)  { // thread is not busy and completed
-        		resultAvailable = false; // TODO need to lock before changing resultAvailable?
-        		returnValue = result;
-        	}
-        	return returnValue;
-        }
-
-        private LikelihoodCaller caller = null;
-        private Double result = Double.NaN;
-        private boolean resultAvailable = false;
-        private final ReentrantLock lock = new ReentrantLock();
-        private final Condition condition = lock.newCondition();
-    }
-
     public boolean isUsed() {
         return isUsed;
     }
@@ -156,11 +156,39 @@ public interface MCMCOperator {
      */
     String getOperatorName();
 
-    double getMeanEvaluationTime();
+    /**
+     * The steps of a move that are timed by the Markov chain.
+     */
+    enum Step {
+        STORE("store"),
+        OPERATE("operate"),
+        EVALUATE("evaluate"),
+        RESTORE("restore");
 
-    void addEvaluationTime(long time);
+        Step(String name) {
+            this.name = name;
+        }
 
-    long getTotalEvaluationTime();
+        public String toString() {
+            return name;
+        }
+
+        private final String name;
+    }
+
+    /**
+     * Adds to the time spent in one step of this operator's moves.
+     *
+     * @param step the step
+     * @param time the time in nanoseconds
+     */
+    void addTime(Step step, long time);
+
+    /**
+     * @param step the step
+     * @return the total time in nanoseconds spent in this step of this operator's moves
+     */
+    long getTotalTime(Step step);
 
     class Utils {
 
@@ -173,5 +201,24 @@ public interface MCMCOperator {
         public static int getOperationCount(MCMCOperator op) {
             return op.getAcceptCount() + op.getRejectCount();
         }
+
+        /**
+         * @return the total time in nanoseconds spent in all the steps of the operator's moves
+         */
+        public static long getTotalTime(MCMCOperator op) {
+            long time = 0;
+            for (Step step : Step.values()) {
+                time += op.getTotalTime(step);
+            }
+            return time;
+        }
+
+        /**
+         * @return the mean time in milliseconds spent in a step of the operator's moves
+         */
+        public static double getMeanTime(MCMCOperator op, Step step) {
+            final int count = getOperationCount(op);
+            return (count > 0 ? op.getTotalTime(step) / (count * 1.0E6) : 0.0);
+        }
     }
 }
@@ -1,5 +1,6 @@
 package dr.inference.operators;
 
+import dr.inference.model.Likelihood;
 import dr.util.NumberFormatter;
 
 import java.io.PrintStream;
@@ -18,10 +19,20 @@ import java.io.PrintStream;
 public class OperatorAnalysisPrinter {
 
     private final OperatorSchedule schedule;
+    private final Likelihood likelihood;
     private final NumberFormatter formatter = new NumberFormatter(8);
 
     public OperatorAnalysisPrinter(OperatorSchedule schedule) {
+        this(schedule, null);
+    }
+
+    /**
+     * @param schedule   the operators
+     * @param likelihood the likelihood whose components' times are reported (may be null)
+     */
+    public OperatorAnalysisPrinter(OperatorSchedule schedule, Likelihood likelihood) {
         this.schedule = schedule;
+        this.likelihood = likelihood;
     }
 
     public void showOperatorAnalysis(PrintStream out) {
@@ -61,6 +72,69 @@ public class OperatorAnalysisPrinter {
 
         }
         out.println();
+
+        showOperatorTimings(out);
+
+        if (likelihood != null) {
+            showLikelihoodAnalysis(out);
+        }
+    }
+
+    /**
+     * Writes the mean time of each step of the operators' moves.
+     */
+    private void showOperatorTimings(PrintStream out) {
+        out.println("Operator timings (milliseconds per operation)");
+        String header = formatter.formatToFieldWidth("Operator", 50);
+        for (MCMCOperator.Step step : MCMCOperator.Step.values()) {
+            header += formatter.formatToFieldWidth(step.toString(), 11);
+        }
+        out.println(header);
+
+        for (int i = 0; i < schedule.getOperatorCount(); i++) {
+            final MCMCOperator op = schedule.getOperator(i);
+            String line = formattedOperatorName(op.getOperatorName());
+            for (MCMCOperator.Step step : MCMCOperator.Step.values()) {
+                line += formatter.formatToFieldWidth(formatter.formatDecimal(MCMCOperator.Utils.getMeanTime(op, step), 4), 10) + " ";
+            }
+            out.println(line);
+        }
+        out.println();
+    }
+
+    /**
+     * Writes the time spent on each component of the likelihood and, for tree likelihoods,
+     * the numbers of full and partial traversals of the tree.
+     */
+    private void showLikelihoodAnalysis(PrintStream out) {
+        out.println("Likelihood analysis");
+        out.println(formatter.formatToFieldWidth("Likelihood", 50) +
+                formatter.formatToFieldWidth("Count", 11) +
+                formatter.formatToFieldWidth("Time", 11) +
+                formatter.formatToFieldWidth("Time/Eval", 11) +
+                formatter.formatToFieldWidth("Full", 11) +
+                formatter.formatToFieldWidth("Partial", 11));
+
+        for (RuntimeProfile.Component component : RuntimeProfile.getComponents(likelihood)) {
+            String line = formatter.formatToFieldWidth(component.getName(), 50);
+            if (component.isTimed()) {
+                final int count = component.getEvaluationCount();
+                final double time = component.getEvaluationTime() / 1.0E6;
+                line += formatter.formatToFieldWidth(Integer.toString(count), 10) + " " +
+                        formatter.formatToFieldWidth(Long.toString(Math.round(time)), 10) + " " +
+                        formatter.formatToFieldWidth(formatter.formatDecimal(count > 0 ? time / count : 0.0, 4), 10) + " ";
+            } else {
+                line += formatter.formatToFieldWidth("-", 10) + " " +
+                        formatter.formatToFieldWidth("-", 10) + " " +
+                        formatter.formatToFieldWidth("-", 10) + " ";
+            }
+            if (component.isTreeLikelihood()) {
+                line += formatter.formatToFieldWidth(Integer.toString(component.getFullTraversalCount()), 10) + " " +
+                        formatter.formatToFieldWidth(Integer.toString(component.getPartialTraversalCount()), 10) + " ";
+            }
+            out.println(line);
+        }
+        out.println();
     }
 
     private String formattedOperatorName(String operatorName) {
@@ -80,13 +154,15 @@ public class OperatorAnalysisPrinter {
         return formatter.formatToFieldWidth(Integer.toString(count), 10) + " ";
     }
 
+    // the total time of the operator's moves in milliseconds
     private String formattedTimeString(MCMCOperator op) {
-        final long time = op.getTotalEvaluationTime();
+        final long time = Math.round(MCMCOperator.Utils.getTotalTime(op) / 1.0E6);
         return formatter.formatToFieldWidth(Long.toString(time), 8) + " ";
     }
 
     private String formattedTimePerOpString(MCMCOperator op) {
-        final double time = op.getMeanEvaluationTime();
+        final int count = MCMCOperator.Utils.getOperationCount(op);
+        final double time = (count > 0 ? MCMCOperator.Utils.getTotalTime(op) / (count * 1.0E6) : 0.0);
         return formatter.formatToFieldWidth(formatter.formatDecimal(time, 2), 8) + " ";
     }
 
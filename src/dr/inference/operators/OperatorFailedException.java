@@ -44,5 +44,13 @@ public class OperatorFailedException extends Exception {
 	public OperatorFailedException(String message) {
 		super(message);
 	}
+
+	/**
+	 * Operators fail routinely (e.g. when a proposal is outside the bounds) so this
+	 * exception doesn't record a stack trace which is expensive to create.
+	 */
+	public Throwable fillInStackTrace() {
+		return this;
+	}
 }
 
@@ -0,0 +1,212 @@
+/*
+ * RuntimeProfile.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.operators;
+
+import dr.evomodel.treelikelihood.TreeTraversalCounts;
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.Loggable;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Logs where the time of a run is spent: the total time in milliseconds spent in each
+ * step (store, operate, evaluate and restore) of the moves of each operator and, for
+ * each component of a compound likelihood, the time spent getting its log likelihood
+ * and the number of times it was got. For tree likelihoods the numbers of full and
+ * partial traversals of the tree are also logged.
+ * <p/>
+ * The values are totals since the start of the run.
+ */
+public class RuntimeProfile implements Loggable {
+
+    public RuntimeProfile(OperatorSchedule schedule, Likelihood likelihood) {
+        this.schedule = schedule;
+        components = (likelihood != null ? getComponents(likelihood) : new ArrayList<Component>());
+    }
+
+    /**
+     * @return the components of the likelihood (the likelihoods within any compound likelihoods)
+     */
+    public List<Component> getComponents() {
+        return components;
+    }
+
+    /**
+     * Finds the components of a likelihood. The likelihoods within a compound likelihood
+     * are components (rather than the compound likelihood itself) as the compound likelihood
+     * times them.
+     *
+     * @param likelihood the likelihood
+     * @return the components
+     */
+    public static List<Component> getComponents(Likelihood likelihood) {
+        List<Component> components = new ArrayList<Component>();
+        if (likelihood instanceof CompoundLikelihood) {
+            addComponents((CompoundLikelihood) likelihood, components);
+        } else {
+            components.add(new Component(likelihood, null, -1));
+        }
+        return components;
+    }
+
+    private static void addComponents(CompoundLikelihood compoundLikelihood, List<Component> components) {
+        for (int i = 0; i < compoundLikelihood.getLikelihoodCount(); i++) {
+            final Likelihood likelihood = compoundLikelihood.getLikelihood(i);
+            if (likelihood instanceof CompoundLikelihood) {
+                addComponents((CompoundLikelihood) likelihood, components);
+            } else {
+                components.add(new Component(likelihood, compoundLikelihood, i));
+            }
+        }
+    }
+
+    // **************************************************************
+    // Loggable IMPLEMENTATION
+    // **************************************************************
+
+    public LogColumn[] getColumns() {
+        List<LogColumn> columns = new ArrayList<LogColumn>();
+
+        for (int i = 0; i < schedule.getOperatorCount(); i++) {
+            final MCMCOperator op = schedule.getOperator(i);
+            for (MCMCOperator.Step step : MCMCOperator.Step.values()) {
+                columns.add(new StepTimeColumn(op.getOperatorName() + "." + step, op, step));
+            }
+        }
+
+        for (final Component component : components) {
+            if (component.isTimed()) {
+                columns.add(new ProfileColumn(component.getName() + ".time", 3) {
+                    public double getDoubleValue() {
+                        return component.getEvaluationTime() / 1.0E6;
+                    }
+                });
+                columns.add(new ProfileColumn(component.getName() + ".count", 0) {
+                    public double getDoubleValue() {
+                        return component.getEvaluationCount();
+                    }
+                });
+            }
+            if (component.isTreeLikelihood()) {
+                columns.add(new ProfileColumn(component.getName() + ".fullTraversals", 0) {
+                    public double getDoubleValue() {
+                        return component.getFullTraversalCount();
+                    }
+                });
+                columns.add(new ProfileColumn(component.getName() + ".partialTraversals", 0) {
+                    public double getDoubleValue() {
+                        return component.getPartialTraversalCount();
+                    }
+                });
+            }
+        }
+
+        return columns.toArray(new LogColumn[columns.size()]);
+    }
+
+    private abstract class ProfileColumn extends NumberColumn {
+        ProfileColumn(String label, int decimalPlaces) {
+            super(label);
+            setDecimalPlaces(decimalPlaces);
+        }
+    }
+
+    private class StepTimeColumn extends ProfileColumn {
+        StepTimeColumn(String label, MCMCOperator op, MCMCOperator.Step step) {
+            super(label, 3);
+            this.op = op;
+            this.step = step;
+        }
+
+        public double getDoubleValue() {
+            return op.getTotalTime(step) / 1.0E6;
+        }
+
+        private final MCMCOperator op;
+        private final MCMCOperator.Step step;
+    }
+
+    /**
+     * A likelihood whose time is profiled (by the compound likelihood containing it).
+     */
+    public static class Component {
+
+        Component(Likelihood likelihood, CompoundLikelihood parent, int index) {
+            this.likelihood = likelihood;
+            this.parent = parent;
+            this.index = index;
+        }
+
+        public String getName() {
+            return (likelihood.getId() != null ? likelihood.getId() : likelihood.prettyName());
+        }
+
+        public Likelihood getLikelihood() {
+            return likelihood;
+        }
+
+        /**
+         * @return true if the evaluations of this likelihood are timed
+         */
+        public boolean isTimed() {
+            return parent != null && CompoundLikelihood.EVALUATION_TIMERS;
+        }
+
+        /**
+         * @return the total time in nanoseconds spent getting the log likelihood
+         */
+        public long getEvaluationTime() {
+            return (parent != null ? parent.getEvaluationTime(index) : 0);
+        }
+
+        public int getEvaluationCount() {
+            return (parent != null ? parent.getEvaluationCount(index) : 0);
+        }
+
+        public boolean isTreeLikelihood() {
+            return likelihood instanceof TreeTraversalCounts;
+        }
+
+        public int getFullTraversalCount() {
+            return (isTreeLikelihood() ? ((TreeTraversalCounts) likelihood).getFullTraversalCount() : 0);
+        }
+
+        public int getPartialTraversalCount() {
+            return (isTreeLikelihood() ? ((TreeTraversalCounts) likelihood).getPartialTraversalCount() : 0);
+        }
+
+        private final Likelihood likelihood;
+        private final CompoundLikelihood parent;
+        private final int index;
+    }
+
+    private final OperatorSchedule schedule;
+    private final List<Component> components;
+}
@@ -197,16 +197,12 @@ public abstract class SimpleMCMCOperator implements MCMCOperator {
         return 0.0;
     }
 
-    public double getMeanEvaluationTime() {
-        return (double) sumEvaluationTime / (double) (acceptCount + rejectCount);
+    public void addTime(Step step, long time) {
+        stepTimes[step.ordinal()] += time;
     }
 
-    public long getTotalEvaluationTime() {
-        return sumEvaluationTime;
-    }
-
-    public void addEvaluationTime(long time) {
-        sumEvaluationTime += time;
+    public long getTotalTime(Step step) {
+        return stepTimes[step.ordinal()];
     }
 
     /**
@@ -227,7 +223,7 @@ public abstract class SimpleMCMCOperator implements MCMCOperator {
     private boolean operateAllowed = true;
     private double targetAcceptanceProb = 0.234;
 
-    private long sumEvaluationTime = 0;
+    private final long[] stepTimes = new long[Step.values().length];
 
 //    private final double[] spanDeviation = {Double.MAX_VALUE, -Double.MAX_VALUE};
 //    private int spanCount = 0;
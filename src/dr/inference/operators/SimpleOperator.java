@@ -113,19 +113,15 @@ public abstract class SimpleOperator implements MCMCOperator {
         return span;
     }
 
-    public double getMeanEvaluationTime() {
-        return (double) sumEvaluationTime / (double) (accepted + rejected);
+    public void addTime(Step step, long time) {
+        stepTimes[step.ordinal()] += time;
     }
 
-    public long getTotalEvaluationTime() {
-        return sumEvaluationTime;
+    public long getTotalTime(Step step) {
+        return stepTimes[step.ordinal()];
     }
 
-    public void addEvaluationTime(long time) {
-        sumEvaluationTime += time;
-    }
-
-    private long sumEvaluationTime = 0;
+    private final long[] stepTimes = new long[Step.values().length];
    
     private double[] spanDeviation = {Double.MAX_VALUE,-Double.MAX_VALUE};
     private int spanCount = 0;
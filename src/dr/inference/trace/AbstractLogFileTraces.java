@@ -0,0 +1,334 @@
+/*
+ * AbstractLogFileTraces.java
+ *
+ * Copyright (C) 2002-2006 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ *  BEAST is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *  GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+package dr.inference.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.TreeMap;
+
+/**
+ * The traces of a single chain read from a log file. The subclasses read the file in
+ * different ways (LogFileTraces reads a tab delimited log as a stream, MappedLogFileTraces
+ * reads one through a memory map and BinaryLogFileTraces reads a binary log) and this
+ * holds the traces, the states and the burnin that they have in common.
+ */
+public abstract class AbstractLogFileTraces extends AbstractTraceList {
+
+    public AbstractLogFileTraces(String name, File file) {
+        this.name = name;
+        this.file = file;
+    }
+
+    /**
+     * Loads the traces from the file.
+     *
+     * @throws TraceException      when trace contents is not valid
+     * @throws java.io.IOException low level problems with file
+     */
+    public void loadTraces() throws TraceException, IOException {
+        loadTraces(-1, null);
+    }
+
+    /**
+     * Loads the traces from the file or, if reloadColumn is not negative, reads the
+     * given column again as a different type.
+     *
+     * @param reloadColumn the index of the trace to read again or -1 to load all the traces
+     * @param reloadType   the new type of the trace
+     * @throws TraceException      when trace contents is not valid
+     * @throws java.io.IOException low level problems with file
+     */
+    public abstract void loadTraces(int reloadColumn, TraceFactory.TraceType reloadType) throws TraceException, IOException;
+
+    /**
+     * @return the name of this traceset
+     */
+    public String getName() {
+        return name;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the last state in the chain
+     */
+    public int getMaxState() {
+        return lastState;
+    }
+
+    public boolean isIncomplete() {
+        return false;
+    }
+
+    /**
+     * @return the number of states excluding the burnin
+     */
+    public int getStateCount() {
+        // This is done as two integer divisions to ensure the same rounding for
+        // the burnin...
+        return ((lastState - firstState) / stepSize) - (getBurnIn() / stepSize) + 1;
+    }
+
+    /**
+     * @return the number of states in the burnin
+     */
+    public int getBurninStateCount() {
+        return (getBurnIn() / stepSize);
+    }
+
+    /**
+     * @return the size of the step between states
+     */
+    public int getStepSize() {
+        return stepSize;
+    }
+
+    public int getBurnIn() {
+        return burnIn;
+    }
+
+    /**
+     * @return the number of traces in this traceset
+     */
+    public int getTraceCount() {
+        return traces.size();
+    }
+
+    /**
+     * @return the index of the trace with the given name
+     */
+    public int getTraceIndex(String name) {
+        for (int i = 0; i < traces.size(); i++) {
+            Trace trace = getTrace(i);
+            if (name.equals(trace.getName())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return the name of the trace with the given index
+     */
+    public String getTraceName(int index) {
+        return getTrace(index).getName();
+    }
+
+    /**
+     * @param index requested trace index
+     * @return the trace for a given index
+     */
+    public Trace getTrace(int index) {
+        return traces.get(index);
+    }
+
+    public void setBurnIn(int burnIn) {
+        this.burnIn = burnIn;
+        super.setBurnIn(burnIn);
+    }
+
+    public double getStateValue(int trace, int index) {
+        return getDoubleValue(getTrace(trace), index + (burnIn / stepSize));
+    }
+
+    /**
+     * Read several consecutive values of one state into a destination array
+     *
+     * @param nState      State index number
+     * @param destination array to store result
+     * @param offset      first trace index
+     */
+    public void getStateValues(int nState, double[] destination, int offset) {
+        final int index1 = nState + (burnIn / stepSize);
+        for (int k = 0; k < destination.length; ++k) {
+            destination[k] = getDoubleValue(getTrace(k + offset), index1);
+        }
+    }
+
+    private static double getDoubleValue(Trace trace, int index) {
+        if (trace instanceof ContinuousTrace) {
+            return ((ContinuousTrace) trace).getDoubleValue(index);
+        }
+        return (Double) trace.getValue(index);
+    }
+
+//    public Object[] createValues(int index, int length) {
+//        Trace trace = getTrace(index);
+//        return getTrace(index).createValues((burnIn / stepSize), length);
+//    }
+
+    public <T> void getValues(int index, T[] destination) {
+        try {
+            getTrace(index).getValues(getBurninStateCount(), destination, 0);
+        } catch (Exception e) {
+            System.err.println("getValues error: trace index = " + index);
+        }
+    }
+
+    public <T> void getValues(int index, T[] destination, int offset) {
+        ((Trace<T>) getTrace(index)).getValues(getBurninStateCount(), destination, offset);
+    }
+
+    public <T> void getBurninValues(int index, T[] destination) {
+        try {
+            ((Trace<T>) getTrace(index)).getValues(0, getBurninStateCount(), destination, 0);
+        } catch (Exception e) {
+            System.err.println("getValues error: trace index = " + index);
+        }
+    }
+
+    public void getSelected(int index, boolean[] destination) {
+        try {
+            getTrace(index).getSelected(getBurninStateCount(), destination, 0, selected);
+        } catch (Exception e) {
+            System.err.println("getSelected error: trace index = " + index);
+        }
+    }
+
+    public void getSelected(int index, boolean[] destination, int offset) {
+        getTrace(index).getSelected(getBurninStateCount(), destination, offset, selected);
+    }
+
+    public void getBurningSelected(int index, boolean[] destination) {
+        try {
+            getTrace(index).getSelected(0, getBurninStateCount(), destination, 0, selected);
+        } catch (Exception e) {
+            System.err.println("trace index = " + index);
+        }
+    }
+
+    //************************************************************************
+    // protected methods
+    //************************************************************************
+
+    protected void initializeTraceType(String firstToken, StringTokenizer tokens) {
+        if (tokens.hasMoreTokens()) {
+            String token; //= tokens.nextToken();
+            if (firstToken.contains(TraceFactory.TraceType.INTEGER.toString())
+                    || firstToken.contains(TraceFactory.TraceType.INTEGER.toString().toUpperCase())) {
+                while (tokens.hasMoreTokens()) {
+                    token = tokens.nextToken();
+                    tracesType.put(token, TraceFactory.TraceType.INTEGER);
+                }
+            } else if (firstToken.contains(TraceFactory.TraceType.CATEGORY.toString())
+                    || firstToken.contains(TraceFactory.TraceType.CATEGORY.toString().toUpperCase())) {
+                while (tokens.hasMoreTokens()) {
+                    token = tokens.nextToken();
+                    tracesType.put(token, TraceFactory.TraceType.CATEGORY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Add a state number for these traces. This should be
+     * called before adding values for each trace. The spacing
+     * between stateNumbers should remain constant.
+     *
+     * @param stateNumber the state
+     * @return false if the state number is inconsistent
+     */
+    protected boolean addState(int stateNumber) {
+        if (firstState < 0) {
+            firstState = stateNumber;
+        } else if (stepSize < 0) {
+            stepSize = stateNumber - firstState;
+        } else {
+            int step = stateNumber - lastState;
+            if (step != stepSize) {
+                return false;
+            }
+        }
+        lastState = stateNumber;
+        return true;
+    }
+
+    /**
+     * add a value to a trace
+     *
+     * @param thisTrace the trace
+     * @param value     next value
+     */
+    protected static void addParsedValue(Trace thisTrace, String value) {
+        // the primitive traces are filled directly without boxing the values
+        if (thisTrace instanceof ContinuousTrace) {
+            ((ContinuousTrace) thisTrace).add(Double.parseDouble(value));
+
+        } else if (thisTrace instanceof DiscreteTrace) {
+            ((DiscreteTrace) thisTrace).add((int) Double.parseDouble(value));
+
+        } else if (thisTrace.getTraceType() == TraceFactory.TraceType.CONTINUOUS.getType()) {
+            Double v = Double.parseDouble(value);
+            thisTrace.add(v);
+
+        } else if (thisTrace.getTraceType() == TraceFactory.TraceType.INTEGER.getType()) {
+//             Integer v = Integer.parseInt(value);
+            int v = (int) Double.parseDouble(value);
+            thisTrace.add(v);
+
+        } else if (thisTrace.getTraceType() == TraceFactory.TraceType.CATEGORY.getType()) {
+            thisTrace.add(value);
+
+        } else {
+            throw new RuntimeException("Trace type is not recognized: " + thisTrace.getTraceType());
+        }
+    }
+
+    @Override
+    public void createTraceFilter(Filter filter) {
+        if (filter != null) {
+            String name = filter.getTraceName();
+            int index = getTraceIndex(name);
+
+            selected = new boolean[getTrace(index).getCount()];
+
+            for (int i = 0; i < selected.length; i++) {
+                if (filter.isIn(getTrace(index).getValue(i))) { // selected
+                    selected[i] = true;
+                }
+            }
+        } else {
+            selected = null;
+        }
+    }
+
+    private final File file;
+    private final String name;
+
+    protected final List<Trace> traces = new ArrayList<Trace>();
+    // List traces is added before having types
+    // tracesType only save INTEGER and CATEGORY
+    protected TreeMap<String, TraceFactory.TraceType> tracesType = new TreeMap<String, TraceFactory.TraceType>();
+
+    protected int burnIn = -1;
+    protected int firstState = -1;
+    protected int lastState = -1;
+    protected int stepSize = -1;
+}
@@ -1,5 +1,12 @@
 package dr.inference.trace;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
  * @author Alexei Drummond
  */
@@ -24,8 +31,63 @@ public abstract class AbstractTraceList extends FilteredTraceList {
             initFilters();
         }
 
-        Trace trace = getTrace(index);        
-        traceStatistics[index] = new TraceCorrelation(trace.createValues(offset, getStateCount()), getStepSize());
+        Trace trace = getTrace(index);
+        if (trace.getTraceType() == TraceFactory.TraceType.CONTINUOUS.getType()) {
+            traceStatistics[index] = new TraceCorrelation(trace.createDoubleValues(offset, getStateCount()),
+                    TraceFactory.TraceType.CONTINUOUS, getStepSize());
+        } else if (trace.getTraceType() == TraceFactory.TraceType.INTEGER.getType()) {
+            traceStatistics[index] = new TraceCorrelation(trace.createDoubleValues(offset, getStateCount()),
+                    TraceFactory.TraceType.INTEGER, getStepSize());
+        } else {
+            traceStatistics[index] = new TraceCorrelation(trace.createValues(offset, getStateCount()), getStepSize());
+        }
+    }
+
+    /**
+     * Analyses all the traces, each trace being analysed on one of a pool of threads.
+     *
+     * @param threadCount the number of threads
+     */
+    public void analyseTraces(int threadCount) {
+        if (traceStatistics == null) {
+            traceStatistics = new TraceCorrelation[getTraceCount()];
+            initFilters();
+        }
+
+        if (threadCount <= 1 || getTraceCount() <= 1) {
+            for (int i = 0; i < getTraceCount(); i++) {
+                analyseTrace(i);
+            }
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threadCount, getTraceCount()));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < getTraceCount(); i++) {
+            final int index = i;
+            futures.add(executor.submit(new Runnable() {
+                public void run() {
+                    analyseTrace(index);
+                }
+            }));
+        }
+
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Trace analysis was interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            executor.shutdown();
+        }
     }
 
     public void setBurnIn(int burnIn) {
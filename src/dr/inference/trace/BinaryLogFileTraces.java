@@ -0,0 +1,182 @@
+/*
+ * BinaryLogFileTraces.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.trace;
+
+import dr.inference.loggers.BinaryLogFormatter;
+import dr.inference.loggers.BinaryLogReader;
+
+import java.io.*;
+import java.util.StringTokenizer;
+
+/**
+ * A set of traces from a log written by BinaryLogFormatter. The numerical columns are
+ * added to the traces as they are stored without being parsed from text. The headings
+ * can set the types of the traces in the same way as the comments of a tab delimited
+ * log.
+ */
+public class BinaryLogFileTraces extends AbstractLogFileTraces {
+
+    public BinaryLogFileTraces(String name, File file) {
+        super(name, file);
+    }
+
+    public void loadTraces(int reloadColumn, TraceFactory.TraceType reloadType) throws TraceException, IOException {
+        if (reloadColumn >= 0) {
+            if (reloadType == null) throw new TraceException("trace (" + getTraceName(reloadColumn) + ") type is null");
+
+            // the whole log is read again with the new type for the column
+            tracesType.put(getTraceName(reloadColumn), reloadType);
+        }
+
+        traces.clear();
+        firstState = -1;
+        lastState = -1;
+        stepSize = -1;
+
+        final InputStream stream = new BufferedInputStream(new FileInputStream(getFile()), 1 << 16);
+        try {
+            final BinaryLogReader reader = new BinaryLogReader(stream);
+
+            String[] labels = null;
+            int tag = reader.next();
+            while (tag != BinaryLogReader.END) {
+                switch (tag) {
+                    case BinaryLogFormatter.HEADING:
+                        if (reloadColumn < 0) {
+                            readHeading(reader.getText());
+                        }
+                        break;
+
+                    case BinaryLogFormatter.LABELS:
+                        if (labels == null) {
+                            labels = reader.getLabels();
+                            // skip the first column which should be the state number
+                            for (int i = 1; i < labels.length; i++) {
+                                addTrace(labels[i]);
+                            }
+                        }
+                        break;
+
+                    case BinaryLogFormatter.BLOCK:
+                        if (labels == null) {
+                            throw new TraceException("Trace file has values before the labels.");
+                        }
+                        readBlock(reader);
+                        break;
+                }
+                tag = reader.next();
+            }
+
+            if (labels == null) {
+                throw new TraceException("Trace file is empty.");
+            }
+        } finally {
+            stream.close();
+        }
+
+        burnIn = (int) (0.1 * lastState);
+    }
+
+    /**
+     * Sets the trace types from a heading in the same way as the comment lines of a tab
+     * delimited log.
+     */
+    private void readHeading(String heading) {
+        for (String line : heading.split("[\r\n]")) {
+            StringTokenizer tokens = new StringTokenizer(("# " + line).trim(), "\t");
+            initializeTraceType(tokens.nextToken(), tokens);
+        }
+    }
+
+    private void addTrace(String name) {
+        TraceFactory.TraceType type = tracesType.get(name);
+        if (type == null) {
+            type = TraceFactory.TraceType.CONTINUOUS;
+        }
+        traces.add(TraceFactory.createTrace(type, name, 0));
+    }
+
+    private void readBlock(BinaryLogReader reader) throws TraceException {
+        final int rowCount = reader.getRowCount();
+        if (reader.getColumnCount() < traces.size() + 1) {
+            throw new TraceException("State " + readState(reader, 0) + ": missing values");
+        }
+
+        for (int i = 0; i < rowCount; i++) {
+            int state = readState(reader, i);
+            if (firstState < 0 && state == 1) {
+                // MrBayes puts 1 as the first state, BEAST puts 0
+                state = 0;
+            }
+            if (!addState(state)) {
+                throw new TraceException("State " + state + " is not consistent with previous spacing");
+            }
+        }
+
+        for (int j = 0; j < traces.size(); j++) {
+            final Trace trace = traces.get(j);
+            final int column = j + 1;
+            final byte type = reader.getColumnType(column);
+
+            if (trace instanceof ContinuousTrace && type == BinaryLogFormatter.DOUBLE_COLUMN) {
+                final double[] values = reader.getDoubleValues(column);
+                for (int i = 0; i < rowCount; i++) {
+                    ((ContinuousTrace) trace).add(values[i]);
+                }
+            } else if (trace instanceof ContinuousTrace && type == BinaryLogFormatter.LONG_COLUMN) {
+                final long[] values = reader.getLongValues(column);
+                for (int i = 0; i < rowCount; i++) {
+                    ((ContinuousTrace) trace).add((double) values[i]);
+                }
+            } else if (trace instanceof DiscreteTrace && type == BinaryLogFormatter.LONG_COLUMN) {
+                final long[] values = reader.getLongValues(column);
+                for (int i = 0; i < rowCount; i++) {
+                    ((DiscreteTrace) trace).add((int) values[i]);
+                }
+            } else {
+                for (int i = 0; i < rowCount; i++) {
+                    try {
+                        addParsedValue(trace, reader.getString(i, column));
+                    } catch (NumberFormatException nfe) {
+                        throw new TraceException("State " + readState(reader, i) +
+                                ": Expected correct number type (Double, Integer or String) in column " + column);
+                    }
+                }
+            }
+        }
+    }
+
+    private int readState(BinaryLogReader reader, int row) throws TraceException {
+        switch (reader.getColumnType(0)) {
+            case BinaryLogFormatter.LONG_COLUMN:
+                return (int) reader.getLongValues(0)[row];
+            case BinaryLogFormatter.DOUBLE_COLUMN:
+                return (int) reader.getDoubleValues(0)[row];
+            default:
+                throw new TraceException("Unable to parse state number in column 1");
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * DiscreteTrace.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.trace;
+
+/**
+ * A trace of integer values stored as primitive ints. The values are kept
+ * in fixed size chunks so adding values never copies the ones already stored.
+ */
+public class DiscreteTrace extends Trace<Integer> {
+
+    public DiscreteTrace(String name) {
+        this(name, 0);
+    }
+
+    /**
+     * @param name        the name of the trace
+     * @param initialSize a hint about the number of values
+     */
+    public DiscreteTrace(String name, int initialSize) {
+        super(name);
+        chunks = new int[Math.max(initialSize >> CHUNK_SHIFT, 0) + 1][];
+    }
+
+    public DiscreteTrace(String name, int[] values) {
+        this(name, values.length);
+        for (int value : values) {
+            add(value);
+        }
+    }
+
+    public void add(int value) {
+        final int chunk = valueCount >> CHUNK_SHIFT;
+        if (chunk == chunks.length) {
+            int[][] newChunks = new int[chunks.length * 2][];
+            System.arraycopy(chunks, 0, newChunks, 0, chunks.length);
+            chunks = newChunks;
+        }
+        if (chunks[chunk] == null) {
+            chunks[chunk] = new int[CHUNK_SIZE];
+        }
+        chunks[chunk][valueCount & CHUNK_MASK] = value;
+        valueCount++;
+    }
+
+    public void add(Integer value) {
+        add(value.intValue());
+    }
+
+    public void add(Integer[] values) {
+        for (Integer value : values) {
+            add(value.intValue());
+        }
+    }
+
+    public int getIntValue(int index) {
+        return chunks[index >> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public Integer getValue(int index) {
+        return getIntValue(index);
+    }
+
+    /**
+     * Copies values into an array of ints.
+     *
+     * @param start       the index of the first value
+     * @param count       the number of values
+     * @param destination the destination array
+     * @param offset      the position in the destination array to start copying to
+     */
+    public void getIntValues(int start, int count, int[] destination, int offset) {
+        while (count > 0) {
+            final int chunk = start >> CHUNK_SHIFT;
+            final int position = start & CHUNK_MASK;
+            final int n = Math.min(count, CHUNK_SIZE - position);
+            System.arraycopy(chunks[chunk], position, destination, offset, n);
+            start += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    public double[] createDoubleValues(int start, int length) {
+        double[] destination = new double[length];
+        for (int i = 0; i < length; i++) {
+            destination[i] = getIntValue(start + i);
+        }
+        return destination;
+    }
+
+    public Integer[] createValues(int start, int length) {
+        Integer[] destination = new Integer[length];
+        getValues(start, length, destination, 0);
+        return destination;
+    }
+
+    public Integer[] getValues() {
+        return createValues(0, valueCount);
+    }
+
+    public void getValues(int start, Integer[] destination, int offset) {
+        getValues(start, valueCount - start, destination, offset);
+    }
+
+    public void getValues(int start, int count, Integer[] destination, int offset) {
+        for (int i = 0; i < count; i++) {
+            destination[offset + i] = getIntValue(start + i);
+        }
+    }
+
+    public Class getTraceType() {
+        return Integer.class;
+    }
+
+    private int[][] chunks;
+}
@@ -0,0 +1,342 @@
+/*
+ * LogFileIndex.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.trace;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The offsets of the lines of a log file which is read through a memory map. The index
+ * is saved next to the log file so that it is only built once and, if the log has grown
+ * since (e.g., the chain is still running), only the new lines are indexed.
+ *
+ * A line is only indexed once its line end has been written. The saved index is a short
+ * header followed by the line offsets, so a growing log only appends its new offsets.
+ */
+public class LogFileIndex {
+
+    public static final String INDEX_FILE_SUFFIX = ".idx";
+
+    public LogFileIndex(File file) {
+        this.file = file;
+        this.indexFile = new File(file.getPath() + INDEX_FILE_SUFFIX);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Brings the index up to date with the log file. On the first call a saved index is
+     * read if there is one that matches the file.
+     *
+     * @return the number of lines that have been added to the index
+     * @throws IOException if the log file can't be read
+     */
+    public int update() throws IOException {
+        if (channel == null) {
+            channel = new RandomAccessFile(file, "r").getChannel();
+            readIndex();
+        }
+
+        final long length = channel.size();
+        if (length < indexedLength || (indexedLength > 0 && getChecksum(checksumLength) != checksum)) {
+            // the log file has been replaced
+            clear();
+        }
+
+        final int oldLineCount = lineCount;
+        if (length > indexedLength) {
+            scan(length);
+        }
+
+        if (lineCount != oldLineCount || !isSaved) {
+            writeIndex();
+        }
+
+        return lineCount - oldLineCount;
+    }
+
+    /**
+     * @return the number of complete lines in the log file
+     */
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Gives the bytes of a line. The returned buffer is shared and is only valid until the
+     * next call, the line runs from its position to its limit (without the line end).
+     *
+     * @param line the line index
+     * @return the mapped buffer with its position and limit set to the line
+     */
+    public ByteBuffer getLine(int line) {
+        final long start = lineStarts[line];
+        final long end = lineStarts[line + 1] - 1; // without the newline
+        try {
+            map(start, end);
+        } catch (IOException ioe) {
+            throw new RuntimeException("Unable to map log file " + file.getName() + ": " + ioe.getMessage());
+        }
+
+        buffer.limit((int) (end - bufferStart));
+        buffer.position((int) (start - bufferStart));
+        return buffer;
+    }
+
+    /**
+     * @param line the line index
+     * @return the line as a string (without the line end)
+     */
+    public String getLineString(int line) {
+        ByteBuffer lineBuffer = getLine(line);
+        byte[] bytes = new byte[lineBuffer.remaining()];
+        lineBuffer.get(bytes);
+        try {
+            return new String(bytes, "UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new RuntimeException(uee);
+        }
+    }
+
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+        buffer = null;
+    }
+
+    //************************************************************************
+    // private methods
+    //************************************************************************
+
+    private void clear() {
+        lineStarts = new long[1024];
+        lineCount = 0;
+        indexedLength = 0;
+        checksumLength = 0;
+        checksum = 0;
+        savedOffsetCount = 0;
+        isSaved = false;
+        buffer = null;
+    }
+
+    /**
+     * Finds the line ends from the end of the last complete line to the end of the file.
+     *
+     * @param length the file length
+     * @throws IOException if the file can't be mapped
+     */
+    private void scan(long length) throws IOException {
+        long position = indexedLength;
+        while (position < length) {
+            final int size = (int) Math.min(length - position, MAX_WINDOW_SIZE);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+            for (int i = 0; i < size; i++) {
+                if (window.get(i) == '\n') {
+                    addLine(position + i + 1);
+                }
+            }
+            position += size;
+        }
+        indexedLength = lineStarts[lineCount];
+
+        if (checksumLength < CHECKSUM_LENGTH) {
+            checksumLength = (int) Math.min(indexedLength, CHECKSUM_LENGTH);
+            checksum = getChecksum(checksumLength);
+        }
+    }
+
+    private void addLine(long nextLineStart) {
+        if (lineCount + 1 == lineStarts.length) {
+            long[] newLineStarts = new long[lineStarts.length * 2];
+            System.arraycopy(lineStarts, 0, newLineStarts, 0, lineStarts.length);
+            lineStarts = newLineStarts;
+        }
+        lineCount++;
+        lineStarts[lineCount] = nextLineStart;
+    }
+
+    private void map(long start, long end) throws IOException {
+        if (buffer == null || start < bufferStart || end > bufferStart + buffer.capacity()) {
+            final long size = Math.min(Math.max(end - start, MAX_WINDOW_SIZE), channel.size() - start);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+            bufferStart = start;
+        }
+        buffer.clear();
+    }
+
+    private long getChecksum(int length) throws IOException {
+        ByteBuffer bytes = ByteBuffer.allocate(length);
+        while (bytes.hasRemaining() && channel.read(bytes, bytes.position()) >= 0) {
+            // read until full
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.array(), 0, bytes.position());
+        return crc.getValue();
+    }
+
+    private void readIndex() {
+        clear();
+
+        if (!indexFile.exists()) {
+            return;
+        }
+
+        // any partly written offset at the end is ignored
+        final int offsetCount = (int) ((indexFile.length() - HEADER_SIZE) / 8);
+        if (offsetCount < 1) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            final int savedChecksumLength = in.readInt();
+            final long savedChecksum = in.readLong();
+
+            if (getChecksum(savedChecksumLength) != savedChecksum) {
+                // the index is for a different file
+                return;
+            }
+
+            long[] savedLineStarts = new long[Math.max(offsetCount, 1024)];
+            for (int i = 0; i < offsetCount; i++) {
+                savedLineStarts[i] = in.readLong();
+            }
+            final long savedLength = savedLineStarts[offsetCount - 1];
+            if (savedLength > channel.size() || (savedLength > 0 && getByte(savedLength - 1) != '\n')) {
+                return;
+            }
+
+            lineStarts = savedLineStarts;
+            lineCount = offsetCount - 1;
+            indexedLength = savedLength;
+            checksumLength = savedChecksumLength;
+            checksum = savedChecksum;
+            savedOffsetCount = offsetCount;
+            isSaved = true;
+
+        } catch (IOException ioe) {
+            // a truncated or unreadable index is rebuilt
+            clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ioe) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * Saves the index. The header is rewritten (as the checksum may now cover more of the
+     * log) and only the line offsets found since it was last saved are appended.
+     */
+    private void writeIndex() {
+        RandomAccessFile out = null;
+        try {
+            out = new RandomAccessFile(indexFile, "rw");
+            if (savedOffsetCount == 0) {
+                out.setLength(0);
+            }
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(bytes);
+            data.writeInt(MAGIC);
+            data.writeInt(VERSION);
+            data.writeInt(checksumLength);
+            data.writeLong(checksum);
+            out.seek(0);
+            out.write(bytes.toByteArray());
+
+            bytes.reset();
+            for (int i = savedOffsetCount; i <= lineCount; i++) {
+                data.writeLong(lineStarts[i]);
+            }
+            out.seek(HEADER_SIZE + 8L * savedOffsetCount);
+            out.write(bytes.toByteArray());
+
+            out.close();
+            out = null;
+            savedOffsetCount = lineCount + 1;
+            isSaved = true;
+        } catch (IOException ioe) {
+            // the index can't be saved (e.g., the directory is read only) so
+            // it will be built again next time
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException ioe) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    private int getByte(long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(1);
+        if (channel.read(b, position) < 1) {
+            return -1;
+        }
+        return b.get(0);
+    }
+
+    private static final int MAGIC = 0x4c4f4749; // LOGI
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 20;
+
+    private static final long MAX_WINDOW_SIZE = 1L << 30;
+    private static final int CHECKSUM_LENGTH = 4096;
+
+    private final File file;
+    private final File indexFile;
+
+    private FileChannel channel = null;
+    private MappedByteBuffer buffer = null;
+    private long bufferStart;
+
+    // lineStarts[i] is the offset of line i and lineStarts[lineCount] is the end of the last complete line
+    private long[] lineStarts;
+    private int lineCount;
+    private long indexedLength;
+    private int checksumLength;
+    private long checksum;
+    // the number of line offsets in the saved index file
+    private int savedOffsetCount;
+    private boolean isSaved;
+}
@@ -27,10 +27,7 @@ package dr.inference.trace;
 import dr.util.FileHelpers;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.StringTokenizer;
-import java.util.TreeMap;
 
 /**
  * A class that stores a set of traces from a single chain
@@ -40,172 +37,15 @@ import java.util.TreeMap;
  * @version $Id: LogFileTraces.java,v 1.4 2006/11/30 17:39:29 rambaut Exp $
  */
 
-public class LogFileTraces extends AbstractTraceList {
+public class LogFileTraces extends AbstractLogFileTraces {
 
     public LogFileTraces(String name, File file) {
-        this.name = name;
-        this.file = file;
-    }
-
-    /**
-     * @return the name of this traceset
-     */
-    public String getName() {
-        return name;
-    }
-
-    public File getFile() {
-        return file;
-    }
-
-    /**
-     * @return the last state in the chain
-     */
-    public int getMaxState() {
-        return lastState;
-    }
-
-    public boolean isIncomplete() {
-        return false;
-    }
-
-    /**
-     * @return the number of states excluding the burnin
-     */
-    public int getStateCount() {
-        // This is done as two integer divisions to ensure the same rounding for
-        // the burnin...
-        return ((lastState - firstState) / stepSize) - (getBurnIn() / stepSize) + 1;
-    }
-
-    /**
-     * @return the number of states in the burnin
-     */
-    public int getBurninStateCount() {
-        return (getBurnIn() / stepSize);
-    }
-
-    /**
-     * @return the size of the step between states
-     */
-    public int getStepSize() {
-        return stepSize;
-    }
-
-    public int getBurnIn() {
-        return burnIn;
-    }
-
-    /**
-     * @return the number of traces in this traceset
-     */
-    public int getTraceCount() {
-        return traces.size();
-    }
-
-    /**
-     * @return the index of the trace with the given name
-     */
-    public int getTraceIndex(String name) {
-        for (int i = 0; i < traces.size(); i++) {
-            Trace trace = getTrace(i);
-            if (name.equals(trace.getName())) {
-                return i;
-            }
-        }
-        return -1;
-    }
-
-    /**
-     * @return the name of the trace with the given index
-     */
-    public String getTraceName(int index) {
-        return getTrace(index).getName();
-    }
-
-    /**
-     * @param index requested trace index
-     * @return the trace for a given index
-     */
-    public Trace getTrace(int index) {
-        return traces.get(index);
-    }
-
-    public void setBurnIn(int burnIn) {
-        this.burnIn = burnIn;
-        super.setBurnIn(burnIn);
-    }
-
-    public double getStateValue(int trace, int index) {
-        return (Double) getTrace(trace).getValue(index + (burnIn / stepSize));
-    }
-
-    /**
-     * Read several consecutive values of one state into a destination array
-     *
-     * @param nState      State index number
-     * @param destination array to store result
-     * @param offset      first trace index
-     */
-    public void getStateValues(int nState, double[] destination, int offset) {
-        final int index1 = nState + (burnIn / stepSize);
-        for (int k = 0; k < destination.length; ++k) {
-            destination[k] = (Double) getTrace(k + offset).getValue(index1);
-        }
-    }
-
-//    public Object[] createValues(int index, int length) {
-//        Trace trace = getTrace(index);
-//        return getTrace(index).createValues((burnIn / stepSize), length);
-//    }
-
-    public <T> void getValues(int index, T[] destination) {
-        try {
-            getTrace(index).getValues(getBurninStateCount(), destination, 0);
-        } catch (Exception e) {
-            System.err.println("getValues error: trace index = " + index);
-        }
-    }
-
-    public <T> void getValues(int index, T[] destination, int offset) {
-        ((Trace<T>) getTrace(index)).getValues(getBurninStateCount(), destination, offset);
-    }
-
-    public <T> void getBurninValues(int index, T[] destination) {
-        try {
-            ((Trace<T>) getTrace(index)).getValues(0, getBurninStateCount(), destination, 0);
-        } catch (Exception e) {
-            System.err.println("getValues error: trace index = " + index);
-        }
-    }
-
-    public void getSelected(int index, boolean[] destination) {
-        try {
-            getTrace(index).getSelected(getBurninStateCount(), destination, 0, selected);
-        } catch (Exception e) {
-            System.err.println("getSelected error: trace index = " + index);
-        }
-    }
-
-    public void getSelected(int index, boolean[] destination, int offset) {
-        getTrace(index).getSelected(getBurninStateCount(), destination, offset, selected);
-    }
-
-    public void getBurningSelected(int index, boolean[] destination) {
-        try {
-            getTrace(index).getSelected(0, getBurninStateCount(), destination, 0, selected);
-        } catch (Exception e) {
-            System.err.println("trace index = " + index);
-        }
-    }
-
-    public void loadTraces() throws TraceException, IOException {
-        loadTraces(-1, null);
+        super(name, file);
     }
 
     public void loadTraces(int reloadColumn, TraceFactory.TraceType reloadType) throws TraceException, IOException {
-        FileReader reader = new FileReader(file);
-        loadTraces(reader, FileHelpers.numberOfLines(file) - 1, reloadColumn, reloadType);
+        FileReader reader = new FileReader(getFile());
+        loadTraces(reader, FileHelpers.numberOfLines(getFile()) - 1, reloadColumn, reloadType);
         reader.close();
     }
 
@@ -350,25 +190,6 @@ public class LogFileTraces extends AbstractTraceList {
         //todo
     }
 
-    private void initializeTraceType(String firstToken, StringTokenizer tokens) {
-        if (tokens.hasMoreTokens()) {
-            String token; //= tokens.nextToken();
-            if (firstToken.contains(TraceFactory.TraceType.INTEGER.toString())
-                    || firstToken.contains(TraceFactory.TraceType.INTEGER.toString().toUpperCase())) {
-                while (tokens.hasMoreTokens()) {
-                    token = tokens.nextToken();
-                    tracesType.put(token, TraceFactory.TraceType.INTEGER);
-                }
-            } else if (firstToken.contains(TraceFactory.TraceType.CATEGORY.toString())
-                    || firstToken.contains(TraceFactory.TraceType.CATEGORY.toString().toUpperCase())) {
-                while (tokens.hasMoreTokens()) {
-                    token = tokens.nextToken();
-                    tracesType.put(token, TraceFactory.TraceType.CATEGORY);
-                }
-            }
-        }
-    }
-
 //    public Trace<?> assignTraceType(String name, int numberOfLines) {
 //        Trace<?> trace = null;
 //        if (tracesType != null) {
@@ -422,29 +243,6 @@ public class LogFileTraces extends AbstractTraceList {
         throw new TraceException("Cannot find trace : " + name);
     }
 
-    /**
-     * Add a state number for these traces. This should be
-     * called before adding values for each trace. The spacing
-     * between stateNumbers should remain constant.
-     *
-     * @param stateNumber the state
-     * @return false if the state number is inconsistent
-     */
-    private boolean addState(int stateNumber) {
-        if (firstState < 0) {
-            firstState = stateNumber;
-        } else if (stepSize < 0) {
-            stepSize = stateNumber - firstState;
-        } else {
-            int step = stateNumber - lastState;
-            if (step != stepSize) {
-                return false;
-            }
-        }
-        lastState = stateNumber;
-        return true;
-    }
-
     /**
      * add a value for the n'th trace
      *
@@ -452,56 +250,9 @@ public class LogFileTraces extends AbstractTraceList {
      * @param value  next value
      */
     private void addParsedValue(int nTrace, String value) {
-        Trace thisTrace = getTrace(nTrace);
-
-        if (thisTrace.getTraceType() == TraceFactory.TraceType.CONTINUOUS.getType()) {
-            Double v = Double.parseDouble(value);
-            thisTrace.add(v);
-
-        } else if (thisTrace.getTraceType() == TraceFactory.TraceType.INTEGER.getType()) {
-//             Integer v = Integer.parseInt(value);
-            int v = (int) Double.parseDouble(value);
-            thisTrace.add(v);
-
-        } else if (thisTrace.getTraceType() == TraceFactory.TraceType.CATEGORY.getType()) {
-            thisTrace.add(value);
-
-        } else {
-            throw new RuntimeException("Trace type is not recognized: " + thisTrace.getTraceType());
-        }
+        addParsedValue(getTrace(nTrace), value);
     }
 
-    @Override
-    public void createTraceFilter(Filter filter) {
-        if (filter != null) {
-            String name = filter.getTraceName();
-            int index = getTraceIndex(name);
-
-            selected = new boolean[getTrace(index).getCount()];
-
-            for (int i = 0; i < selected.length; i++) {
-                if (filter.isIn(getTrace(index).getValue(i))) { // selected
-                    selected[i] = true;
-                }
-            }
-        } else {
-            selected = null;
-        }
-    }
-
-    private final File file;
-    private final String name;
-
-    private final List<Trace> traces = new ArrayList<Trace>();
-    // List traces is added before having types
-    // tracesType only save INTEGER and CATEGORY
-    private TreeMap<String, TraceFactory.TraceType> tracesType = new TreeMap<String, TraceFactory.TraceType>();
-
-    private int burnIn = -1;
-    private int firstState = -1;
-    private int lastState = -1;
-    private int stepSize = -1;
-
     public static class TrimLineReader extends BufferedReader {
 
         public TrimLineReader(Reader reader) {
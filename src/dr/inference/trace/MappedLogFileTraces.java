@@ -0,0 +1,395 @@
+/*
+ * MappedLogFileTraces.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package dr.inference.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+/**
+ * A set of traces from a log file that is read through a memory map. Loading the
+ * traces only indexes the lines of the file (see LogFileIndex) and a column is parsed
+ * the first time its trace is asked for, so the columns that are never looked at are
+ * never read.
+ *
+ * If the chain is still running, update() reads the states that have been appended
+ * to the log file since it was loaded.
+ */
+public class MappedLogFileTraces extends AbstractLogFileTraces {
+
+    public MappedLogFileTraces(String name, File file) {
+        super(name, file);
+        index = new LogFileIndex(file);
+    }
+
+    public void loadTraces() throws TraceException, IOException {
+        index.update();
+
+        readHeader();
+        countStates();
+
+        burnIn = (int) (0.1 * lastState);
+    }
+
+    public void loadTraces(int reloadColumn, TraceFactory.TraceType reloadType) throws TraceException, IOException {
+        if (reloadColumn < 0) {
+            loadTraces();
+            return;
+        }
+
+        if (reloadType == null) throw new TraceException("trace (" + labels[reloadColumn] + ") type is null");
+
+        // the column is read again with the new type when it is next asked for
+        tracesType.put(labels[reloadColumn], reloadType);
+        Trace trace = traces.get(reloadColumn);
+        if (trace != null && trace.getTraceType() != reloadType.getType()) {
+            traces.set(reloadColumn, null);
+        }
+    }
+
+    /**
+     * Reads the states that have been added to the log file since it was loaded.
+     *
+     * @return the number of new states
+     * @throws TraceException      when the new lines are not valid
+     * @throws java.io.IOException low level problems with file
+     */
+    public synchronized int update() throws TraceException, IOException {
+        final int oldStateCount = stateLineCount;
+
+        index.update();
+        countStates();
+
+        if (stateLineCount > oldStateCount) {
+            List<Integer> columns = new ArrayList<Integer>();
+            for (int i = 0; i < traces.size(); i++) {
+                if (traces.get(i) != null) {
+                    columns.add(i);
+                }
+            }
+
+            if (columns.size() > 0) {
+                int[] loadedColumns = new int[columns.size()];
+                Trace[] loadedTraces = new Trace[columns.size()];
+                for (int i = 0; i < loadedColumns.length; i++) {
+                    loadedColumns[i] = columns.get(i);
+                    loadedTraces[i] = traces.get(loadedColumns[i]);
+                }
+                readValues(loadedColumns, loadedTraces, oldStateCount, stateLineCount);
+            }
+
+            // the statistics need recalculating
+            setBurnIn(burnIn);
+        }
+
+        return stateLineCount - oldStateCount;
+    }
+
+    /**
+     * Parses all the columns that haven't been read yet in a single pass through the file.
+     *
+     * @throws TraceException when trace contents is not valid
+     */
+    public synchronized void loadAllTraces() throws TraceException {
+        List<Integer> columns = new ArrayList<Integer>();
+        for (int i = 0; i < traces.size(); i++) {
+            if (traces.get(i) == null) {
+                columns.add(i);
+            }
+        }
+
+        int[] unloadedColumns = new int[columns.size()];
+        for (int i = 0; i < unloadedColumns.length; i++) {
+            unloadedColumns[i] = columns.get(i);
+        }
+        loadColumns(unloadedColumns);
+    }
+
+    public void analyseTraces(int threadCount) {
+        // reading each column on its own would pass through the file once per column
+        try {
+            loadAllTraces();
+        } catch (TraceException te) {
+            throw new RuntimeException(te.getMessage());
+        }
+        super.analyseTraces(threadCount);
+    }
+
+    public synchronized Trace getTrace(int index) {
+        Trace trace = traces.get(index);
+        if (trace == null) {
+            try {
+                loadColumns(new int[]{index});
+            } catch (TraceException te) {
+                throw new RuntimeException(te.getMessage());
+            }
+            trace = traces.get(index);
+        }
+        return trace;
+    }
+
+    public int getTraceIndex(String name) {
+        for (int i = 0; i < labels.length; i++) {
+            if (name.equals(labels[i])) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String getTraceName(int index) {
+        return labels[index];
+    }
+
+    public void close() throws IOException {
+        index.close();
+    }
+
+    //************************************************************************
+    // private methods
+    //************************************************************************
+
+    /**
+     * Reads the comments and the labels at the top of the file.
+     *
+     * @throws TraceException if there are no labels
+     */
+    private void readHeader() throws TraceException {
+        labels = null;
+
+        int line = 0;
+        while (labels == null && line < index.getLineCount()) {
+            StringTokenizer tokens = new StringTokenizer(index.getLineString(line).trim(), "\t");
+            line++;
+
+            // read over empty lines
+            if (!tokens.hasMoreTokens()) continue;
+
+            // skip the first column which should be the state number
+            String token = tokens.nextToken();
+
+            // lines starting with [ are ignored, assuming comments in MrBayes file
+            // lines starting with # are ignored, assuming comments in Migrate or BEAST file
+            if (token.startsWith("[") || token.startsWith("#")) {
+                initializeTraceType(token, tokens); // using # to define type
+                continue;
+            }
+
+            labels = new String[tokens.countTokens()];
+            for (int i = 0; i < labels.length; i++) {
+                labels[i] = tokens.nextToken();
+            }
+        }
+
+        if (labels == null) {
+            throw new TraceException("Trace file is empty.");
+        }
+
+        firstStateLine = line;
+        stateLineCount = 0;
+        isEndOfStates = false;
+        firstState = -1;
+        lastState = -1;
+        stepSize = -1;
+
+        traces.clear();
+        for (String label : labels) {
+            traces.add(null);
+        }
+
+        fieldStarts = new int[labels.length + 1];
+        fieldEnds = new int[labels.length + 1];
+    }
+
+    /**
+     * Counts the state lines, these end at the first empty line, and checks the spacing
+     * of each state number as it is counted.
+     *
+     * @throws TraceException if a state number can't be parsed or is not consistent with the spacing
+     */
+    private void countStates() throws TraceException {
+        int line = firstStateLine + stateLineCount;
+        while (!isEndOfStates && line < index.getLineCount()) {
+            ByteBuffer buffer = index.getLine(line);
+            boolean isEmpty = true;
+            for (int i = buffer.position(); i < buffer.limit() && isEmpty; i++) {
+                isEmpty = buffer.get(i) <= ' ';
+            }
+
+            if (isEmpty) {
+                isEndOfStates = true;
+            } else {
+                int state = readState(stateLineCount);
+                if (stateLineCount == 0) {
+                    // MrBayes puts 1 as the first state, BEAST puts 0
+                    // In order to get the same gap between subsequent samples,
+                    // we force this to 0.
+                    if (state == 1) state = 0;
+                }
+                if (!addState(state)) {
+                    throw new TraceException("State " + state + " is not consistent with previous spacing (Line " +
+                            (line + 1) + ")");
+                }
+                stateLineCount++;
+                line++;
+            }
+        }
+    }
+
+    private int readState(int stateLine) throws TraceException {
+        final int line = firstStateLine + stateLine;
+        ByteBuffer buffer = index.getLine(line);
+        findFields(buffer, 1);
+        try {
+            // parseDouble because LAMARC uses scientific notation for the state number
+            return (int) Double.parseDouble(getString(buffer, fieldStarts[0], fieldEnds[0]));
+        } catch (NumberFormatException nfe) {
+            throw new TraceException("Unable to parse state number in column 1 (Line " + (line + 1) + ")");
+        }
+    }
+
+    /**
+     * Parses the values of some columns.
+     *
+     * @param columns the trace indices in increasing order
+     * @throws TraceException when trace contents is not valid
+     */
+    private void loadColumns(int[] columns) throws TraceException {
+        if (columns.length == 0) {
+            return;
+        }
+
+        Trace[] newTraces = new Trace[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            TraceFactory.TraceType type = tracesType.get(labels[columns[i]]);
+            if (type == null) {
+                type = TraceFactory.TraceType.CONTINUOUS;
+            }
+            newTraces[i] = TraceFactory.createTrace(type, labels[columns[i]], stateLineCount);
+        }
+
+        readValues(columns, newTraces, 0, stateLineCount);
+
+        for (int i = 0; i < columns.length; i++) {
+            traces.set(columns[i], newTraces[i]);
+        }
+    }
+
+    private void readValues(int[] columns, Trace[] destination, int fromState, int toState) throws TraceException {
+        // the first field is the state number
+        final int fieldCount = columns[columns.length - 1] + 2;
+
+        for (int i = fromState; i < toState; i++) {
+            final int line = firstStateLine + i;
+            ByteBuffer buffer = index.getLine(line);
+            final int foundCount = findFields(buffer, fieldCount);
+
+            for (int j = 0; j < columns.length; j++) {
+                final int field = columns[j] + 1;
+                if (field >= foundCount) {
+                    throw new TraceException("State " + (firstState + i * stepSize) +
+                            ": missing values at line " + (line + 1));
+                }
+
+                try {
+                    addParsedValue(destination[j], getString(buffer, fieldStarts[field], fieldEnds[field]));
+                } catch (NumberFormatException nfe) {
+                    throw new TraceException("State " + (firstState + i * stepSize) +
+                            ": Expected correct number type (Double, Integer or String) in column "
+                            + (columns[j] + 1) + " (Line " + (line + 1) + ")");
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds the tab separated fields of a line in the same way as tokenizing the
+     * trimmed line.
+     *
+     * @param buffer     the line
+     * @param fieldCount the number of fields wanted
+     * @return the number of fields found
+     */
+    private int findFields(ByteBuffer buffer, int fieldCount) {
+        int start = buffer.position();
+        int end = buffer.limit();
+        while (start < end && buffer.get(start) <= ' ') start++;
+        while (end > start && buffer.get(end - 1) <= ' ') end--;
+
+        int count = 0;
+        int i = start;
+        while (count < fieldCount && i < end) {
+            while (i < end && buffer.get(i) == '\t') i++;
+            if (i == end) break;
+
+            fieldStarts[count] = i;
+            while (i < end && buffer.get(i) != '\t') i++;
+            fieldEnds[count] = i;
+            count++;
+        }
+        return count;
+    }
+
+    private String getString(ByteBuffer buffer, int start, int end) {
+        final int length = end - start;
+        if (chars.length < length) {
+            chars = new char[length];
+        }
+
+        for (int i = 0; i < length; i++) {
+            final byte b = buffer.get(start + i);
+            if (b < 0) {
+                // not ASCII
+                byte[] bytes = new byte[length];
+                for (int j = 0; j < length; j++) {
+                    bytes[j] = buffer.get(start + j);
+                }
+                try {
+                    return new String(bytes, "UTF-8");
+                } catch (UnsupportedEncodingException uee) {
+                    throw new RuntimeException(uee);
+                }
+            }
+            chars[i] = (char) b;
+        }
+        return new String(chars, 0, length);
+    }
+
+    private final LogFileIndex index;
+
+    private String[] labels = new String[0];
+    private int firstStateLine;
+    private int stateLineCount;
+    private boolean isEndOfStates;
+
+    private int[] fieldStarts;
+    private int[] fieldEnds;
+    private char[] chars = new char[64];
+}
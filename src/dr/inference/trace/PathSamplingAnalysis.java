@@ -136,7 +136,8 @@ public class PathSamplingAnalysis {
                 cxo = xo.getChild(THETA_COLUMN);
                 String thetaName = cxo.getStringAttribute(Attribute.NAME);
 
-                LogFileTraces traces = new LogFileTraces(fileName, file);
+                // only the likelihood and theta columns are read from the log
+                MappedLogFileTraces traces = new MappedLogFileTraces(fileName, file);
                 traces.loadTraces();
                 int maxState = traces.getMaxState();
 
@@ -176,6 +177,7 @@ public class PathSamplingAnalysis {
                 Double sampleTheta[] = new Double[traces.getStateCount()];
                 traces.getValues(traceIndexLikelihood, sampleLogLikelihood);
                 traces.getValues(traceIndexTheta, sampleTheta);
+                traces.close();
 
                 PathSamplingAnalysis analysis = new PathSamplingAnalysis(
                         Trace.arrayConvert(sampleLogLikelihood), likelihoodName,
@@ -40,14 +40,25 @@ public class Trace<T> {
     public static final int INITIAL_SIZE = 1000;
     public static final int INCREMENT_SIZE = 1000;
 
+    // primitive traces store their values in chunks of this size
+    protected static final int CHUNK_SHIFT = 12;
+    protected static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    protected static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
     //    private TraceType traceType = TraceType.CONTINUOUS;
     protected T[] values = (T[]) new Object[INITIAL_SIZE];
     protected int valueCount = 0;
     protected final String name;
 
-//    public Trace(String name) {
-//        this.name = name;
-//    }
+    /**
+     * Used by subclasses which store the values themselves.
+     *
+     * @param name the name of the trace
+     */
+    protected Trace(String name) {
+        this.name = name;
+        this.values = null;
+    }
 
     public Trace(String name, int initialSize, T initValue) {
         this.name = name;
@@ -106,6 +117,21 @@ public class Trace<T> {
         return values;
     }
 
+    /**
+     * Only for numerical traces (Double or Integer).
+     *
+     * @param start  the index of the first value
+     * @param length the number of values
+     * @return the values as an array of doubles
+     */
+    public double[] createDoubleValues(int start, int length) {
+        double[] destination = new double[length];
+        for (int i = 0; i < length; i++) {
+            destination[i] = ((Number) values[start + i]).doubleValue();
+        }
+        return destination;
+    }
+
     public void getValues(int start, T[] destination, int offset) {
         System.arraycopy(values, start, destination, offset, valueCount - start);
     }
@@ -49,9 +49,7 @@ public class TraceAnalysis {
         traces.loadTraces();
         traces.setBurnIn(burnin);
 
-        for (int i = 0; i < traces.getTraceCount(); i++) {
-            traces.analyseTrace(i);
-        }
+        traces.analyseTraces(Runtime.getRuntime().availableProcessors());
         return traces;
     }
 
@@ -105,10 +103,11 @@ public class TraceAnalysis {
         }
         System.out.println();
 
+        traces.analyseTraces(Runtime.getRuntime().availableProcessors());
+
         int warning = 0;
         for (int i = 0; i < traces.getTraceCount(); i++) {
 
-            traces.analyseTrace(i);
             TraceDistribution distribution = traces.getDistributionStatistics(i);
 
             double ess = distribution.getESS();
@@ -25,6 +25,8 @@
 
 package dr.inference.trace;
 
+import dr.math.FastFourierTransform;
+
 /**
  * A class that stores the correlation statistics for a trace
  *
@@ -44,6 +46,22 @@ public class TraceCorrelation<T> extends TraceDistribution<T> {
         }
     }
 
+    /**
+     * Analyses a numerical trace from its values as doubles.
+     *
+     * @param values    the values
+     * @param traceType CONTINUOUS or INTEGER
+     * @param stepSize  the sampling frequency of the values
+     */
+    public TraceCorrelation(double[] values, TraceFactory.TraceType traceType, int stepSize) {
+        super(values, traceType, stepSize);
+        this.stepSize = stepSize;
+
+        if (isValid) {
+            analyseCorrelationContinuous(values, stepSize);
+        }
+    }
+
     public double getStdErrorOfMean() {
         return stdErrorOfMean;
     }
@@ -89,6 +107,7 @@ public class TraceCorrelation<T> extends TraceDistribution<T> {
         int maxLag = Math.min(samples - 1, MAX_LAG);
 
         double[] gammaStat = new double[maxLag];
+        double[] fftGammaStat = null;
         //double[] varGammaStat = new double[maxLag];
         double varStat = 0.0;
         //double varVarStat = 0.0;
@@ -96,14 +115,23 @@ public class TraceCorrelation<T> extends TraceDistribution<T> {
         //double del1, del2;
 
         for (int lag = 0; lag < maxLag; lag++) {
-            for (int j = 0; j < samples - lag; j++) {
-                final double del1 = values[j] - mean;
-                final double del2 = values[j + lag] - mean;
-                gammaStat[lag] += (del1 * del2);
-                //varGammaStat[lag] += (del1*del1*del2*del2);
-            }
+            if (lag < FFT_MIN_LAG) {
+                for (int j = 0; j < samples - lag; j++) {
+                    final double del1 = values[j] - mean;
+                    final double del2 = values[j + lag] - mean;
+                    gammaStat[lag] += (del1 * del2);
+                    //varGammaStat[lag] += (del1*del1*del2*del2);
+                }
 
-            gammaStat[lag] /= ((double) (samples - lag));
+                gammaStat[lag] /= ((double) (samples - lag));
+            } else {
+                // the trace is still correlated at this lag so the rest of the
+                // autocovariances are cheaper to get all at once by FFT
+                if (fftGammaStat == null) {
+                    fftGammaStat = getAutoCovarianceFFT(values, mean, maxLag);
+                }
+                gammaStat[lag] = fftGammaStat[lag];
+            }
             //varGammaStat[lag] /= ((double) samples-lag);
             //varGammaStat[lag] -= (gammaStat[0] * gammaStat[0]);
 
@@ -139,6 +167,44 @@ public class TraceCorrelation<T> extends TraceDistribution<T> {
         isValid = true;
     }
 
+    /**
+     * Computes the autocovariances of the values (as used by the ESS, i.e., averaged
+     * over the samples - lag pairs) from the spectrum of the zero padded trace.
+     *
+     * @param values the values
+     * @param mean   the mean of the values
+     * @param maxLag the number of lags to return
+     * @return the autocovariances for lags 0 to maxLag - 1
+     */
+    public static double[] getAutoCovarianceFFT(double[] values, double mean, int maxLag) {
+        final int samples = values.length;
+
+        // padding to at least samples + maxLag stops the circular correlation wrapping around
+        int length = 1;
+        while (length < samples + maxLag) {
+            length <<= 1;
+        }
+
+        double[] data = new double[2 * length]; // interleaved (real, imaginary)
+        for (int i = 0; i < samples; i++) {
+            data[2 * i] = values[i] - mean;
+        }
+
+        FastFourierTransform.fft(data, length, false);
+        for (int i = 0; i < 2 * length; i += 2) {
+            data[i] = data[i] * data[i] + data[i + 1] * data[i + 1];
+            data[i + 1] = 0.0;
+        }
+        FastFourierTransform.fft(data, length, true);
+
+        double[] gammaStat = new double[maxLag];
+        for (int lag = 0; lag < maxLag; lag++) {
+            // the inverse transform is not normalized
+            gammaStat[lag] = data[2 * lag] / ((double) length * (samples - lag));
+        }
+        return gammaStat;
+    }
+
     //************************************************************************
     // private methods
     //************************************************************************
@@ -150,13 +216,25 @@ public class TraceCorrelation<T> extends TraceDistribution<T> {
 
     private static final int MAX_LAG = 2000;
 
+    // the autocovariances of the lags beyond this are calculated by FFT
+    private static final int FFT_MIN_LAG = 100;
+
 
     public void setFilter(Filter filter) {
         this.filter = filter;
-        credSet = new CredibleSet(getValuesArray(), 0.95);
 
-        if (isValid) {
-            analyseCorrelation(getValuesArray(), stepSize);
+        if (doubleValues != null) {
+            credSet = new CredibleSet(getDoubleValuesArray(), 0.95);
+
+            if (isValid) {
+                analyseCorrelationContinuous(getDoubleValuesArray(), stepSize);
+            }
+        } else {
+            credSet = new CredibleSet(getValuesArray(), 0.95);
+
+            if (isValid) {
+                analyseCorrelation(getValuesArray(), stepSize);
+            }
         }
     }
 
@@ -49,7 +49,32 @@ public class TraceDistribution<T> {
         this.ESS = ESS;
     }
 
+    /**
+     * Analyses a numerical trace from its values as doubles, so the values
+     * don't need to be boxed.
+     *
+     * @param values    the values
+     * @param traceType CONTINUOUS or INTEGER
+     */
+    public TraceDistribution(double[] values, TraceFactory.TraceType traceType) {
+        if (traceType == TraceFactory.TraceType.CATEGORY) {
+            throw new IllegalArgumentException("A category trace can't be analysed as doubles");
+        }
+        this.doubleValues = values;
+        this.traceType = traceType;
+        credSet = new CredibleSet(getDoubleValuesArray(), 0.95);
+    }
+
+    public TraceDistribution(double[] values, TraceFactory.TraceType traceType, double ESS) {
+        this(values, traceType);
+        this.ESS = ESS;
+    }
+
     public TraceFactory.TraceType getTraceType() {
+        if (traceType != null) {
+            return traceType;
+        }
+
         if (values[0].getClass() == TraceFactory.TraceType.CONTINUOUS.getType()) {
             return TraceFactory.TraceType.CONTINUOUS;
 
@@ -123,6 +148,10 @@ public class TraceDistribution<T> {
 
     public double getMeanSquaredError(double trueValue) {
 
+        if (doubleValues != null) {
+            return DiscreteStatistics.meanSquaredError(getDoubleValuesArray(), trueValue);
+        }
+
         if (values == null) {
             throw new RuntimeException("Trace values not yet set");
         }
@@ -209,6 +238,36 @@ public class TraceDistribution<T> {
     protected T[] values;
     public CredibleSet credSet = null;
 
+    // the values of a numerical trace if it was created from doubles (values is then only
+    // filled if the boxed values are asked for)
+    protected double[] doubleValues = null;
+    protected TraceFactory.TraceType traceType = null;
+
+    protected double[] getDoubleValuesArray() {
+        if (filter != null) {
+            int count = 0;
+            for (int i = 0; i < doubleValues.length; i++) {
+                if (filter.getSelected(i)) {
+                    count++;
+                }
+            }
+
+            double[] selectedValues = new double[count];
+            int j = 0;
+            for (int i = 0; i < doubleValues.length; i++) {
+                if (filter.getSelected(i)) {
+                    selectedValues[j] = doubleValues[i];
+                    j++;
+                }
+            }
+
+            return selectedValues;
+
+        } else {
+            return doubleValues;
+        }
+    }
+
     protected T[] getValuesArray() {
         if (filter != null) {
             List<T> selectedValuesList = new ArrayList<T>();
@@ -230,12 +289,27 @@ public class TraceDistribution<T> {
     }
 
     public T[] getValues() {
+        if (values == null && doubleValues != null) {
+            if (traceType == TraceFactory.TraceType.INTEGER) {
+                Integer[] integerValues = new Integer[doubleValues.length];
+                for (int i = 0; i < doubleValues.length; i++) {
+                    integerValues[i] = (int) doubleValues[i];
+                }
+                values = (T[]) integerValues;
+            } else {
+                Double[] boxedValues = new Double[doubleValues.length];
+                for (int i = 0; i < doubleValues.length; i++) {
+                    boxedValues[i] = doubleValues[i];
+                }
+                values = (T[]) boxedValues;
+            }
+        }
         return values;
     }
 
     public String[] getRangeAll() { // only use for integer and string
         List<String> valuesList = new ArrayList<String>();
-        for (T value : values) {
+        for (T value : getValues()) {
             if (!valuesList.contains(value.toString()))
                 valuesList.add(value.toString());
         }
@@ -300,6 +374,38 @@ public class TraceDistribution<T> {
 
         }
 
+        public CredibleSet(double[] valuesCS, double proportion) {
+            analyseDistributionContinuous(valuesCS, proportion);
+
+            if (traceType == TraceFactory.TraceType.INTEGER) {
+                // count the values from a sorted copy so that only the distinct values are boxed
+                double[] sorted = valuesCS.clone();
+                Arrays.sort(sorted);
+                int i = 0;
+                while (i < sorted.length) {
+                    int j = i + 1;
+                    while (j < sorted.length && sorted[j] == sorted[i]) {
+                        j++;
+                    }
+                    valuesMap.put((T) Integer.valueOf((int) sorted[i]), j - i);
+                    i = j;
+                }
+
+                for (T value : new TreeSet<T>(valuesMap.keySet())) {
+                    double prob = (double) valuesMap.get(value) / (double) valuesCS.length;
+                    if (prob < (1 - proportion)) {
+                        inCredibleSet.add(value);
+                    } else {
+                        credibleSet.add(value);
+                    }
+                }
+
+                calculateMode();
+            }
+
+            isValid = true;
+        }
+
         public boolean inside(T value) {
             return valuesMap.containsKey(value);
         }
@@ -326,7 +432,7 @@ public class TraceDistribution<T> {
         }
 
         private boolean contains(List<T> list, int valueORIndex) {
-            if (values[0] instanceof Integer) {
+            if (getTraceType() == TraceFactory.TraceType.INTEGER) {
                 return list.contains(valueORIndex);
             } else { // String
                 String valueString = null;
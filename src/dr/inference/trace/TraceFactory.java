@@ -44,9 +44,9 @@ public class TraceFactory {
 
         switch (traceType) {
             case CONTINUOUS:
-                return new Trace<Double>(name, initialSize, (double) 0);
+                return new ContinuousTrace(name, initialSize);
             case INTEGER:
-                return new Trace<Integer>(name, initialSize, 0);
+                return new DiscreteTrace(name, initialSize);
             case CATEGORY:
                 return new Trace<String>(name, initialSize, "initial_value");
         }
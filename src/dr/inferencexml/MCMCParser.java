@@ -32,8 +32,10 @@ import dr.inference.mcmc.MCMCOptions;
 import dr.inference.model.CompoundLikelihood;
 import dr.inference.model.Likelihood;
 import dr.inference.operators.OperatorSchedule;
+import dr.util.FileHelpers;
 import dr.xml.*;
 
+import java.io.File;
 import java.util.ArrayList;
 
 public class MCMCParser extends AbstractXMLObjectParser {
@@ -125,6 +127,27 @@ public class MCMCParser extends AbstractXMLObjectParser {
         if (!xo.getAttribute(SPAWN, true))
             mcmc.setSpawnable(false);
 
+        // checkpointing is set up by runtime System Properties
+        final int checkpointEvery = Integer.parseInt(System.getProperty("checkpoint.every", "0"));
+        final boolean resume = Boolean.parseBoolean(System.getProperty("checkpoint.resume", "false"));
+
+        if (checkpointEvery > 0 || resume) {
+            final String checkpointFileName = System.getProperty("checkpoint.file",
+                    (xo.hasId() ? xo.getId() : mcmc.getId()) + ".checkpoint");
+            final File checkpointFile = FileHelpers.getFile(checkpointFileName);
+
+            if (resume && !checkpointFile.exists()) {
+                throw new XMLParseException("Unable to resume: the checkpoint file, " + checkpointFile.getName() +
+                        ", does not exist in the working directory.");
+            }
+
+            java.util.logging.Logger.getLogger("dr.inference").info(
+                    (resume ? "Resuming from" : "Writing") + " checkpoint file: " + checkpointFile.getName() +
+                            (checkpointEvery > 0 ? " (every " + checkpointEvery + " states)" : ""));
+
+            mcmc.setCheckpoint(checkpointFile, checkpointEvery, resume);
+        }
+
         return mcmc;
     }
 
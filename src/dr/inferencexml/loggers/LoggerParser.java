@@ -52,6 +52,7 @@ public class LoggerParser extends AbstractXMLObjectParser {
     public static final String TAB = "tab";
     public static final String HTML = "html";
     public static final String PRETTY = "pretty";
+    public static final String BINARY = "binary";
     public static final String LOG_EVERY = "logEvery";
     public static final String ALLOW_OVERWRITE_LOG = "overwrite";
 
@@ -74,9 +75,16 @@ public class LoggerParser extends AbstractXMLObjectParser {
         // You must say how often you want to log
         final int logEvery = xo.getIntegerAttribute(LOG_EVERY);
 
-        final PrintWriter pw = getLogFile(xo, getParserName());
-
-        final LogFormatter formatter = new TabDelimitedFormatter(pw);
+        final LogFormatter formatter;
+        if (xo.getAttribute(FORMAT, TAB).equals(BINARY)) {
+            if (!xo.hasAttribute(FILE_NAME)) {
+                throw new XMLParseException("A binary log must be written to a file");
+            }
+            formatter = new BinaryLogFormatter(XMLParser.getFileOutputStream(xo, getParserName()));
+        } else {
+            final PrintWriter pw = getLogFile(xo, getParserName());
+            formatter = new TabDelimitedFormatter(pw);
+        }
 
         boolean performanceReport = false;
 
@@ -148,6 +156,10 @@ public class LoggerParser extends AbstractXMLObjectParser {
                             "If no file name is specified then log is sent to standard output", true),
             new StringAttributeRule(TITLE,
                     "The title of the log", true),
+            new StringAttributeRule(FORMAT,
+                    "The format of the log file, either tab delimited text or compressed binary " +
+                            "(which can be converted to text with binarylogconverter)",
+                    new String[]{TAB, BINARY}, true),
             new OrRule(
                     new XMLSyntaxRule[]{
                             new ElementRule(Columns.class, 1, Integer.MAX_VALUE),
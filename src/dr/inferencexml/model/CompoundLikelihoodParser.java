@@ -60,7 +60,7 @@ public class CompoundLikelihoodParser extends AbstractXMLObjectParser {
         CompoundLikelihood compoundLikelihood = new CompoundLikelihood(threads, likelihoods);
 
         if (compoundLikelihood.getThreadCount() > 0) {
-            Logger.getLogger("dr.evomodel").info("Likelihood is using " + threads + " threads.");
+            Logger.getLogger("dr.evomodel").info("Likelihood is using " + compoundLikelihood.getThreadCount() + " threads.");
 //            } else if (threads < 0) {
 //                Logger.getLogger("dr.evomodel").info("Likelihood is using a cached thread pool.");
         }
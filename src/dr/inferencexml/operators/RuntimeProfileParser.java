@@ -0,0 +1,53 @@
+package dr.inferencexml.operators;
+
+import dr.inference.model.Likelihood;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.RuntimeProfile;
+import dr.xml.*;
+
+/**
+ * Parses a runtime profile which can be added to a log, e.g.
+ * <pre>
+ * &lt;runtimeProfile&gt;
+ *     &lt;operators idref="operators"/&gt;
+ *     &lt;likelihood idref="likelihood"/&gt;
+ * &lt;/runtimeProfile&gt;
+ * </pre>
+ */
+public class RuntimeProfileParser extends AbstractXMLObjectParser {
+
+    public static final String RUNTIME_PROFILE = "runtimeProfile";
+
+    public String getParserName() {
+        return RUNTIME_PROFILE;
+    }
+
+    public Object parseXMLObject(XMLObject xo) throws XMLParseException {
+
+        OperatorSchedule schedule = (OperatorSchedule) xo.getChild(OperatorSchedule.class);
+        Likelihood likelihood = (Likelihood) xo.getChild(Likelihood.class);
+
+        return new RuntimeProfile(schedule, likelihood);
+    }
+
+    //************************************************************************
+    // AbstractXMLObjectParser implementation
+    //************************************************************************
+
+    public XMLSyntaxRule[] getSyntaxRules() {
+        return rules;
+    }
+
+    private final XMLSyntaxRule[] rules = {
+            new ElementRule(OperatorSchedule.class),
+            new ElementRule(Likelihood.class, true)
+    };
+
+    public String getParserDescription() {
+        return "Logs the time spent in each step of the operators' moves and in each component of the likelihood";
+    }
+
+    public Class getReturnType() {
+        return RuntimeProfile.class;
+    }
+}
@@ -1,6 +1,6 @@
 package dr.inferencexml.trace;
 
-import dr.inference.trace.LogFileTraces;
+import dr.inference.trace.MappedLogFileTraces;
 import dr.inference.trace.MarginalLikelihoodAnalysis;
 import dr.inference.trace.Trace;
 import dr.inference.trace.TraceException;
@@ -47,7 +47,8 @@ public class MarginalLikelihoodAnalysisParser extends AbstractXMLObjectParser {
             XMLObject cxo = xo.getChild(COLUMN_NAME);
             String likelihoodName = cxo.getStringAttribute(Attribute.NAME);
 
-            LogFileTraces traces = new LogFileTraces(fileName, file);
+            // only the likelihood column is read from the log
+            MappedLogFileTraces traces = new MappedLogFileTraces(fileName, file);
             traces.loadTraces();
             int maxState = traces.getMaxState();
 
@@ -83,6 +84,7 @@ public class MarginalLikelihoodAnalysisParser extends AbstractXMLObjectParser {
 
             Double sample[] = new Double[traces.getStateCount()];
             traces.getValues(traceIndex, sample);
+            traces.close();
 
             MarginalLikelihoodAnalysis analysis = new MarginalLikelihoodAnalysis(
                     Trace.arrayConvert(sample),
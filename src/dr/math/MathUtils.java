@@ -25,6 +25,9 @@
 
 package dr.math;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.text.NumberFormat;
 import java.text.ParseException;
 
@@ -154,6 +157,24 @@ public class MathUtils {
 		}
 	}
 
+	/**
+	 * Write the state of the default instance, access is synchronized
+	 */
+	public static void writeRandomState(DataOutput out) throws IOException {
+		synchronized (random) {
+			random.writeState(out);
+		}
+	}
+
+	/**
+	 * Restore the state of the default instance, access is synchronized
+	 */
+	public static void readRandomState(DataInput in) throws IOException {
+		synchronized (random) {
+			random.readState(in);
+		}
+	}
+
 	/**
 	 * Access a default instance of this class, access is synchronized
 	 */
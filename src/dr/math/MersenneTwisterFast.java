@@ -25,6 +25,9 @@
 
 package dr.math;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 
 
@@ -179,6 +182,39 @@ class MersenneTwisterFast implements Serializable {
 		return initializationSeed;
 	}
 
+	/**
+	 * Writes the complete internal state of the generator so that the
+	 * sequence can be continued exactly by readState.
+	 *
+	 * @param out the output to write the state to
+	 * @throws IOException if the state could not be written
+	 */
+	public final void writeState(DataOutput out) throws IOException {
+		out.writeLong(initializationSeed);
+		out.writeInt(mti);
+		for (int i = 0; i < N; i++) {
+			out.writeInt(mt[i]);
+		}
+		out.writeBoolean(haveNextNextGaussian);
+		out.writeDouble(nextNextGaussian);
+	}
+
+	/**
+	 * Restores the internal state of the generator previously written by writeState.
+	 *
+	 * @param in the input to read the state from
+	 * @throws IOException if the state could not be read
+	 */
+	public final void readState(DataInput in) throws IOException {
+		setSeed(in.readLong());
+		mti = in.readInt();
+		for (int i = 0; i < N; i++) {
+			mt[i] = in.readInt();
+		}
+		haveNextNextGaussian = in.readBoolean();
+		nextNextGaussian = in.readDouble();
+	}
+
 	public final int nextInt() {
 		int y;
 
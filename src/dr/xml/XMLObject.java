@@ -436,6 +436,33 @@ public class XMLObject {
         return (getRawChild(child) instanceof Reference);
     }
 
+    void setParser(XMLParser parser) {
+        this.parser = parser;
+    }
+
+    /**
+     * Parses the element this XMLObject was created from again, along with the elements
+     * it depends on, to give an independent copy of its native object (for example, to
+     * run a copy of a model in another thread). Nothing in the copy is run.
+     *
+     * @return the copy of the native object
+     * @throws XMLParseException if the element could not be parsed again
+     */
+    public Object parseCopy() throws XMLParseException {
+        if (parser == null || element == null) {
+            throw new XMLParseException("This object was not created by a parser and can't be copied");
+        }
+        return parser.parseCopy(element);
+    }
+
+    /**
+     * @return true if this object was parsed as part of a copy (see parseCopy), in which
+     *         case it should write no files
+     */
+    boolean isCopy() {
+        return parser != null && parser.isParsingCopy();
+    }
+
     //*********************************************************************
     // Static members
     //*********************************************************************
@@ -577,6 +604,7 @@ public class XMLObject {
 
     private final Vector<Object> children = new Vector<Object>();
     private Element element = null;
+    private XMLParser parser = null;
 
     private Object nativeObject;
 
@@ -173,6 +173,100 @@ public class XMLParser {
         return root;
     }
 
+    /**
+     * Parses the given element again, into a new object store, to give a copy of its
+     * object that shares nothing with the original. Only the top level elements of the
+     * document that the element depends on (by following idrefs) are parsed, nothing is
+     * run and no files are opened for writing (loggers will write nothing).
+     *
+     * @param element the element to copy
+     * @return the new object parsed from the element
+     * @throws XMLParseException if the element could not be parsed
+     */
+    Object parseCopy(Element element) throws XMLParseException {
+
+        final Element documentElement = element.getOwnerDocument().getDocumentElement();
+
+        // find the top level element containing the target
+        Element targetTop = element;
+        while (targetTop.getParentNode() != documentElement) {
+            targetTop = (Element) targetTop.getParentNode();
+        }
+
+        // map the ids declared within each top level element to that element
+        final Map<String, Element> topLevelById = new HashMap<String, Element>();
+        final List<Element> topLevel = new ArrayList<Element>();
+        NodeList nodes = documentElement.getChildNodes();
+        for (int i = 0; i < nodes.getLength(); i++) {
+            if (nodes.item(i) instanceof Element) {
+                final Element top = (Element) nodes.item(i);
+                topLevel.add(top);
+                for (Element child : getElements(top)) {
+                    if (child.hasAttribute(ID)) {
+                        topLevelById.put(child.getAttribute(ID), top);
+                    }
+                }
+            }
+        }
+
+        // the top level elements that the target depends on
+        final Set<Element> required = new HashSet<Element>();
+        final List<Element> pending = new ArrayList<Element>();
+        pending.add(targetTop);
+        while (pending.size() > 0) {
+            final Element top = pending.remove(pending.size() - 1);
+            if (required.add(top)) {
+                for (Element child : getElements(top)) {
+                    if (child.hasAttribute(IDREF) && topLevelById.containsKey(child.getAttribute(IDREF))) {
+                        pending.add(topLevelById.get(child.getAttribute(IDREF)));
+                    }
+                }
+            }
+        }
+
+        final XMLParser parser = new XMLParser(false, parserWarnings, strictXML);
+        parser.parserStore.putAll(parserStore);
+        parser.copyTarget = element;
+
+        for (Element top : topLevel) {
+            if (required.contains(top)) {
+                parser.convert(top, null, false, true);
+            }
+            if (top == targetTop) {
+                break;
+            }
+        }
+
+        if (parser.copyResult == null) {
+            throw new XMLParseException("Unable to copy the " + element.getTagName() + " element");
+        }
+        return parser.copyResult;
+    }
+
+    /**
+     * @return true if this parser is parsing a copy (see parseCopy)
+     */
+    boolean isParsingCopy() {
+        return copyTarget != null;
+    }
+
+    /**
+     * @return the element and all the elements it contains
+     */
+    private static List<Element> getElements(Element element) {
+        final List<Element> elements = new ArrayList<Element>();
+        elements.add(element);
+        for (int i = 0; i < elements.size(); i++) {
+            NodeList nodes = elements.get(i).getChildNodes();
+            for (int j = 0; j < nodes.getLength(); j++) {
+                if (nodes.item(j) instanceof Element) {
+                    elements.add((Element) nodes.item(j));
+                }
+            }
+        }
+        return elements;
+    }
+
     private Object convert(Element e, Class target, boolean run, boolean doParse) throws XMLParseException {
 
         int index = -1;
@@ -240,6 +334,7 @@ public class XMLParser {
             }
 
             XMLObject xo = new XMLObject(e /*, objectStore*/);
+            xo.setParser(this);
 
             final XMLObjectParser parser = doParse ? parserStore.get(xo.getName()) : null;
 
@@ -292,12 +387,19 @@ public class XMLParser {
                     ((Identifiable) obj).setId(id);
                 }
 
-                if (obj instanceof Likelihood) {
-                    Likelihood.FULL_LIKELIHOOD_SET.add((Likelihood)obj);
-                } else if (obj instanceof Model) {
-                    Model.FULL_MODEL_SET.add((Model)obj);
-                } else if (obj instanceof Parameter) {
-                    Parameter.FULL_PARAMETER_SET.add((Parameter)obj);
+                if (e == copyTarget) {
+                    copyResult = obj;
+                }
+
+                // the objects of a copy are kept out of the sets of the whole analysis
+                if (copyTarget == null) {
+                    if (obj instanceof Likelihood) {
+                        Likelihood.FULL_LIKELIHOOD_SET.add((Likelihood)obj);
+                    } else if (obj instanceof Model) {
+                        Model.FULL_MODEL_SET.add((Model)obj);
+                    } else if (obj instanceof Parameter) {
+                        Parameter.FULL_PARAMETER_SET.add((Parameter)obj);
+                    }
                 }
 
                 xo.setNativeObject(obj);
@@ -350,6 +452,26 @@ public class XMLParser {
      * @throws XMLParseException if file can't be created for some reason
      */
     public static PrintWriter getFilePrintWriter(XMLObject xo, String parserName) throws XMLParseException {
+        return new PrintWriter(getFileOutputStream(xo, parserName));
+    }
+
+    /**
+     * Allow a file relative to beast xml file with a prefix of ./
+     *
+     * @param xo         element
+     * @param parserName for error messages
+     * @return Output stream from fileName attribute in the given XMLObject (or standard output if there isn't one)
+     * @throws XMLParseException if file can't be created for some reason
+     */
+    public static OutputStream getFileOutputStream(XMLObject xo, String parserName) throws XMLParseException {
+
+        if (xo.isCopy()) {
+            // parsing a copy so write nothing
+            return new OutputStream() {
+                public void write(int b) {
+                }
+            };
+        }
 
         if (xo.hasAttribute(FileHelpers.FILE_NAME)) {
 
@@ -378,7 +500,10 @@ public class XMLParser {
                 allowOverwrite = Boolean.parseBoolean(System.getProperty("log.allow.overwrite", "false"));
             }
 
-            if (logFile.exists() && !allowOverwrite) {
+            // when resuming from a checkpoint the existing log is appended to
+            final boolean append = Boolean.parseBoolean(System.getProperty("checkpoint.resume", "false"));
+
+            if (logFile.exists() && !allowOverwrite && !append) {
                 throw new XMLParseException("\nThe log file " + fileName + " already exists in the working directory." +
                         "\nTo allow it to be overwritten, use the '-overwrite' command line option when running" +
                         "\nBEAST or select the option in the Run Options dialog box as appropriate.");
@@ -386,16 +511,27 @@ public class XMLParser {
 
 
             try {
-                return new PrintWriter(new FileOutputStream(logFile));
+                OutputStream stream = new FileOutputStream(logFile, append);
+                LOG_FILES.add(logFile);
+                return stream;
             } catch (FileNotFoundException fnfe) {
                 throw new XMLParseException("File '" + logFile.getAbsolutePath() +
                         "' can not be opened for " + parserName + " element.");
             }
 
         }
-        return new PrintWriter(System.out);
+        return System.out;
     }
 
+    /**
+     * @return the files that have been opened for writing by getFileOutputStream
+     */
+    public static List<File> getLogFiles() {
+        return LOG_FILES;
+    }
+
+    private static final List<File> LOG_FILES = new ArrayList<File>();
+
 
     public class ArrayParser extends AbstractXMLObjectParser {
 
@@ -486,6 +622,9 @@ public class XMLParser {
     private boolean concurrent = false;
     private XMLObject root = null;
 
+    private Element copyTarget = null;
+    private Object copyResult = null;
+
     private boolean verbose = false;
 
     public static class Utils {
@@ -0,0 +1,191 @@
+/*
+ * LogCombinerTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.app.tools;
+
+import dr.app.tools.LogCombiner;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.Tree;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests combining logs and tree files, both by copying the records and by reformatting them.
+ */
+public class LogCombinerTest extends TestCase {
+
+    private static final String LOG1 = "# BEAST v1.6.0\n" +
+            "[a comment]\n" +
+            "state\tposterior\tclock.rate\n" +
+            "0\t-10.5\t1.0E-3\n" +
+            "1000\t-9.5\t2.0E-3\n" +
+            "2000\t-8.5\tNaN\n" +
+            "3000\tabc\t1.0\n" +        // not a number
+            "4000\t-7.5\n" +            // too few columns
+            "5000 -6.5 4.0E-3\t\n" +    // separated by spaces with a trailing tab
+            "6000\t-5.5\t\t5.0E-3\n" +  // an empty column
+            "7000\t-4.5\t6.0E-3";       // no end of line
+
+    private static final String LOG2 = "state\tposterior\tclock.rate\r\n" +
+            "0\t-3.5\t7.0E-3\r\n" +
+            "1000\t-2.5\t8.0E-3\r\n" +
+            "2000\t-1.5\t9.0E-3\r\n";
+
+    private static final String TREES1 = "#NEXUS\n" +
+            "begin trees;\n" +
+            "\ttranslate 1 A, 2 B, 3 C;\n" +
+            "tree STATE_0 [&lnP=-12.5,joint=-20.0] = [&R] ((1[&rate=0.5]:1.0,2:1.0):0.5,3:1.5);\n" +
+            "tree STATE_100 [&lnP=-10.0,joint=-18.0] = [&R] ((1:0.75,3:0.75):0.25,2:1.0);\n" +
+            "end;\n";
+
+    private static final String TREES2 = "#NEXUS\n" +
+            "begin trees;\n" +
+            "\ttranslate 1 A, 2 B, 3 C;\n" +
+            "tree STATE_0 [&lnP=-11.0] = [&R] ((2:1.0,3:1.0):0.5,1:1.5);\n" +
+            "tree STATE_100 [&lnP=-9.0] = [&R] ((1:0.5,2:0.5):2.0,3:2.5);\n" +
+            "end;\n";
+
+    // the same taxa numbered differently so the trees can't be copied as they are
+    private static final String TREES3 = "#NEXUS\n" +
+            "begin trees;\n" +
+            "\ttranslate 1 C, 2 B, 3 A;\n" +
+            "tree STATE_0 [&lnP=-8.0] = [&R] ((1:1.0,2:1.0):1.0,3:2.0);\n" +
+            "tree STATE_100 [&lnP=-7.0] = [&R] ((3:1.0,2:1.0):1.0,1:2.0);\n" +
+            "end;\n";
+
+    public LogCombinerTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        files = new ArrayList<File>();
+    }
+
+    public void tearDown() throws Exception {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    public void testCombineLogs() throws Exception {
+        String log1 = write(LOG1, ".log");
+        String log2 = write(LOG2, ".log");
+        String output = createFile(".log");
+
+        new LogCombiner(new int[]{1000}, -1, new String[]{log1, log2}, output, false, false, false, false, 1.0);
+
+        List<String> lines = readLines(output);
+        assertEquals("state\tposterior\tclock.rate", lines.get(0));
+        assertEquals("1000\t-9.5\t2.0E-3", lines.get(1));
+        assertEquals("2000\t-8.5\tNaN", lines.get(2));
+        assertEquals("3000\t-6.5\t4.0E-3", lines.get(3));
+        assertEquals("4000\t-4.5\t6.0E-3", lines.get(4));
+        assertEquals("5000\t-2.5\t8.0E-3", lines.get(5));
+        assertEquals("6000\t-1.5\t9.0E-3", lines.get(6));
+        assertEquals(7, lines.size());
+
+        // the same lines are chosen when the numbers are reformatted
+        String reformatted = createFile(".log");
+        new LogCombiner(new int[]{1000}, 2, new String[]{log1, log2}, reformatted, false, true, true, false, 1.0);
+        String copied = createFile(".log");
+        new LogCombiner(new int[]{1000}, 2, new String[]{log1, log2}, copied, false, false, true, false, 1.0);
+
+        List<String> reformattedLines = readLines(reformatted);
+        List<String> copiedLines = readLines(copied);
+        assertEquals(reformattedLines.size(), copiedLines.size());
+        for (int i = 1; i < copiedLines.size(); i++) {
+            String[] expected = reformattedLines.get(i).split("\t");
+            String[] values = copiedLines.get(i).split("\t");
+            assertEquals(expected[0], values[0]);
+            for (int j = 1; j < values.length; j++) {
+                assertEquals(Double.parseDouble(expected[j]), Double.parseDouble(values[j]), 1E-12);
+            }
+        }
+    }
+
+    public void testCombineTrees() throws Exception {
+        String trees1 = write(TREES1, ".trees");
+        String trees2 = write(TREES2, ".trees");
+        String trees3 = write(TREES3, ".trees");
+        String output = createFile(".trees");
+
+        new LogCombiner(new int[]{0}, -1, new String[]{trees1, trees2, trees3}, output, true, false, false, false, 1.0);
+
+        // the trees which use the same numbers are copied as they are
+        List<String> lines = readLines(output);
+        assertTrue(lines.contains("tree STATE_0 [&lnP=-12.5,joint=-20.0] = [&R] ((1[&rate=0.5]:1.0,2:1.0):0.5,3:1.5);"));
+        assertTrue(lines.contains("tree STATE_200 [&lnP=-11.0] = [&R] ((2:1.0,3:1.0):0.5,1:1.5);"));
+
+        Tree[] trees = new NexusImporter(new FileReader(output)).importTrees(null);
+        assertEquals(6, trees.length);
+        for (int i = 0; i < trees.length; i++) {
+            assertEquals("STATE_" + (i * 100), trees[i].getId());
+        }
+        assertEquals("((A,B),C);", Tree.Utils.newickNoLengths(trees[0]));
+        assertEquals("((B,C),A);", Tree.Utils.newickNoLengths(trees[2]));
+        assertEquals("((C,B),A);", Tree.Utils.newickNoLengths(trees[4]));
+        assertEquals("((A,B),C);", Tree.Utils.newickNoLengths(trees[5]));
+        assertEquals(-7.0, trees[5].getAttribute("lnP"));
+    }
+
+    private String createFile(String suffix) throws IOException {
+        File file = File.createTempFile("logcombiner", suffix);
+        file.deleteOnExit();
+        files.add(file);
+        return file.getPath();
+    }
+
+    private String write(String text, String suffix) throws IOException {
+        String fileName = createFile(suffix);
+        Writer writer = new FileWriter(fileName);
+        writer.write(text);
+        writer.close();
+        return fileName;
+    }
+
+    private List<String> readLines(String fileName) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(fileName));
+        String line = reader.readLine();
+        while (line != null) {
+            lines.add(line);
+            line = reader.readLine();
+        }
+        reader.close();
+        return lines;
+    }
+
+    public static Test suite() {
+        return new TestSuite(LogCombinerTest.class);
+    }
+
+    private List<File> files;
+}
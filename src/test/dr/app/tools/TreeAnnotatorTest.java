@@ -0,0 +1,180 @@
+/*
+ * TreeAnnotatorTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.app.tools;
+
+import dr.app.tools.TreeAnnotator;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests that TreeAnnotator's single pass mode chooses and annotates the same tree as the
+ * default mode.
+ */
+public class TreeAnnotatorTest extends TestCase {
+
+    private static final int TAXON_COUNT = 8;
+    private static final int TREE_COUNT = 300;
+
+    public TreeAnnotatorTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        treeFile = File.createTempFile("annotator", ".trees");
+        expectedFile = File.createTempFile("annotator", ".tree");
+        outputFile = File.createTempFile("annotator", ".tree");
+
+        writeTrees(treeFile);
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+        treeFile.delete();
+        expectedFile.delete();
+        outputFile.delete();
+    }
+
+    public void testMaxCladeCredibility() throws Exception {
+        assertSameTree(TreeAnnotator.Target.MAX_CLADE_CREDIBILITY, TreeAnnotator.HeightsSummary.MEDIAN_HEIGHTS);
+    }
+
+    public void testMaxSumCladeCredibility() throws Exception {
+        assertSameTree(TreeAnnotator.Target.MAX_SUM_CLADE_CREDIBILITY, TreeAnnotator.HeightsSummary.MEAN_HEIGHTS);
+    }
+
+    private void assertSameTree(TreeAnnotator.Target target, TreeAnnotator.HeightsSummary heights) throws Exception {
+        new TreeAnnotator(10, heights, 0.0, 0.80, target, null, treeFile.getPath(), expectedFile.getPath(), false);
+        new TreeAnnotator(10, heights, 0.0, 0.80, target, null, treeFile.getPath(), outputFile.getPath(), true);
+
+        final String expected = readTree(expectedFile);
+        assertTrue(expected.contains("posterior="));
+        assertTrue(expected.contains("rate_95%_HPD="));
+        assertTrue(expected.contains("state.set="));
+        assertEquals(expected, readTree(outputFile));
+    }
+
+    /**
+     * @return the tree statement of an annotated tree file
+     */
+    private static String readTree(File file) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line = reader.readLine();
+            while (line != null) {
+                if (line.trim().startsWith("tree ")) {
+                    return line;
+                }
+                line = reader.readLine();
+            }
+        } finally {
+            reader.close();
+        }
+        fail("No tree in " + file.getName());
+        return null;
+    }
+
+    /**
+     * Writes trees of random topologies, with a numerical, a discrete and an integer attribute
+     * on each node.
+     */
+    private static void writeTrees(File file) throws IOException {
+        final Random random = new Random(666);
+        final PrintWriter writer = new PrintWriter(new FileWriter(file));
+
+        writer.println("#NEXUS");
+        writer.println();
+        writer.println("Begin taxa;");
+        writer.println("\tDimensions ntax=" + TAXON_COUNT + ";");
+        writer.println("\tTaxlabels");
+        for (int i = 1; i <= TAXON_COUNT; i++) {
+            writer.println("\t\ttaxon" + i);
+        }
+        writer.println("\t\t;");
+        writer.println("End;");
+        writer.println();
+        writer.println("Begin trees;");
+        writer.println("\tTranslate");
+        for (int i = 1; i <= TAXON_COUNT; i++) {
+            writer.println("\t\t" + i + " taxon" + i + (i < TAXON_COUNT ? "," : ""));
+        }
+        writer.println("\t\t;");
+
+        for (int k = 0; k < TREE_COUNT; k++) {
+            final List<String> subtrees = new ArrayList<String>();
+            final List<Double> heights = new ArrayList<Double>();
+            for (int i = 1; i <= TAXON_COUNT; i++) {
+                subtrees.add(Integer.toString(i));
+                heights.add(0.0);
+            }
+
+            // join the first two subtrees more often than the others so that some clades are common
+            while (subtrees.size() > 1) {
+                final int first = (random.nextDouble() < 0.7 ? 0 : random.nextInt(subtrees.size()));
+                int second = random.nextInt(subtrees.size() - 1);
+                if (second >= first) {
+                    second++;
+                }
+
+                final double height = Math.max(heights.get(first), heights.get(second)) + random.nextDouble();
+                final String subtree = "(" +
+                        subtrees.get(first) + annotate(random, height - heights.get(first)) + "," +
+                        subtrees.get(second) + annotate(random, height - heights.get(second)) + ")";
+
+                subtrees.remove(Math.max(first, second));
+                heights.remove(Math.max(first, second));
+                subtrees.set(Math.min(first, second), subtree);
+                heights.set(Math.min(first, second), height);
+            }
+
+            writer.println("tree STATE_" + (k * 1000) + " [&lnP=-" + (1000 + k) + "] = [&R] " +
+                    subtrees.get(0) + "[&rate=" + random.nextDouble() + ",state=\"A\",count=1];");
+        }
+        writer.println("End;");
+        writer.close();
+    }
+
+    private static String annotate(Random random, double length) {
+        return "[&rate=" + random.nextDouble() +
+                ",state=\"" + "ABC".charAt(random.nextInt(3)) + "\"" +
+                ",count=" + random.nextInt(4) + "]:" + length;
+    }
+
+    public static Test suite() {
+        return new TestSuite(TreeAnnotatorTest.class);
+    }
+
+    private File treeFile;
+    private File expectedFile;
+    private File outputFile;
+}
@@ -0,0 +1,199 @@
+/*
+ * SitePatternsTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.alignment;
+
+import dr.evolution.alignment.SimpleAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.sequence.Sequence;
+import dr.evolution.util.Taxon;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that the hashed pattern compression of SitePatterns gives the same patterns,
+ * in the same order and with the same weights, as comparing each site with every pattern.
+ * It also reports the time taken by each.
+ */
+public class SitePatternsTest extends TestCase {
+
+    public SitePatternsTest(String name) {
+        super(name);
+    }
+
+    public void testSmallAlignment() {
+        // compressed on a single thread
+        SimpleAlignment alignment = createAlignment(10, 500, 50);
+        assertSamePatterns(alignment, new SitePatterns(alignment, 0, -1, 1), true, true);
+        assertSamePatterns(alignment, new SitePatterns(alignment, null, 0, -1, 1, false), false, true);
+        assertSamePatterns(alignment, new SitePatterns(alignment, null, 0, -1, 1, true, false), true, false);
+    }
+
+    public void testLargeAlignment() {
+        // compressed on several threads when there are processors
+        SimpleAlignment alignment = createAlignment(200, 20000, 3000);
+        assertSamePatterns(alignment, new SitePatterns(alignment, 0, -1, 1), true, true);
+        assertSamePatterns(alignment, new SitePatterns(alignment, 3, 19990, 3), true, true);
+    }
+
+    public void testStartupTime() {
+        SimpleAlignment alignment = createAlignment(1000, 20000, 10000);
+
+        long startTime = System.nanoTime();
+        Reference reference = new Reference(alignment, 0, alignment.getSiteCount() - 1, 1, true, true);
+        final double referenceSeconds = (System.nanoTime() - startTime) * 1E-9;
+
+        startTime = System.nanoTime();
+        SitePatterns patterns = new SitePatterns(alignment, 0, -1, 1);
+        final double seconds = (System.nanoTime() - startTime) * 1E-9;
+
+        System.out.println("Compressing " + alignment.getSiteCount() + " sites of " + alignment.getSequenceCount() +
+                " taxa into " + patterns.getPatternCount() + " patterns: pairwise = " + referenceSeconds +
+                " sec, hashed = " + seconds + " sec");
+
+        assertSamePatterns(reference, patterns);
+    }
+
+    private void assertSamePatterns(SimpleAlignment alignment, SitePatterns patterns, boolean strip, boolean unique) {
+        final int to = patterns.getTo() < 0 ? alignment.getSiteCount() - 1 : patterns.getTo();
+        final int every = patterns.getEvery() <= 0 ? 1 : patterns.getEvery();
+        assertSamePatterns(new Reference(alignment, patterns.getFrom(), to, every, strip, unique), patterns);
+    }
+
+    private void assertSamePatterns(Reference reference, SitePatterns patterns) {
+        assertEquals(reference.patterns.size(), patterns.getPatternCount());
+        assertEquals(reference.invariantCount, patterns.getInvariantCount());
+        for (int i = 0; i < patterns.getPatternCount(); i++) {
+            assertEquals(reference.weights.get(i), patterns.getPatternWeight(i));
+            int[] pattern = reference.patterns.get(i);
+            for (int j = 0; j < pattern.length; j++) {
+                assertEquals(pattern[j], patterns.getPatternState(j, i));
+            }
+        }
+        assertEquals(reference.sitePatternIndices.size(), patterns.getSiteCount());
+        for (int i = 0; i < patterns.getSiteCount(); i++) {
+            assertEquals((int) reference.sitePatternIndices.get(i), patterns.getPatternIndex(i));
+        }
+    }
+
+    /**
+     * An alignment whose sites are drawn from a set of random columns, some of which
+     * are invariant or completely gaps.
+     */
+    private static SimpleAlignment createAlignment(int taxonCount, int siteCount, int columnCount) {
+        MathUtils.setSeed(666);
+
+        final String states = "ACGT";
+        char[][] columns = new char[columnCount][taxonCount];
+        for (int i = 0; i < columnCount; i++) {
+            for (int j = 0; j < taxonCount; j++) {
+                if (i % 10 == 0) {
+                    columns[i][j] = states.charAt(i % 4);
+                } else if (i % 10 == 1) {
+                    columns[i][j] = '-';
+                } else {
+                    columns[i][j] = states.charAt(MathUtils.nextInt(4));
+                }
+            }
+        }
+
+        StringBuilder[] sequences = new StringBuilder[taxonCount];
+        for (int j = 0; j < taxonCount; j++) {
+            sequences[j] = new StringBuilder(siteCount);
+        }
+        for (int i = 0; i < siteCount; i++) {
+            char[] column = columns[MathUtils.nextInt(columnCount)];
+            for (int j = 0; j < taxonCount; j++) {
+                sequences[j].append(column[j]);
+            }
+        }
+
+        SimpleAlignment alignment = new SimpleAlignment();
+        alignment.setDataType(Nucleotides.INSTANCE);
+        for (int j = 0; j < taxonCount; j++) {
+            Sequence sequence = new Sequence(new Taxon("taxon" + j), sequences[j].toString());
+            sequence.setDataType(Nucleotides.INSTANCE);
+            alignment.addSequence(sequence);
+        }
+        return alignment;
+    }
+
+    /**
+     * Compresses the sites by comparing each one with all the patterns so far.
+     */
+    private static class Reference {
+
+        Reference(SimpleAlignment alignment, int from, int to, int every, boolean strip, boolean unique) {
+            for (int i = from; i <= to; i += every) {
+                int[] pattern = alignment.getSitePattern(i);
+
+                if (!strip || !isInvariant(pattern) || !isAllAmbiguous(pattern)) {
+                    sitePatternIndices.add(addPattern(pattern, unique));
+                } else {
+                    sitePatternIndices.add(-1);
+                }
+            }
+        }
+
+        private int addPattern(int[] pattern, boolean unique) {
+            for (int i = 0; i < patterns.size(); i++) {
+                if (unique && java.util.Arrays.equals(patterns.get(i), pattern)) {
+                    weights.set(i, weights.get(i) + 1.0);
+                    return i;
+                }
+            }
+            if (isInvariant(pattern)) {
+                invariantCount++;
+            }
+            patterns.add(pattern);
+            weights.add(1.0);
+            return patterns.size() - 1;
+        }
+
+        private static boolean isInvariant(int[] pattern) {
+            for (int state : pattern) {
+                if (state != pattern[0]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static boolean isAllAmbiguous(int[] pattern) {
+            // an invariant pattern is stripped if its state is a gap, ambiguous or unknown
+            return Nucleotides.INSTANCE.isAmbiguousState(pattern[0]) || Nucleotides.INSTANCE.isGapState(pattern[0]) ||
+                    Nucleotides.INSTANCE.isUnknownState(pattern[0]);
+        }
+
+        final List<int[]> patterns = new ArrayList<int[]>();
+        final List<Double> weights = new ArrayList<Double>();
+        final List<Integer> sitePatternIndices = new ArrayList<Integer>();
+        int invariantCount = 0;
+    }
+}
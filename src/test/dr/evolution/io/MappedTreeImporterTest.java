@@ -0,0 +1,265 @@
+/*
+ * MappedTreeImporterTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.io;
+
+import dr.evolution.io.Importer;
+import dr.evolution.io.MappedTreeImporter;
+import dr.evolution.io.NexusImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Checks that MappedTreeImporter reads the same trees as NexusImporter.
+ */
+public class MappedTreeImporterTest extends TestCase {
+
+    private static final int TAXON_COUNT = 40;
+    private static final int TREE_COUNT = 300;
+
+    public MappedTreeImporterTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+        file = File.createTempFile("trees", ".trees");
+        file.deleteOnExit();
+    }
+
+    public void tearDown() throws Exception {
+        file.delete();
+    }
+
+    public void testTranslatedTrees() throws Exception {
+        writeTrees(true, true, "");
+
+        compareTrees(1);
+        compareTrees(4);
+    }
+
+    public void testUntranslatedTrees() throws Exception {
+        writeTrees(false, false, "");
+
+        compareTrees(1);
+        compareTrees(3);
+    }
+
+    public void testUnfinishedTree() throws Exception {
+        // a tree file which is still being written
+        writeTrees(true, true, "tree STATE_END = ((1:1.0,2:1.0):0.5,");
+
+        MappedTreeImporter importer = new MappedTreeImporter(file, 2);
+        int count = 0;
+        while (importer.hasTree()) {
+            assertNotNull(importer.importNextTree());
+            count++;
+        }
+        assertNull(importer.importNextTree());
+        importer.close();
+        assertEquals(TREE_COUNT, count);
+    }
+
+    public void testUnknownTaxon() throws Exception {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        writer.println("#NEXUS");
+        writer.println("begin trees;");
+        writer.println("\ttranslate 1 A, 2 B, 3 C;");
+        writer.println("\ttree t1 = ((1:1,2:1):1,3:2);");
+        writer.println("\ttree t2 = ((1:1,4:1):1,3:2);");
+        writer.println("end;");
+        writer.close();
+
+        MappedTreeImporter importer = new MappedTreeImporter(file, 2);
+        try {
+            importer.importTrees(null);
+            fail("expected an unknown taxon");
+        } catch (Importer.UnknownTaxonException ute) {
+            assertTrue(ute.getMessage().indexOf("'4'") >= 0);
+        }
+        importer.close();
+    }
+
+    private void compareTrees(int threadCount) throws Exception {
+        NexusImporter nexusImporter = new NexusImporter(new FileReader(file));
+        Tree[] expected = nexusImporter.importTrees(null);
+
+        MappedTreeImporter importer = new MappedTreeImporter(file, threadCount);
+        Tree[] trees = importer.importTrees(null);
+        importer.close();
+
+        assertEquals(expected.length, trees.length);
+        for (int i = 0; i < trees.length; i++) {
+            compareTree(expected[i], trees[i]);
+        }
+    }
+
+    private void compareTree(Tree expected, Tree tree) {
+        assertEquals(expected.getId(), tree.getId());
+        assertEquals(expected.getAttribute("weight"), tree.getAttribute("weight"));
+        assertEquals(expected.getAttribute("lnP"), tree.getAttribute("lnP"));
+        assertEquals(expected.getNodeCount(), tree.getNodeCount());
+        assertEquals(expected.getExternalNodeCount(), tree.getExternalNodeCount());
+        assertEquals(expected.getRoot().getNumber(), tree.getRoot().getNumber());
+
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            NodeRef expectedNode = expected.getNode(i);
+            NodeRef node = tree.getNode(i);
+
+            assertEquals(i, node.getNumber());
+            assertEquals(expected.getNodeHeight(expectedNode), tree.getNodeHeight(node), 1E-10);
+            assertEquals(expected.isExternal(expectedNode), tree.isExternal(node));
+            if (tree.isExternal(node)) {
+                assertEquals(expected.getNodeTaxon(expectedNode).getId(), tree.getNodeTaxon(node).getId());
+            }
+            if (!tree.isRoot(node)) {
+                assertEquals(expected.getParent(expectedNode).getNumber(), tree.getParent(node).getNumber());
+                assertEquals(expected.getBranchLength(expectedNode), tree.getBranchLength(node), 1E-10);
+            }
+            assertEquals(expected.getChildCount(expectedNode), tree.getChildCount(node));
+            for (int j = 0; j < tree.getChildCount(node); j++) {
+                assertEquals(expected.getChild(expectedNode, j).getNumber(), tree.getChild(node, j).getNumber());
+            }
+
+            List<String> names = new ArrayList<String>();
+            Iterator iter = expected.getNodeAttributeNames(expectedNode);
+            while (iter != null && iter.hasNext()) {
+                String name = (String) iter.next();
+                names.add(name);
+                assertAttributeEquals(expected.getNodeAttribute(expectedNode, name), tree.getNodeAttribute(node, name));
+            }
+            int count = 0;
+            iter = tree.getNodeAttributeNames(node);
+            while (iter != null && iter.hasNext()) {
+                assertTrue(names.contains(iter.next()));
+                count++;
+            }
+            assertEquals(names.size(), count);
+        }
+    }
+
+    private void assertAttributeEquals(Object expected, Object value) {
+        if (expected instanceof Object[]) {
+            assertTrue(Arrays.equals((Object[]) expected, (Object[]) value));
+        } else {
+            assertEquals(expected, value);
+        }
+    }
+
+    /**
+     * Writes random trees with the kinds of annotation written by BEAST's tree loggers.
+     */
+    private void writeTrees(boolean translate, boolean taxaBlock, String tail) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        writer.println("#NEXUS");
+        writer.println();
+        writer.println("[R-package APE, some comment]");
+        if (taxaBlock) {
+            writer.println("Begin taxa;");
+            writer.println("\tDimensions ntax=" + TAXON_COUNT + ";");
+            writer.println("\tTaxlabels");
+            for (int i = 0; i < TAXON_COUNT; i++) {
+                writer.println("\t\t" + taxonName(i));
+            }
+            writer.println("\t\t;");
+            writer.println("End;");
+        }
+        writer.println();
+        writer.println("Begin trees;");
+        if (translate) {
+            writer.println("\tTranslate");
+            for (int i = 0; i < TAXON_COUNT; i++) {
+                writer.print("\t\t" + (i + 1) + " " + taxonName(i));
+                writer.println(i < TAXON_COUNT - 1 ? "," : "");
+            }
+            writer.println(";");
+        }
+        for (int i = 0; i < TREE_COUNT; i++) {
+            writer.print("tree STATE_" + (i * 1000) + " [&lnP=" + (-1000.0 * MathUtils.nextDouble()) + "] = [&R] ");
+            if (i % 7 == 0) {
+                writer.print("[&W " + (1.0 / (i + 1)) + "] ");
+            }
+            List<String> nodes = new ArrayList<String>();
+            for (int j = 0; j < TAXON_COUNT; j++) {
+                String label = translate ? Integer.toString(j + 1) : (j % 5 == 0 ? "'" + taxonName(j) + "'" : taxonName(j));
+                nodes.add(label + annotation() + ":" + (MathUtils.nextDouble() * 0.1));
+            }
+            while (nodes.size() > 1) {
+                String child1 = nodes.remove(MathUtils.nextInt(nodes.size()));
+                String child2 = nodes.remove(MathUtils.nextInt(nodes.size()));
+                String node = "(" + child1 + "," + child2 + ")";
+                if (nodes.size() > 0) {
+                    node += annotation() + ":" + (MathUtils.nextDouble() * 0.1);
+                }
+                nodes.add(node);
+            }
+            writer.println(nodes.get(0) + ";");
+        }
+        writer.println("End;");
+        writer.print(tail);
+        writer.close();
+    }
+
+    private String annotation() {
+        switch (MathUtils.nextInt(5)) {
+            case 0:
+                return "";
+            case 1:
+                return "[&rate=" + MathUtils.nextDouble() + "]";
+            case 2:
+                return "[&rate=" + MathUtils.nextDouble() + ",state=\"" + (MathUtils.nextBoolean() ? "A" : "B") + "\"]";
+            case 3:
+                return "[&count=" + MathUtils.nextInt(100) + ",set={" + MathUtils.nextInt(3) + "," + MathUtils.nextDouble() + "}]";
+            default:
+                return "[&flag,rate=1.0E-4]";
+        }
+    }
+
+    private static String taxonName(int i) {
+        return "taxon" + i;
+    }
+
+    public static Test suite() {
+        return new TestSuite(MappedTreeImporterTest.class);
+    }
+
+    private File file;
+}
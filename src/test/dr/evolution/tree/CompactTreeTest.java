@@ -0,0 +1,148 @@
+/*
+ * CompactTreeTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evolution.tree;
+
+import dr.evolution.io.NexusImporter;
+import dr.evolution.io.TreeTrace;
+import dr.evolution.tree.CompactTree;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.util.Iterator;
+
+/**
+ * Tests copying trees to and from CompactTrees.
+ */
+public class CompactTreeTest extends TestCase {
+
+    private static final String TREES = "#NEXUS\n" +
+            "begin trees;\n" +
+            "\ttranslate 1 A, 2 B, 3 C, 4 D;\n" +
+            "\ttree STATE_0 [&lnP=-12.5] = [&R] ((1[&rate=0.5,state=\"x\"]:1.0,2[&rate=1.5,state=\"y\"]:1.0)[&rate=1.0,count=3]:0.5,(3[&rate=2.0,state=\"x\"]:0.25,4[&rate=1.0,set={1,2}]:0.25)[&rate=0.75,count=4]:1.25);\n" +
+            "\ttree STATE_100 [&lnP=-10.0] = [&R] (((1:0.5,3:0.5):0.5,2:1.0):1.0,4:2.0);\n" +
+            "end;\n";
+
+    public CompactTreeTest(String name) {
+        super(name);
+    }
+
+    public void testCopyOf() throws Exception {
+        Tree[] trees = new NexusImporter(new StringReader(TREES)).importTrees(null);
+
+        for (Tree tree : trees) {
+            CompactTree compactTree = CompactTree.copyOf(tree);
+            assertSame(compactTree, CompactTree.copyOf(compactTree));
+            compareTrees(tree, compactTree);
+        }
+
+        CompactTree tree = CompactTree.copyOf(trees[0]);
+        assertEquals(-12.5, tree.getAttribute("lnP"));
+        assertEquals(0.5, tree.getNodeAttributeValue(0, "rate"));
+        assertEquals(3.0, tree.getNodeAttributeValue(tree.getParentNumber(0), "count"));
+        assertTrue(Double.isNaN(tree.getNodeAttributeValue(0, "count")));
+        assertTrue(Double.isNaN(tree.getNodeAttributeValue(0, "state")));
+        // NexusImporter keeps the quotes of string values
+        assertEquals("\"x\"", tree.getNodeAttribute(tree.getNode(2), "state"));
+
+        try {
+            tree.setAttribute("lnP", 0.0);
+            fail("a CompactTree can't be changed");
+        } catch (UnsupportedOperationException uoe) {
+            // expected
+        }
+    }
+
+    public void testToFlexibleTree() throws Exception {
+        Tree[] trees = new NexusImporter(new StringReader(TREES)).importTrees(null);
+
+        for (Tree tree : trees) {
+            FlexibleTree flexibleTree = CompactTree.copyOf(tree).toFlexibleTree();
+            compareTrees(tree, flexibleTree);
+            assertEquals(tree.getAttribute("lnP"), flexibleTree.getAttribute("lnP"));
+
+            // it can be changed
+            flexibleTree.setNodeHeight(flexibleTree.getRoot(), 10.0);
+            assertEquals(10.0, flexibleTree.getNodeHeight(flexibleTree.getRoot()));
+        }
+    }
+
+    public void testLoadTreeTrace() throws Exception {
+        File file = File.createTempFile("trace", ".trees");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        writer.write(TREES);
+        writer.close();
+
+        TreeTrace fromReader = TreeTrace.loadTreeTrace(new FileReader(file));
+        TreeTrace fromFile = TreeTrace.loadTreeTrace(file);
+        file.delete();
+
+        assertEquals(fromReader.getTreeCount(0), fromFile.getTreeCount(0));
+        assertEquals(fromReader.getStepSize(), fromFile.getStepSize());
+        assertEquals(100, fromFile.getStepSize());
+        for (int i = 0; i < fromFile.getTreeCount(0); i++) {
+            assertTrue(fromFile.getTree(i, 0) instanceof CompactTree);
+            compareTrees(fromReader.getTree(i, 0), fromFile.getTree(i, 0));
+        }
+    }
+
+    private void compareTrees(Tree expected, Tree tree) {
+        assertEquals(expected.getId(), tree.getId());
+        assertEquals(expected.getNodeCount(), tree.getNodeCount());
+        assertEquals(expected.getRoot().getNumber(), tree.getRoot().getNumber());
+        assertEquals(Tree.Utils.newick(expected), Tree.Utils.newick(tree));
+
+        for (int i = 0; i < tree.getNodeCount(); i++) {
+            NodeRef expectedNode = expected.getNode(i);
+            NodeRef node = tree.getNode(i);
+            assertEquals(expected.getNodeHeight(expectedNode), tree.getNodeHeight(node), 1E-12);
+            assertEquals(expected.getTaxonId(i), tree.getTaxonId(i));
+
+            Iterator iter = expected.getNodeAttributeNames(expectedNode);
+            while (iter != null && iter.hasNext()) {
+                String name = (String) iter.next();
+                Object value = expected.getNodeAttribute(expectedNode, name);
+                if (value instanceof Object[]) {
+                    assertEquals(((Object[]) value).length, ((Object[]) tree.getNodeAttribute(node, name)).length);
+                } else {
+                    assertEquals(value, tree.getNodeAttribute(node, name));
+                }
+            }
+        }
+    }
+
+    public static Test suite() {
+        return new TestSuite(CompactTreeTest.class);
+    }
+}
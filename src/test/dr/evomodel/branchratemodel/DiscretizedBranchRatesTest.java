@@ -0,0 +1,137 @@
+/*
+ * DiscretizedBranchRatesTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.branchratemodel;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.branchratemodel.DiscretizedBranchRates;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.distribution.GammaDistributionModel;
+import dr.inference.distribution.LogNormalDistributionModel;
+import dr.inference.distribution.ParametricDistributionModel;
+import dr.inference.model.Parameter;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the cached rates of DiscretizedBranchRates follow the distribution's parameters.
+ */
+public class DiscretizedBranchRatesTest extends TestCase {
+
+    public DiscretizedBranchRatesTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        NewickImporter importer = new NewickImporter(
+                "((((A:1.0,B:1.0):1.0,C:2.0):1.0,(D:1.5,F:1.5):1.5):1.0,(E:3.0,G:3.0):1.0);");
+        treeModel = new TreeModel("treeModel", importer.importTree(null));
+    }
+
+    public void testLogNormal() {
+        Parameter mean = new Parameter.Default(1.0);
+        Parameter stdev = new Parameter.Default(0.5);
+        checkRates(new LogNormalDistributionModel(mean, stdev, 0.0, true, true), mean, 2.0);
+    }
+
+    public void testGamma() {
+        Parameter shape = new Parameter.Default(2.0);
+        Parameter scale = new Parameter.Default(0.5);
+        checkRates(new GammaDistributionModel(shape, scale), scale, 1.5);
+    }
+
+    private void checkRates(ParametricDistributionModel distribution, Parameter parameter, double newValue) {
+        Parameter categories = new Parameter.Default(treeModel.getNodeCount() - 1);
+        DiscretizedBranchRates branchRates = new DiscretizedBranchRates(treeModel, categories, distribution, 1);
+        assertRates(branchRates, categories, distribution);
+
+        final double oldValue = parameter.getParameterValue(0);
+        final double[] oldRates = getRates(branchRates);
+
+        // a parameter move which is rejected
+        parameter.storeParameterValues();
+        branchRates.storeModelState();
+        parameter.setParameterValue(0, newValue);
+        assertRates(branchRates, categories, distribution);
+        parameter.restoreParameterValues();
+        branchRates.restoreModelState();
+        assertEquals(oldValue, parameter.getParameterValue(0));
+        assertRates(branchRates, categories, distribution);
+
+        // a category move which is rejected
+        branchRates.storeModelState();
+        categories.storeParameterValues();
+        categories.setParameterValue(0, categories.getParameterValue(1));
+        assertRates(branchRates, categories, distribution);
+        categories.restoreParameterValues();
+        branchRates.restoreModelState();
+
+        double[] rates = getRates(branchRates);
+        for (int i = 0; i < rates.length; i++) {
+            assertEquals(oldRates[i], rates[i]);
+        }
+
+        // a parameter move which is accepted
+        branchRates.storeModelState();
+        parameter.setParameterValue(0, newValue);
+        branchRates.acceptModelState();
+        assertRates(branchRates, categories, distribution);
+    }
+
+    private void assertRates(DiscretizedBranchRates branchRates, Parameter categories,
+                             ParametricDistributionModel distribution) {
+        final int categoryCount = categories.getDimension();
+        double[] rates = getRates(branchRates);
+        for (int i = 0; i < treeModel.getNodeCount(); i++) {
+            NodeRef node = treeModel.getNode(i);
+            if (!treeModel.isRoot(node)) {
+                int category = (int) Math.round(categories.getParameterValue(indexOf(node)));
+                double expected = distribution.quantile((category + 0.5) / categoryCount);
+                assertEquals(expected, rates[indexOf(node)], expected * 1E-12);
+            }
+        }
+    }
+
+    private double[] getRates(DiscretizedBranchRates branchRates) {
+        double[] rates = new double[treeModel.getNodeCount() - 1];
+        for (int i = 0; i < treeModel.getNodeCount(); i++) {
+            NodeRef node = treeModel.getNode(i);
+            if (!treeModel.isRoot(node)) {
+                rates[indexOf(node)] = branchRates.getBranchRate(treeModel, node);
+            }
+        }
+        return rates;
+    }
+
+    // the index of a branch in the category parameter (the root is skipped)
+    private int indexOf(NodeRef node) {
+        int index = node.getNumber();
+        return index > treeModel.getRoot().getNumber() ? index - 1 : index;
+    }
+
+    private TreeModel treeModel;
+}
@@ -0,0 +1,228 @@
+/*
+ * CoalescentEventListTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.coalescent;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.FlexibleTree;
+import dr.evolution.tree.Tree;
+import dr.evolution.util.Units;
+import dr.evomodel.coalescent.BayesianSkylineLikelihood;
+import dr.evomodel.coalescent.CoalescentEventList;
+import dr.evomodel.coalescent.CoalescentLikelihood;
+import dr.evomodel.coalescent.ConstantPopulationModel;
+import dr.evomodel.coalescent.GMRFSkyrideLikelihood;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.AbstractModelLikelihood;
+import dr.inference.model.Parameter;
+import dr.inference.operators.CoercionMode;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorFailedException;
+import dr.inference.operators.ScaleOperator;
+import dr.inference.operators.UniformOperator;
+import dr.math.MathUtils;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Checks that the coalescent likelihoods calculated from the incrementally sorted events
+ * match those calculated from scratch as the tree changes and moves are accepted or rejected.
+ */
+public class CoalescentEventListTest extends TestCase {
+
+    private static final int TAXON_COUNT = 30;
+
+    public CoalescentEventListTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        treeModel = new TreeModel("treeModel", new NewickImporter(randomTree()).importTree(null));
+
+        final Parameter internalHeights = treeModel.createNodeHeightsParameter(false, true, false);
+        final Parameter allHeights = treeModel.createNodeHeightsParameter(true, true, false);
+
+        operators = new MCMCOperator[]{
+                new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0),
+                new ExchangeOperator(ExchangeOperator.WIDE, treeModel, 1.0),
+                new SubtreeSlideOperator(treeModel, 1.0, 1.0, true, false, false, false, CoercionMode.COERCION_OFF),
+                new WilsonBalding(treeModel, 1.0),
+                new UniformOperator(internalHeights, 1.0),
+                new ScaleOperator(allHeights, true, 0, 0.9, CoercionMode.COERCION_OFF, null, 1.0, false)
+        };
+    }
+
+    public void testEventOrder() {
+        final CoalescentEventList eventList = new CoalescentEventList(treeModel);
+
+        for (int i = 0; i < 2000; i++) {
+            eventList.storeModelState();
+            operate(operators[i % operators.length]);
+
+            if (i % 3 == 0) {
+                eventList.restoreModelState();
+            } else {
+                eventList.acceptModelState();
+            }
+
+            double lastTime = Double.NEGATIVE_INFINITY;
+            boolean lastSample = true;
+            for (int j = 0; j < eventList.getEventCount(); j++) {
+                final int node = eventList.getNodeNumber(j);
+                final double time = eventList.getEventTime(j);
+
+                assertEquals(treeModel.getNodeHeight(treeModel.getNode(node)), time);
+                assertEquals(treeModel.isExternal(treeModel.getNode(node)), eventList.isSampleEvent(j));
+                assertTrue(time > lastTime || (time == lastTime && (lastSample || !eventList.isSampleEvent(j))));
+
+                lastTime = time;
+                lastSample = eventList.isSampleEvent(j);
+            }
+        }
+    }
+
+    public void testCoalescentLikelihood() throws Exception {
+        final ConstantPopulationModel demoModel = new ConstantPopulationModel(
+                new Parameter.Default(10.0), Units.Type.YEARS);
+        final CoalescentLikelihood likelihood = new CoalescentLikelihood(treeModel, null, null, demoModel);
+
+        for (int i = 0; i < 2000; i++) {
+            step(likelihood, i);
+
+            final CoalescentLikelihood expected = new CoalescentLikelihood(
+                    new FlexibleTree(treeModel), null, null, demoModel);
+            assertEquals(expected.getLogLikelihood(), likelihood.getLogLikelihood(), 1E-10);
+        }
+    }
+
+    public void testBayesianSkylineLikelihood() {
+        final Parameter popSizes = new Parameter.Default(5, 10.0);
+        final Parameter groupSizes = new Parameter.Default(5, 0.0);
+        final BayesianSkylineLikelihood likelihood = new BayesianSkylineLikelihood(
+                treeModel, popSizes, groupSizes, BayesianSkylineLikelihood.STEPWISE_TYPE);
+
+        for (int i = 0; i < 2000; i++) {
+            step(likelihood, i);
+
+            final BayesianSkylineLikelihood expected = new BayesianSkylineLikelihood(
+                    new FlexibleTree(treeModel), popSizes, groupSizes, BayesianSkylineLikelihood.STEPWISE_TYPE);
+            assertEquals(expected.getLogLikelihood(), likelihood.getLogLikelihood(), 1E-10);
+
+            assertEquals(expected.getIntervalCount(), likelihood.getIntervalCount());
+            for (int j = 0; j < likelihood.getIntervalCount(); j++) {
+                assertEquals(expected.getInterval(j), likelihood.getInterval(j), 1E-12);
+                assertEquals(expected.getLineageCount(j), likelihood.getLineageCount(j));
+            }
+        }
+    }
+
+    public void testGMRFSkyrideLikelihood() {
+        final Parameter popSizes = new Parameter.Default(TAXON_COUNT - 1, 1.0);
+        final Parameter precision = new Parameter.Default(1.0);
+        final Parameter lambda = new Parameter.Default(1.0);
+        final GMRFSkyrideLikelihood likelihood = new GMRFSkyrideLikelihood(
+                treeModel, popSizes, null, precision, lambda, null, null, false, true);
+
+        for (int i = 0; i < 500; i++) {
+            step(likelihood, i);
+
+            final List<Tree> trees = new ArrayList<Tree>();
+            trees.add(new FlexibleTree(treeModel));
+            final GMRFSkyrideLikelihood expected = new GMRFSkyrideLikelihood(
+                    trees, popSizes, null, precision, lambda, null, null, false, true);
+            assertEquals(expected.getLogLikelihood(), likelihood.getLogLikelihood(), 1E-8);
+        }
+    }
+
+    /**
+     * Proposes a move and accepts or rejects it as an MCMC would, evaluating the likelihood
+     * in between.
+     */
+    private void step(AbstractModelLikelihood likelihood, int i) {
+        likelihood.getLogLikelihood();
+        likelihood.storeModelState();
+
+        operate(operators[i % operators.length]);
+        likelihood.getLogLikelihood();
+
+        if (i % 3 == 0) {
+            likelihood.restoreModelState();
+        } else {
+            likelihood.acceptModelState();
+        }
+    }
+
+    private void operate(MCMCOperator operator) {
+        try {
+            operator.operate();
+        } catch (OperatorFailedException ofe) {
+            // the tree is unchanged
+        }
+        operator.accept(0.0);
+    }
+
+    /**
+     * @return a random tree with tips at a range of times (and some at the same time)
+     */
+    private static String randomTree() {
+        List<String> nodes = new ArrayList<String>();
+        List<Double> heights = new ArrayList<Double>();
+        for (int i = 0; i < TAXON_COUNT; i++) {
+            nodes.add("t" + i);
+            heights.add(i % 3 == 0 ? 0.0 : MathUtils.nextDouble());
+        }
+        while (nodes.size() > 1) {
+            final int i = MathUtils.nextInt(nodes.size());
+            final String child1 = nodes.remove(i);
+            final double height1 = heights.remove(i);
+            final int j = MathUtils.nextInt(nodes.size());
+            final String child2 = nodes.remove(j);
+            final double height2 = heights.remove(j);
+
+            final double height = Math.max(height1, height2) + MathUtils.nextDouble();
+            nodes.add("(" + child1 + ":" + (height - height1) + "," + child2 + ":" + (height - height2) + ")");
+            heights.add(height);
+        }
+        return nodes.get(0) + ";";
+    }
+
+    public static Test suite() {
+        return new TestSuite(CoalescentEventListTest.class);
+    }
+
+    private TreeModel treeModel;
+    private MCMCOperator[] operators;
+}
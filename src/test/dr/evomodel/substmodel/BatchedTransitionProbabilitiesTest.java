@@ -0,0 +1,134 @@
+/*
+ * BatchedTransitionProbabilitiesTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.substmodel;
+
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.datatype.TwoStateCovarion;
+import dr.evomodel.substmodel.BinaryCovarionModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.substmodel.SubstitutionModel;
+import dr.evomodel.substmodel.YangCodonModel;
+import dr.inference.model.Parameter;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the matrices for a batch of distances are the same as those
+ * calculated one at a time.
+ */
+public class BatchedTransitionProbabilitiesTest extends TestCase {
+
+    private static final double[] DISTANCES = {0.0, 0.01, 0.1, 0.1, 0.5, 2.0, 10.0};
+
+    public BatchedTransitionProbabilitiesTest(String name) {
+        super(name);
+    }
+
+    public void testHKY() {
+        double[] frequencies = {0.1, 0.2, 0.3, 0.4};
+        HKY hky = new HKY(5.0, new FrequencyModel(Nucleotides.INSTANCE, frequencies));
+        checkBatch(hky, 4);
+    }
+
+    public void testCodon() {
+        final int stateCount = Codons.UNIVERSAL.getStateCount();
+        double[] frequencies = new double[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = (i + 1.0) / (stateCount * (stateCount + 1) / 2.0);
+        }
+        YangCodonModel model = new YangCodonModel(Codons.UNIVERSAL, new Parameter.Default(0.2),
+                new Parameter.Default(2.0), new FrequencyModel(Codons.UNIVERSAL, frequencies));
+        checkBatch(model, stateCount);
+    }
+
+    public void testBeagleHKY() {
+        double[] frequencies = {0.1, 0.2, 0.3, 0.4};
+        dr.app.beagle.evomodel.substmodel.HKY hky = new dr.app.beagle.evomodel.substmodel.HKY(5.0,
+                new dr.app.beagle.evomodel.substmodel.FrequencyModel(Nucleotides.INSTANCE, frequencies));
+
+        final int matrixSize = 16;
+        double[] matrices = new double[DISTANCES.length * matrixSize];
+        hky.getTransitionProbabilities(DISTANCES, DISTANCES.length, matrices);
+
+        double[] matrix = new double[matrixSize];
+        for (int n = 0; n < DISTANCES.length; n++) {
+            hky.getTransitionProbabilities(DISTANCES[n], matrix);
+            for (int i = 0; i < matrixSize; i++) {
+                assertEquals(matrix[i], matrices[n * matrixSize + i], 0.0);
+            }
+        }
+    }
+
+    public void testCovarionRestore() {
+        Parameter switchingRate = new Parameter.Default(1.0);
+        BinaryCovarionModel model = new BinaryCovarionModel(TwoStateCovarion.INSTANCE,
+                new Parameter.Default(new double[]{0.4, 0.6}), new Parameter.Default(new double[]{0.3, 0.7}),
+                new Parameter.Default(0.2), switchingRate);
+        checkBatch(model, 4);
+
+        final int matrixSize = 16;
+        double[] expected = new double[DISTANCES.length * matrixSize];
+        model.getTransitionProbabilities(DISTANCES, DISTANCES.length, expected);
+
+        // the batches only set up the eigen system when it has changed, so the whole
+        // of it must be restored with a rejected move
+        model.storeModelState();
+        switchingRate.setParameterValue(0, 3.0);
+        double[] matrices = new double[DISTANCES.length * matrixSize];
+        model.getTransitionProbabilities(DISTANCES, DISTANCES.length, matrices);
+        assertFalse(matrices[matrixSize + 1] == expected[matrixSize + 1]);
+
+        model.restoreModelState();
+        model.getTransitionProbabilities(DISTANCES, DISTANCES.length, matrices);
+        for (int i = 0; i < matrices.length; i++) {
+            assertEquals(expected[i], matrices[i], 0.0);
+        }
+    }
+
+    private void checkBatch(SubstitutionModel model, int stateCount) {
+        final int matrixSize = stateCount * stateCount;
+
+        // the batch is smaller than the array
+        double[] matrices = new double[(DISTANCES.length + 1) * matrixSize];
+        matrices[matrices.length - 1] = -1.0;
+        model.getTransitionProbabilities(DISTANCES, DISTANCES.length, matrices);
+        assertEquals(-1.0, matrices[matrices.length - 1]);
+
+        double[] matrix = new double[matrixSize];
+        for (int n = 0; n < DISTANCES.length; n++) {
+            model.getTransitionProbabilities(DISTANCES[n], matrix);
+            double rowSum = 0.0;
+            for (int i = 0; i < matrixSize; i++) {
+                assertEquals(matrix[i], matrices[n * matrixSize + i], 0.0);
+                if (i < stateCount) {
+                    rowSum += matrix[i];
+                }
+            }
+            assertEquals(1.0, rowSum, 1E-10);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * TransitionMatrixCacheTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.substmodel;
+
+import dr.evolution.datatype.Codons;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.YangCodonModel;
+import dr.inference.model.Parameter;
+import junit.framework.TestCase;
+
+/**
+ * Tests that cached transition probability matrices are only reused for the rate
+ * matrix they were calculated from.
+ */
+public class TransitionMatrixCacheTest extends TestCase {
+
+    private static final double[] DISTANCES = {0.01, 0.1, 0.5, 1.0, 0.1};
+
+    public TransitionMatrixCacheTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        cachedOmega = new Parameter.Default(0.2);
+        cachedModel = createModel(cachedOmega);
+
+        uncachedOmega = new Parameter.Default(0.2);
+        uncachedModel = createModel(uncachedOmega);
+        uncachedModel.setTransitionMatrixCacheSize(0);
+    }
+
+    public void testHits() {
+        assertMatrices();
+        // the second 0.1 is a hit
+        assertEquals(1, cachedModel.getTransitionMatrixCacheHitCount());
+        assertEquals(DISTANCES.length - 1, cachedModel.getTransitionMatrixCacheMissCount());
+
+        assertMatrices();
+        assertEquals(DISTANCES.length + 1, cachedModel.getTransitionMatrixCacheHitCount());
+
+        assertEquals(0, uncachedModel.getTransitionMatrixCacheHitCount());
+        assertEquals(0, uncachedModel.getTransitionMatrixCacheMissCount());
+    }
+
+    public void testRateMatrixChange() {
+        assertMatrices();
+
+        cachedModel.storeModelState();
+        cachedOmega.setParameterValue(0, 0.5);
+        uncachedOmega.setParameterValue(0, 0.5);
+
+        final long hitCount = cachedModel.getTransitionMatrixCacheHitCount();
+        assertMatrices();
+        // only the repeated distance is a hit
+        assertEquals(hitCount + 1, cachedModel.getTransitionMatrixCacheHitCount());
+    }
+
+    public void testRestore() {
+        assertMatrices();
+
+        cachedModel.storeModelState();
+        cachedOmega.setParameterValue(0, 0.5);
+        double[] matrix = new double[cachedModel.getStateCount() * cachedModel.getStateCount()];
+        for (double distance : DISTANCES) {
+            cachedModel.getTransitionProbabilities(distance, matrix);
+        }
+
+        // the matrices from before the change are still cached
+        final long missCount = cachedModel.getTransitionMatrixCacheMissCount();
+        cachedModel.restoreModelState();
+        assertMatrices();
+        assertEquals(missCount, cachedModel.getTransitionMatrixCacheMissCount());
+    }
+
+    public void testBounded() {
+        cachedModel.setTransitionMatrixCacheSize(2);
+        double[] matrix = new double[cachedModel.getStateCount() * cachedModel.getStateCount()];
+
+        cachedModel.getTransitionProbabilities(0.1, matrix);
+        cachedModel.getTransitionProbabilities(0.2, matrix);
+        cachedModel.getTransitionProbabilities(0.1, matrix);
+        // evicts 0.2 which was used least recently
+        cachedModel.getTransitionProbabilities(0.3, matrix);
+        cachedModel.getTransitionProbabilities(0.1, matrix);
+        cachedModel.getTransitionProbabilities(0.2, matrix);
+
+        assertEquals(2, cachedModel.getTransitionMatrixCacheHitCount());
+        assertEquals(4, cachedModel.getTransitionMatrixCacheMissCount());
+        assertMatrices();
+    }
+
+    private YangCodonModel createModel(Parameter omega) {
+        final int stateCount = Codons.UNIVERSAL.getStateCount();
+        double[] frequencies = new double[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = (i + 1.0) / (stateCount * (stateCount + 1) / 2.0);
+        }
+
+        return new YangCodonModel(Codons.UNIVERSAL, omega, new Parameter.Default(2.0),
+                new FrequencyModel(Codons.UNIVERSAL, frequencies));
+    }
+
+    private void assertMatrices() {
+        final int stateCount = cachedModel.getStateCount();
+        double[] expected = new double[stateCount * stateCount];
+        double[] matrix = new double[stateCount * stateCount];
+        for (double distance : DISTANCES) {
+            uncachedModel.getTransitionProbabilities(distance, expected);
+            cachedModel.getTransitionProbabilities(distance, matrix);
+            for (int i = 0; i < matrix.length; i++) {
+                assertEquals(expected[i], matrix[i], 0.0);
+            }
+        }
+    }
+
+    private Parameter cachedOmega;
+    private Parameter uncachedOmega;
+    private YangCodonModel cachedModel;
+    private YangCodonModel uncachedModel;
+}
@@ -0,0 +1,141 @@
+/*
+ * TreeModelTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.tree;
+
+import dr.evolution.io.NewickImporter;
+import dr.evolution.tree.NodeRef;
+import dr.evolution.tree.Tree;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.operators.WilsonBalding;
+import dr.evomodel.tree.TreeModel;
+import dr.inference.model.Parameter;
+import dr.inference.operators.CoercionMode;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.OperatorFailedException;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+/**
+ * Tests that TreeModel restores its node structure after topology changes.
+ */
+public class TreeModelTest extends TestCase {
+
+    public TreeModelTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        NewickImporter importer = new NewickImporter(
+                "((((A:1.0,B:1.0):1.0,C:2.0):1.0,(D:1.5,F:1.5):1.5):1.0,(E:3.0,G:3.0):1.0);");
+        treeModel = new TreeModel("treeModel", importer.importTree(null));
+
+        operators = new MCMCOperator[]{
+                new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0),
+                new ExchangeOperator(ExchangeOperator.WIDE, treeModel, 1.0),
+                new SubtreeSlideOperator(treeModel, 1.0, 1.0, true, false, false, false, CoercionMode.COERCION_OFF),
+                new WilsonBalding(treeModel, 1.0)
+        };
+    }
+
+    public void testRestoreState() {
+        for (int i = 0; i < 2000; i++) {
+            final String before = Tree.Utils.newick(treeModel);
+            final Parameter rootHeight = getRootHeightParameter();
+
+            treeModel.storeModelState();
+            operate(operators[i % operators.length], false);
+            treeModel.restoreModelState();
+
+            assertEquals(before, Tree.Utils.newick(treeModel));
+            assertSame(rootHeight, getRootHeightParameter());
+            assertConsistent();
+
+            // accept every other proposal so the tree wanders
+            if (i % 2 == 0) {
+                treeModel.storeModelState();
+                operate(operators[i % operators.length], true);
+                treeModel.acceptModelState();
+                assertConsistent();
+            }
+        }
+    }
+
+    public void testRootParameterIsFixed() {
+        final Parameter rootHeight = getRootHeightParameter();
+        for (int i = 0; i < 1000; i++) {
+            treeModel.storeModelState();
+            operate(operators[i % operators.length], true);
+            treeModel.acceptModelState();
+
+            assertSame(rootHeight, getRootHeightParameter());
+        }
+    }
+
+    private void operate(MCMCOperator operator, boolean accept) {
+        try {
+            operator.operate();
+        } catch (OperatorFailedException ofe) {
+            // the tree is unchanged
+        }
+        if (accept) {
+            operator.accept(0.0);
+        } else {
+            operator.reject();
+        }
+    }
+
+    private Parameter getRootHeightParameter() {
+        return ((TreeModel.Node) treeModel.getRoot()).heightParameter;
+    }
+
+    private void assertConsistent() {
+        assertNull(treeModel.getParent(treeModel.getRoot()));
+
+        int count = 0;
+        for (int i = 0; i < treeModel.getNodeCount(); i++) {
+            final NodeRef node = treeModel.getNode(i);
+            assertEquals(i, node.getNumber());
+            if (node != treeModel.getRoot()) {
+                final NodeRef parent = treeModel.getParent(node);
+                assertTrue(treeModel.getChild(parent, 0) == node || treeModel.getChild(parent, 1) == node);
+                assertTrue(treeModel.getNodeHeight(parent) >= treeModel.getNodeHeight(node));
+            }
+            for (int j = 0; j < treeModel.getChildCount(node); j++) {
+                assertSame(node, treeModel.getParent(treeModel.getChild(node, j)));
+                count++;
+            }
+        }
+        assertEquals(treeModel.getNodeCount() - 1, count);
+    }
+
+    private TreeModel treeModel;
+    private MCMCOperator[] operators;
+}
@@ -0,0 +1,236 @@
+/*
+ * DynamicRescalingTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.treelikelihood;
+
+import dr.app.beagle.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.sitemodel.GammaSiteModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treelikelihood.GeneralLikelihoodCore;
+import dr.evomodel.treelikelihood.LikelihoodCore;
+import dr.evomodel.treelikelihood.NucleotideLikelihoodCore;
+import dr.evomodel.treelikelihood.ParallelLikelihoodCore;
+import dr.evomodel.treelikelihood.TreeLikelihood;
+import dr.evomodelxml.sitemodel.GammaSiteModelParser;
+import dr.evomodelxml.substmodel.HKYParser;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+/**
+ * Tests that reusing the scaling factors of the partials gives the same likelihoods as
+ * recomputing them, including across a store and restore.
+ */
+public class DynamicRescalingTest extends TraceCorrelationAssert {
+
+    private static final int STATE_COUNT = 4;
+    private static final int TIP_COUNT = 200;
+    private static final int NODE_COUNT = 2 * TIP_COUNT - 1;
+    private static final int PATTERN_COUNT = 100;
+    private static final int CATEGORY_COUNT = 4;
+
+    // the first internal node with a changed matrix
+    private static final int CHANGED_NODE = TIP_COUNT + 50;
+
+    public DynamicRescalingTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        matrices = new double[NODE_COUNT][STATE_COUNT * STATE_COUNT];
+        for (double[] matrix : matrices) {
+            for (int i = 0; i < matrix.length; i++) {
+                matrix[i] = MathUtils.nextDouble() * 0.1;
+            }
+        }
+
+        states = new int[TIP_COUNT][PATTERN_COUNT];
+        partials = new double[TIP_COUNT][PATTERN_COUNT * STATE_COUNT];
+        for (int i = 0; i < TIP_COUNT; i++) {
+            for (int k = 0; k < PATTERN_COUNT; k++) {
+                states[i][k] = MathUtils.nextInt(STATE_COUNT + 1);
+            }
+            for (int k = 0; k < partials[i].length; k++) {
+                partials[i][k] = MathUtils.nextDouble();
+            }
+        }
+    }
+
+    public void testGeneralLikelihoodCore() {
+        checkCore(new GeneralLikelihoodCore(STATE_COUNT));
+    }
+
+    public void testNucleotideLikelihoodCore() {
+        checkCore(new NucleotideLikelihoodCore());
+    }
+
+    public void testParallelLikelihoodCore() {
+        checkCore(new ParallelLikelihoodCore(STATE_COUNT, 2));
+    }
+
+    public void testTreeLikelihood() {
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        TreeModel treeModel = createPrimateTreeModel();
+
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        Parameter kappa = new Parameter.Default(HKYParser.KAPPA, 38.829740, 0, 100);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+
+        Parameter mu = new Parameter.Default(GammaSiteModelParser.MUTATION_RATE, 1.0, 0, Double.POSITIVE_INFINITY);
+        Parameter shape = new Parameter.Default(GammaSiteModelParser.GAMMA_SHAPE, 0.137064, 0, 1000.0);
+        GammaSiteModel siteModel = new GammaSiteModel(hky, mu, shape, 4, null);
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        TreeLikelihood treeLikelihood = new TreeLikelihood(patterns, treeModel, siteModel, null, null,
+                false, false, true, false, false, false, -1, false, PartialsRescalingScheme.DYNAMIC);
+        assertEquals(-1789.75936, treeLikelihood.getLogLikelihood(), 1E-4);
+
+        // kappa changes are evaluated with the scaling factors of the first evaluation
+        for (int i = 0; i < 10; i++) {
+            treeLikelihood.storeModelState();
+            kappa.setParameterValue(0, 30.0 + i);
+            treeLikelihood.getLogLikelihood();
+            kappa.setParameterValue(0, 38.829740);
+            treeLikelihood.restoreModelState();
+            assertEquals(-1789.75936, treeLikelihood.getLogLikelihood(), 1E-4);
+        }
+    }
+
+    private void checkCore(LikelihoodCore core) {
+        LikelihoodCore expected = new GeneralLikelihoodCore(STATE_COUNT);
+        setupCore(expected);
+        setupCore(core);
+
+        calculatePartials(expected, TIP_COUNT);
+        calculatePartials(core, TIP_COUNT);
+        final double logL = calculateLogLikelihood(core);
+        assertEquals(calculateLogLikelihood(expected), logL, Math.abs(logL) * 1E-10);
+
+        // change some matrices and reuse the existing scaling factors
+        for (int i = CHANGED_NODE; i < CHANGED_NODE + 5; i++) {
+            for (int j = 0; j < matrices[i].length; j++) {
+                matrices[i][j] *= 1.5;
+            }
+        }
+
+        core.storeState();
+        core.setRecomputeScaleFactors(false);
+        setMatrices(core);
+        calculatePartials(core, CHANGED_NODE + 1);
+        setMatrices(expected);
+        calculatePartials(expected, CHANGED_NODE + 1);
+
+        final double newLogL = calculateLogLikelihood(core);
+        assertEquals(calculateLogLikelihood(expected), newLogL, Math.abs(newLogL) * 1E-10);
+        assertFalse(Math.abs(newLogL - logL) < 1E-6);
+
+        // rejecting restores the partials and the factors used for them
+        core.restoreState();
+        assertEquals(logL, calculateLogLikelihood(core), Math.abs(logL) * 1E-12);
+
+        // and recomputing the factors agrees
+        core.storeState();
+        core.setRecomputeScaleFactors(true);
+        setMatrices(core);
+        calculatePartials(core, CHANGED_NODE + 1);
+        assertEquals(newLogL, calculateLogLikelihood(core), Math.abs(newLogL) * 1E-10);
+    }
+
+    /**
+     * Sets up a caterpillar tree where tip i + 1 joins the subtree of tips 0..i. Every
+     * other tip has partials rather than states.
+     */
+    private void setupCore(LikelihoodCore core) {
+        core.initialize(NODE_COUNT, PATTERN_COUNT, CATEGORY_COUNT, true);
+        core.setUseScaling(true);
+
+        for (int i = 0; i < TIP_COUNT; i++) {
+            if (i % 2 == 0) {
+                core.createNodeStates(i);
+                core.setNodeStates(i, states[i]);
+            } else {
+                core.createNodePartials(i);
+                core.setNodePartials(i, partials[i]);
+            }
+        }
+        for (int i = TIP_COUNT; i < NODE_COUNT; i++) {
+            core.createNodePartials(i);
+        }
+
+        setMatrices(core);
+    }
+
+    private void setMatrices(LikelihoodCore core) {
+        for (int i = 0; i < NODE_COUNT; i++) {
+            core.setNodeMatrixForUpdate(i);
+            for (int j = 0; j < CATEGORY_COUNT; j++) {
+                core.setNodeMatrix(i, j, matrices[i]);
+            }
+        }
+    }
+
+    private void calculatePartials(LikelihoodCore core, int fromNode) {
+        for (int i = fromNode; i < NODE_COUNT; i++) {
+            int child = (i == TIP_COUNT ? 0 : i - 1);
+            core.setNodePartialsForUpdate(i);
+            core.calculatePartials(child, i - TIP_COUNT + 1, i);
+        }
+    }
+
+    private double calculateLogLikelihood(LikelihoodCore core) {
+        double[] proportions = new double[CATEGORY_COUNT];
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            proportions[i] = 1.0 / CATEGORY_COUNT;
+        }
+        double[] frequencies = new double[STATE_COUNT];
+        for (int i = 0; i < STATE_COUNT; i++) {
+            frequencies[i] = 1.0 / STATE_COUNT;
+        }
+
+        double[] rootPartials = new double[PATTERN_COUNT * STATE_COUNT];
+        double[] logLikelihoods = new double[PATTERN_COUNT];
+        core.integratePartials(NODE_COUNT - 1, proportions, rootPartials);
+        core.calculateLogLikelihoods(rootPartials, frequencies, logLikelihoods);
+
+        double logL = 0.0;
+        for (int k = 0; k < PATTERN_COUNT; k++) {
+            logL += logLikelihoods[k];
+        }
+        return logL;
+    }
+
+    private double[][] matrices;
+    private int[][] states;
+    private double[][] partials;
+}
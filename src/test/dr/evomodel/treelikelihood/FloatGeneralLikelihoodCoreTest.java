@@ -0,0 +1,183 @@
+/*
+ * FloatGeneralLikelihoodCoreTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.treelikelihood;
+
+import dr.app.beagle.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.sitemodel.GammaSiteModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treelikelihood.FloatGeneralLikelihoodCore;
+import dr.evomodel.treelikelihood.GeneralLikelihoodCore;
+import dr.evomodel.treelikelihood.LikelihoodCore;
+import dr.evomodel.treelikelihood.TreeLikelihood;
+import dr.evomodelxml.sitemodel.GammaSiteModelParser;
+import dr.evomodelxml.substmodel.HKYParser;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+/**
+ * Tests the single precision likelihood core against the double precision one.
+ */
+public class FloatGeneralLikelihoodCoreTest extends TraceCorrelationAssert {
+
+    private static final int PATTERN_COUNT = 100;
+    private static final int CATEGORY_COUNT = 4;
+
+    public FloatGeneralLikelihoodCoreTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+    }
+
+    public void testNucleotides() {
+        checkCores(4, 10);
+    }
+
+    public void testAminoAcids() {
+        checkCores(20, 10);
+    }
+
+    public void testRescaling() {
+        // partials on a tree this deep are far below the smallest float
+        checkCores(4, 200);
+    }
+
+    public void testTreeLikelihood() {
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        TreeModel treeModel = createPrimateTreeModel();
+
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        Parameter kappa = new Parameter.Default(HKYParser.KAPPA, 38.829740, 0, 100);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+
+        Parameter mu = new Parameter.Default(GammaSiteModelParser.MUTATION_RATE, 1.0, 0, Double.POSITIVE_INFINITY);
+        Parameter shape = new Parameter.Default(GammaSiteModelParser.GAMMA_SHAPE, 0.137064, 0, 1000.0);
+        GammaSiteModel siteModel = new GammaSiteModel(hky, mu, shape, 4, null);
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        TreeLikelihood treeLikelihood = new TreeLikelihood(patterns, treeModel, siteModel, null, null,
+                false, false, true, true, false, false, -1, true, PartialsRescalingScheme.DEFAULT);
+        assertTrue(treeLikelihood.getLikelihoodCore() instanceof FloatGeneralLikelihoodCore);
+        assertEquals(-1789.75936, treeLikelihood.getLogLikelihood(), 1E-4);
+
+        // a full evaluation is checked in double precision, which agrees
+        treeLikelihood.makeDirty();
+        assertEquals(-1789.75936, treeLikelihood.getLogLikelihood(), 1E-4);
+        assertTrue(treeLikelihood.getLikelihoodCore() instanceof FloatGeneralLikelihoodCore);
+    }
+
+    /**
+     * Compares the cores on a caterpillar tree where tip i + 1 joins the subtree of tips
+     * 0..i. Every other tip has partials rather than states.
+     */
+    private void checkCores(int stateCount, int tipCount) {
+        final int nodeCount = 2 * tipCount - 1;
+
+        LikelihoodCore expected = new GeneralLikelihoodCore(stateCount);
+        LikelihoodCore core = new FloatGeneralLikelihoodCore(stateCount);
+
+        double[][] matrices = new double[nodeCount][stateCount * stateCount];
+        for (double[] matrix : matrices) {
+            for (int i = 0; i < matrix.length; i++) {
+                matrix[i] = MathUtils.nextDouble() * 0.1;
+            }
+        }
+
+        int[][] states = new int[tipCount][PATTERN_COUNT];
+        double[][] partials = new double[tipCount][PATTERN_COUNT * stateCount];
+        for (int i = 0; i < tipCount; i++) {
+            for (int k = 0; k < PATTERN_COUNT; k++) {
+                states[i][k] = MathUtils.nextInt(stateCount + 1);
+            }
+            for (int k = 0; k < partials[i].length; k++) {
+                partials[i][k] = MathUtils.nextDouble();
+            }
+        }
+
+        for (LikelihoodCore c : new LikelihoodCore[]{expected, core}) {
+            c.initialize(nodeCount, PATTERN_COUNT, CATEGORY_COUNT, true);
+            c.setUseScaling(true);
+
+            for (int i = 0; i < tipCount; i++) {
+                if (i % 2 == 0) {
+                    c.createNodeStates(i);
+                    c.setNodeStates(i, states[i]);
+                } else {
+                    c.createNodePartials(i);
+                    c.setNodePartials(i, partials[i]);
+                }
+            }
+            for (int i = tipCount; i < nodeCount; i++) {
+                c.createNodePartials(i);
+            }
+
+            for (int i = 0; i < nodeCount; i++) {
+                c.setNodeMatrixForUpdate(i);
+                for (int j = 0; j < CATEGORY_COUNT; j++) {
+                    c.setNodeMatrix(i, j, matrices[(i + j) % nodeCount]);
+                }
+            }
+
+            int child = 0;
+            for (int i = tipCount; i < nodeCount; i++) {
+                c.setNodePartialsForUpdate(i);
+                c.calculatePartials(child, i - tipCount + 1, i);
+                child = i;
+            }
+        }
+
+        double[] proportions = new double[CATEGORY_COUNT];
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            proportions[i] = 1.0 / CATEGORY_COUNT;
+        }
+        double[] frequencies = new double[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = 1.0 / stateCount;
+        }
+
+        double[] rootPartials = new double[PATTERN_COUNT * stateCount];
+        double[] expectedLogLikelihoods = new double[PATTERN_COUNT];
+        double[] logLikelihoods = new double[PATTERN_COUNT];
+
+        expected.integratePartials(nodeCount - 1, proportions, rootPartials);
+        expected.calculateLogLikelihoods(rootPartials, frequencies, expectedLogLikelihoods);
+        core.integratePartials(nodeCount - 1, proportions, rootPartials);
+        core.calculateLogLikelihoods(rootPartials, frequencies, logLikelihoods);
+
+        for (int k = 0; k < PATTERN_COUNT; k++) {
+            assertEquals(expectedLogLikelihoods[k], logLikelihoods[k], Math.abs(expectedLogLikelihoods[k]) * 1E-6);
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * ParallelLikelihoodCoreTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.treelikelihood;
+
+import dr.app.beagle.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.evolution.alignment.ConvertAlignment;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Codons;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.sitemodel.GammaSiteModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.substmodel.YangCodonModel;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treelikelihood.GeneralLikelihoodCore;
+import dr.evomodel.treelikelihood.LikelihoodCore;
+import dr.evomodel.treelikelihood.NucleotideLikelihoodCore;
+import dr.evomodel.treelikelihood.ParallelLikelihoodCore;
+import dr.evomodel.treelikelihood.TreeLikelihood;
+import dr.evomodelxml.sitemodel.GammaSiteModelParser;
+import dr.evomodelxml.substmodel.HKYParser;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+/**
+ * Tests that the parallel likelihood core gives the same partials as the standard Java cores.
+ */
+public class ParallelLikelihoodCoreTest extends TraceCorrelationAssert {
+
+    // enough patterns for several blocks
+    private static final int PATTERN_COUNT = 1000;
+    private static final int CATEGORY_COUNT = 4;
+    private static final int NODE_COUNT = 7;
+
+    public ParallelLikelihoodCoreTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+    }
+
+    public void testNucleotides() {
+        checkCores(new NucleotideLikelihoodCore(), new ParallelLikelihoodCore(4, 4), 4, false);
+    }
+
+    public void testAminoAcids() {
+        checkCores(new GeneralLikelihoodCore(20), new ParallelLikelihoodCore(20, 4), 20, false);
+    }
+
+    public void testCodons() {
+        checkCores(new GeneralLikelihoodCore(61), new ParallelLikelihoodCore(61, 4), 61, false);
+    }
+
+    public void testScaling() {
+        checkCores(new NucleotideLikelihoodCore(), new ParallelLikelihoodCore(4, 4), 4, true);
+        checkCores(new GeneralLikelihoodCore(20), new ParallelLikelihoodCore(20, 4), 20, true);
+    }
+
+    public void testSingleBlock() {
+        checkCores(new NucleotideLikelihoodCore(), new ParallelLikelihoodCore(4, 1), 4, true);
+    }
+
+    public void testMatrixMap() {
+        final int stateCount = 20;
+        LikelihoodCore expected = new GeneralLikelihoodCore(stateCount);
+        LikelihoodCore core = new ParallelLikelihoodCore(stateCount, 4);
+
+        int[] matrixMap = new int[PATTERN_COUNT];
+        for (int i = 0; i < PATTERN_COUNT; i++) {
+            matrixMap[i] = MathUtils.nextInt(CATEGORY_COUNT);
+        }
+
+        double[][] tips = createTips(stateCount, false);
+        for (LikelihoodCore c : new LikelihoodCore[]{expected, core}) {
+            c.initialize(NODE_COUNT, PATTERN_COUNT, CATEGORY_COUNT, false);
+            setTips(c, tips, stateCount);
+        }
+        double[][] matrices = createMatrices(stateCount);
+        for (int node = 0; node < NODE_COUNT - 1; node++) {
+            setMatrices(expected, node, matrices[node], stateCount);
+            setMatrices(core, node, matrices[node], stateCount);
+        }
+        for (LikelihoodCore c : new LikelihoodCore[]{expected, core}) {
+            c.calculatePartials(0, 1, 4, matrixMap);
+            c.calculatePartials(2, 3, 5, matrixMap);
+            c.calculatePartials(4, 5, 6, matrixMap);
+        }
+
+        assertPartials(expected, core, 6, PATTERN_COUNT * stateCount);
+    }
+
+    public void testTreeLikelihood() {
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        TreeModel treeModel = createPrimateTreeModel();
+
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        Parameter kappa = new Parameter.Default(HKYParser.KAPPA, 38.829740, 0, 100);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+
+        Parameter mu = new Parameter.Default(GammaSiteModelParser.MUTATION_RATE, 1.0, 0, Double.POSITIVE_INFINITY);
+        Parameter shape = new Parameter.Default(GammaSiteModelParser.GAMMA_SHAPE, 0.137064, 0, 1000.0);
+        GammaSiteModel siteModel = new GammaSiteModel(hky, mu, shape, 4, null);
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+
+        TreeLikelihood treeLikelihood = new TreeLikelihood(patterns, treeModel, siteModel, null, null,
+                false, false, true, true, false, true, 4, false, PartialsRescalingScheme.DEFAULT);
+        assertTrue(treeLikelihood.getLikelihoodCore() instanceof ParallelLikelihoodCore);
+
+        assertEquals(-1789.75936, treeLikelihood.getLogLikelihood(), 1E-5);
+    }
+
+    public void testCodonTreeLikelihood() {
+        // codon matrices are big enough to be calculated in parallel too
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        TreeModel treeModel = createPrimateTreeModel();
+
+        SitePatterns patterns = new SitePatterns(new ConvertAlignment(Codons.UNIVERSAL, alignment), null, 0, -1, 1, true);
+
+        final int stateCount = Codons.UNIVERSAL.getStateCount();
+        double[] frequencies = new double[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = (i + 1.0) / (stateCount * (stateCount + 1) / 2.0);
+        }
+        YangCodonModel codonModel = new YangCodonModel(Codons.UNIVERSAL, new Parameter.Default(0.2),
+                new Parameter.Default(2.0), new FrequencyModel(Codons.UNIVERSAL, frequencies));
+
+        Parameter mu = new Parameter.Default(GammaSiteModelParser.MUTATION_RATE, 1.0, 0, Double.POSITIVE_INFINITY);
+        Parameter shape = new Parameter.Default(GammaSiteModelParser.GAMMA_SHAPE, 0.5, 0, 1000.0);
+        GammaSiteModel siteModel = new GammaSiteModel(codonModel, mu, shape, 4, null);
+
+        TreeLikelihood expected = new TreeLikelihood(patterns, treeModel, siteModel, null, null,
+                false, false, true, true, false, false, -1, false, PartialsRescalingScheme.DEFAULT);
+        TreeLikelihood treeLikelihood = new TreeLikelihood(patterns, treeModel, siteModel, null, null,
+                false, false, true, true, false, true, 4, false, PartialsRescalingScheme.DEFAULT);
+        assertTrue(treeLikelihood.getLikelihoodCore() instanceof ParallelLikelihoodCore);
+
+        final double logL = expected.getLogLikelihood();
+        assertTrue(logL < 0.0 && !Double.isInfinite(logL));
+        assertEquals(logL, treeLikelihood.getLogLikelihood(), Math.abs(logL) * 1E-12);
+    }
+
+    private void checkCores(LikelihoodCore expected, LikelihoodCore core, int stateCount, boolean scale) {
+        final int partialsSize = PATTERN_COUNT * stateCount * CATEGORY_COUNT;
+
+        double[][] tips = createTips(stateCount, scale);
+        for (LikelihoodCore c : new LikelihoodCore[]{expected, core}) {
+            c.initialize(NODE_COUNT, PATTERN_COUNT, CATEGORY_COUNT, true);
+            setTips(c, tips, stateCount);
+            c.setUseScaling(scale);
+        }
+
+        double[][] matrices = createMatrices(stateCount);
+        for (int node = 0; node < NODE_COUNT - 1; node++) {
+            setMatrices(expected, node, matrices[node], stateCount);
+            setMatrices(core, node, matrices[node], stateCount);
+        }
+
+        // tips 0, 1 and 2 have states and tip 3 has partials
+        for (LikelihoodCore c : new LikelihoodCore[]{expected, core}) {
+            c.calculatePartials(0, 1, 4);
+            c.calculatePartials(3, 2, 5);
+            c.calculatePartials(4, 5, 6);
+        }
+        assertPartials(expected, core, 4, partialsSize);
+        assertPartials(expected, core, 5, partialsSize);
+        assertPartials(expected, core, 6, partialsSize);
+        assertLogLikelihoods(expected, core, stateCount);
+
+        double[] storedPartials = new double[partialsSize];
+        core.getPartials(6, storedPartials);
+
+        // a rejected change to the matrix of node 4 is restored
+        double[][] newMatrices = createMatrices(stateCount);
+        for (LikelihoodCore c : new LikelihoodCore[]{expected, core}) {
+            c.storeState();
+            c.setNodeMatrixForUpdate(4);
+            for (int i = 0; i < CATEGORY_COUNT; i++) {
+                c.setNodeMatrix(4, i, newMatrices[4]);
+            }
+            c.setNodePartialsForUpdate(6);
+            c.calculatePartials(4, 5, 6);
+        }
+        assertPartials(expected, core, 6, partialsSize);
+        assertLogLikelihoods(expected, core, stateCount);
+
+        core.restoreState();
+        double[] partials = new double[partialsSize];
+        core.getPartials(6, partials);
+        for (int i = 0; i < partialsSize; i++) {
+            assertEquals(storedPartials[i], partials[i], 0.0);
+        }
+    }
+
+    private double[][] createTips(int stateCount, boolean small) {
+        double[][] tips = new double[4][];
+        for (int i = 0; i < 3; i++) {
+            tips[i] = new double[PATTERN_COUNT];
+            for (int k = 0; k < PATTERN_COUNT; k++) {
+                // a state of stateCount is a gap
+                tips[i][k] = MathUtils.nextInt(stateCount + 1);
+            }
+        }
+        tips[3] = new double[PATTERN_COUNT * stateCount];
+        for (int k = 0; k < tips[3].length; k++) {
+            tips[3][k] = MathUtils.nextDouble() * (small ? 1E-150 : 1.0);
+        }
+        return tips;
+    }
+
+    private void setTips(LikelihoodCore core, double[][] tips, int stateCount) {
+        for (int i = 0; i < 3; i++) {
+            int[] states = new int[PATTERN_COUNT];
+            for (int k = 0; k < PATTERN_COUNT; k++) {
+                states[k] = (int) tips[i][k];
+            }
+            core.createNodeStates(i);
+            core.setNodeStates(i, states);
+        }
+        core.createNodePartials(3);
+        core.setNodePartials(3, tips[3]);
+        for (int i = 4; i < NODE_COUNT; i++) {
+            core.createNodePartials(i);
+        }
+    }
+
+    private double[][] createMatrices(int stateCount) {
+        double[][] matrices = new double[NODE_COUNT - 1][stateCount * stateCount];
+        for (double[] matrix : matrices) {
+            for (int i = 0; i < matrix.length; i++) {
+                matrix[i] = MathUtils.nextDouble();
+            }
+        }
+        return matrices;
+    }
+
+    private void setMatrices(LikelihoodCore core, int node, double[] matrix, int stateCount) {
+        core.setNodeMatrixForUpdate(node);
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            // a different matrix for each category
+            double[] categoryMatrix = new double[matrix.length];
+            for (int j = 0; j < matrix.length; j++) {
+                categoryMatrix[j] = matrix[(j + i * stateCount) % matrix.length];
+            }
+            core.setNodeMatrix(node, i, categoryMatrix);
+        }
+    }
+
+    private void assertPartials(LikelihoodCore expected, LikelihoodCore core, int node, int partialsSize) {
+        double[] expectedPartials = new double[partialsSize];
+        double[] partials = new double[partialsSize];
+        expected.getPartials(node, expectedPartials);
+        core.getPartials(node, partials);
+
+        for (int i = 0; i < partialsSize; i++) {
+            assertEquals(expectedPartials[i], partials[i], Math.abs(expectedPartials[i]) * 1E-12);
+        }
+    }
+
+    private void assertLogLikelihoods(LikelihoodCore expected, LikelihoodCore core, int stateCount) {
+        double[] proportions = new double[CATEGORY_COUNT];
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            proportions[i] = 1.0 / CATEGORY_COUNT;
+        }
+        double[] frequencies = new double[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            frequencies[i] = 1.0 / stateCount;
+        }
+
+        double[] expectedLogLikelihoods = new double[PATTERN_COUNT];
+        double[] logLikelihoods = new double[PATTERN_COUNT];
+        double[] rootPartials = new double[PATTERN_COUNT * stateCount];
+
+        expected.integratePartials(6, proportions, rootPartials);
+        expected.calculateLogLikelihoods(rootPartials, frequencies, expectedLogLikelihoods);
+        core.integratePartials(6, proportions, rootPartials);
+        core.calculateLogLikelihoods(rootPartials, frequencies, logLikelihoods);
+
+        for (int i = 0; i < PATTERN_COUNT; i++) {
+            assertEquals(expectedLogLikelihoods[i], logLikelihoods[i], 1E-10);
+        }
+    }
+}
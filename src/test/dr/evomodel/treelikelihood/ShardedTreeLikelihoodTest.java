@@ -0,0 +1,148 @@
+/*
+ * ShardedTreeLikelihoodTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.evomodel.treelikelihood;
+
+import dr.app.beagle.evomodel.treelikelihood.PartialsRescalingScheme;
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evolution.tree.NodeRef;
+import dr.evomodel.sitemodel.GammaSiteModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.tree.TreeModel;
+import dr.evomodel.treelikelihood.ShardedTreeLikelihood;
+import dr.evomodel.treelikelihood.TreeLikelihood;
+import dr.evomodelxml.sitemodel.GammaSiteModelParser;
+import dr.evomodelxml.substmodel.HKYParser;
+import dr.inference.model.Parameter;
+import dr.math.MathUtils;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+/**
+ * Tests that dividing the site patterns among shards gives the same likelihood as a
+ * single tree likelihood, including across a store and restore.
+ */
+public class ShardedTreeLikelihoodTest extends TraceCorrelationAssert {
+
+    public ShardedTreeLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        treeModel = createPrimateTreeModel();
+
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        kappa = new Parameter.Default(HKYParser.KAPPA, 38.829740, 0, 100);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+
+        Parameter mu = new Parameter.Default(GammaSiteModelParser.MUTATION_RATE, 1.0, 0, Double.POSITIVE_INFINITY);
+        Parameter shape = new Parameter.Default(GammaSiteModelParser.GAMMA_SHAPE, 0.137064, 0, 1000.0);
+        siteModel = new GammaSiteModel(hky, mu, shape, 4, null);
+
+        patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+    }
+
+    public void testShardedLikelihood() {
+        ShardedTreeLikelihood sharded = createShardedLikelihood(3, PartialsRescalingScheme.DEFAULT);
+
+        int patternCount = 0;
+        double weight = 0.0;
+        for (int i = 0; i < sharded.getShardCount(); i++) {
+            patternCount += sharded.getShard(i).getPatternCount();
+            for (double w : sharded.getShard(i).getPatternWeights()) {
+                weight += w;
+            }
+        }
+        assertEquals(patterns.getPatternCount(), patternCount);
+        assertEquals(alignment.getSiteCount(), weight, 1E-10);
+
+        assertEquals(-1789.75936, sharded.getLogLikelihood(), 1E-5);
+    }
+
+    public void testStoreRestore() {
+        checkStoreRestore(createShardedLikelihood(4, PartialsRescalingScheme.DEFAULT));
+    }
+
+    public void testDynamicRescaling() {
+        checkStoreRestore(createShardedLikelihood(2, PartialsRescalingScheme.DYNAMIC));
+    }
+
+    private void checkStoreRestore(ShardedTreeLikelihood sharded) {
+        TreeLikelihood expected = new TreeLikelihood(patterns, treeModel, siteModel, null, null,
+                false, false, true, true, false, false, -1, false, PartialsRescalingScheme.DEFAULT);
+
+        assertEquals(expected.getLogLikelihood(), sharded.getLogLikelihood(), 1E-8);
+
+        NodeRef node = treeModel.getNode(treeModel.getExternalNodeCount());
+        for (int i = 0; i < 20; i++) {
+            final double logL = sharded.getLogLikelihood();
+
+            sharded.storeModelState();
+            expected.storeModelState();
+
+            if (i % 2 == 0) {
+                kappa.setParameterValue(0, kappa.getParameterValue(0) * (0.5 + MathUtils.nextDouble()));
+            } else {
+                NodeRef parent = treeModel.getParent(node);
+                final double lower = Math.max(treeModel.getNodeHeight(treeModel.getChild(node, 0)),
+                        treeModel.getNodeHeight(treeModel.getChild(node, 1)));
+                final double upper = treeModel.getNodeHeight(parent);
+                treeModel.setNodeHeight(node, lower + (upper - lower) * MathUtils.nextDouble());
+            }
+            assertEquals(expected.getLogLikelihood(), sharded.getLogLikelihood(), 1E-8);
+
+            if (i % 3 == 0) {
+                sharded.acceptModelState();
+                expected.acceptModelState();
+            } else {
+                sharded.restoreModelState();
+                expected.restoreModelState();
+                assertEquals(logL, sharded.getLogLikelihood(), 1E-8);
+                assertEquals(expected.getLogLikelihood(), sharded.getLogLikelihood(), 1E-8);
+            }
+        }
+
+        // a full recalculation gives the same result
+        final double logL = sharded.getLogLikelihood();
+        sharded.makeDirty();
+        assertEquals(logL, sharded.getLogLikelihood(), 1E-8);
+    }
+
+    private ShardedTreeLikelihood createShardedLikelihood(int shardCount, PartialsRescalingScheme rescalingScheme) {
+        return new ShardedTreeLikelihood(patterns, treeModel, siteModel, null,
+                false, false, true, true, false, false, rescalingScheme, shardCount, 2);
+    }
+
+    private TreeModel treeModel;
+    private Parameter kappa;
+    private GammaSiteModel siteModel;
+    private SitePatterns patterns;
+}
@@ -0,0 +1,59 @@
+/*
+ * AllocationBenchmarkTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.mcmc;
+
+import dr.inference.mcmc.AllocationBenchmark;
+import junit.framework.TestCase;
+
+/**
+ * Checks that the MCMC inner loop of the allocation benchmark doesn't start allocating
+ * on every state again.
+ */
+public class AllocationBenchmarkTest extends TestCase {
+
+    private static final String BENCHMARK_FILE = "examples/release/Benchmarks/allocation_benchmark.xml";
+
+    // about 26 bytes per state are allocated at the moment (compared to about 450 before
+    // the inner loop was tidied up) so this leaves some room for the JIT and the tuning
+    private static final double MAXIMUM_BYTES_PER_STATE = 64.0;
+
+    public AllocationBenchmarkTest(String name) {
+        super(name);
+    }
+
+    public void testBytesPerState() throws Exception {
+        if (!AllocationBenchmark.isSupported()) {
+            System.out.println("Allocated memory can't be measured by this virtual machine: skipping");
+            return;
+        }
+
+        AllocationBenchmark benchmark = AllocationBenchmark.readBenchmark(BENCHMARK_FILE, 666);
+        final double bytesPerState = benchmark.getBytesPerState(AllocationBenchmark.DEFAULT_WARM_UP_COUNT, 50000);
+
+        assertTrue("Allocation has regressed: " + bytesPerState + " bytes allocated per state",
+                bytesPerState <= MAXIMUM_BYTES_PER_STATE);
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * MCMCCheckpointTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.mcmc;
+
+import dr.inference.distribution.DistributionLikelihood;
+import dr.inference.distribution.NormalDistributionModel;
+import dr.inference.loggers.BinaryLogFormatter;
+import dr.inference.loggers.Logger;
+import dr.inference.loggers.LogFormatter;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.mcmc.MCMC;
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.inference.operators.CoercionMode;
+import dr.inference.operators.MCMCOperator;
+import dr.inference.operators.RandomWalkOperator;
+import dr.inference.trace.BinaryLogFileTraces;
+import dr.math.MathUtils;
+import dr.xml.XMLParser;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.util.Collections;
+
+/**
+ * Tests that a chain resumed from a checkpoint continues from the state of the checkpoint
+ * and appends to its log, including the rows that a binary log holds back.
+ */
+public class MCMCCheckpointTest extends TestCase {
+
+    private static final int CHAIN_LENGTH = 1000;
+    private static final int LOG_EVERY = 10;
+    private static final int CHECKPOINT_EVERY = 300;
+
+    public MCMCCheckpointTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        logFile = File.createTempFile("checkpoint", ".blog");
+        checkpointFile = File.createTempFile("checkpoint", ".chkpt");
+        XMLParser.getLogFiles().add(logFile);
+
+        // the sampled parameter is the mean of the distribution so that it is part of
+        // the model that the chain stores and restores
+        x = new Parameter.Default("x", 0.5, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        final Parameter stdev = new Parameter.Default("stdev", 1.0, 0.0, Double.POSITIVE_INFINITY);
+        final DistributionLikelihood normal = new DistributionLikelihood(new NormalDistributionModel(x, stdev));
+        normal.addData(new Parameter.Default("data", 0.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY));
+        normal.setId("normal");
+        likelihood = new CompoundLikelihood(0, Collections.<Likelihood>singletonList(normal));
+        operator = new RandomWalkOperator(x, 1.0, RandomWalkOperator.BoundaryCondition.reflecting, 1.0,
+                CoercionMode.COERCION_OFF);
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+        XMLParser.getLogFiles().remove(logFile);
+        logFile.delete();
+        checkpointFile.delete();
+    }
+
+    public void testResumeChainState() throws Exception {
+        runChain(false, false);
+        final double value = x.getParameterValue(0);
+        final double logLikelihood = likelihood.getLogLikelihood();
+        final String expected = readLog();
+
+        // the last checkpoint was written at state 900 so the last 100 states are run again
+        x.setParameterValue(0, 0.5);
+        runChain(true, false);
+
+        assertEquals(value, x.getParameterValue(0));
+        assertEquals(logLikelihood, likelihood.getLogLikelihood());
+        assertEquals(expected, readLog());
+    }
+
+    public void testResumeBinaryLog() throws Exception {
+        runChain(false, true);
+
+        final BinaryLogFileTraces expected = new BinaryLogFileTraces("expected", logFile);
+        expected.loadTraces();
+        final int column = expected.getTraceIndex("x");
+        final int count = expected.getTrace(column).getCount();
+        assertEquals(CHAIN_LENGTH / LOG_EVERY + 1, count);
+
+        // the last checkpoint was written at state 900 when the log's last block
+        // (of 100 rows) was still being filled
+        runChain(true, true);
+
+        final BinaryLogFileTraces traces = new BinaryLogFileTraces("resumed", logFile);
+        traces.loadTraces();
+        assertEquals(count, traces.getTrace(column).getCount());
+        assertEquals(expected.getMaxState(), traces.getMaxState());
+        assertEquals(LOG_EVERY, traces.getStepSize());
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected.getTrace(column).getValue(i), traces.getTrace(column).getValue(i));
+        }
+    }
+
+    private void runChain(boolean resume, boolean binary) throws Exception {
+        final OutputStream stream = new FileOutputStream(logFile, resume);
+        final LogFormatter formatter = (binary ? new BinaryLogFormatter(stream) : new TabDelimitedFormatter(stream));
+
+        final MCLogger logger = new MCLogger(formatter, LOG_EVERY, false);
+        logger.add(x);
+
+        final MCMC mcmc = new MCMC(resume ? "resumed" : "mcmc");
+        mcmc.setShowOperatorAnalysis(false);
+        mcmc.setCheckpoint(checkpointFile, CHECKPOINT_EVERY, resume);
+        mcmc.init(CHAIN_LENGTH, likelihood, new MCMCOperator[]{operator}, new Logger[]{logger});
+        mcmc.run();
+
+        stream.close();
+    }
+
+    private String readLog() throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(logFile));
+        final StringBuilder text = new StringBuilder();
+        String line = reader.readLine();
+        while (line != null) {
+            text.append(line).append('\n');
+            line = reader.readLine();
+        }
+        reader.close();
+        return text.toString();
+    }
+
+    public static Test suite() {
+        return new TestSuite(MCMCCheckpointTest.class);
+    }
+
+    private File logFile;
+    private File checkpointFile;
+
+    private Parameter x;
+    private Likelihood likelihood;
+    private MCMCOperator operator;
+}
@@ -0,0 +1,176 @@
+/*
+ * PathSamplingParallelTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.mcmc;
+
+import dr.app.beast.BeastParser;
+import dr.inference.trace.LogFileIndex;
+import dr.inference.trace.PathSamplingAnalysis;
+import dr.math.MathUtils;
+import dr.xml.ObjectStore;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that path sampling run in parallel threads writes the same steps, in the same
+ * order, as the sequential integration and that the log can be analysed.
+ */
+public class PathSamplingParallelTest extends TestCase {
+
+    private static final int PATH_STEPS = 7;
+    private static final int CHAIN_LENGTH = 2000;
+    private static final int LOG_EVERY = 100;
+    private static final String MCMC_ID = "pathSamplingTest";
+
+    public PathSamplingParallelTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+        sequentialFile = File.createTempFile("pathSampling", ".log");
+        parallelFile = File.createTempFile("pathSampling", ".log");
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+        for (File file : new File[]{sequentialFile, parallelFile}) {
+            file.delete();
+            new File(file.getPath() + LogFileIndex.INDEX_FILE_SUFFIX).delete();
+        }
+        // written by the sampler at the end of its chain
+        new File(MCMC_ID + ".operators").delete();
+    }
+
+    public void testStepOrder() throws Exception {
+        final PathSamplingAnalysis sequential = run(sequentialFile, 1);
+        final PathSamplingAnalysis parallel = run(parallelFile, 3);
+
+        final List<String[]> expected = readColumns(sequentialFile);
+        final List<String[]> rows = readColumns(parallelFile);
+
+        // the path parameters include both ends of the path
+        assertEquals((PATH_STEPS + 1) * (CHAIN_LENGTH / LOG_EVERY), expected.size());
+        assertEquals(expected.size(), rows.size());
+
+        for (int i = 0; i < expected.size(); i++) {
+            // the state and the path parameter
+            assertEquals(expected.get(i)[0], rows.get(i)[0]);
+            assertEquals(expected.get(i)[1], rows.get(i)[1]);
+        }
+
+        assertFalse(Double.isNaN(sequential.getLogBayesFactor()));
+        assertFalse(Double.isNaN(parallel.getLogBayesFactor()));
+        assertFalse(Double.isInfinite(parallel.getLogBayesFactor()));
+    }
+
+    private PathSamplingAnalysis run(File logFile, int threads) throws Exception {
+        MathUtils.setSeed(666);
+
+        final BeastParser parser = new BeastParser(new String[]{}, null, false, false, true);
+        final ObjectStore store = parser.parse(new StringReader(getXML(logFile, threads)), true);
+        return (PathSamplingAnalysis) store.getObjectById("analysis");
+    }
+
+    /**
+     * @return the state and path parameter of each row of the log
+     */
+    private List<String[]> readColumns(File logFile) throws IOException {
+        final BufferedReader reader = new BufferedReader(new FileReader(logFile));
+        final List<String[]> rows = new ArrayList<String[]>();
+
+        String line = reader.readLine();
+        while (line != null && line.startsWith("#")) {
+            line = reader.readLine();
+        }
+        assertNotNull(line);
+
+        final List<String> labels = java.util.Arrays.asList(line.split("\t"));
+        final int theta = labels.indexOf("pathLikelihood.theta");
+        assertTrue(theta > 0);
+
+        line = reader.readLine();
+        while (line != null) {
+            final String[] values = line.split("\t");
+            rows.add(new String[]{values[0], values[theta]});
+            line = reader.readLine();
+        }
+        reader.close();
+        return rows;
+    }
+
+    private static String getXML(File logFile, int threads) {
+        return "<beast>\n" +
+                "  <distributionLikelihood id=\"samplingDensity\">\n" +
+                "    <distribution>\n" +
+                "      <normalDistributionModel>\n" +
+                "        <mean><parameter id=\"mu\" value=\"0\"/></mean>\n" +
+                "        <precision><parameter id=\"tau\" value=\"1\"/></precision>\n" +
+                "      </normalDistributionModel>\n" +
+                "    </distribution>\n" +
+                "    <data><parameter id=\"x\" value=\"5\"/></data>\n" +
+                "  </distributionLikelihood>\n" +
+                "  <normalPrior id=\"meanPrior\" mean=\"0\" stdev=\"1\"><parameter idref=\"mu\"/></normalPrior>\n" +
+                "  <operators id=\"operators\">\n" +
+                "    <randomWalkOperator windowSize=\"0.75\" weight=\"1\"><parameter idref=\"mu\"/></randomWalkOperator>\n" +
+                "  </operators>\n" +
+                "  <mcmc id=\"" + MCMC_ID + "\" chainLength=\"1000\" autoOptimize=\"true\">\n" +
+                "    <posterior id=\"posterior\">\n" +
+                "      <likelihood id=\"likelihood\"><distributionLikelihood idref=\"samplingDensity\"/></likelihood>\n" +
+                "      <prior id=\"prior\"><normalPrior idref=\"meanPrior\"/></prior>\n" +
+                "    </posterior>\n" +
+                "    <operators idref=\"operators\"/>\n" +
+                "    <log logEvery=\"1000000\"><parameter idref=\"mu\"/></log>\n" +
+                "  </mcmc>\n" +
+                "  <marginalLikelihoodEstimator chainLength=\"" + CHAIN_LENGTH + "\" pathSteps=\"" + PATH_STEPS +
+                "\" pathScheme=\"oneSidedBeta\" threads=\"" + threads + "\">\n" +
+                "    <samplers><mcmc idref=\"" + MCMC_ID + "\"/></samplers>\n" +
+                "    <pathLikelihood id=\"pathLikelihood\">\n" +
+                "      <source><posterior idref=\"posterior\"/></source>\n" +
+                "      <destination><prior idref=\"prior\"/></destination>\n" +
+                "    </pathLikelihood>\n" +
+                "    <log logEvery=\"" + LOG_EVERY + "\" fileName=\"" + logFile.getAbsolutePath() + "\" overwrite=\"true\">\n" +
+                "      <pathLikelihood idref=\"pathLikelihood\"/>\n" +
+                "    </log>\n" +
+                "  </marginalLikelihoodEstimator>\n" +
+                "  <pathSamplingAnalysis id=\"analysis\" fileName=\"" + logFile.getAbsolutePath() + "\">\n" +
+                "    <likelihoodColumn name=\"pathLikelihood.delta\"/>\n" +
+                "    <thetaColumn name=\"pathLikelihood.theta\"/>\n" +
+                "  </pathSamplingAnalysis>\n" +
+                "</beast>\n";
+    }
+
+    public static Test suite() {
+        return new TestSuite(PathSamplingParallelTest.class);
+    }
+
+    private File sequentialFile;
+    private File parallelFile;
+}
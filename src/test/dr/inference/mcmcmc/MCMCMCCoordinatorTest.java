@@ -0,0 +1,158 @@
+/*
+ * MCMCMCCoordinatorTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.mcmcmc;
+
+import dr.inference.distribution.DistributionLikelihood;
+import dr.inference.loggers.ArrayLogFormatter;
+import dr.inference.loggers.MCLogger;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.mcmcmc.MCMCMCCoordinator;
+import dr.inference.mcmcmc.MCMCMCOptions;
+import dr.inference.mcmcmc.MCMCMCWorker;
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.DefaultModel;
+import dr.inference.model.DummyLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.inference.operators.CoercionMode;
+import dr.inference.operators.OperatorSchedule;
+import dr.inference.operators.RandomWalkOperator;
+import dr.inference.operators.SimpleOperatorSchedule;
+import dr.inference.trace.Trace;
+import dr.math.MathUtils;
+import dr.math.distributions.NormalDistribution;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a multi-process MCMCMC with the coordinator and the workers as threads
+ * connected through sockets on the local host.
+ */
+public class MCMCMCCoordinatorTest extends TestCase {
+
+    private static final int CHAIN_LENGTH = 20000;
+    private static final int LOG_EVERY = 100;
+
+    public MCMCMCCoordinatorTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+    }
+
+    public void testCoordinatorAndWorkers() throws Exception {
+        double[] temperatures = new double[]{1.0, 0.5, 1.0 / 3.0, 0.25};
+
+        MCMCMCOptions options = new MCMCMCOptions();
+        options.setChainTemperatures(temperatures);
+        options.setSwapChainsEvery(50);
+
+        ArrayLogFormatter formatter = new ArrayLogFormatter(false);
+        ServerSocket serverSocket = new ServerSocket(0);
+        MCMCMCCoordinator coordinator = new MCMCMCCoordinator(createMCMC(formatter), options, serverSocket);
+        coordinator.setShowSwapAnalysis(false);
+
+        Thread[] workers = new Thread[temperatures.length];
+        for (int i = 0; i < workers.length; i++) {
+            MCMCMCWorker worker = new MCMCMCWorker(createMCMC(new ArrayLogFormatter(false)),
+                    "localhost", serverSocket.getLocalPort());
+            workers[i] = new Thread(worker);
+            workers[i].start();
+        }
+
+        coordinator.run();
+        serverSocket.close();
+
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // the cold chains between them logged every state once and in order
+        List<Trace> traces = formatter.getTraces();
+        assertEquals(2, traces.size());
+        Trace states = traces.get(0);
+        assertEquals(CHAIN_LENGTH / LOG_EVERY + 1, states.getCount());
+        for (int i = 0; i < states.getCount(); i++) {
+            assertEquals((double) (i * LOG_EVERY), states.getValue(i));
+        }
+
+        // the samples of x come from the cold chain, a standard normal
+        Trace x = traces.get(1);
+        double mean = 0.0;
+        for (int i = 0; i < x.getCount(); i++) {
+            mean += (Double) x.getValue(i);
+        }
+        mean /= x.getCount();
+        assertEquals(0.0, mean, 0.5);
+
+        // the pairs alternate so each pair is proposed in every other round
+        int rounds = (CHAIN_LENGTH / options.getSwapChainsEvery()) - 1;
+        for (int i = 0; i < temperatures.length - 1; i++) {
+            int expected = (i % 2 == 0) ? (rounds + 1) / 2 : rounds / 2;
+            assertEquals(expected, coordinator.getSwapAttemptCount(i));
+            assertTrue(coordinator.getSwapAcceptCount(i) > 0);
+            assertTrue(coordinator.getSwapAcceptCount(i) <= coordinator.getSwapAttemptCount(i));
+        }
+    }
+
+    private MCMC createMCMC(ArrayLogFormatter formatter) {
+        Parameter x = new Parameter.Default("x", 3.0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+        DistributionLikelihood likelihood = new DistributionLikelihood(new NormalDistribution(0.0, 1.0));
+        likelihood.addData(x);
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        likelihoods.add(likelihood);
+        // registers x with the chain so that it is stored and restored
+        likelihoods.add(new DummyLikelihood(new DefaultModel(x)));
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(new RandomWalkOperator(x, 1.0, RandomWalkOperator.BoundaryCondition.reflecting, 1.0,
+                CoercionMode.COERCION_OFF));
+
+        MCLogger logger = new MCLogger(formatter, LOG_EVERY, false);
+        logger.add(x);
+
+        MCMC mcmc = new MCMC("mcmc");
+        MCMCOptions options = new MCMCOptions();
+        options.setChainLength(CHAIN_LENGTH);
+        options.setUseCoercion(false);
+        mcmc.init(options, new CompoundLikelihood(0, likelihoods), schedule, new MCLogger[]{logger});
+        return mcmc;
+    }
+
+    public static Test suite() {
+        return new TestSuite(MCMCMCCoordinatorTest.class);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * CompoundLikelihoodTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.model;
+
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.ThreadedCompoundLikelihood;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the threaded evaluation of compound likelihoods.
+ */
+public class CompoundLikelihoodTest extends TestCase {
+
+    public CompoundLikelihoodTest(String name) {
+        super(name);
+    }
+
+    public void testThreadedSum() {
+        List<Likelihood> likelihoods = createLikelihoods(40);
+
+        CompoundLikelihood compoundLikelihood = new CompoundLikelihood(4, likelihoods);
+        assertEquals(4, compoundLikelihood.getThreadCount());
+
+        assertEquals(expectedSum(40), compoundLikelihood.getLogLikelihood(), 1E-10);
+        for (Likelihood likelihood : likelihoods) {
+            assertEquals(1, ((CountingLikelihood) likelihood).calculationCount);
+        }
+    }
+
+    public void testOnlyDirtyLikelihoodsRecalculated() {
+        List<Likelihood> likelihoods = createLikelihoods(10);
+
+        CompoundLikelihood compoundLikelihood = new CompoundLikelihood(4, likelihoods);
+        compoundLikelihood.getLogLikelihood();
+
+        likelihoods.get(3).makeDirty();
+        likelihoods.get(7).makeDirty();
+
+        assertEquals(expectedSum(10), compoundLikelihood.getLogLikelihood(), 1E-10);
+        for (int i = 0; i < likelihoods.size(); i++) {
+            int expected = (i == 3 || i == 7 ? 2 : 1);
+            assertEquals(expected, ((CountingLikelihood) likelihoods.get(i)).calculationCount);
+        }
+    }
+
+    public void testNestedCompoundLikelihoods() {
+        // nested compound likelihoods share the same pool and must not deadlock
+        List<Likelihood> outer = new ArrayList<Likelihood>();
+        for (int i = 0; i < 8; i++) {
+            outer.add(new CompoundLikelihood(2, createLikelihoods(10)));
+        }
+        CompoundLikelihood compoundLikelihood = new CompoundLikelihood(2, outer);
+
+        assertEquals(8 * expectedSum(10), compoundLikelihood.getLogLikelihood(), 1E-10);
+    }
+
+    public void testThreadedCompoundLikelihood() {
+        ThreadedCompoundLikelihood compoundLikelihood = new ThreadedCompoundLikelihood();
+        for (Likelihood likelihood : createLikelihoods(20)) {
+            compoundLikelihood.addLikelihood(likelihood);
+        }
+
+        assertEquals(expectedSum(20), compoundLikelihood.getLogLikelihood(), 1E-10);
+        compoundLikelihood.makeDirty();
+        assertEquals(expectedSum(20), compoundLikelihood.getLogLikelihood(), 1E-10);
+    }
+
+    private static List<Likelihood> createLikelihoods(int count) {
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        for (int i = 0; i < count; i++) {
+            likelihoods.add(new CountingLikelihood(-(i + 1)));
+        }
+        return likelihoods;
+    }
+
+    private static double expectedSum(int count) {
+        return -(count * (count + 1)) / 2.0;
+    }
+
+    private static class CountingLikelihood extends Likelihood.Abstract {
+
+        CountingLikelihood(double value) {
+            super(null);
+            this.value = value;
+        }
+
+        protected double calculateLogLikelihood() {
+            calculationCount++;
+            // a little work so that the threads overlap
+            double x = 0.0;
+            for (int i = 0; i < 10000; i++) {
+                x += Math.sin(i);
+            }
+            return value + (x - x);
+        }
+
+        private final double value;
+        private volatile int calculationCount = 0;
+    }
+}
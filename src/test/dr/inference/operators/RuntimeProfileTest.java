@@ -0,0 +1,138 @@
+/*
+ * RuntimeProfileTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.operators;
+
+import dr.evolution.alignment.SitePatterns;
+import dr.evolution.datatype.Nucleotides;
+import dr.evomodel.operators.ExchangeOperator;
+import dr.evomodel.operators.SubtreeSlideOperator;
+import dr.evomodel.sitemodel.GammaSiteModel;
+import dr.evomodel.substmodel.FrequencyModel;
+import dr.evomodel.substmodel.HKY;
+import dr.evomodel.treelikelihood.TreeLikelihood;
+import dr.evomodelxml.treelikelihood.TreeLikelihoodParser;
+import dr.inference.loggers.ArrayLogFormatter;
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.MCLogger;
+import dr.inference.mcmc.MCMC;
+import dr.inference.mcmc.MCMCOptions;
+import dr.inference.model.CompoundLikelihood;
+import dr.inference.model.Likelihood;
+import dr.inference.model.Parameter;
+import dr.inference.operators.*;
+import dr.math.MathUtils;
+import test.dr.inference.trace.TraceCorrelationAssert;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests the operator step timers and likelihood counts reported by RuntimeProfile
+ * and OperatorAnalysisPrinter.
+ */
+public class RuntimeProfileTest extends TraceCorrelationAssert {
+
+    public RuntimeProfileTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        MathUtils.setSeed(666);
+
+        createAlignment(PRIMATES_TAXON_SEQUENCE, Nucleotides.INSTANCE);
+        createRandomInitialTree(0.0001);
+    }
+
+    public void testRuntimeProfile() {
+        Parameter freqs = new Parameter.Default(alignment.getStateFrequencies());
+        Parameter kappa = new Parameter.Default("kappa", 1.0, 1.0E-8, Double.POSITIVE_INFINITY);
+        HKY hky = new HKY(kappa, new FrequencyModel(Nucleotides.INSTANCE, freqs));
+
+        SitePatterns patterns = new SitePatterns(alignment, null, 0, -1, 1, true);
+        TreeLikelihood treeLikelihood = new TreeLikelihood(patterns, treeModel, new GammaSiteModel(hky), null, null,
+                false, false, true, false, false);
+        treeLikelihood.setId(TreeLikelihoodParser.TREE_LIKELIHOOD);
+
+        List<Likelihood> likelihoods = new ArrayList<Likelihood>();
+        likelihoods.add(treeLikelihood);
+        CompoundLikelihood likelihood = new CompoundLikelihood(0, likelihoods);
+
+        OperatorSchedule schedule = new SimpleOperatorSchedule();
+        schedule.addOperator(new ScaleOperator(kappa, 0.5));
+        schedule.addOperator(new SubtreeSlideOperator(treeModel, 1, 1, true, false, false, false, CoercionMode.COERCION_OFF));
+        schedule.addOperator(new ExchangeOperator(ExchangeOperator.NARROW, treeModel, 1.0));
+
+        RuntimeProfile profile = new RuntimeProfile(schedule, likelihood);
+        ArrayLogFormatter formatter = new ArrayLogFormatter(false);
+        MCLogger logger = new MCLogger(formatter, 1000, false);
+        logger.add(profile);
+
+        MCMC mcmc = new MCMC("mcmc1");
+        MCMCOptions options = new MCMCOptions();
+        options.setChainLength(5000);
+        mcmc.init(options, likelihood, schedule, new MCLogger[]{logger});
+        mcmc.run();
+
+        for (int i = 0; i < schedule.getOperatorCount(); i++) {
+            MCMCOperator op = schedule.getOperator(i);
+            assertTrue(op.getCount() > 0);
+            assertTrue(op.getTotalTime(MCMCOperator.Step.OPERATE) > 0);
+            assertTrue(op.getTotalTime(MCMCOperator.Step.EVALUATE) > 0);
+            assertEquals(MCMCOperator.Utils.getTotalTime(op),
+                    op.getTotalTime(MCMCOperator.Step.STORE) + op.getTotalTime(MCMCOperator.Step.OPERATE) +
+                            op.getTotalTime(MCMCOperator.Step.EVALUATE) + op.getTotalTime(MCMCOperator.Step.RESTORE));
+        }
+
+        List<RuntimeProfile.Component> components = profile.getComponents();
+        assertEquals(1, components.size());
+        RuntimeProfile.Component component = components.get(0);
+        assertSame(treeLikelihood, component.getLikelihood());
+        assertTrue(component.isTreeLikelihood());
+        assertTrue(component.getEvaluationCount() > 0);
+        assertTrue(component.getFullTraversalCount() > 0);
+        assertTrue(component.getPartialTraversalCount() > 0);
+        // every evaluation which recalculated the likelihood traversed the tree
+        assertTrue(component.getFullTraversalCount() + component.getPartialTraversalCount()
+                <= component.getEvaluationCount());
+
+        LogColumn[] columns = profile.getColumns();
+        assertEquals(schedule.getOperatorCount() * MCMCOperator.Step.values().length + 4, columns.length);
+        assertEquals(TreeLikelihoodParser.TREE_LIKELIHOOD + ".fullTraversals", columns[columns.length - 2].getLabel());
+        // the state column and the profile's columns
+        assertEquals(columns.length + 1, formatter.getTraces().size());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new OperatorAnalysisPrinter(schedule, likelihood).showOperatorAnalysis(new PrintStream(bytes));
+        String report = bytes.toString();
+        assertTrue(report.contains("Operator timings"));
+        assertTrue(report.contains("Likelihood analysis"));
+        assertTrue(report.contains(TreeLikelihoodParser.TREE_LIKELIHOOD));
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * BinaryLogFileTracesTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.trace;
+
+import dr.app.tools.BinaryLogConverter;
+import dr.inference.loggers.BinaryLogFormatter;
+import dr.inference.loggers.BinaryLogReader;
+import dr.inference.loggers.LogColumn;
+import dr.inference.loggers.LogFormatter;
+import dr.inference.loggers.MCLogger;
+import dr.inference.loggers.NumberColumn;
+import dr.inference.loggers.TabDelimitedFormatter;
+import dr.inference.trace.AbstractLogFileTraces;
+import dr.inference.trace.BinaryLogFileTraces;
+import dr.inference.trace.LogFileTraces;
+import dr.inference.trace.TraceFactory;
+import junit.framework.TestCase;
+
+import java.io.*;
+
+/**
+ * Tests that the traces read from a binary log, or from a binary log converted to text,
+ * are the same as those read from the tab delimited log.
+ */
+public class BinaryLogFileTracesTest extends TestCase {
+
+    private static final int STATE_COUNT = 523;
+
+    public BinaryLogFileTracesTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        logFile = File.createTempFile("binary", ".log");
+        binaryFile = File.createTempFile("binary", ".blog");
+        convertedFile = File.createTempFile("converted", ".log");
+
+        writeLog(new TabDelimitedFormatter(new PrintWriter(new FileWriter(logFile))));
+
+        OutputStream stream = new FileOutputStream(binaryFile);
+        writeLog(new BinaryLogFormatter(stream, 100, Long.MAX_VALUE));
+        stream.close();
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+        logFile.delete();
+        binaryFile.delete();
+        convertedFile.delete();
+    }
+
+    public void testValues() throws Exception {
+        assertTrue(BinaryLogReader.isBinaryLog(binaryFile));
+        assertFalse(BinaryLogReader.isBinaryLog(logFile));
+
+        BinaryLogFileTraces traces = new BinaryLogFileTraces("binary", binaryFile);
+        traces.loadTraces();
+
+        LogFileTraces expected = loadTraces(logFile);
+        assertEquals(Integer.class, expected.getTrace(expected.getTraceIndex("count")).getTraceType());
+        assertEquals(String.class, expected.getTrace(expected.getTraceIndex("clade")).getTraceType());
+        assertSameValues(expected, traces);
+
+        // much smaller than the text
+        assertTrue(binaryFile.length() < logFile.length() / 2);
+    }
+
+    public void testConvert() throws Exception {
+        BinaryLogConverter.convert(binaryFile.getPath(), convertedFile.getPath());
+
+        BufferedReader reader = new BufferedReader(new FileReader(convertedFile));
+        assertEquals("# BEAST test log", reader.readLine());
+        assertEquals("# integer\tcount", reader.readLine());
+        assertEquals("# categorical\tclade", reader.readLine());
+        assertEquals("state\tposterior\tkappa\tcount\tclade\trate", reader.readLine());
+        reader.close();
+
+        assertSameValues(loadTraces(logFile), loadTraces(convertedFile));
+    }
+
+    public void testUnfinished() throws Exception {
+        // cut the log part way through a block as if the chain was still writing it
+        final byte[] bytes = new byte[(int) binaryFile.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(binaryFile));
+        in.readFully(bytes);
+        in.close();
+
+        OutputStream out = new FileOutputStream(binaryFile);
+        out.write(bytes, 0, bytes.length - 10);
+        out.close();
+
+        BinaryLogFileTraces traces = new BinaryLogFileTraces("binary", binaryFile);
+        traces.loadTraces();
+        assertEquals(500, traces.getTrace(0).getCount());
+        assertEquals(499000, traces.getMaxState());
+    }
+
+    public void testChangeType() throws Exception {
+        BinaryLogFileTraces traces = new BinaryLogFileTraces("binary", binaryFile);
+        traces.loadTraces();
+
+        final int count = traces.getTraceIndex("count");
+        traces.loadTraces(count, TraceFactory.TraceType.CATEGORY);
+        assertEquals(String.class, traces.getTrace(count).getTraceType());
+        assertEquals("3", traces.getTrace(count).getValue(3));
+        assertEquals(Double.class, traces.getTrace(0).getTraceType());
+    }
+
+    public void testNumberColumns() throws Exception {
+        // MCLogger passes the number columns to the binary formatter as numbers rather than strings
+        final MCLogger logger = new MCLogger(new TabDelimitedFormatter(new PrintWriter(new FileWriter(logFile))), 1000, false);
+        OutputStream stream = new FileOutputStream(binaryFile);
+        logger.addFormatter(new BinaryLogFormatter(stream, 100, Long.MAX_VALUE));
+        logger.setTitle("BEAST test log\ncategorical\tclade");
+        logger.addColumn(new NumberColumn("posterior") {
+            public double getDoubleValue() {
+                return -1000.0 - Math.sin(row);
+            }
+        });
+        logger.addColumn(new NumberColumn("count") {
+            public double getDoubleValue() {
+                return row % 5;
+            }
+        });
+        logger.addColumn(new LogColumn.Abstract("clade") {
+            protected String getFormattedValue() {
+                return row % 2 == 0 ? "A" : "B";
+            }
+        });
+        logger.addColumn(new NumberColumn("rate") {
+            public double getDoubleValue() {
+                return row < 100 ? 1.0 : (row == 250 ? Double.NaN : Math.exp(-row / 100.0));
+            }
+        });
+
+        logger.startLogging();
+        for (row = 0; row < STATE_COUNT; row++) {
+            logger.log(row * 1000);
+        }
+        logger.stopLogging();
+        stream.close();
+
+        BinaryLogFileTraces traces = new BinaryLogFileTraces("binary", binaryFile);
+        traces.loadTraces();
+        assertSameValues(loadTraces(logFile), traces);
+
+        BinaryLogConverter.convert(binaryFile.getPath(), convertedFile.getPath());
+        assertSameValues(loadTraces(logFile), loadTraces(convertedFile));
+    }
+
+    private LogFileTraces loadTraces(File file) throws Exception {
+        LogFileTraces traces = new LogFileTraces("log", file);
+        traces.loadTraces();
+        return traces;
+    }
+
+    private void assertSameValues(AbstractLogFileTraces expected, AbstractLogFileTraces traces) {
+        assertEquals(expected.getTraceCount(), traces.getTraceCount());
+        assertEquals(expected.getStepSize(), traces.getStepSize());
+        assertEquals(expected.getMaxState(), traces.getMaxState());
+        assertEquals(expected.getBurnIn(), traces.getBurnIn());
+        assertEquals(expected.getStateCount(), traces.getStateCount());
+
+        for (int i = 0; i < expected.getTraceCount(); i++) {
+            assertEquals(expected.getTraceName(i), traces.getTraceName(i));
+            assertEquals(expected.getTrace(i).getTraceType(), traces.getTrace(i).getTraceType());
+            assertEquals(expected.getTrace(i).getCount(), traces.getTrace(i).getCount());
+            for (int j = 0; j < expected.getTrace(i).getCount(); j++) {
+                assertEquals(expected.getTrace(i).getValue(j), traces.getTrace(i).getValue(j));
+            }
+        }
+    }
+
+    private static void writeLog(LogFormatter formatter) {
+        formatter.startLogging("test");
+        formatter.logHeading("BEAST test log\ninteger\tcount\ncategorical\tclade");
+        formatter.logLabels(new String[]{"state", "posterior", "kappa", "count", "clade", "rate"});
+        for (int i = 0; i < STATE_COUNT; i++) {
+            // the rate is a whole number in some blocks and NaN in one
+            final String rate = i < 100 ? "1" : (i == 250 ? "NaN" : Double.toString(Math.exp(-i / 100.0)));
+            formatter.logValues(new String[]{
+                    Integer.toString(i * 1000),
+                    Double.toString(-1000.0 - Math.sin(i)),
+                    Double.toString(2.0 + Math.cos(i) / 3.0),
+                    Integer.toString(i % 5),
+                    i % 2 == 0 ? "A" : "B",
+                    rate});
+        }
+        formatter.stopLogging();
+    }
+
+    private int row;
+    private File logFile;
+    private File binaryFile;
+    private File convertedFile;
+}
@@ -0,0 +1,233 @@
+/*
+ * MappedLogFileTracesTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.trace;
+
+import dr.inference.trace.AbstractLogFileTraces;
+import dr.inference.trace.LogFileIndex;
+import dr.inference.trace.LogFileTraces;
+import dr.inference.trace.MappedLogFileTraces;
+import dr.inference.trace.TraceException;
+import dr.inference.trace.TraceFactory;
+import junit.framework.TestCase;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Tests that the mapped log file traces give the same values as LogFileTraces.
+ */
+public class MappedLogFileTracesTest extends TestCase {
+
+    public MappedLogFileTracesTest(String name) {
+        super(name);
+    }
+
+    public void setUp() throws Exception {
+        super.setUp();
+
+        logFile = File.createTempFile("mapped", ".log");
+        indexFile = new File(logFile.getPath() + LogFileIndex.INDEX_FILE_SUFFIX);
+        writeLog(logFile, 0, 500, false, "\n");
+    }
+
+    public void tearDown() throws Exception {
+        super.tearDown();
+        logFile.delete();
+        indexFile.delete();
+    }
+
+    public void testValues() throws Exception {
+        MappedLogFileTraces traces = new MappedLogFileTraces("mapped", logFile);
+        traces.loadTraces();
+        assertTrue(indexFile.exists());
+
+        assertSameValues(loadTraces(logFile), traces);
+        traces.close();
+    }
+
+    public void testLineEnds() throws Exception {
+        writeLog(logFile, 0, 500, false, "\r\n");
+        MappedLogFileTraces traces = new MappedLogFileTraces("mapped", logFile);
+        traces.loadTraces();
+
+        assertSameValues(loadTraces(logFile), traces);
+        traces.close();
+    }
+
+    public void testSavedIndex() throws Exception {
+        new MappedLogFileTraces("mapped", logFile).loadTraces();
+        final long modified = indexFile.lastModified();
+
+        MappedLogFileTraces traces = new MappedLogFileTraces("mapped", logFile);
+        traces.loadTraces();
+        assertEquals(modified, indexFile.lastModified());
+        assertSameValues(loadTraces(logFile), traces);
+        traces.close();
+
+        // a different log with the same name makes a new index
+        writeLog(logFile, 0, 300, false, "\n");
+        traces = new MappedLogFileTraces("mapped", logFile);
+        traces.loadTraces();
+        assertSameValues(loadTraces(logFile), traces);
+        traces.close();
+    }
+
+    public void testUpdate() throws Exception {
+        MappedLogFileTraces traces = new MappedLogFileTraces("mapped", logFile);
+        traces.loadTraces();
+
+        // read one column before the log grows and leave the others until afterwards
+        final int kappa = traces.getTraceIndex("kappa");
+        traces.getTrace(kappa);
+
+        final byte[] index = readFile(indexFile);
+
+        writeLog(logFile, 500, 700, true, "\n");
+        assertEquals(200, traces.update());
+        assertEquals(0, traces.update());
+
+        // the offsets of the new lines are appended to the saved index
+        final byte[] newIndex = readFile(indexFile);
+        assertEquals(index.length + 200 * 8, newIndex.length);
+        for (int i = 0; i < index.length; i++) {
+            assertEquals(index[i], newIndex[i]);
+        }
+
+        // the burnin is kept when the log grows
+        LogFileTraces expected = loadTraces(logFile);
+        assertEquals(49900, traces.getBurnIn());
+        expected.setBurnIn(traces.getBurnIn());
+        assertSameValues(expected, traces);
+        traces.close();
+
+        // and the appended index is used when the log is opened again
+        final long modified = indexFile.lastModified();
+        traces = new MappedLogFileTraces("mapped", logFile);
+        traces.loadTraces();
+        assertEquals(modified, indexFile.lastModified());
+        assertSameValues(loadTraces(logFile), traces);
+        traces.close();
+    }
+
+    public void testChangeType() throws Exception {
+        MappedLogFileTraces traces = new MappedLogFileTraces("mapped", logFile);
+        traces.loadTraces();
+
+        final int count = traces.getTraceIndex("count");
+        assertEquals(Integer.class, traces.getTrace(count).getTraceType());
+
+        traces.loadTraces(count, TraceFactory.TraceType.CATEGORY);
+        assertEquals(String.class, traces.getTrace(count).getTraceType());
+        assertEquals("3", traces.getTrace(count).getValue(3));
+        traces.close();
+    }
+
+    public void testUnevenStates() throws Exception {
+        // two states are swapped in the middle of the log, the first, second and last states are still evenly spaced
+        writeLog(logFile, 0, 250, false, "\n");
+        writeLog(logFile, 251, 252, true, "\n");
+        writeLog(logFile, 250, 251, true, "\n");
+        writeLog(logFile, 252, 500, true, "\n");
+
+        try {
+            new MappedLogFileTraces("mapped", logFile).loadTraces();
+            fail("the uneven spacing should have been found");
+        } catch (TraceException te) {
+            assertEquals("State 251000 is not consistent with previous spacing (Line 255)", te.getMessage());
+        }
+
+        // and also when it is appended to a log that has been loaded, the swapped log has the same
+        // length so its saved index is removed first
+        indexFile.delete();
+        writeLog(logFile, 0, 500, false, "\n");
+        MappedLogFileTraces traces = new MappedLogFileTraces("mapped", logFile);
+        traces.loadTraces();
+        writeLog(logFile, 500, 600, true, "\n");
+        writeLog(logFile, 601, 602, true, "\n");
+        writeLog(logFile, 600, 601, true, "\n");
+        writeLog(logFile, 602, 700, true, "\n");
+        try {
+            traces.update();
+            fail("the uneven spacing should have been found");
+        } catch (TraceException te) {
+            assertEquals("State 601000 is not consistent with previous spacing (Line 605)", te.getMessage());
+        }
+        traces.close();
+    }
+
+    private LogFileTraces loadTraces(File file) throws Exception {
+        LogFileTraces traces = new LogFileTraces("log", file);
+        traces.loadTraces();
+        return traces;
+    }
+
+    private void assertSameValues(AbstractLogFileTraces expected, AbstractLogFileTraces traces) {
+        assertEquals(expected.getTraceCount(), traces.getTraceCount());
+        assertEquals(expected.getStepSize(), traces.getStepSize());
+        assertEquals(expected.getMaxState(), traces.getMaxState());
+        assertEquals(expected.getBurnIn(), traces.getBurnIn());
+        assertEquals(expected.getStateCount(), traces.getStateCount());
+
+        for (int i = 0; i < expected.getTraceCount(); i++) {
+            assertEquals(expected.getTraceName(i), traces.getTraceName(i));
+            assertEquals(expected.getTrace(i).getTraceType(), traces.getTrace(i).getTraceType());
+            assertEquals(expected.getTrace(i).getCount(), traces.getTrace(i).getCount());
+            for (int j = 0; j < expected.getTrace(i).getCount(); j++) {
+                assertEquals(expected.getTrace(i).getValue(j), traces.getTrace(i).getValue(j));
+            }
+        }
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        final byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        in.readFully(bytes);
+        in.close();
+        return bytes;
+    }
+
+    private static void writeLog(File file, int from, int to, boolean append, String lineEnd) throws IOException {
+        PrintWriter writer = new PrintWriter(new FileWriter(file, append));
+        if (!append) {
+            writer.print("# BEAST test log" + lineEnd);
+            writer.print("# integer\tcount" + lineEnd);
+            writer.print("# categorical\tclade" + lineEnd);
+            writer.print("state\tposterior\tkappa\tcount\tclade" + lineEnd);
+        }
+        for (int i = from; i < to; i++) {
+            writer.print((i * 1000) + "\t" + (-1000.0 - Math.sin(i)) + "\t" + (2.0 + Math.cos(i) / 3.0) + "\t" +
+                    (i % 5) + "\t" + (i % 2 == 0 ? "A" : "B") + lineEnd);
+        }
+        writer.close();
+    }
+
+    private File logFile;
+    private File indexFile;
+}
@@ -0,0 +1,106 @@
+/*
+ * PrimitiveTraceTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.trace;
+
+import dr.inference.trace.ContinuousTrace;
+import dr.inference.trace.DiscreteTrace;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceFactory;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+/**
+ * Tests that the primitive traces give the same values and statistics as the boxed ones.
+ */
+public class PrimitiveTraceTest extends TestCase {
+
+    public PrimitiveTraceTest(String name) {
+        super(name);
+    }
+
+    public void testContinuousTrace() {
+        MathUtils.setSeed(666);
+
+        // enough values to span several chunks
+        final int count = 10000;
+        ContinuousTrace trace = new ContinuousTrace("x", 10);
+        Double[] boxed = new Double[count];
+        double x = 0.0;
+        for (int i = 0; i < count; i++) {
+            x = 0.9 * x + MathUtils.nextGaussian();
+            trace.add(x);
+            boxed[i] = x;
+        }
+
+        assertEquals(count, trace.getCount());
+        for (int i = 0; i < count; i++) {
+            assertEquals(boxed[i], trace.getValue(i));
+        }
+
+        final int offset = 1000;
+        double[] values = trace.createDoubleValues(offset, count - offset);
+        Double[] boxedValues = new Double[count - offset];
+        System.arraycopy(boxed, offset, boxedValues, 0, count - offset);
+
+        TraceCorrelation primitive = new TraceCorrelation(values, TraceFactory.TraceType.CONTINUOUS, 10);
+        TraceCorrelation reference = new TraceCorrelation(boxedValues, 10);
+
+        assertEquals(reference.getMean(), primitive.getMean(), 1E-12);
+        assertEquals(reference.getStdErrorOfMean(), primitive.getStdErrorOfMean(), 1E-12);
+        assertEquals(reference.getESS(), primitive.getESS(), 1E-8);
+        assertEquals(reference.getLowerHPD(), primitive.getLowerHPD());
+        assertEquals(reference.getUpperHPD(), primitive.getUpperHPD());
+        assertEquals(reference.getMedian(), primitive.getMedian());
+    }
+
+    public void testDiscreteTrace() {
+        MathUtils.setSeed(666);
+
+        final int count = 5000;
+        DiscreteTrace trace = new DiscreteTrace("k", 0);
+        Integer[] boxed = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            int k = MathUtils.nextInt(5);
+            trace.add(k);
+            boxed[i] = k;
+        }
+
+        for (int i = 0; i < count; i++) {
+            assertEquals(boxed[i], trace.getValue(i));
+        }
+
+        TraceCorrelation primitive = new TraceCorrelation(trace.createDoubleValues(0, count),
+                TraceFactory.TraceType.INTEGER, 1);
+        TraceCorrelation reference = new TraceCorrelation(boxed, 1);
+
+        assertEquals(TraceFactory.TraceType.INTEGER, primitive.getTraceType());
+        assertEquals(reference.getMean(), primitive.getMean(), 1E-12);
+        assertEquals(reference.getESS(), primitive.getESS(), 1E-8);
+        assertEquals(reference.credSet.mode, primitive.credSet.mode);
+        assertEquals(reference.credSet.valuesMap, primitive.credSet.valuesMap);
+        assertEquals(reference.getValues().length, primitive.getValues().length);
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * TraceCorrelationTest.java
+ *
+ * Copyright (C) 2002-2009 Alexei Drummond and Andrew Rambaut
+ *
+ * This file is part of BEAST.
+ * See the NOTICE file distributed with this work for additional
+ * information regarding copyright ownership and licensing.
+ *
+ * BEAST is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2
+ * of the License, or (at your option) any later version.
+ *
+ * BEAST is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with BEAST; if not, write to the
+ * Free Software Foundation, Inc., 51 Franklin St, Fifth Floor,
+ * Boston, MA  02110-1301  USA
+ */
+
+package test.dr.inference.trace;
+
+import dr.inference.trace.ArrayTraceList;
+import dr.inference.trace.ContinuousTrace;
+import dr.inference.trace.Trace;
+import dr.inference.trace.TraceCorrelation;
+import dr.inference.trace.TraceFactory;
+import dr.math.MathUtils;
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the ESS of TraceCorrelation with the direct autocovariance estimator
+ * and reports the time taken by each.
+ */
+public class TraceCorrelationTest extends TestCase {
+
+    public TraceCorrelationTest(String name) {
+        super(name);
+    }
+
+    public void testWellMixedTrace() {
+        // stops at a short lag so only the direct sums are used
+        compareWithDirect(createAR1Trace(100000, 0.5), 10);
+    }
+
+    public void testCorrelatedTrace() {
+        // still correlated after many lags so the FFT is used
+        compareWithDirect(createAR1Trace(200000, 0.995), 10);
+    }
+
+    public void testAutoCovarianceFFT() {
+        double[] values = createAR1Trace(5000, 0.9);
+        double mean = mean(values);
+
+        double[] gammaStat = TraceCorrelation.getAutoCovarianceFFT(values, mean, 1000);
+        for (int lag = 0; lag < 1000; lag++) {
+            assertEquals(autoCovariance(values, mean, lag), gammaStat[lag], 1E-10);
+        }
+    }
+
+    public void testParallelAnalysis() {
+        List<Trace> traces = new ArrayList<Trace>();
+        double[] states = new double[20000];
+        for (int i = 0; i < states.length; i++) {
+            states[i] = i * 10;
+        }
+        traces.add(new ContinuousTrace("state", states));
+        for (int i = 0; i < 8; i++) {
+            traces.add(new ContinuousTrace("x" + i, createAR1Trace(states.length, 0.9 + i * 0.01)));
+        }
+
+        ArrayTraceList serial = new ArrayTraceList("serial", traces, 0);
+        for (int i = 0; i < serial.getTraceCount(); i++) {
+            serial.analyseTrace(i);
+        }
+
+        ArrayTraceList parallel = new ArrayTraceList("parallel", traces, 0);
+        parallel.analyseTraces(4);
+
+        for (int i = 1; i < serial.getTraceCount(); i++) {
+            assertEquals(serial.getCorrelationStatistics(i).getMean(), parallel.getCorrelationStatistics(i).getMean());
+            assertEquals(serial.getCorrelationStatistics(i).getESS(), parallel.getCorrelationStatistics(i).getESS());
+        }
+    }
+
+    private void compareWithDirect(double[] values, int stepSize) {
+        long startTime = System.nanoTime();
+        final double directESS = directESS(values, stepSize);
+        final double directSeconds = (System.nanoTime() - startTime) * 1E-9;
+
+        startTime = System.nanoTime();
+        TraceCorrelation correlation = new TraceCorrelation(values, TraceFactory.TraceType.CONTINUOUS, stepSize);
+        final double seconds = (System.nanoTime() - startTime) * 1E-9;
+
+        System.out.println("ESS of " + values.length + " samples: direct = " + directESS + " (" + directSeconds +
+                " sec), TraceCorrelation = " + correlation.getESS() + " (" + seconds + " sec)");
+
+        assertEquals(directESS, correlation.getESS(), directESS * 1E-8);
+    }
+
+    private static double[] createAR1Trace(int length, double phi) {
+        MathUtils.setSeed(666);
+
+        double[] values = new double[length];
+        double x = 0.0;
+        for (int i = 0; i < length; i++) {
+            x = phi * x + MathUtils.nextGaussian();
+            values[i] = x;
+        }
+        return values;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0.0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double autoCovariance(double[] values, double mean, int lag) {
+        double gamma = 0.0;
+        for (int j = 0; j < values.length - lag; j++) {
+            gamma += (values[j] - mean) * (values[j + lag] - mean);
+        }
+        return gamma / (values.length - lag);
+    }
+
+    /**
+     * The ESS computed with the direct sums up to the same stopping lag as TraceCorrelation.
+     */
+    private static double directESS(double[] values, int stepSize) {
+        final int samples = values.length;
+        final double mean = mean(values);
+        int maxLag = Math.min(samples - 1, 2000);
+
+        double[] gammaStat = new double[maxLag];
+        double varStat = 0.0;
+
+        for (int lag = 0; lag < maxLag; lag++) {
+            gammaStat[lag] = autoCovariance(values, mean, lag);
+
+            if (lag == 0) {
+                varStat = gammaStat[0];
+            } else if (lag % 2 == 0) {
+                if (gammaStat[lag - 1] + gammaStat[lag] > 0) {
+                    varStat += 2.0 * (gammaStat[lag - 1] + gammaStat[lag]);
+                } else {
+                    maxLag = lag;
+                }
+            }
+        }
+
+        final double ACT = stepSize * varStat / gammaStat[0];
+        return (stepSize * samples) / ACT;
+    }
+}